@@ -0,0 +1,101 @@
+package org.multibit.hd.core.coin_selection;
+
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.CoinSelector;
+
+import java.util.List;
+
+/**
+ * <p>Abstract base class to provide the following to coin selectors:</p>
+ * <ul>
+ * <li>Conversion of the wallet candidates into a SpendableOutputs view</li>
+ * <li>Handling of targets that cannot be met (including emptying the wallet)</li>
+ * <li>Common fee arithmetic</li>
+ * </ul>
+ *
+ * @since 0.3.0
+ */
+public abstract class AbstractCoinSelector implements CoinSelector {
+
+  /**
+   * The size of a pay to address change output
+   */
+  protected static final int CHANGE_OUTPUT_SIZE = 34;
+
+  protected final long feePerKb;
+
+  /**
+   * @param feePerKb The fee per kilobyte the transaction will pay
+   */
+  protected AbstractCoinSelector(Coin feePerKb) {
+    Preconditions.checkNotNull(feePerKb, "'feePerKb' must be present");
+    this.feePerKb = feePerKb.value;
+  }
+
+  @Override
+  public CoinSelection select(Coin target, List<TransactionOutput> candidates) {
+
+    SpendableOutputs spendableOutputs = SpendableOutputs.of(candidates);
+
+    long targetValue = target.value;
+    if (targetValue >= spendableOutputs.getTotalValue()) {
+      // Everything is needed (and emptying the wallet asks for the maximum money) so there is nothing to choose
+      return spendableOutputs.toCoinSelection();
+    }
+
+    int[] selected = new int[spendableOutputs.size()];
+    int count = select(spendableOutputs, targetValue, selected);
+
+    return spendableOutputs.toCoinSelection(selected, count);
+  }
+
+  /**
+   * @param spendableOutputs The spendable outputs (with a total value above the target)
+   * @param target           The value to reach in satoshis (including the fee already known to the wallet)
+   * @param selected         The array to receive the selected output indexes
+   *
+   * @return The number of indexes placed in the selected array
+   */
+  protected abstract int select(SpendableOutputs spendableOutputs, long target, int[] selected);
+
+  /**
+   * @param bytes The number of bytes
+   *
+   * @return The fee for the bytes in satoshis at the fee per kilobyte
+   */
+  protected long feeForBytes(long bytes) {
+    return feePerKb * bytes / 1000;
+  }
+
+  /**
+   * @param spendableOutputs The spendable outputs
+   * @param index            The output index
+   *
+   * @return The value of the output less the fee for spending it
+   */
+  protected long effectiveValue(SpendableOutputs spendableOutputs, int index) {
+    return spendableOutputs.getValue(index) - feeForBytes(spendableOutputs.getSpendSize(index));
+  }
+
+  /**
+   * <p>Add the largest outputs until the target is met</p>
+   *
+   * @return The number of indexes placed in the selected array
+   */
+  protected static int selectLargestFirst(SpendableOutputs spendableOutputs, long target, int[] selected) {
+
+    int[] byValue = spendableOutputs.getIndexesByValueDescending();
+
+    long total = 0;
+    int count = 0;
+    for (int i = 0; i < byValue.length && total < target; i++) {
+      selected[count++] = byValue[i];
+      total += spendableOutputs.getValue(byValue[i]);
+    }
+
+    return count;
+  }
+}
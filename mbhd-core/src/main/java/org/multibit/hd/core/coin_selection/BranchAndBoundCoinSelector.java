@@ -0,0 +1,134 @@
+package org.multibit.hd.core.coin_selection;
+
+import org.bitcoinj.core.Coin;
+import org.multibit.hd.core.wallet.TransactionSizeEstimator;
+
+/**
+ * <p>Coin selector to provide the following to the wallet:</p>
+ * <ul>
+ * <li>A depth first search for a set of outputs that meets the target with less excess than a change output costs</li>
+ * <li>Largest first selection when no such set is found within the search limit</li>
+ * </ul>
+ * <p>An exact match leaves no change output so the transaction is smaller and no new output is created for the
+ * wallet to spend later.</p>
+ *
+ * @since 0.3.0
+ */
+public class BranchAndBoundCoinSelector extends AbstractCoinSelector {
+
+  /**
+   * The largest number of search steps before falling back to largest first
+   */
+  static final int MAX_TRIES = 100_000;
+
+  /**
+   * @param feePerKb The fee per kilobyte the transaction will pay
+   */
+  public BranchAndBoundCoinSelector(Coin feePerKb) {
+    super(feePerKb);
+  }
+
+  @Override
+  protected int select(SpendableOutputs spendableOutputs, long target, int[] selected) {
+
+    int count = selectWithoutChange(spendableOutputs, target, selected);
+    if (count > 0) {
+      return count;
+    }
+
+    return selectLargestFirst(spendableOutputs, target, selected);
+  }
+
+  /**
+   * @return The number of indexes placed in the selected array (zero if no set was found)
+   */
+  protected int selectWithoutChange(SpendableOutputs spendableOutputs, long target, int[] selected) {
+
+    // Adding a change output now and spending it later
+    long costOfChange = feeForBytes(CHANGE_OUTPUT_SIZE + TransactionSizeEstimator.estimateSpendSize(null));
+    long upperBound = target + costOfChange;
+
+    int[] byValue = spendableOutputs.getIndexesByValueDescending();
+    int size = byValue.length;
+    long[] values = new long[size];
+    for (int i = 0; i < size; i++) {
+      values[i] = spendableOutputs.getValue(byValue[i]);
+    }
+
+    boolean[] included = new boolean[size];
+    boolean[] best = null;
+    long bestExcess = Long.MAX_VALUE;
+
+    // The value of the outputs not yet decided on
+    long available = spendableOutputs.getTotalValue();
+    long current = 0;
+    int depth = 0;
+
+    for (int tries = 0; tries < MAX_TRIES; tries++) {
+
+      boolean backtrack = false;
+      if (current + available < target || current > upperBound) {
+        // Cannot reach the target or already too far past it
+        backtrack = true;
+      } else if (current >= target) {
+        long excess = current - target;
+        if (excess < bestExcess) {
+          bestExcess = excess;
+          best = trim(included.clone(), depth);
+          if (excess == 0) {
+            break;
+          }
+        }
+        backtrack = true;
+      }
+
+      if (backtrack) {
+        // Walk back past the excluded outputs to the last included one
+        while (depth > 0 && !included[depth - 1]) {
+          depth--;
+          available += values[depth];
+        }
+        if (depth == 0) {
+          // Search complete
+          break;
+        }
+        // Try the branch without it
+        included[depth - 1] = false;
+        current -= values[depth - 1];
+      } else if (depth > 0 && values[depth] == values[depth - 1] && !included[depth - 1]) {
+        // Including an equal value to one just excluded repeats a branch already searched
+        included[depth] = false;
+        available -= values[depth];
+        depth++;
+      } else {
+        included[depth] = true;
+        current += values[depth];
+        available -= values[depth];
+        depth++;
+      }
+    }
+
+    if (best == null) {
+      return 0;
+    }
+
+    int count = 0;
+    for (int i = 0; i < best.length; i++) {
+      if (best[i]) {
+        selected[count++] = byValue[i];
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * @return The decisions with everything at or beyond the depth marked as excluded
+   */
+  private static boolean[] trim(boolean[] decisions, int depth) {
+    for (int i = depth; i < decisions.length; i++) {
+      decisions[i] = false;
+    }
+    return decisions;
+  }
+}
@@ -0,0 +1,85 @@
+package org.multibit.hd.core.coin_selection;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.wallet.CoinSelector;
+import org.bitcoinj.wallet.DefaultCoinSelector;
+
+/**
+ * <p>Enum to provide the following to the fee settings and BitcoinNetworkService:</p>
+ * <ul>
+ * <li>The choice of how outputs are selected to fund a send</li>
+ * <li>A coin selector for the choice</li>
+ * </ul>
+ *
+ * @since 0.3.0
+ */
+public enum CoinSelectionStrategy {
+
+  /**
+   * The Bitcoinj selection (oldest and largest first)
+   */
+  STANDARD {
+    @Override
+    public CoinSelector newCoinSelector(Coin feePerKb) {
+      return new DefaultCoinSelector();
+    }
+  },
+
+  /**
+   * Largest outputs first for the fewest inputs
+   */
+  LARGEST_FIRST {
+    @Override
+    public CoinSelector newCoinSelector(Coin feePerKb) {
+      return new LargestFirstCoinSelector(feePerKb);
+    }
+  },
+
+  /**
+   * Search for a set of outputs that avoids a change output
+   */
+  BRANCH_AND_BOUND {
+    @Override
+    public CoinSelector newCoinSelector(Coin feePerKb) {
+      return new BranchAndBoundCoinSelector(feePerKb);
+    }
+  },
+
+  /**
+   * Sweep up small outputs while fees are low
+   */
+  CONSOLIDATE {
+    @Override
+    public CoinSelector newCoinSelector(Coin feePerKb) {
+      return new ConsolidatingCoinSelector(feePerKb);
+    }
+  },
+
+  // End of enum
+  ;
+
+  /**
+   * @param feePerKb The fee per kilobyte the transaction will pay
+   *
+   * @return A new coin selector for this strategy
+   */
+  public abstract CoinSelector newCoinSelector(Coin feePerKb);
+
+  /**
+   * @param name The strategy name (e.g. from the configuration)
+   *
+   * @return The matching strategy, or STANDARD if the name is missing or not recognised
+   */
+  public static CoinSelectionStrategy fromName(String name) {
+
+    if (name != null) {
+      for (CoinSelectionStrategy strategy : values()) {
+        if (strategy.name().equalsIgnoreCase(name)) {
+          return strategy;
+        }
+      }
+    }
+
+    return STANDARD;
+  }
+}
@@ -0,0 +1,67 @@
+package org.multibit.hd.core.coin_selection;
+
+import org.bitcoinj.core.Coin;
+import org.multibit.hd.brit.core.services.FeeService;
+
+/**
+ * <p>Coin selector to provide the following to the wallet:</p>
+ * <ul>
+ * <li>Consolidation of small outputs into the change while fees are low</li>
+ * <li>Branch and bound selection while fees are normal or high</li>
+ * </ul>
+ * <p>Spending many small outputs at a low fee now saves spending them at a higher fee later.</p>
+ *
+ * @since 0.3.0
+ */
+public class ConsolidatingCoinSelector extends BranchAndBoundCoinSelector {
+
+  /**
+   * The fee per kilobyte at or below which outputs are consolidated (half way between the minimum and the default)
+   */
+  static final long LOW_FEE_PER_KB = (FeeService.MINIMUM_FEE_PER_KB.longValue() + FeeService.DEFAULT_FEE_PER_KB.longValue()) / 2;
+
+  /**
+   * The largest number of inputs to gather (keeps the transaction well within the standard size)
+   */
+  static final int MAX_INPUTS = 200;
+
+  /**
+   * @param feePerKb The fee per kilobyte the transaction will pay
+   */
+  public ConsolidatingCoinSelector(Coin feePerKb) {
+    super(feePerKb);
+  }
+
+  /**
+   * @return True if the fee per kilobyte is low enough to consolidate
+   */
+  public boolean isConsolidating() {
+    return feePerKb <= LOW_FEE_PER_KB;
+  }
+
+  @Override
+  protected int select(SpendableOutputs spendableOutputs, long target, int[] selected) {
+
+    if (!isConsolidating()) {
+      return super.select(spendableOutputs, target, selected);
+    }
+
+    // Cover the target with as few inputs as possible
+    int count = selectLargestFirst(spendableOutputs, target, selected);
+
+    // Then sweep up the smallest outputs that are still worth more than the fee to spend them
+    boolean[] taken = new boolean[spendableOutputs.size()];
+    for (int i = 0; i < count; i++) {
+      taken[selected[i]] = true;
+    }
+    int[] byValue = spendableOutputs.getIndexesByValueAscending();
+    for (int i = 0; i < byValue.length && count < MAX_INPUTS; i++) {
+      int index = byValue[i];
+      if (!taken[index] && effectiveValue(spendableOutputs, index) > 0) {
+        selected[count++] = index;
+      }
+    }
+
+    return count;
+  }
+}
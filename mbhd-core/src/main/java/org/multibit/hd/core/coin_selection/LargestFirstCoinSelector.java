@@ -0,0 +1,26 @@
+package org.multibit.hd.core.coin_selection;
+
+import org.bitcoinj.core.Coin;
+
+/**
+ * <p>Coin selector to provide the following to the wallet:</p>
+ * <ul>
+ * <li>Selection of the largest outputs first, giving the fewest inputs and so the smallest transaction</li>
+ * </ul>
+ *
+ * @since 0.3.0
+ */
+public class LargestFirstCoinSelector extends AbstractCoinSelector {
+
+  /**
+   * @param feePerKb The fee per kilobyte the transaction will pay
+   */
+  public LargestFirstCoinSelector(Coin feePerKb) {
+    super(feePerKb);
+  }
+
+  @Override
+  protected int select(SpendableOutputs spendableOutputs, long target, int[] selected) {
+    return selectLargestFirst(spendableOutputs, target, selected);
+  }
+}
@@ -0,0 +1,190 @@
+package org.multibit.hd.core.coin_selection;
+
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.DefaultCoinSelector;
+import org.multibit.hd.core.wallet.TransactionSizeEstimator;
+
+import java.util.List;
+
+/**
+ * <p>View to provide the following to coin selectors:</p>
+ * <ul>
+ * <li>The values and spend sizes of the selectable outputs as primitive arrays</li>
+ * <li>Orderings of the outputs by value</li>
+ * <li>Conversion of a selection back to a Bitcoinj CoinSelection</li>
+ * </ul>
+ * <p>Selectors work on array indexes so searching thousands of outputs allocates nothing per step.</p>
+ *
+ * @since 0.3.0
+ */
+public class SpendableOutputs {
+
+  private final TransactionOutput[] outputs;
+
+  private final long[] values;
+
+  private final int[] spendSizes;
+
+  private final long totalValue;
+
+  private SpendableOutputs(TransactionOutput[] outputs, long[] values, int[] spendSizes, long totalValue) {
+    this.outputs = outputs;
+    this.values = values;
+    this.spendSizes = spendSizes;
+    this.totalValue = totalValue;
+  }
+
+  /**
+   * @param candidates The candidate outputs provided by the wallet
+   *
+   * @return The outputs that the standard Bitcoinj selector would also consider (confirmed or our own pending)
+   */
+  public static SpendableOutputs of(List<TransactionOutput> candidates) {
+
+    List<TransactionOutput> selectable = Lists.newArrayListWithCapacity(candidates.size());
+    for (TransactionOutput candidate : candidates) {
+      if (candidate.getValue().signum() > 0 && DefaultCoinSelector.isSelectable(candidate.getParentTransaction())) {
+        selectable.add(candidate);
+      }
+    }
+
+    int size = selectable.size();
+    TransactionOutput[] outputs = selectable.toArray(new TransactionOutput[size]);
+    long[] values = new long[size];
+    int[] spendSizes = new int[size];
+    long totalValue = 0;
+    for (int i = 0; i < size; i++) {
+      values[i] = outputs[i].getValue().value;
+      spendSizes[i] = TransactionSizeEstimator.estimateSpendSize(outputs[i]);
+      totalValue += values[i];
+    }
+
+    return new SpendableOutputs(outputs, values, spendSizes, totalValue);
+  }
+
+  /**
+   * @return The number of selectable outputs
+   */
+  public int size() {
+    return values.length;
+  }
+
+  /**
+   * @param index The output index
+   *
+   * @return The value in satoshis
+   */
+  public long getValue(int index) {
+    return values[index];
+  }
+
+  /**
+   * @param index The output index
+   *
+   * @return The size of an input spending the output
+   */
+  public int getSpendSize(int index) {
+    return spendSizes[index];
+  }
+
+  /**
+   * @return The total value of the selectable outputs in satoshis
+   */
+  public long getTotalValue() {
+    return totalValue;
+  }
+
+  /**
+   * @return The output indexes ordered from the largest value to the smallest
+   */
+  public int[] getIndexesByValueDescending() {
+
+    int[] indexes = getIndexesByValueAscending();
+
+    // Reverse in place
+    for (int i = 0, j = indexes.length - 1; i < j; i++, j--) {
+      int swap = indexes[i];
+      indexes[i] = indexes[j];
+      indexes[j] = swap;
+    }
+
+    return indexes;
+  }
+
+  /**
+   * @return The output indexes ordered from the smallest value to the largest
+   */
+  public int[] getIndexesByValueAscending() {
+
+    int[] indexes = new int[values.length];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = i;
+    }
+
+    mergeSort(indexes, new int[indexes.length], 0, indexes.length);
+
+    return indexes;
+  }
+
+  /**
+   * @param selected The selected output indexes
+   * @param count    The number of selected indexes to use from the start of the array
+   *
+   * @return The selection as a Bitcoinj CoinSelection
+   */
+  public CoinSelection toCoinSelection(int[] selected, int count) {
+
+    List<TransactionOutput> gathered = Lists.newArrayListWithCapacity(count);
+    long valueGathered = 0;
+    for (int i = 0; i < count; i++) {
+      gathered.add(outputs[selected[i]]);
+      valueGathered += values[selected[i]];
+    }
+
+    return new CoinSelection(Coin.valueOf(valueGathered), gathered);
+  }
+
+  /**
+   * @return Every selectable output as a Bitcoinj CoinSelection
+   */
+  public CoinSelection toCoinSelection() {
+
+    List<TransactionOutput> gathered = Lists.newArrayList(outputs);
+
+    return new CoinSelection(Coin.valueOf(totalValue), gathered);
+  }
+
+  /**
+   * <p>Stable sort of the indexes by ascending value (equal values keep the wallet's order)</p>
+   */
+  private void mergeSort(int[] indexes, int[] scratch, int from, int to) {
+
+    if (to - from < 2) {
+      return;
+    }
+
+    int middle = (from + to) >>> 1;
+    mergeSort(indexes, scratch, from, middle);
+    mergeSort(indexes, scratch, middle, to);
+
+    if (values[indexes[middle - 1]] <= values[indexes[middle]]) {
+      // Already in order
+      return;
+    }
+
+    System.arraycopy(indexes, from, scratch, from, to - from);
+    int left = from;
+    int right = middle;
+    for (int i = from; i < to; i++) {
+      if (right >= to || (left < middle && values[scratch[left]] <= values[scratch[right]])) {
+        indexes[i] = scratch[left++];
+      } else {
+        indexes[i] = scratch[right++];
+      }
+    }
+
+  }
+}
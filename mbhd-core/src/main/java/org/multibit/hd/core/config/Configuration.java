@@ -53,6 +53,11 @@ public class Configuration {
    */
   private boolean showRestoreBeta7Wallets = false;
 
+  /**
+   * True if core events should be delivered by the ring buffer dispatcher rather than the Guava event bus
+   */
+  private boolean ringBufferEvents = false;
+
   ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   /**
@@ -215,6 +220,17 @@ public class Configuration {
     this.showRestoreBeta7Wallets = showRestoreBeta7Wallets;
   }
 
+  /**
+   * @return True if core events should be delivered by the ring buffer dispatcher
+   */
+  public boolean isRingBufferEvents() {
+    return ringBufferEvents;
+  }
+
+  public void setRingBufferEvents(boolean ringBufferEvents) {
+    this.ringBufferEvents = ringBufferEvents;
+  }
+
   /**
    * @return A deep copy of this configuration
    */
@@ -244,6 +260,7 @@ public class Configuration {
     configuration.setTor(isTor());
     configuration.setTrezor(isTrezor());
     configuration.setShowRestoreBeta7Wallets(isShowRestoreBeta7Wallets());
+    configuration.setRingBufferEvents(isRingBufferEvents());
 
     // Unknown properties
     for (Map.Entry<String, Object> entry : any().entrySet()) {
@@ -37,6 +37,11 @@ public class WalletConfiguration {
    */
   private long feePerKB = FeeService.DEFAULT_FEE_PER_KB.longValue();
 
+  /**
+   * The name of the coin selection strategy to use in spends (see CoinSelectionStrategy)
+   */
+  private String coinSelectionStrategy = "STANDARD";
+
   ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   /**
@@ -97,6 +102,14 @@ public class WalletConfiguration {
     this.feePerKB = feePerKB;
   }
 
+  public String getCoinSelectionStrategy() {
+    return coinSelectionStrategy;
+  }
+
+  public void setCoinSelectionStrategy(String coinSelectionStrategy) {
+    this.coinSelectionStrategy = coinSelectionStrategy;
+  }
+
   /**
    * @return A deep copy of this object
    */
@@ -114,6 +127,7 @@ public class WalletConfiguration {
     configuration.setRecentWalletDataValidity(getRecentWalletDataValidity());
     configuration.setRecentWalletLabel(getRecentWalletLabel());
     configuration.setFeePerKB(getFeePerKB());
+    configuration.setCoinSelectionStrategy(getCoinSelectionStrategy());
 
     return configuration;
   }
@@ -0,0 +1,182 @@
+package org.multibit.hd.core.crypto;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.bitcoinj.wallet.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Cache to provide the following to EncryptedFileReaderWriter and WalletManager:</p>
+ * <ul>
+ * <li>Scrypt derived AES keys so that a wallet session pays for each derivation once</li>
+ * </ul>
+ * <p>Entries are keyed by an HMAC fingerprint of the password (using a secret that only exists for the
+ * lifetime of the process) together with the salt and scrypt parameters. The cache is bounded, entries expire
+ * if not used and the key bytes are wiped when they leave the cache. Callers always receive a copy of the key, taken
+ * under the same lock as the wipe so that a concurrent clear or eviction cannot hand out a wiped key.</p>
+ * <p>The cache must be cleared when the wallet is closed.</p>
+ *
+ * @since 0.3.0
+ */
+public class DerivedKeyCache {
+
+  private static final Logger log = LoggerFactory.getLogger(DerivedKeyCache.class);
+
+  /**
+   * The maximum number of derived keys held (current password, old/new passwords during a change etc)
+   */
+  private static final int MAXIMUM_SIZE = 8;
+
+  /**
+   * The time a derived key is kept without being used
+   */
+  private static final int EXPIRE_AFTER_ACCESS_MINUTES = 15;
+
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+  /**
+   * The secret used to fingerprint passwords - never persisted
+   */
+  private static final byte[] fingerprintSecret = new byte[32];
+
+  static {
+    new SecureRandom().nextBytes(fingerprintSecret);
+  }
+
+  /**
+   * Held while a cached key is copied or wiped
+   */
+  private static final Object keyLock = new Object();
+
+  private static final Cache<String, KeyParameter> cache = CacheBuilder
+    .newBuilder()
+    .maximumSize(MAXIMUM_SIZE)
+    .expireAfterAccess(EXPIRE_AFTER_ACCESS_MINUTES, TimeUnit.MINUTES)
+    .removalListener(new RemovalListener<String, KeyParameter>() {
+      @Override
+      public void onRemoval(RemovalNotification<String, KeyParameter> notification) {
+        // Wipe the cached copy of the key (callers hold their own copies)
+        KeyParameter keyParameter = notification.getValue();
+        if (keyParameter != null) {
+          synchronized (keyLock) {
+            Arrays.fill(keyParameter.getKey(), (byte) 0);
+          }
+        }
+      }
+    })
+    .build();
+
+  /**
+   * Utilities have private constructors
+   */
+  private DerivedKeyCache() {
+  }
+
+  /**
+   * @param password The password
+   * @param salt     The scrypt salt (default scrypt parameters are used)
+   *
+   * @return The AES key derived from the password, from the cache if possible
+   */
+  public static KeyParameter deriveKey(CharSequence password, byte[] salt) {
+    return deriveKey(password, EncryptedFileReaderWriter.makeScryptParameters(salt));
+  }
+
+  /**
+   * @param password         The password
+   * @param scryptParameters The scrypt parameters including the salt
+   *
+   * @return The AES key derived from the password, from the cache if possible
+   */
+  public static KeyParameter deriveKey(CharSequence password, Protos.ScryptParameters scryptParameters) {
+
+    Preconditions.checkNotNull(password, "'password' must be present");
+    Preconditions.checkNotNull(scryptParameters, "'scryptParameters' must be present");
+
+    String cacheKey = createCacheKey(password, scryptParameters);
+
+    synchronized (keyLock) {
+      KeyParameter cachedKeyParameter = cache.getIfPresent(cacheKey);
+      if (cachedKeyParameter != null) {
+        // The KeyParameter constructor takes a copy of the bytes (the wipe cannot run until the copy is made)
+        return new KeyParameter(cachedKeyParameter.getKey());
+      }
+    }
+
+    // Derive outside the lock as scrypt is slow
+    log.trace("Derived key cache miss");
+    KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(scryptParameters);
+    KeyParameter derivedKeyParameter = keyCrypterScrypt.deriveKey(password);
+
+    // Keep a private copy so that callers cannot wipe the cached key
+    cache.put(cacheKey, new KeyParameter(derivedKeyParameter.getKey()));
+
+    return derivedKeyParameter;
+  }
+
+  /**
+   * <p>Remove (and wipe) all derived keys. Called when the wallet is closed.</p>
+   */
+  public static void clear() {
+
+    cache.invalidateAll();
+    cache.cleanUp();
+
+    log.debug("Derived key cache cleared");
+
+  }
+
+  /**
+   * @return The number of derived keys currently held
+   */
+  static long size() {
+    cache.cleanUp();
+    return cache.size();
+  }
+
+  /**
+   * @param password         The password
+   * @param scryptParameters The scrypt parameters
+   *
+   * @return A cache key that does not reveal the password
+   */
+  private static String createCacheKey(CharSequence password, Protos.ScryptParameters scryptParameters) {
+
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(new SecretKeySpec(fingerprintSecret, HMAC_ALGORITHM));
+
+      // Avoid creating an immutable copy of the password
+      for (int i = 0; i < password.length(); i++) {
+        char c = password.charAt(i);
+        mac.update((byte) (c >> 8));
+        mac.update((byte) c);
+      }
+
+      return Utils.HEX.encode(mac.doFinal())
+        + ":" + Utils.HEX.encode(scryptParameters.getSalt().toByteArray())
+        + ":" + scryptParameters.getN()
+        + ":" + scryptParameters.getR()
+        + ":" + scryptParameters.getP();
+
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Could not fingerprint password", e);
+    }
+
+  }
+
+}
@@ -6,7 +6,6 @@ import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.protobuf.ByteString;
-import org.bitcoinj.crypto.KeyCrypterScrypt;
 import org.bitcoinj.wallet.Protos;
 import org.multibit.commons.crypto.AESUtils;
 import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
@@ -14,12 +13,20 @@ import org.multibit.commons.files.SecureFiles;
 import org.multibit.hd.core.managers.WalletManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.BufferedBlockCipher;
+import org.spongycastle.crypto.engines.AESFastEngine;
+import org.spongycastle.crypto.io.CipherInputStream;
+import org.spongycastle.crypto.io.CipherOutputStream;
+import org.spongycastle.crypto.modes.CBCBlockCipher;
+import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.crypto.params.ParametersWithIV;
 
-import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -28,6 +35,7 @@ import java.util.List;
  * <ul>
  * <li>load an AES encrypted file</li>
  * <li>write an AES encrypted file</li>
+ * <li>stream an AES encrypted file in constant memory</li>
  * </ul>
  * Example:<br>
  * <pre>
@@ -41,6 +49,25 @@ public class EncryptedFileReaderWriter {
   private static final String OLD_FILE_EXTENSION = ".old";
   private static final String NEW_FILE_EXTENSION = ".new";
 
+  /**
+   * The buffer size used when streaming a file through the cipher
+   */
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * <p>Callback to provide the plain bytes of a file as it is encrypted</p>
+   */
+  public interface PlainStreamWriter {
+
+    /**
+     * @param plainOutputStream The stream to write the plain bytes to (do not close it)
+     *
+     * @throws IOException If the bytes could not be written
+     */
+    void writeTo(OutputStream plainOutputStream) throws IOException;
+
+  }
+
   /**
    * Decrypt an AES encrypted file and return it as an inputStream
    */
@@ -54,14 +81,20 @@ public class EncryptedFileReaderWriter {
   public static byte[] readAndDecryptToByteArray(File encryptedProtobufFile, CharSequence password) throws EncryptedFileReaderWriterException {
     Preconditions.checkNotNull(encryptedProtobufFile);
     Preconditions.checkNotNull(password);
+    return readAndDecryptToByteArray(encryptedProtobufFile, DerivedKeyCache.deriveKey(password, WalletManager.scryptSalt()));
+  }
+
+  /**
+   * Decrypt an AES encrypted file with an already derived key and return it as a byte array
+   */
+  public static byte[] readAndDecryptToByteArray(File encryptedProtobufFile, KeyParameter keyParameter) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(encryptedProtobufFile);
+    Preconditions.checkNotNull(keyParameter);
     try {
       // Read the encrypted file in and decrypt it.
       log.debug("Encrypted file is of size {} bytes", encryptedProtobufFile.length());
       byte[] encryptedWalletBytes = Files.toByteArray(encryptedProtobufFile);
 
-      KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.scryptSalt()));
-      KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
-
       // Decrypt the file bytes
       return AESUtils.decrypt(encryptedWalletBytes, keyParameter, WalletManager.aesInitialisationVector());
     } catch (Exception e) {
@@ -69,6 +102,104 @@ public class EncryptedFileReaderWriter {
     }
   }
 
+  /**
+   * Decrypt an AES encrypted file as it is read (the caller must close the stream)
+   */
+  public static InputStream newDecryptingInputStream(File encryptedFile, CharSequence password) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(encryptedFile);
+    Preconditions.checkNotNull(password);
+    try {
+      log.debug("Encrypted file is of size {} bytes", encryptedFile.length());
+
+      KeyParameter keyParameter = DerivedKeyCache.deriveKey(password, WalletManager.scryptSalt());
+
+      return newDecryptingInputStream(new FileInputStream(encryptedFile), keyParameter);
+    } catch (Exception e) {
+      throw new EncryptedFileReaderWriterException("Cannot read and decrypt the file '" + encryptedFile.getAbsolutePath() + "'", e);
+    }
+  }
+
+  /**
+   * Decrypt an AES encrypted stream as it is read (the caller must close the stream)
+   * <p>The format is the same as AESUtils (CBC, PKCS7 padding, the wallet initialisation vector) so a bad key
+   * or a truncated file is reported as an IOException when the end of the stream is reached</p>
+   *
+   * @param encryptedInputStream The encrypted bytes
+   * @param keyParameter         The AES key
+   *
+   * @return A stream of the plain bytes
+   */
+  public static InputStream newDecryptingInputStream(InputStream encryptedInputStream, KeyParameter keyParameter) {
+    Preconditions.checkNotNull(encryptedInputStream);
+    Preconditions.checkNotNull(keyParameter);
+
+    return new CipherInputStream(new BufferedInputStream(encryptedInputStream, STREAM_BUFFER_SIZE), newCipher(false, keyParameter));
+  }
+
+  /**
+   * Encrypt bytes as they are written (the caller must close the stream to write the final padded block)
+   *
+   * @param encryptedOutputStream The destination of the encrypted bytes
+   * @param keyParameter          The AES key
+   *
+   * @return A stream accepting the plain bytes
+   */
+  public static OutputStream newEncryptingOutputStream(OutputStream encryptedOutputStream, KeyParameter keyParameter) {
+    Preconditions.checkNotNull(encryptedOutputStream);
+    Preconditions.checkNotNull(keyParameter);
+
+    return new CipherOutputStream(new BufferedOutputStream(encryptedOutputStream, STREAM_BUFFER_SIZE), newCipher(true, keyParameter));
+  }
+
+  /**
+   * Encrypt the plain bytes provided by the writer as they are written to a file, using an intermediate temporary file.
+   * The plain bytes are never held in memory as a whole.
+   *
+   * @param plainStreamWriter The source of the plain bytes
+   * @param password          The password to derive the AES key from
+   * @param outputFile        The encrypted file to write
+   */
+  public static void encryptAndWrite(PlainStreamWriter plainStreamWriter, CharSequence password, File outputFile) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(plainStreamWriter);
+    Preconditions.checkNotNull(password);
+    Preconditions.checkNotNull(outputFile);
+
+    KeyParameter keyParameter;
+    try {
+      keyParameter = DerivedKeyCache.deriveKey(password, WalletManager.scryptSalt());
+    } catch (Exception e) {
+      throw new EncryptedFileReaderWriterException("Cannot encryptAndWrite", e);
+    }
+
+    encryptAndWrite(plainStreamWriter, keyParameter, outputFile);
+  }
+
+  /**
+   * Encrypt the plain bytes provided by the writer as they are written to a file, using an intermediate temporary file.
+   * The plain bytes are never written to disk or held in memory as a whole.
+   *
+   * @param plainStreamWriter The source of the plain bytes
+   * @param keyParameter      The AES key
+   * @param outputFile        The encrypted file to write
+   */
+  public static void encryptAndWrite(PlainStreamWriter plainStreamWriter, KeyParameter keyParameter, File outputFile) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(plainStreamWriter);
+    Preconditions.checkNotNull(keyParameter);
+    Preconditions.checkNotNull(outputFile);
+
+    File temporaryFile = new File(outputFile.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
+    try {
+      encryptAndVerify(plainStreamWriter, keyParameter, temporaryFile);
+
+      java.nio.file.Files.move(temporaryFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (Exception e) {
+      if (temporaryFile.exists() && !temporaryFile.delete()) {
+        log.warn("Could not delete temporary file '{}'", temporaryFile.getAbsolutePath());
+      }
+      throw new EncryptedFileReaderWriterException("Cannot encryptAndWrite", e);
+    }
+  }
+
   /**
    * Encrypt a byte array and output to a file, using an intermediate temporary file
    */
@@ -107,16 +238,44 @@ public class EncryptedFileReaderWriter {
    */
   public static File makeBackupAESEncryptedCopyAndDeleteOriginal(File fileToEncrypt, String password, byte[] encryptedBackupAESKey) throws EncryptedFileReaderWriterException {
     Preconditions.checkNotNull(fileToEncrypt);
+    Preconditions.checkNotNull(password);
+    Preconditions.checkNotNull(encryptedBackupAESKey);
+    return makeBackupAESEncryptedCopyAndDeleteOriginal(fileToEncrypt, decryptBackupAESKey(password, encryptedBackupAESKey));
+  }
+
+  /**
+   * Encrypt the file specified using the backup AES key
+   *
+   * @param fileToEncrypt file to encrypt
+   * @param backupAESKey  the backup AES key (see decryptBackupAESKey)
+   * @return the resultant encrypted file
+   * @throws EncryptedFileReaderWriterException
+   */
+  public static File makeBackupAESEncryptedCopyAndDeleteOriginal(File fileToEncrypt, KeyParameter backupAESKey) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(fileToEncrypt);
+    Preconditions.checkNotNull(backupAESKey);
+
+    File destinationFile = new File(fileToEncrypt.getAbsoluteFile() + WalletManager.MBHD_AES_SUFFIX);
+
+    return encryptAndDeleteOriginal(fileToEncrypt, destinationFile, backupAESKey);
+  }
+
+  /**
+   * Decrypt the backup AES key stored in the wallet summary
+   *
+   * @param password              the wallet password
+   * @param encryptedBackupAESKey the encrypted backup AES key from the wallet summary
+   * @return the backup AES key
+   * @throws EncryptedFileReaderWriterException
+   */
+  public static KeyParameter decryptBackupAESKey(String password, byte[] encryptedBackupAESKey) throws EncryptedFileReaderWriterException {
     Preconditions.checkNotNull(password);
     Preconditions.checkNotNull(encryptedBackupAESKey);
     try {
-      // Decrypt the backup AES key stored in the wallet summary
       KeyParameter walletPasswordDerivedAESKey = AESUtils.createAESKey(password.getBytes(Charsets.UTF_8), WalletManager.scryptSalt());
       byte[] backupAESKeyBytes = AESUtils.decrypt(encryptedBackupAESKey, walletPasswordDerivedAESKey, WalletManager.aesInitialisationVector());
-      KeyParameter backupAESKey = new KeyParameter(backupAESKeyBytes);
-      File destinationFile = new File(fileToEncrypt.getAbsoluteFile() + WalletManager.MBHD_AES_SUFFIX);
 
-      return encryptAndDeleteOriginal(fileToEncrypt, destinationFile, backupAESKey);
+      return new KeyParameter(backupAESKeyBytes);
     } catch (Exception e) {
       throw new EncryptedFileReaderWriterException("Could not decrypt backup AES key", e);
     }
@@ -152,11 +311,40 @@ public class EncryptedFileReaderWriter {
     Preconditions.checkNotNull(destinationFile);
     Preconditions.checkNotNull(password);
 
-    KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.scryptSalt()));
-    KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+    KeyParameter keyParameter = DerivedKeyCache.deriveKey(password, WalletManager.scryptSalt());
     return encryptAndDeleteOriginal(fileToEncrypt, destinationFile, keyParameter);
   }
 
+  /**
+   * Copy an encrypted file without decrypting it.
+   * This holds the same lock as encryptAndDeleteOriginal so a file that is being rewritten in place is never copied part way through.
+   *
+   * @param encryptedFile   the encrypted file to copy
+   * @param destinationFile the copy (which must not exist)
+   * @return the copy
+   * @throws EncryptedFileReaderWriterException
+   */
+  public static synchronized File copyEncryptedFile(File encryptedFile, File destinationFile) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(encryptedFile);
+    Preconditions.checkNotNull(destinationFile);
+
+    try {
+      // A copy rather than a hard link as the original is rewritten in place and secure deleted
+      java.nio.file.Files.copy(encryptedFile.toPath(), destinationFile.toPath());
+
+      // AES with padding always produces whole blocks
+      if (destinationFile.length() != encryptedFile.length() || destinationFile.length() % AESUtils.BLOCK_LENGTH != 0) {
+        SecureFiles.secureDelete(destinationFile);
+        throw new EncryptedFileReaderWriterException("The copy " + destinationFile + " is not a complete encrypted file");
+      }
+
+      return destinationFile;
+
+    } catch (IOException e) {
+      throw new EncryptedFileReaderWriterException("Cannot copy encrypted file '" + encryptedFile.getAbsolutePath() + "'", e);
+    }
+  }
+
   /**
    * Change the encryption on Collection of files.
    * This method is split into two parts:
@@ -181,26 +369,18 @@ public class EncryptedFileReaderWriter {
 
     List<File> newFiles = Lists.newArrayList();
     try {
-      KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.scryptSalt()));
-      KeyParameter oldKeyParameter = keyCrypterScrypt.deriveKey(oldPassword);
-      KeyParameter newKeyParameter = keyCrypterScrypt.deriveKey(newPassword);
+      KeyParameter oldKeyParameter = DerivedKeyCache.deriveKey(oldPassword, WalletManager.scryptSalt());
+      KeyParameter newKeyParameter = DerivedKeyCache.deriveKey(newPassword, WalletManager.scryptSalt());
 
       for (File file : files) {
         log.debug("Processing file\n'{}'", file.getAbsolutePath());
         File newFile = new File(file.getAbsolutePath() + NEW_FILE_EXTENSION);
         newFiles.add(newFile);
         if (file.exists()) {
-          // Read in the file bytes that are encrypted with the old password
-          byte[] oldEncryptedBytes = Files.toByteArray(file);
-
-          // Decrypt using the old password
-          byte[] plainBytes = AESUtils.decrypt(oldEncryptedBytes, oldKeyParameter, WalletManager.aesInitialisationVector());
-
-          // Encrypt the bytes
-          byte[] newEncryptedBytes = encrypt(plainBytes, newKeyParameter);
-
-          // Write out the bytes to a file with the suffix ".new"
-          SecureFiles.writeFile(new ByteArrayInputStream(newEncryptedBytes), newFile);
+          // Decrypt using the old password and encrypt using the new as the file is streamed to the suffix ".new"
+          try (InputStream plainInputStream = newDecryptingInputStream(new FileInputStream(file), oldKeyParameter)) {
+            encryptAndVerify(newCopyingWriter(plainInputStream), newKeyParameter, newFile);
+          }
         }
       }
       return newFiles;
@@ -287,19 +467,15 @@ public class EncryptedFileReaderWriter {
       return null;
     }
 
-    FileOutputStream encryptedWalletOutputStream = null;
     try {
-      // Read in the file
-      byte[] unencryptedBytes = Files.toByteArray(fileToEncrypt);
-      byte[] encryptedBytes = encrypt(unencryptedBytes, keyParameter);
-
-      // Save encrypted bytes
-      ByteArrayInputStream encryptedWalletByteArrayInputStream = new ByteArrayInputStream(encryptedBytes);
-      encryptedWalletOutputStream = new FileOutputStream(encryptedFilename);
-      ByteStreams.copy(encryptedWalletByteArrayInputStream, encryptedWalletOutputStream);
-      encryptedWalletOutputStream.flush();
+      // Stream the file through the cipher
+      try (InputStream plainInputStream = new FileInputStream(fileToEncrypt)) {
+        encryptAndVerify(newCopyingWriter(plainInputStream), keyParameter, encryptedFilename);
+      }
 
-      if (encryptedFilename.length() == encryptedBytes.length) {
+      // PKCS7 padding always adds between 1 and a whole block
+      long expectedLength = (fileToEncrypt.length() / AESUtils.BLOCK_LENGTH + 1) * AESUtils.BLOCK_LENGTH;
+      if (encryptedFilename.length() == expectedLength) {
         SecureFiles.secureDelete(fileToEncrypt);
       } else {
         // The saved file isn't the correct size - do not delete the original
@@ -310,16 +486,72 @@ public class EncryptedFileReaderWriter {
 
     } catch (Exception e) {
       throw new EncryptedFileReaderWriterException("Cannot make encrypted copy for file '" + fileToEncrypt.getAbsolutePath() + "'", e);
-    } finally {
-      if (encryptedWalletOutputStream != null) {
-        try {
-          encryptedWalletOutputStream.close();
-          encryptedWalletOutputStream = null;
-        } catch (IOException e) {
-          log.error("Cannot close wallet output stream", e);
-        }
+    }
+  }
+
+  /**
+   * Encrypt the plain bytes as they are written to the encrypted file and then check the encryption is reversible
+   * by decrypting the file and comparing digests of the plain bytes
+   *
+   * @param plainStreamWriter The source of the plain bytes
+   * @param keyParameter      The AES key
+   * @param encryptedFile     The encrypted file to write
+   *
+   * @throws IOException If the file could not be written or the encryption was not reversible
+   */
+  private static void encryptAndVerify(PlainStreamWriter plainStreamWriter, KeyParameter keyParameter, File encryptedFile) throws IOException {
+
+    MessageDigest plainDigest = newDigest();
+    try (DigestOutputStream plainOutputStream = new DigestOutputStream(newEncryptingOutputStream(new FileOutputStream(encryptedFile), keyParameter), plainDigest)) {
+      plainStreamWriter.writeTo(plainOutputStream);
+    }
+
+    MessageDigest rebornDigest = newDigest();
+    try (InputStream rebornInputStream = newDecryptingInputStream(new FileInputStream(encryptedFile), keyParameter)) {
+      byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+      int count;
+      while ((count = rebornInputStream.read(buffer)) != -1) {
+        rebornDigest.update(buffer, 0, count);
       }
     }
+
+    if (!MessageDigest.isEqual(plainDigest.digest(), rebornDigest.digest())) {
+      throw new EncryptedFileReaderWriterException("The encryption was not reversible so aborting.");
+    }
+  }
+
+  /**
+   * @param plainInputStream The plain bytes
+   *
+   * @return A writer that copies the plain bytes to the output stream
+   */
+  private static PlainStreamWriter newCopyingWriter(final InputStream plainInputStream) {
+    return new PlainStreamWriter() {
+      @Override
+      public void writeTo(OutputStream plainOutputStream) throws IOException {
+        ByteStreams.copy(plainInputStream, plainOutputStream);
+      }
+    };
+  }
+
+  /**
+   * @param forEncryption True for encryption, false for decryption
+   * @param keyParameter  The AES key
+   *
+   * @return An AES cipher compatible with AESUtils
+   */
+  private static BufferedBlockCipher newCipher(boolean forEncryption, KeyParameter keyParameter) {
+    BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+    cipher.init(forEncryption, new ParametersWithIV(keyParameter, WalletManager.aesInitialisationVector()));
+    return cipher;
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
   }
 
   /**
@@ -358,8 +590,7 @@ public class EncryptedFileReaderWriter {
    */
   private static byte[] encrypt(byte[] unencryptedBytes, CharSequence password) {
     try {
-      KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.scryptSalt()));
-      KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+      KeyParameter keyParameter = DerivedKeyCache.deriveKey(password, WalletManager.scryptSalt());
 
       return encrypt(unencryptedBytes, keyParameter);
     } catch (Exception e) {
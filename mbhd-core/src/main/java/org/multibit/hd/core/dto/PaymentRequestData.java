@@ -91,6 +91,21 @@ public class PaymentRequestData implements PaymentData {
    */
   private DateTime expirationDate;
 
+  /**
+   * Reads the persisted BIP70 payment request, payment and ACK on first access (null once read or if not deferred)
+   */
+  private volatile Runnable deferredFileLoader;
+
+  /**
+   * True while the deferred loader is running (guarded by this)
+   */
+  private boolean loadingDeferredFiles = false;
+
+  /**
+   * True if the BIP70 payment request, payment or ACK may differ from the persisted files
+   */
+  private volatile boolean dirty = true;
+
   /**
    * For protobuf - you probably do not want to use this
    */
@@ -156,19 +171,78 @@ public class PaymentRequestData implements PaymentData {
   }
 
   public Optional<Protos.PaymentRequest> getPaymentRequest() {
+    loadDeferredFiles();
     return paymentRequest;
   }
 
   public void setPaymentRequest(Optional<Protos.PaymentRequest> paymentRequest) {
+    loadDeferredFiles();
     this.paymentRequest = paymentRequest;
+    this.dirty = true;
   }
 
   public void setPayment(Optional<Protos.Payment> payment) {
+    loadDeferredFiles();
     this.payment = payment;
+    this.dirty = true;
   }
 
   public void setPaymentACK(Optional<Protos.PaymentACK> paymentACK) {
+    loadDeferredFiles();
     this.paymentACK = paymentACK;
+    this.dirty = true;
+  }
+
+  /**
+   * <p>Defer reading the persisted BIP70 files until the payment request, payment or ACK is first used</p>
+   *
+   * @param deferredFileLoader The loader (expected to call the setters with the file contents)
+   */
+  public void setDeferredFileLoader(Runnable deferredFileLoader) {
+    this.deferredFileLoader = deferredFileLoader;
+  }
+
+  /**
+   * @return True if the BIP70 payment request, payment or ACK have changed since they were last read or written
+   */
+  public boolean isDirty() {
+    return dirty;
+  }
+
+  /**
+   * @param dirty False once the BIP70 payment request, payment and ACK match the persisted files
+   */
+  public void setDirty(boolean dirty) {
+    this.dirty = dirty;
+  }
+
+  /**
+   * @return True if the persisted BIP70 files have not been read yet
+   */
+  public boolean isDeferred() {
+    return deferredFileLoader != null;
+  }
+
+  /**
+   * <p>Run the deferred loader (if any) exactly once</p>
+   */
+  private void loadDeferredFiles() {
+    if (deferredFileLoader == null) {
+      return;
+    }
+    synchronized (this) {
+      // The setters called by the loader re-enter here on the same thread
+      if (deferredFileLoader != null && !loadingDeferredFiles) {
+        loadingDeferredFiles = true;
+        try {
+          deferredFileLoader.run();
+        } finally {
+          // Other threads see the loaded values once this is cleared
+          deferredFileLoader = null;
+          loadingDeferredFiles = false;
+        }
+      }
+    }
   }
 
   @Override
@@ -283,6 +357,7 @@ public class PaymentRequestData implements PaymentData {
    * @return The BIP70 Payment sent to the server once payment was successfully broadcast
    */
   public Optional<Protos.Payment> getPayment() {
+    loadDeferredFiles();
     return payment;
   }
 
@@ -290,6 +365,7 @@ public class PaymentRequestData implements PaymentData {
    * @return The BIP70 PaymentACK received from the server
    */
   public Optional<Protos.PaymentACK> getPaymentACK() {
+    loadDeferredFiles();
     return paymentACK;
   }
 
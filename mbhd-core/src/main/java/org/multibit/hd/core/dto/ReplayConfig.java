@@ -11,6 +11,7 @@ import java.util.Stack;
  *  <ul>
  *  <li>ReplayDateTime (if required)</li>
  *  <li>StoredBlock to use to replay from (if required)</li>
+ *  <li>Whether the existing block store can be rewound in place</li>
  *  </ul>
  *  
  */
@@ -26,12 +27,18 @@ public class ReplayConfig {
    */
   final Optional<Stack<StoredBlock>> replayStoredBlockStack;
 
+  /**
+   * True if the existing block store holds the stored blocks so can be rewound in place
+   */
+  final boolean rewindInPlace;
+
   /**
    * Create a ReplayHints specifying no replayDate nor replayStoredBlock
    */
   public ReplayConfig() {
     replayDate = Optional.absent();
     replayStoredBlockStack = Optional.absent();
+    rewindInPlace = false;
   }
 
   /**
@@ -40,14 +47,25 @@ public class ReplayConfig {
   public ReplayConfig(DateTime replayDate) {
     this.replayDate = Optional.fromNullable(replayDate);
     replayStoredBlockStack = Optional.absent();
+    rewindInPlace = false;
   }
 
   /**
    * Create a ReplayHints with a replayStoredBlockStack (no replayDate)
    */
   public ReplayConfig(Stack<StoredBlock> replayStoredBlockStack) {
+    this(replayStoredBlockStack, false);
+  }
+
+  /**
+   * Create a ReplayHints with a replayStoredBlockStack (no replayDate)
+   *
+   * @param rewindInPlace True if the stored blocks came from the existing block store so it can be rewound in place
+   */
+  public ReplayConfig(Stack<StoredBlock> replayStoredBlockStack, boolean rewindInPlace) {
     replayDate = Optional.absent();
     this.replayStoredBlockStack = Optional.fromNullable(replayStoredBlockStack);
+    this.rewindInPlace = rewindInPlace;
   }
 
   public Optional<DateTime> getReplayDate() {
@@ -58,6 +76,13 @@ public class ReplayConfig {
     return replayStoredBlockStack;
   }
 
+  /**
+   * @return True if the existing block store can be rewound to the most recent stored block rather than recreated
+   */
+  public boolean isRewindInPlace() {
+    return rewindInPlace;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -65,6 +90,7 @@ public class ReplayConfig {
 
     ReplayConfig that = (ReplayConfig) o;
 
+    if (rewindInPlace != that.rewindInPlace) return false;
     if (replayDate != null ? !replayDate.equals(that.replayDate) : that.replayDate != null) return false;
     if (replayStoredBlockStack != null ? !replayStoredBlockStack.equals(that.replayStoredBlockStack) : that.replayStoredBlockStack != null)
       return false;
@@ -76,6 +102,7 @@ public class ReplayConfig {
   public int hashCode() {
     int result = replayDate != null ? replayDate.hashCode() : 0;
     result = 31 * result + (replayStoredBlockStack != null ? replayStoredBlockStack.hashCode() : 0);
+    result = 31 * result + (rewindInPlace ? 1 : 0);
     return result;
   }
 
@@ -84,6 +111,7 @@ public class ReplayConfig {
     return "ReplayConfig{" +
             "replayDate=" + replayDate +
             ", replayStoredBlockStack=" + replayStoredBlockStack +
+            ", rewindInPlace=" + rewindInPlace +
             '}';
   }
 }
@@ -2,12 +2,14 @@ package org.multibit.hd.core.dto;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.TransactionConfidence;
 import org.joda.time.DateTime;
 
 import javax.annotation.Nullable;
+import java.lang.ref.SoftReference;
 import java.util.Collection;
 
 /**
@@ -45,9 +47,14 @@ public class TransactionData implements PaymentData {
   private String note;
 
   /**
-   * The transaction in its raw form (toStringed)
+   * Provides the transaction in its raw form (toStringed) on demand
    */
-  private final String rawTransaction;
+  private final Supplier<String> rawTransactionSupplier;
+
+  /**
+   * The last raw form provided (can be reclaimed under memory pressure)
+   */
+  private volatile SoftReference<String> rawTransactionReference = null;
 
   /**
    * The size (in bytes)of the transaction
@@ -72,7 +79,7 @@ public class TransactionData implements PaymentData {
    * @param description       The description
    * @param isCoinbase        True if coinbase
    * @param outputAddresses   The output addresses
-   * @param rawTransaction    The raw transaction
+   * @param rawTransaction    The supplier of the raw transaction (only called when the raw form is required)
    * @param size              The size in bytes
    * @param isMock            True if this is a mock (CSV export header)
    */
@@ -89,7 +96,7 @@ public class TransactionData implements PaymentData {
     String description,
     boolean isCoinbase,
     Collection<Address> outputAddresses,
-    String rawTransaction,
+    Supplier<String> rawTransaction,
     int size,
     boolean isMock
   ) {
@@ -121,7 +128,7 @@ public class TransactionData implements PaymentData {
     this.description = description;
     this.coinBase = isCoinbase;
     this.outputAddresses = outputAddresses;
-    this.rawTransaction = rawTransaction;
+    this.rawTransactionSupplier = rawTransaction;
     this.size = size;
   }
 
@@ -284,7 +291,23 @@ public class TransactionData implements PaymentData {
     return outputAddresses;
   }
 
+  /**
+   * @return The transaction in its raw form, rendered on first use and kept while memory allows
+   */
   public String getRawTransaction() {
+
+    if (rawTransactionSupplier == null) {
+      // Mock
+      return "";
+    }
+
+    SoftReference<String> reference = rawTransactionReference;
+    String rawTransaction = reference == null ? null : reference.get();
+    if (rawTransaction == null) {
+      rawTransaction = rawTransactionSupplier.get();
+      rawTransactionReference = new SoftReference<>(rawTransaction);
+    }
+
     return rawTransaction;
   }
 
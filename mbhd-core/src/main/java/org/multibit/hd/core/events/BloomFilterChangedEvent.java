@@ -0,0 +1,49 @@
+package org.multibit.hd.core.events;
+
+/**
+ * <p>Event to provide the following to Core event subscribers:</p>
+ * <ul>
+ * <li>The size and false positive rate of the bloom filter last sent to the peers</li>
+ * </ul>
+ *
+ * <p>This is an infrequent event (when the wallet keys or the tuned false positive rate change)</p>
+ *
+ * @since 0.3.0
+ */
+public class BloomFilterChangedEvent implements CoreEvent {
+
+  private final int elementCount;
+
+  private final double falsePositiveRate;
+
+  /**
+   * @param elementCount      The number of elements in the bloom filter
+   * @param falsePositiveRate The bloom filter false positive rate
+   */
+  public BloomFilterChangedEvent(int elementCount, double falsePositiveRate) {
+    this.elementCount = elementCount;
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  /**
+   * @return The number of elements in the bloom filter
+   */
+  public int getElementCount() {
+    return elementCount;
+  }
+
+  /**
+   * @return The bloom filter false positive rate
+   */
+  public double getFalsePositiveRate() {
+    return falsePositiveRate;
+  }
+
+  @Override
+  public String toString() {
+    return "BloomFilterChangedEvent{" +
+      "elementCount=" + elementCount +
+      ", falsePositiveRate=" + falsePositiveRate +
+      '}';
+  }
+}
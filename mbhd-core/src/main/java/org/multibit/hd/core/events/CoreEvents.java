@@ -18,14 +18,17 @@ import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.util.Currency;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
  * <p>Factory to provide the following to application API:</p>
  * <ul>
  * <li>Entry point to broadcast core events</li>
+ * <li>Selection of the Guava event bus or the ring buffer dispatcher to deliver them</li>
  * </ul>
  *
  * @since 0.0.1
@@ -46,6 +49,21 @@ public class CoreEvents {
   private static boolean creatingTxSeenExecutor = false;
   private static final Object txSeenExecutorLock = new Object();
 
+  /**
+   * The delay before accumulated transaction seen events are delivered as a batch
+   */
+  private static final int TRANSACTION_SEEN_BATCH_DELAY_MILLIS = 100;
+
+  /**
+   * Accumulates transaction seen events into batches
+   */
+  private static final TransactionSeenBatcher transactionSeenBatcher = new TransactionSeenBatcher();
+
+  /**
+   * The ring buffer dispatcher if selected by configuration (otherwise the Guava event bus is used)
+   */
+  private static volatile Optional<RingBufferEventDispatcher> ringBufferDispatcher = Optional.absent();
+
   /**
    * Use Guava to handle subscribers to events
    */
@@ -75,7 +93,7 @@ public class CoreEvents {
     if (coreEventBusSubscribers.add(subscriber)) {
       log.trace("Register: " + subscriber.getClass().getSimpleName());
       try {
-        coreEventBus.register(subscriber);
+        register(subscriber);
       } catch (IllegalArgumentException e) {
         log.warn("Unexpected failure to register");
       }
@@ -98,7 +116,7 @@ public class CoreEvents {
     if (coreEventBusSubscribers.contains(subscriber)) {
       log.trace("Unregister: " + subscriber.getClass().getSimpleName());
       try {
-        coreEventBus.unregister(subscriber);
+        unregister(subscriber);
       } catch (IllegalArgumentException e) {
         log.warn("Unexpected failure to unregister");
       }
@@ -123,12 +141,86 @@ public class CoreEvents {
 
   }
 
+  /**
+   * <p>Select the event dispatcher, moving any existing subscribers across</p>
+   *
+   * @param useRingBuffer True to use the ring buffer dispatcher, false to use the Guava event bus and thread pool
+   */
+  public static synchronized void useRingBufferDispatcher(boolean useRingBuffer) {
+
+    if (useRingBuffer == ringBufferDispatcher.isPresent()) {
+      return;
+    }
+
+    // Remove the subscribers from the current dispatcher
+    for (Object subscriber : coreEventBusSubscribers) {
+      unregister(subscriber);
+    }
+
+    if (useRingBuffer) {
+      ringBufferDispatcher = Optional.of(new RingBufferEventDispatcher());
+    } else {
+      RingBufferEventDispatcher previousDispatcher = ringBufferDispatcher.get();
+      ringBufferDispatcher = Optional.absent();
+      previousDispatcher.shutdown();
+    }
+
+    // Add them to the new one
+    for (Object subscriber : coreEventBusSubscribers) {
+      register(subscriber);
+    }
+
+    log.info("Using {} event dispatcher", useRingBuffer ? "ring buffer" : "event bus");
+  }
+
   private synchronized static void createEventExecutorIfNecessary() {
     if (eventExecutor == null) {
       eventExecutor = SafeExecutors.newFixedThreadPool(10, "core-events");
     }
   }
 
+  private static void register(Object subscriber) {
+    if (ringBufferDispatcher.isPresent()) {
+      ringBufferDispatcher.get().register(subscriber);
+    } else {
+      coreEventBus.register(subscriber);
+    }
+  }
+
+  private static void unregister(Object subscriber) {
+    if (ringBufferDispatcher.isPresent()) {
+      ringBufferDispatcher.get().unregister(subscriber);
+    } else {
+      coreEventBus.unregister(subscriber);
+    }
+  }
+
+  /**
+   * @param event The event to deliver to subscribers
+   */
+  private static void post(Object event) {
+    if (ringBufferDispatcher.isPresent()) {
+      ringBufferDispatcher.get().publish(event);
+    } else {
+      coreEventBus.post(event);
+    }
+  }
+
+  /**
+   * <p>Run a posting task on the core events pool, or directly when the ring buffer dispatcher is in use since it
+   * delivers on its own threads</p>
+   *
+   * @param postingTask The task that posts the event
+   */
+  private static void submit(Runnable postingTask) {
+    if (ringBufferDispatcher.isPresent()) {
+      postingTask.run();
+    } else {
+      createEventExecutorIfNecessary();
+      eventExecutor.submit(postingTask);
+    }
+  }
+
   /**
    * <p>Broadcast a new "exchange rate changed" event</p>
    *
@@ -143,14 +235,12 @@ public class CoreEvents {
     final Optional<String> rateProvider,
     final DateTime expires
   ) {
-    createEventExecutorIfNecessary();
-
-    eventExecutor.submit(
+    submit(
       new Runnable() {
         @Override
         public void run() {
           ExchangeRateChangedEvent event = new ExchangeRateChangedEvent(rate, currency, rateProvider, expires);
-          coreEventBus.post(event);
+          post(event);
           log.debug("Firing 'exchange rate changed' event: {}", event);
         }
       });
@@ -163,14 +253,12 @@ public class CoreEvents {
    * @param exchangeSummary The exchange summary
    */
   public static void fireExchangeStatusChangedEvent(final ExchangeSummary exchangeSummary) {
-    createEventExecutorIfNecessary();
-
-    eventExecutor.submit(
+    submit(
       new Runnable() {
         @Override
         public void run() {
           log.trace("Firing 'exchange status changed' event");
-          coreEventBus.post(new ExchangeStatusChangedEvent(exchangeSummary));
+          post(new ExchangeStatusChangedEvent(exchangeSummary));
         }
       });
 
@@ -182,14 +270,12 @@ public class CoreEvents {
    * @param transactionCreationEvent containing transaction creation information
    */
   public static void fireTransactionCreationEvent(final TransactionCreationEvent transactionCreationEvent) {
-    createEventExecutorIfNecessary();
-
-    eventExecutor.submit(
+    submit(
       new Runnable() {
         @Override
         public void run() {
           log.trace("Firing 'transactionCreation' event");
-          coreEventBus.post(transactionCreationEvent);
+          post(transactionCreationEvent);
         }
       });
 
@@ -201,14 +287,12 @@ public class CoreEvents {
    * @param bitcoinSentEvent containing send information
    */
   public static void fireBitcoinSentEvent(final BitcoinSentEvent bitcoinSentEvent) {
-    createEventExecutorIfNecessary();
-
-    eventExecutor.submit(
+    submit(
       new Runnable() {
         @Override
         public void run() {
           log.trace("Firing 'bitcoin sent' event");
-          coreEventBus.post(bitcoinSentEvent);
+          post(bitcoinSentEvent);
         }
       });
   }
@@ -219,14 +303,12 @@ public class CoreEvents {
     * @param paymentSentToRequestorEvent containing send information
     */
    public static void firePaymentSentToRequestorEvent(final PaymentSentToRequestorEvent paymentSentToRequestorEvent) {
-     createEventExecutorIfNecessary();
-
-     eventExecutor.submit(
+     submit(
        new Runnable() {
          @Override
          public void run() {
            log.trace("Firing 'PaymentSentToRequestorEvent' event");
-           coreEventBus.post(paymentSentToRequestorEvent);
+           post(paymentSentToRequestorEvent);
          }
        });
    }
@@ -237,14 +319,12 @@ public class CoreEvents {
     * @param bitcoinSendingEvent containing send information
     */
    public static void fireBitcoinSendingEvent(final BitcoinSendingEvent bitcoinSendingEvent) {
-     createEventExecutorIfNecessary();
-
-     eventExecutor.submit(
+     submit(
        new Runnable() {
          @Override
          public void run() {
            log.trace("Firing 'bitcoin sending' event");
-           coreEventBus.post(bitcoinSendingEvent);
+           post(bitcoinSendingEvent);
          }
        });
    }
@@ -255,14 +335,12 @@ public class CoreEvents {
    * @param walletLoadEvent containing walletLoad information
    */
   public static void fireWalletLoadEvent(final WalletLoadEvent walletLoadEvent) {
-    createEventExecutorIfNecessary();
-
-    eventExecutor.submit(
+    submit(
       new Runnable() {
         @Override
         public void run() {
           log.trace("Firing 'walletLoadEvent' event");
-          coreEventBus.post(walletLoadEvent);
+          post(walletLoadEvent);
         }
       });
   }
@@ -271,20 +349,20 @@ public class CoreEvents {
    * Broadcast ChangePasswordResultEvent
    */
   public static void fireChangePasswordResultEvent(final ChangePasswordResultEvent changePasswordResultEvent) {
-    createEventExecutorIfNecessary();
-
-    eventExecutor.submit(
+    submit(
       new Runnable() {
         @Override
         public void run() {
           log.trace("Firing 'change password result' event");
-          coreEventBus.post(changePasswordResultEvent);
+          post(changePasswordResultEvent);
         }
       });
   }
 
   /**
    * <p>Broadcast TransactionSeenEvent</p>
+   * <p>Events are accumulated and delivered to subscribers as a {@link TransactionSeenBatchEvent} shortly after
+   * the first event of a batch arrives</p>
    *
    * @param transactionSeenEvent containing transaction information
    */
@@ -304,32 +382,47 @@ public class CoreEvents {
       }
     }
 
-    // Use the tx-seen pool
-    if (txSeenExecutorOptional.isPresent()) {
-      txSeenExecutorOptional.get().submit(
-              new Runnable() {
-                @Override
-                public void run() {
-                  coreEventBus.post(transactionSeenEvent);
-                  consolidateTransactionSeenEvents();
-                }
-              });
+    // Use the tx-seen pool to deliver the batch once the flood has had a chance to accumulate
+    if (txSeenExecutorOptional.isPresent() && transactionSeenBatcher.offer(transactionSeenEvent)) {
+      try {
+        txSeenExecutorOptional.get().schedule(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    List<TransactionSeenEvent> batch = transactionSeenBatcher.drain();
+                    if (!batch.isEmpty()) {
+                      log.trace("Firing 'transaction seen batch' event: {}", transactionSeenBatcher);
+                      post(new TransactionSeenBatchEvent(batch));
+                      consolidateTransactionSeenEvents();
+                    }
+                  }
+                }, TRANSACTION_SEEN_BATCH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // Keep the events for the next drain rather than stalling all later batches
+        log.warn("Could not schedule transaction seen batch: {}", e.getMessage());
+        transactionSeenBatcher.cancelDrain();
+      }
     }
   }
 
+  /**
+   * @return The transaction seen batcher (for counters of events received and coalesced)
+   */
+  public static TransactionSeenBatcher getTransactionSeenBatcher() {
+    return transactionSeenBatcher;
+  }
+
   /**
    * <p>Broadcast BitcoinSendProgressEvent</p>
    *
    * @param bitcoinSendProgressEvent containing transaction broadcast progress information
    */
   public static void fireBitcoinSendProgressEvent(final BitcoinSendProgressEvent bitcoinSendProgressEvent) {
-    createEventExecutorIfNecessary();
-
-    eventExecutor.submit(
+    submit(
       new Runnable() {
         @Override
         public void run() {
-          coreEventBus.post(bitcoinSendProgressEvent);
+          post(bitcoinSendProgressEvent);
         }
       });
   }
@@ -347,7 +440,7 @@ public class CoreEvents {
                 new Callable() {
                   @Override
                   public Object call() throws Exception {
-                    coreEventBus.post(new SlowTransactionSeenEvent());
+                    post(new SlowTransactionSeenEvent());
                     synchronized (lockObject) {
                       waitingToFireSlowTransactionSeenEvent = false;
                     }
@@ -373,8 +466,40 @@ public class CoreEvents {
       }
     }
 
-    coreEventBus.post(new BitcoinNetworkChangedEvent(bitcoinNetworkSummary));
+    post(new BitcoinNetworkChangedEvent(bitcoinNetworkSummary));
+
+  }
+
+  /**
+   * <p>Broadcast a new "bloom filter changed" event</p>
+   *
+   * @param bloomFilterChangedEvent The bloom filter details
+   */
+  public static void fireBloomFilterChangedEvent(final BloomFilterChangedEvent bloomFilterChangedEvent) {
+    submit(
+      new Runnable() {
+        @Override
+        public void run() {
+          log.trace("Firing 'bloom filter changed' event");
+          post(bloomFilterChangedEvent);
+        }
+      });
+  }
 
+  /**
+   * <p>Broadcast a new "sync metrics" event</p>
+   *
+   * @param syncMetricsEvent The sync metrics
+   */
+  public static void fireSyncMetricsEvent(final SyncMetricsEvent syncMetricsEvent) {
+    submit(
+      new Runnable() {
+        @Override
+        public void run() {
+          log.trace("Firing 'sync metrics' event");
+          post(syncMetricsEvent);
+        }
+      });
   }
 
   /**
@@ -383,14 +508,12 @@ public class CoreEvents {
    * @param environmentSummary The environment summary
    */
   public static void fireEnvironmentEvent(final EnvironmentSummary environmentSummary) {
-    createEventExecutorIfNecessary();
-
-    eventExecutor.submit(
+    submit(
       new Runnable() {
         @Override
         public void run() {
           log.trace("Firing 'environment' event");
-          coreEventBus.post(new EnvironmentEvent(environmentSummary));
+          post(new EnvironmentEvent(environmentSummary));
         }
       });
   }
@@ -403,14 +526,12 @@ public class CoreEvents {
    * @param shutdownType The shutdown type
    */
   public static void fireShutdownEvent(final ShutdownEvent.ShutdownType shutdownType) {
-    createEventExecutorIfNecessary();
-
-    eventExecutor.submit(
+    submit(
       new Runnable() {
         @Override
         public void run() {
           log.info("Firing 'shutdown' event: {}", shutdownType);
-          coreEventBus.post(new ShutdownEvent(shutdownType));
+          post(new ShutdownEvent(shutdownType));
         }
       });
   }
@@ -419,14 +540,12 @@ public class CoreEvents {
    * <p>Broadcast a new "configuration changed" event</p>
    */
   public static void fireConfigurationChangedEvent() {
-    createEventExecutorIfNecessary();
-
-    eventExecutor.submit(
+    submit(
       new Runnable() {
         @Override
         public void run() {
           log.trace("Firing 'configuration changed' event");
-          coreEventBus.post(new ConfigurationChangedEvent());
+          post(new ConfigurationChangedEvent());
         }
       });
   }
@@ -437,14 +556,12 @@ public class CoreEvents {
    * @param exportPerformedEvent The export performed event
    */
   public static void fireExportPerformedEvent(final ExportPerformedEvent exportPerformedEvent) {
-    createEventExecutorIfNecessary();
-
-    eventExecutor.submit(
+    submit(
       new Runnable() {
         @Override
         public void run() {
           log.trace("Firing 'export performed' event");
-          coreEventBus.post(exportPerformedEvent);
+          post(exportPerformedEvent);
         }
       });
   }
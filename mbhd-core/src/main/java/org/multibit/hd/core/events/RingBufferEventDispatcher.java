@@ -0,0 +1,456 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.multibit.commons.concurrent.SafeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.SwingUtilities;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Dispatcher to provide the following to CoreEvents:</p>
+ * <ul>
+ * <li>An alternative to the Guava EventBus and thread pool based on a pre-allocated ring buffer</li>
+ * <li>Delivery to the existing <code>@Subscribe</code> methods</li>
+ * <li>Delivery to each subscriber in the order events were published, across all event types</li>
+ * </ul>
+ * <p>Publishers claim a slot with a compare and set so any thread can publish. Each subscriber has its own
+ * sequence cursor and is served by one of a small number of worker threads at a time, so a slow subscriber only
+ * delays its own events until the ring wraps. A publisher waits for the slowest subscriber when the ring is full.</p>
+ * <p>The EDT and the worker threads must never wait (a subscriber may need the EDT, or be the one being waited
+ * for) so when the ring is full their events are handed off to a single thread that waits on their behalf. Once
+ * an event has been handed off later events from those threads follow it so the delivery order is kept.</p>
+ *
+ * @since 0.3.0
+ */
+public class RingBufferEventDispatcher {
+
+  private static final Logger log = LoggerFactory.getLogger(RingBufferEventDispatcher.class);
+
+  /**
+   * The default number of slots (must be a power of 2)
+   */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /**
+   * The default number of worker threads delivering to subscribers
+   */
+  public static final int DEFAULT_WORKER_COUNT = 4;
+
+  /**
+   * The longest a worker waits before checking for events again
+   */
+  private static final long WORKER_WAIT_MILLIS = 10;
+
+  /**
+   * The <code>@Subscribe</code> methods of each subscriber class
+   */
+  private static final ConcurrentMap<Class<?>, List<Method>> subscriberMethodCache = new ConcurrentHashMap<>();
+
+  private final Object[] slots;
+
+  private final int mask;
+
+  /**
+   * The sequence last published to each slot
+   */
+  private final AtomicLongArray publishedSequences;
+
+  /**
+   * The last claimed sequence
+   */
+  private final AtomicLong claimSequence = new AtomicLong(-1);
+
+  /**
+   * The minimum subscriber cursor when last checked (avoids scanning the subscribers on every publish)
+   */
+  private final AtomicLong gatingSequenceCache = new AtomicLong(-1);
+
+  private final List<SubscriberCursor> subscriberCursors = new CopyOnWriteArrayList<>();
+
+  private final Object waitLock = new Object();
+
+  private volatile int waitingWorkers = 0;
+
+  private volatile boolean running = true;
+
+  private final ListeningExecutorService workerExecutor;
+
+  /**
+   * Publishes on behalf of threads that must not wait for a full ring
+   */
+  private final ListeningExecutorService handOffExecutor = SafeExecutors.newSingleThreadExecutor("core-events-handoff");
+
+  /**
+   * The number of handed off events not yet in the ring
+   */
+  private final AtomicInteger handOffPendingCount = new AtomicInteger();
+
+  private final AtomicLong handedOffCount = new AtomicLong();
+
+  /**
+   * Identifies worker threads so a full ring cannot deadlock a subscriber that publishes
+   */
+  private final ThreadLocal<Boolean> isWorkerThread = new ThreadLocal<Boolean>() {
+    @Override
+    protected Boolean initialValue() {
+      return false;
+    }
+  };
+
+  public RingBufferEventDispatcher() {
+    this(DEFAULT_CAPACITY, DEFAULT_WORKER_COUNT);
+  }
+
+  /**
+   * @param capacity    The number of slots in the ring (a power of 2)
+   * @param workerCount The number of worker threads delivering to subscribers
+   */
+  public RingBufferEventDispatcher(int capacity, int workerCount) {
+
+    Preconditions.checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1, "'capacity' must be a power of 2");
+    Preconditions.checkArgument(workerCount > 0, "'workerCount' must be positive");
+
+    slots = new Object[capacity];
+    mask = capacity - 1;
+    publishedSequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      publishedSequences.set(i, -1);
+    }
+
+    workerExecutor = SafeExecutors.newFixedThreadPool(workerCount, "core-events-ring");
+    for (int i = 0; i < workerCount; i++) {
+      workerExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          isWorkerThread.set(true);
+          runWorker();
+        }
+      });
+    }
+
+  }
+
+  /**
+   * <p>Register a subscriber to receive events published from now on</p>
+   *
+   * @param subscriber The subscriber (use the Guava <code>@Subscribe</code> annotation to subscribe a method)
+   */
+  public void register(Object subscriber) {
+
+    Preconditions.checkNotNull(subscriber, "'subscriber' must be present");
+
+    List<Method> methods = findSubscriberMethods(subscriber.getClass());
+    if (methods.isEmpty()) {
+      // Nothing to deliver (as for the Guava event bus)
+      return;
+    }
+
+    subscriberCursors.add(new SubscriberCursor(subscriber, methods, claimSequence.get()));
+
+  }
+
+  /**
+   * @param subscriber The subscriber to remove (unknown subscribers are ignored)
+   */
+  public void unregister(Object subscriber) {
+
+    for (SubscriberCursor subscriberCursor : subscriberCursors) {
+      if (subscriberCursor.subscriber == subscriber) {
+        subscriberCursors.remove(subscriberCursor);
+      }
+    }
+
+  }
+
+  /**
+   * <p>Publish an event to all registered subscribers</p>
+   *
+   * @param event The event
+   */
+  public void publish(Object event) {
+
+    Preconditions.checkNotNull(event, "'event' must be present");
+
+    if (isWorkerThread.get() || SwingUtilities.isEventDispatchThread()) {
+      // Follow any earlier handed off events to keep the order
+      if (handOffPendingCount.get() > 0 || !claimAndPublish(event, false)) {
+        handOff(event);
+      }
+      return;
+    }
+
+    claimAndPublish(event, true);
+
+  }
+
+  /**
+   * @return The number of events handed off because the ring was full when the EDT or a worker published
+   */
+  public long getHandedOffCount() {
+    return handedOffCount.get();
+  }
+
+  /**
+   * <p>Stop the worker threads (undelivered events are discarded)</p>
+   */
+  public void shutdown() {
+
+    running = false;
+    synchronized (waitLock) {
+      waitLock.notifyAll();
+    }
+    handOffExecutor.shutdownNow();
+    workerExecutor.shutdown();
+    try {
+      workerExecutor.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+  }
+
+  /**
+   * @param event The event
+   * @param wait  True to wait for the slowest subscriber if the ring is full
+   *
+   * @return True if the event was published (false if the ring is full and not waiting, or shut down)
+   */
+  private boolean claimAndPublish(Object event, boolean wait) {
+
+    long sequence;
+    while (true) {
+      long current = claimSequence.get();
+      long next = current + 1;
+
+      if (next - slots.length > gatingSequenceCache.get()) {
+        long gatingSequence = minimumCursor(current);
+        gatingSequenceCache.set(gatingSequence);
+        if (next - slots.length > gatingSequence) {
+          if (!wait || !running) {
+            return false;
+          }
+          LockSupport.parkNanos(1000);
+          continue;
+        }
+      }
+
+      if (claimSequence.compareAndSet(current, next)) {
+        sequence = next;
+        break;
+      }
+    }
+
+    int index = (int) sequence & mask;
+    slots[index] = event;
+    publishedSequences.set(index, sequence);
+
+    if (waitingWorkers > 0) {
+      synchronized (waitLock) {
+        waitLock.notifyAll();
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * @param event The event to publish from the hand off thread
+   */
+  private void handOff(final Object event) {
+
+    handOffPendingCount.incrementAndGet();
+    handedOffCount.incrementAndGet();
+    try {
+      handOffExecutor.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              claimAndPublish(event, true);
+            } finally {
+              handOffPendingCount.decrementAndGet();
+            }
+          }
+        });
+    } catch (RejectedExecutionException e) {
+      // Shut down so the event would be discarded anyway
+      handOffPendingCount.decrementAndGet();
+      log.debug("Event discarded after shutdown: {}", event.getClass().getSimpleName());
+    }
+
+  }
+
+  private void runWorker() {
+
+    while (running) {
+
+      long seenSequence = claimSequence.get();
+
+      boolean delivered = false;
+      for (SubscriberCursor subscriberCursor : subscriberCursors) {
+        if (subscriberCursor.hasPending() && subscriberCursor.busy.compareAndSet(false, true)) {
+          try {
+            delivered |= subscriberCursor.deliverAvailable();
+          } finally {
+            subscriberCursor.busy.set(false);
+          }
+        }
+      }
+
+      if (!delivered) {
+        waitForEvents(seenSequence);
+      }
+    }
+
+  }
+
+  private void waitForEvents(long seenSequence) {
+
+    synchronized (waitLock) {
+      waitingWorkers++;
+      try {
+        if (running && claimSequence.get() == seenSequence) {
+          waitLock.wait(WORKER_WAIT_MILLIS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        running = false;
+      } finally {
+        waitingWorkers--;
+      }
+    }
+
+  }
+
+  /**
+   * @param defaultSequence The sequence to use if there are no subscribers
+   *
+   * @return The lowest sequence delivered to all subscribers
+   */
+  private long minimumCursor(long defaultSequence) {
+
+    long minimum = defaultSequence;
+    for (SubscriberCursor subscriberCursor : subscriberCursors) {
+      minimum = Math.min(minimum, subscriberCursor.cursor.get());
+    }
+    return minimum;
+
+  }
+
+  /**
+   * @param subscriberClass The subscriber class
+   *
+   * @return The single argument methods annotated with <code>@Subscribe</code> (including inherited methods)
+   */
+  private static List<Method> findSubscriberMethods(Class<?> subscriberClass) {
+
+    List<Method> methods = subscriberMethodCache.get(subscriberClass);
+    if (methods != null) {
+      return methods;
+    }
+
+    List<Method> found = Lists.newArrayList();
+    for (Class<?> type = subscriberClass; type != null && type != Object.class; type = type.getSuperclass()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (method.isAnnotationPresent(Subscribe.class) && method.getParameterTypes().length == 1 && !method.isBridge()) {
+          method.setAccessible(true);
+          found.add(method);
+        }
+      }
+    }
+
+    methods = ImmutableList.copyOf(found);
+    subscriberMethodCache.putIfAbsent(subscriberClass, methods);
+    return methods;
+
+  }
+
+  /**
+   * A subscriber and the sequence of the last event delivered to it
+   */
+  private class SubscriberCursor {
+
+    private final Object subscriber;
+
+    private final List<Method> methods;
+
+    /**
+     * The event type accepted by each method
+     */
+    private final Class<?>[] eventTypes;
+
+    private final AtomicLong cursor;
+
+    /**
+     * True while a worker is delivering to this subscriber
+     */
+    private final AtomicBoolean busy = new AtomicBoolean(false);
+
+    private SubscriberCursor(Object subscriber, List<Method> methods, long cursor) {
+      this.subscriber = subscriber;
+      this.methods = methods;
+      this.eventTypes = new Class<?>[methods.size()];
+      for (int i = 0; i < eventTypes.length; i++) {
+        eventTypes[i] = methods.get(i).getParameterTypes()[0];
+      }
+      this.cursor = new AtomicLong(cursor);
+    }
+
+    private boolean hasPending() {
+      long next = cursor.get() + 1;
+      return publishedSequences.get((int) next & mask) == next;
+    }
+
+    /**
+     * @return True if any events were delivered
+     */
+    private boolean deliverAvailable() {
+
+      long next = cursor.get() + 1;
+      boolean delivered = false;
+      while (running && publishedSequences.get((int) next & mask) == next) {
+        deliver(slots[(int) next & mask]);
+        cursor.set(next);
+        next++;
+        delivered = true;
+      }
+      return delivered;
+
+    }
+
+    private void deliver(Object event) {
+
+      for (int i = 0; i < eventTypes.length; i++) {
+        if (eventTypes[i].isInstance(event)) {
+          try {
+            methods.get(i).invoke(subscriber, event);
+          } catch (InvocationTargetException e) {
+            // This is not serious enough to concern the user
+            log.error(e.getCause().getMessage(), e.getCause());
+          } catch (IllegalAccessException e) {
+            log.error(e.getMessage(), e);
+          }
+        }
+      }
+
+    }
+  }
+}
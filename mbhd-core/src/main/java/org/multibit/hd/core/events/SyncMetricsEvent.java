@@ -0,0 +1,123 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * <p>Event to provide the following to Core event subscribers:</p>
+ * <ul>
+ * <li>Block chain download throughput over a recent window</li>
+ * <li>Bloom filter effectiveness (matched transactions per block and the false positive rate)</li>
+ * <li>An estimate of the time to reach the chain tip</li>
+ * <li>Blocks downloaded from each peer</li>
+ * </ul>
+ *
+ * <p>This is an infrequent event (a few times a minute during a sync)</p>
+ *
+ * @since 0.3.0
+ */
+public class SyncMetricsEvent implements CoreEvent {
+
+  private final double blocksPerSecond;
+
+  private final double bytesPerSecond;
+
+  private final double matchesPerBlock;
+
+  private final double falsePositiveRate;
+
+  private final int blocksLeft;
+
+  private final Optional<Long> secondsToTip;
+
+  private final ImmutableMap<String, Long> blocksByPeer;
+
+  /**
+   * @param blocksPerSecond   The blocks downloaded per second
+   * @param bytesPerSecond    The block message bytes downloaded per second
+   * @param matchesPerBlock   The transactions matched by the bloom filter per block
+   * @param falsePositiveRate The fraction of matched transactions that were not relevant to the wallet
+   * @param blocksLeft        The number of blocks left to download
+   * @param secondsToTip      The estimated time to download the remaining blocks (absent if not downloading)
+   * @param blocksByPeer      The blocks downloaded from each peer since the listener was created
+   */
+  public SyncMetricsEvent(
+    double blocksPerSecond,
+    double bytesPerSecond,
+    double matchesPerBlock,
+    double falsePositiveRate,
+    int blocksLeft,
+    Optional<Long> secondsToTip,
+    ImmutableMap<String, Long> blocksByPeer
+  ) {
+    this.blocksPerSecond = blocksPerSecond;
+    this.bytesPerSecond = bytesPerSecond;
+    this.matchesPerBlock = matchesPerBlock;
+    this.falsePositiveRate = falsePositiveRate;
+    this.blocksLeft = blocksLeft;
+    this.secondsToTip = secondsToTip;
+    this.blocksByPeer = blocksByPeer;
+  }
+
+  /**
+   * @return The blocks downloaded per second
+   */
+  public double getBlocksPerSecond() {
+    return blocksPerSecond;
+  }
+
+  /**
+   * @return The block message bytes downloaded per second
+   */
+  public double getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  /**
+   * @return The transactions matched by the bloom filter per block
+   */
+  public double getMatchesPerBlock() {
+    return matchesPerBlock;
+  }
+
+  /**
+   * @return The fraction of matched transactions that were not relevant to the wallet
+   */
+  public double getFalsePositiveRate() {
+    return falsePositiveRate;
+  }
+
+  /**
+   * @return The number of blocks left to download
+   */
+  public int getBlocksLeft() {
+    return blocksLeft;
+  }
+
+  /**
+   * @return The estimated time to download the remaining blocks
+   */
+  public Optional<Long> getSecondsToTip() {
+    return secondsToTip;
+  }
+
+  /**
+   * @return The blocks downloaded from each peer
+   */
+  public ImmutableMap<String, Long> getBlocksByPeer() {
+    return blocksByPeer;
+  }
+
+  @Override
+  public String toString() {
+    return "SyncMetricsEvent{" +
+      "blocksPerSecond=" + blocksPerSecond +
+      ", bytesPerSecond=" + bytesPerSecond +
+      ", matchesPerBlock=" + matchesPerBlock +
+      ", falsePositiveRate=" + falsePositiveRate +
+      ", blocksLeft=" + blocksLeft +
+      ", secondsToTip=" + secondsToTip +
+      ", blocksByPeer=" + blocksByPeer +
+      '}';
+  }
+}
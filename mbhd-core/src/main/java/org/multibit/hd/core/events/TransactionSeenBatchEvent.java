@@ -0,0 +1,41 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * <p>Event to provide the following to Core event subscribers</p>
+ * <ul>
+ * <li>A batch of transactions has been seen coming in from the Bitcoin network</li>
+ * </ul>
+ * <p>Transaction seen events are accumulated and delivered in batches so that subscribers can do per-batch
+ * work (such as an exchange rate lookup) once. Each transaction appears at most once in a batch.</p>
+ *
+ * @since 0.3.0
+ */
+public class TransactionSeenBatchEvent implements CoreEvent {
+
+  private final List<TransactionSeenEvent> transactionSeenEvents;
+
+  /**
+   * @param transactionSeenEvents The transaction seen events in the order they were first seen
+   */
+  public TransactionSeenBatchEvent(List<TransactionSeenEvent> transactionSeenEvents) {
+    this.transactionSeenEvents = ImmutableList.copyOf(transactionSeenEvents);
+  }
+
+  /**
+   * @return The transaction seen events, one per transaction
+   */
+  public List<TransactionSeenEvent> getTransactionSeenEvents() {
+    return transactionSeenEvents;
+  }
+
+  @Override
+  public String toString() {
+    return "TransactionSeenBatchEvent{" +
+      "size=" + transactionSeenEvents.size() +
+      '}';
+  }
+}
@@ -0,0 +1,126 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Batcher to provide the following to CoreEvents:</p>
+ * <ul>
+ * <li>Accumulation of transaction seen events between drains</li>
+ * <li>Coalescing of repeated events for the same transaction into one</li>
+ * <li>Counters for events received and coalesced</li>
+ * </ul>
+ * <p>Events are coalesced by transaction as they arrive so the pending batch is bounded by the number of distinct
+ * transactions and no event is ever dropped.</p>
+ *
+ * @since 0.3.0
+ */
+public class TransactionSeenBatcher {
+
+  /**
+   * The latest event for each transaction in the order the transactions were first seen (guarded by this)
+   */
+  private Map<String, TransactionSeenEvent> pending = Maps.newLinkedHashMap();
+
+  /**
+   * True if a drain has been requested and not yet performed (guarded by this)
+   */
+  private boolean drainPending = false;
+
+  private final AtomicLong receivedCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+  private final AtomicLong batchCount = new AtomicLong();
+
+  /**
+   * @param transactionSeenEvent The event to add to the next batch
+   *
+   * @return True if the caller should arrange a drain (this is the first event since the last drain)
+   */
+  synchronized boolean offer(TransactionSeenEvent transactionSeenEvent) {
+
+    Preconditions.checkNotNull(transactionSeenEvent, "'transactionSeenEvent' must be present");
+
+    receivedCount.incrementAndGet();
+
+    // A linked hash map keeps the position of an existing key
+    TransactionSeenEvent previous = pending.put(transactionSeenEvent.getTransactionId(), transactionSeenEvent);
+    if (previous != null) {
+      coalescedCount.incrementAndGet();
+      if (previous.isFirstAppearanceInWallet()) {
+        transactionSeenEvent.setFirstAppearanceInWallet(true);
+      }
+    }
+
+    if (drainPending) {
+      return false;
+    }
+    drainPending = true;
+    return true;
+  }
+
+  /**
+   * <p>Indicate that the drain requested by {@link #offer(TransactionSeenEvent)} could not be arranged so that the
+   * next event requests another (the accumulated events are kept for it)</p>
+   */
+  synchronized void cancelDrain() {
+    drainPending = false;
+  }
+
+  /**
+   * <p>Remove all accumulated events</p>
+   * <p>The most recent event for a transaction is kept, in the position the transaction was first seen, and
+   * remains flagged as a first appearance if any of the coalesced events was</p>
+   *
+   * @return The batch (empty if there was nothing to drain)
+   */
+  List<TransactionSeenEvent> drain() {
+
+    Map<String, TransactionSeenEvent> drained;
+    synchronized (this) {
+      drained = pending;
+      pending = Maps.newLinkedHashMap();
+      drainPending = false;
+    }
+
+    if (!drained.isEmpty()) {
+      batchCount.incrementAndGet();
+    }
+
+    return Lists.newArrayList(drained.values());
+  }
+
+  /**
+   * @return The number of events received
+   */
+  public long getReceivedCount() {
+    return receivedCount.get();
+  }
+
+  /**
+   * @return The number of events merged into a later event for the same transaction
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /**
+   * @return The number of batches delivered
+   */
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return "TransactionSeenBatcher{" +
+      "received=" + receivedCount +
+      ", coalesced=" + coalescedCount +
+      ", batches=" + batchCount +
+      '}';
+  }
+}
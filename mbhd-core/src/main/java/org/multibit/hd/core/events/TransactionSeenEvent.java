@@ -9,7 +9,8 @@ import org.bitcoinj.core.TransactionConfidence;
  * <ul>
  * <li>An arbitrary transaction has been seen coming in from the Bitcoin network</li>
  * </ul>
- * <p>This is a high frequency event during synchronization operations. Consider using
+ * <p>This is a high frequency event during synchronization operations so it is delivered to subscribers within a
+ * {@link org.multibit.hd.core.events.TransactionSeenBatchEvent}. Consider using
  * {@link org.multibit.hd.core.events.SlowTransactionSeenEvent} instead.</p>
  *
  * @since 0.0.1
@@ -0,0 +1,355 @@
+package org.multibit.hd.core.files;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.multibit.hd.core.managers.BackupManager;
+import org.multibit.hd.core.managers.InstallationManager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * <p>Manifest to provide the following to BackupManager:</p>
+ * <ul>
+ * <li>The SHA-256 and CRC-32 of every file in a zip backup, keyed by the name of its zip entry</li>
+ * <li>A check on whether the wallet has changed since a backup was made</li>
+ * <li>Reuse of those checksums so that unchanged files are read once per backup (to copy them) rather than three times</li>
+ * </ul>
+ * <p>Every zip backup holds all the files so it can be restored on its own. The manifest is the first entry of a zip
+ * backup so it can be read without decrypting the rest of the file. Backups made before manifests were introduced
+ * have none.</p>
+ *
+ * @since 0.3.0
+ */
+public class BackupManifest {
+
+  /**
+   * The name of the zip entry holding the manifest
+   */
+  public static final String ENTRY_NAME = "mbhd-backup.manifest";
+
+  private static final String HEADER = "mbhd-backup-manifest 2";
+
+  /**
+   * The header of manifests without CRC-32 or scan times (still read to restore older backups)
+   */
+  private static final String HEADER_VERSION_1 = "mbhd-backup-manifest 1";
+
+  private static final String SCANNED_PREFIX = "scanned ";
+
+  /**
+   * The coarsest modification time granularity expected (FAT has 2 seconds, HFS+ and many network mounts 1 second).
+   * A file rewritten within this window of a scan can keep the same length and modification time so its checksums
+   * are not reused (the same "racy" check git makes for its index).
+   */
+  private static final long RACY_WINDOW_MILLIS = 2000;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final long scannedMillis;
+
+  private final ImmutableMap<String, Entry> entries;
+
+  private BackupManifest(long scannedMillis, Map<String, Entry> entries) {
+    this.scannedMillis = scannedMillis;
+    this.entries = ImmutableMap.copyOf(entries);
+  }
+
+  /**
+   * <p>Hash the files that belong in a backup of the wallet root directory (the zip backups and the block store are
+   * left out)</p>
+   *
+   * @param walletRootDirectory The wallet root directory
+   * @param known               A previous manifest whose checksums are reused for files with the same length and
+   *                            modification time (unless modified within RACY_WINDOW_MILLIS of that scan)
+   *
+   * @return A manifest of the files
+   */
+  public static BackupManifest scan(File walletRootDirectory, Optional<BackupManifest> known) throws IOException {
+
+    Preconditions.checkNotNull(walletRootDirectory, "'walletRootDirectory' must be present");
+    Preconditions.checkNotNull(known, "'known' must be present");
+
+    // Taken before any file is read so a later rewrite is always outside the window
+    long scannedMillis = System.currentTimeMillis();
+
+    Map<String, Entry> entries = Maps.newTreeMap();
+    for (Map.Entry<String, File> file : listFiles(walletRootDirectory).entrySet()) {
+
+      long length = file.getValue().length();
+      long lastModified = file.getValue().lastModified();
+
+      Entry knownEntry = known.isPresent() ? known.get().entries.get(file.getKey()) : null;
+      if (knownEntry != null
+        && knownEntry.crc32 >= 0
+        && knownEntry.length == length
+        && knownEntry.lastModified == lastModified
+        && lastModified + RACY_WINDOW_MILLIS <= known.get().scannedMillis) {
+        // Unchanged since it was last hashed
+        entries.put(file.getKey(), knownEntry);
+      } else {
+        entries.put(file.getKey(), hash(file.getValue(), length, lastModified));
+      }
+    }
+
+    return new BackupManifest(scannedMillis, entries);
+  }
+
+  /**
+   * @return An entry with the checksums of the file (both from one read)
+   */
+  private static Entry hash(File file, long length, long lastModified) throws IOException {
+
+    Hasher sha256 = Hashing.sha256().newHasher();
+    CRC32 crc32 = new CRC32();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream inputStream = new FileInputStream(file)) {
+      int count;
+      while ((count = inputStream.read(buffer)) != -1) {
+        sha256.putBytes(buffer, 0, count);
+        crc32.update(buffer, 0, count);
+      }
+    }
+
+    return new Entry(sha256.hash().toString(), crc32.getValue(), length, lastModified);
+  }
+
+  /**
+   * @param walletRootDirectory The wallet root directory
+   *
+   * @return The files that belong in a backup keyed by their zip entry names (in the same form as ZipFiles)
+   */
+  static Map<String, File> listFiles(File walletRootDirectory) {
+
+    Map<String, File> files = Maps.newTreeMap();
+    addFiles(walletRootDirectory, "", files);
+
+    return files;
+  }
+
+  private static void addFiles(File directory, String entryPrefix, Map<String, File> files) {
+
+    String[] names = directory.list();
+    if (names == null) {
+      return;
+    }
+    Arrays.sort(names);
+
+    for (String name : names) {
+      File file = new File(directory, name);
+      if (file.isDirectory()) {
+        // The zip backups are not stored in the backup (as they are backups themselves)
+        if (!BackupManager.LOCAL_ZIP_BACKUP_DIRECTORY_NAME.equals(name)) {
+          addFiles(file, entryPrefix + name + File.separator, files);
+        }
+      } else if (!name.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX)) {
+        // The block store can be downloaded again so is left out (to save space)
+        files.put(entryPrefix + name, file);
+      }
+    }
+  }
+
+  /**
+   * @param other Another manifest
+   *
+   * @return True if both manifests hold the same files with the same contents
+   */
+  public boolean hasSameContents(BackupManifest other) {
+
+    if (!entries.keySet().equals(other.entries.keySet())) {
+      return false;
+    }
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      if (!entry.getValue().sha256.equals(other.entries.get(entry.getKey()).sha256)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * @return The time the files were scanned in milliseconds since the epoch (0 if not known)
+   */
+  public long getScannedMillis() {
+    return scannedMillis;
+  }
+
+  /**
+   * @return The entries keyed by zip entry name
+   */
+  public ImmutableMap<String, Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return The total length of the files
+   */
+  public long getTotalLength() {
+
+    long total = 0;
+    for (Entry entry : entries.values()) {
+      total += entry.length;
+    }
+
+    return total;
+  }
+
+  /**
+   * @return The most recent modification time of the files (0 if there are none)
+   */
+  public long getLastModified() {
+
+    long lastModified = 0;
+    for (Entry entry : entries.values()) {
+      lastModified = Math.max(lastModified, entry.lastModified);
+    }
+
+    return lastModified;
+  }
+
+  /**
+   * @param outputStream The stream to write to (left open)
+   */
+  public void write(OutputStream outputStream) throws IOException {
+
+    Writer writer = new OutputStreamWriter(outputStream, Charsets.UTF_8);
+    writer.write(HEADER + "\n");
+    writer.write(SCANNED_PREFIX + scannedMillis + "\n");
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      Entry value = entry.getValue();
+      // The name goes last as it may contain spaces
+      writer.write(value.sha256 + " " + value.crc32 + " " + value.length + " " + value.lastModified + " " + entry.getKey() + "\n");
+    }
+    writer.flush();
+  }
+
+  /**
+   * @param inputStream The manifest (read to the end but left open)
+   *
+   * @return The manifest
+   *
+   * @throws IOException If the manifest is not in a known format
+   */
+  public static BackupManifest read(InputStream inputStream) throws IOException {
+
+    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, Charsets.UTF_8));
+    String header = reader.readLine();
+    boolean version1 = HEADER_VERSION_1.equals(header);
+    if (!HEADER.equals(header) && !version1) {
+      throw new IOException("Unknown backup manifest format");
+    }
+
+    // Version 1 has no scan time or CRC-32 so its checksums are never reused
+    long scannedMillis = 0;
+    Map<String, Entry> entries = Maps.newTreeMap();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      try {
+        if (line.startsWith(SCANNED_PREFIX)) {
+          scannedMillis = Long.parseLong(line.substring(SCANNED_PREFIX.length()));
+        } else if (version1) {
+          String[] fields = line.split(" ", 4);
+          if (fields.length != 4) {
+            throw new IOException("Malformed backup manifest line");
+          }
+          entries.put(fields[3], new Entry(fields[0], -1, Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+        } else {
+          String[] fields = line.split(" ", 5);
+          if (fields.length != 5) {
+            throw new IOException("Malformed backup manifest line");
+          }
+          entries.put(fields[4], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+        }
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed backup manifest line", e);
+      }
+    }
+
+    return new BackupManifest(scannedMillis, entries);
+  }
+
+  /**
+   * @param zipInputStream A zip backup positioned at its start
+   *
+   * @return The manifest if it is the first entry (absent for backups made before manifests were introduced)
+   */
+  public static Optional<BackupManifest> readFromZip(ZipInputStream zipInputStream) throws IOException {
+
+    ZipEntry firstEntry = zipInputStream.getNextEntry();
+    if (firstEntry == null || !ENTRY_NAME.equals(firstEntry.getName())) {
+      return Optional.absent();
+    }
+
+    return Optional.of(read(zipInputStream));
+  }
+
+  /**
+   * <p>A file in the backup</p>
+   */
+  public static class Entry {
+
+    private final String sha256;
+
+    private final long crc32;
+
+    private final long length;
+
+    private final long lastModified;
+
+    Entry(String sha256, long crc32, long length, long lastModified) {
+      this.sha256 = sha256;
+      this.crc32 = crc32;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * @return The SHA-256 of the file contents as hex
+     */
+    public String getSha256() {
+      return sha256;
+    }
+
+    /**
+     * @return The CRC-32 of the file contents (-1 if not known)
+     */
+    public long getCrc32() {
+      return crc32;
+    }
+
+    /**
+     * @return The length of the file
+     */
+    public long getLength() {
+      return length;
+    }
+
+    /**
+     * @return The modification time of the file when it was hashed
+     */
+    public long getLastModified() {
+      return lastModified;
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package org.multibit.hd.core.files;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Uploader to provide the following to BackupManager:</p>
+ * <ul>
+ * <li>Copying of staged backups to a slow destination (typically a sync folder on a network mount) at a limited rate</li>
+ * <li>Resumption of a copy that was interrupted part way through</li>
+ * <li>Verification of the copy by checksum before it is renamed into place</li>
+ * <li>The number of bytes copied and the copy throughput</li>
+ * </ul>
+ * <p>A copy is written as <code>name.partial</code> and is only renamed to its final name once the SHA-256 of the copy
+ * read back from the destination matches the staged file, so nothing reading the destination sees half a backup.</p>
+ *
+ * @since 0.3.0
+ */
+public class BackupUploader {
+
+  private static final Logger log = LoggerFactory.getLogger(BackupUploader.class);
+
+  /**
+   * The extension of a copy that is still being written
+   */
+  public static final String PARTIAL_FILE_EXTENSION = ".partial";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final long maximumBytesPerSecond;
+
+  private final AtomicLong bytesCopied = new AtomicLong();
+
+  private final AtomicLong copyNanos = new AtomicLong();
+
+  /**
+   * @param maximumBytesPerSecond The copy rate limit (zero for no limit)
+   */
+  public BackupUploader(long maximumBytesPerSecond) {
+
+    Preconditions.checkArgument(maximumBytesPerSecond >= 0, "'maximumBytesPerSecond' must not be negative");
+
+    this.maximumBytesPerSecond = maximumBytesPerSecond;
+  }
+
+  /**
+   * <p>Copy a staged file into the destination directory, carrying on from any partial copy left by an earlier attempt</p>
+   *
+   * @param stagedFile           The file to copy (left in place)
+   * @param destinationDirectory The directory to copy to
+   *
+   * @return The copy
+   *
+   * @throws IOException If the copy failed or does not match the staged file (an interrupted copy is kept to be resumed)
+   */
+  public File upload(File stagedFile, File destinationDirectory) throws IOException {
+
+    Preconditions.checkNotNull(stagedFile, "'stagedFile' must be present");
+    Preconditions.checkNotNull(destinationDirectory, "'destinationDirectory' must be present");
+
+    File partialFile = new File(destinationDirectory, stagedFile.getName() + PARTIAL_FILE_EXTENSION);
+    File uploadedFile = new File(destinationDirectory, stagedFile.getName());
+
+    long offset = partialFile.exists() ? partialFile.length() : 0;
+    if (offset > stagedFile.length()) {
+      // Cannot be the start of the staged file
+      deletePartialFile(partialFile);
+      offset = 0;
+    }
+    if (offset > 0) {
+      log.debug("Resuming upload of '{}' at {} of {} bytes", stagedFile.getName(), offset, stagedFile.length());
+    }
+
+    copy(stagedFile, partialFile, offset);
+
+    // Read the copy back from the destination (a resumed copy that did not start with the staged file is caught here)
+    HashCode stagedHash = Files.hash(stagedFile, Hashing.sha256());
+    HashCode uploadedHash = Files.hash(partialFile, Hashing.sha256());
+    if (!stagedHash.equals(uploadedHash)) {
+      // The next attempt starts again from the beginning
+      deletePartialFile(partialFile);
+      throw new IOException("The upload of '" + stagedFile.getName() + "' does not match the staged file");
+    }
+
+    try {
+      java.nio.file.Files.move(partialFile.toPath(), uploadedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      log.debug("Destination does not support an atomic rename so replacing '{}'", uploadedFile.getName());
+      java.nio.file.Files.move(partialFile.toPath(), uploadedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    return uploadedFile;
+  }
+
+  /**
+   * @return The total number of bytes copied
+   */
+  public long getBytesCopied() {
+    return bytesCopied.get();
+  }
+
+  /**
+   * @return The average copy rate including the time spent waiting for the rate limit (zero before the first copy)
+   */
+  public double getBytesPerSecond() {
+
+    long nanos = copyNanos.get();
+    return nanos == 0 ? 0 : bytesCopied.get() * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+  }
+
+  private void copy(File stagedFile, File partialFile, long offset) throws IOException {
+
+    long start = System.nanoTime();
+    long copied = 0;
+    try (FileInputStream inputStream = new FileInputStream(stagedFile);
+         FileOutputStream outputStream = new FileOutputStream(partialFile, true)) {
+
+      FileChannel inputChannel = inputStream.getChannel();
+      FileChannel outputChannel = outputStream.getChannel();
+      inputChannel.position(offset);
+
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      while (inputChannel.read(buffer) != -1) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          copied += outputChannel.write(buffer);
+        }
+        buffer.clear();
+
+        throttle(copied, System.nanoTime() - start);
+      }
+
+      // Make sure the bytes have reached the destination before they are read back
+      outputChannel.force(true);
+
+    } finally {
+      bytesCopied.addAndGet(copied);
+      copyNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Sleep for long enough to bring the copy rate down to the limit
+   */
+  private void throttle(long copied, long elapsedNanos) throws InterruptedIOException {
+
+    if (maximumBytesPerSecond == 0) {
+      return;
+    }
+
+    long sleepNanos = copied * TimeUnit.SECONDS.toNanos(1) / maximumBytesPerSecond - elapsedNanos;
+    if (sleepNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Upload interrupted (the partial copy is kept to be resumed)");
+      }
+    }
+  }
+
+  private void deletePartialFile(File partialFile) {
+    if (partialFile.exists() && !partialFile.delete()) {
+      log.warn("Could not delete partial upload '{}'", partialFile.getAbsolutePath());
+    }
+  }
+}
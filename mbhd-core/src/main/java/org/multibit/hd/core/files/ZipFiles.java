@@ -1,14 +1,23 @@
 package org.multibit.hd.core.files;
 
+import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
 import org.multibit.hd.core.managers.BackupManager;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Enumeration;
+import java.util.Map;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import static org.multibit.commons.files.SecureFiles.verifyOrCreateDirectory;
@@ -27,6 +36,11 @@ public class ZipFiles {
 
   private static final Logger log = LoggerFactory.getLogger(ZipFiles.class);
 
+  /**
+   * The size of the read and write buffers used for backups
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   /**
    * Utilities have private constructor
    */
@@ -70,6 +84,146 @@ public class ZipFiles {
     }
   }
 
+  /**
+   * <p>Write a zip backup of the wallet root directory holding the manifest followed by every file it lists</p>
+   *
+   * @param walletRootDirectory The wallet root directory the manifest was scanned from
+   * @param manifest            The manifest
+   * @param outputStream        The destination of the zip (left open)
+   *
+   * @throws IOException If a file could not be read or its size or CRC-32 has changed since the manifest was scanned
+   */
+  public static void zipBackup(File walletRootDirectory, BackupManifest manifest, OutputStream outputStream) throws IOException {
+
+    // The deflater writes in small pieces so gather them up before they reach the destination (usually a cipher)
+    ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FilterOutputStream(outputStream) {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        // Leave the underlying stream open for the caller
+        flush();
+      }
+    }, BUFFER_SIZE));
+
+    try {
+      // The manifest goes first so it can be read without reading the whole backup
+      ZipEntry manifestEntry = new ZipEntry(BackupManifest.ENTRY_NAME);
+      manifestEntry.setTime(manifest.getLastModified());
+      zip.putNextEntry(manifestEntry);
+      manifest.write(zip);
+      zip.closeEntry();
+
+      byte[] buffer = new byte[BUFFER_SIZE];
+      ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+      for (Map.Entry<String, BackupManifest.Entry> entry : manifest.getEntries().entrySet()) {
+        // Entry times come from the manifest so the same files always give the same bytes
+        ZipEntry zipEntry = new ZipEntry(entry.getKey());
+        zipEntry.setTime(entry.getValue().getLastModified());
+
+        // The zip checks the size and CRC-32 as it writes so a file that changed since the scan fails the entry
+        zipEntry.setSize(entry.getValue().getLength());
+        zipEntry.setCrc(entry.getValue().getCrc32());
+        if (entry.getKey().endsWith(".aes")) {
+          // Encrypted files do not compress so copy them as they are
+          zipEntry.setMethod(ZipEntry.STORED);
+          zipEntry.setCompressedSize(entry.getValue().getLength());
+        }
+        zip.putNextEntry(zipEntry);
+
+        try (FileChannel channel = new FileInputStream(new File(walletRootDirectory, entry.getKey())).getChannel()) {
+          byteBuffer.clear();
+          while (channel.read(byteBuffer) != -1) {
+            zip.write(buffer, 0, byteBuffer.position());
+            byteBuffer.clear();
+          }
+          zip.closeEntry();
+        } catch (ZipException e) {
+          throw new IOException("File '" + entry.getKey() + "' changed while it was being backed up", e);
+        }
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * <p>Extract a zip backup, checking each file against the manifest if the backup has one</p>
+   *
+   * @param plainInputStream     The plain (decrypted) zip backup (read to the end but left open)
+   * @param directoryToExtractTo The directory to extract to
+   *
+   * @return The manifest (absent for backups made before manifests were introduced)
+   *
+   * @throws IOException If a file does not match the manifest or a file in the manifest is missing
+   */
+  public static Optional<BackupManifest> unzipBackup(InputStream plainInputStream, File directoryToExtractTo) throws IOException {
+
+    verifyOrCreateDirectory(directoryToExtractTo);
+
+    ZipInputStream zip = new ZipInputStream(plainInputStream);
+    Optional<BackupManifest> manifest = Optional.absent();
+    int extracted = 0;
+
+    ZipEntry entry;
+    boolean first = true;
+    while ((entry = zip.getNextEntry()) != null) {
+      if (first && BackupManifest.ENTRY_NAME.equals(entry.getName())) {
+        manifest = Optional.of(BackupManifest.read(zip));
+      } else if (!entry.isDirectory() && !entry.getName().contains(".DS_Store")) {
+        Optional<String> expectedSha256 = Optional.absent();
+        if (manifest.isPresent()) {
+          BackupManifest.Entry manifestEntry = manifest.get().getEntries().get(entry.getName());
+          if (manifestEntry == null) {
+            throw new IOException("Backup entry '" + entry.getName() + "' is not in the manifest");
+          }
+          expectedSha256 = Optional.of(manifestEntry.getSha256());
+        }
+        extractEntry(zip, entry.getName(), directoryToExtractTo, expectedSha256);
+        extracted++;
+      }
+      first = false;
+    }
+
+    // Read to the end so that a bad key or a truncated file is reported by the decryption
+    ByteStreams.exhaust(plainInputStream);
+
+    if (manifest.isPresent() && extracted != manifest.get().getEntries().size()) {
+      throw new IOException("The backup is missing " + (manifest.get().getEntries().size() - extracted) + " files");
+    }
+
+    return manifest;
+  }
+
+  /**
+   * @param zip                  The zip positioned at the entry
+   * @param name                 The entry name
+   * @param directoryToExtractTo The directory to extract to
+   * @param expectedSha256       The SHA-256 the contents must have (if known)
+   */
+  private static void extractEntry(ZipInputStream zip, String name, File directoryToExtractTo, Optional<String> expectedSha256) throws IOException {
+
+    File file = new File(directoryToExtractTo, name);
+    if (!file.getCanonicalPath().startsWith(directoryToExtractTo.getCanonicalPath() + File.separator)) {
+      throw new IOException("Backup entry '" + name + "' is outside the wallet directory");
+    }
+    verifyOrCreateDirectory(file.getParentFile());
+
+    log.debug("Extracting file: " + name);
+
+    HashingInputStream in = new HashingInputStream(Hashing.sha256(), zip);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      ByteStreams.copy(in, out);
+    }
+
+    if (expectedSha256.isPresent() && !expectedSha256.get().equals(in.hash().toString())) {
+      throw new IOException("Backup entry '" + name + "' does not match the manifest");
+    }
+  }
+
   public static void unzip(String zipFileName, String directoryToExtractTo) throws IOException {
 
     Enumeration entriesEnum;
@@ -91,7 +245,7 @@ public class ZipFiles {
         } else {
 
           // Ignore certain files
-          if (entry.getName().contains(".DS_Store")) {
+          if (entry.getName().contains(".DS_Store") || BackupManifest.ENTRY_NAME.equals(entry.getName())) {
             continue;
           }
 
@@ -4,11 +4,9 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import org.bitcoinj.core.Wallet;
 import org.joda.time.DateTime;
-import org.multibit.commons.crypto.AESUtils;
 import org.multibit.commons.utils.Dates;
 import org.multibit.hd.brit.core.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.core.seed_phrase.SeedPhraseGenerator;
@@ -23,22 +21,29 @@ import org.multibit.hd.core.events.WalletLoadEvent;
 import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
 import org.multibit.hd.core.exceptions.WalletLoadException;
 import org.multibit.commons.files.SecureFiles;
+import org.multibit.hd.core.files.BackupManifest;
+import org.multibit.hd.core.files.BackupUploader;
 import org.multibit.hd.core.files.ZipFiles;
+import org.multibit.hd.core.services.WalletService;
+import org.multibit.hd.core.store.PaymentsJournal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.ZipInputStream;
 
 import static org.multibit.hd.core.dto.WalletId.LENGTH_OF_FORMATTED_WALLET_ID;
 import static org.multibit.hd.core.dto.WalletId.WALLET_ID_SEPARATOR;
@@ -64,6 +69,10 @@ public enum BackupManager {
   public static final int MAXIMUM_NUMBER_OF_ZIP_BACKUPS = 60; // Chosen so that you will have about weekly backups for a year, fortnightly over two years.
   public static final int NUMBER_OF_FIRST_WALLET_ZIP_BACKUPS_TO_ALWAYS_KEEP = 2;
   public static final int NUMBER_OF_LAST_WALLET_ZIP_BACKUPS_TO_ALWAYS_KEEP = 8; // Must be at least 1.
+  private static final int MAXIMUM_NUMBER_OF_ZIP_BACKUP_ATTEMPTS = 3; // Files can change while they are being backed up.
+
+  public static final String CLOUD_BACKUP_STAGING_DIRECTORY_NAME = "cloud-staging"; // Inside the zip-backup directory so it is never backed up itself.
+  public static final long CLOUD_BACKUP_MAXIMUM_BYTES_PER_SECOND = 512 * 1024; // Leaves room for the sync client on a slow connection.
 
   public static final String BACKUP_TIMESTAMP_SUFFIX_FORMAT = "yyyyMMddHHmmss";
   private DateFormat dateFormat;
@@ -76,6 +85,14 @@ public enum BackupManager {
   // Where the cloud backups are stored (this is typically specified by the user and is a SpiderOak etc sync directory)
   private Optional<File> cloudBackupDirectory;
 
+  // Copies staged cloud backups into the cloud backup directory
+  private final BackupUploader cloudBackupUploader = new BackupUploader(CLOUD_BACKUP_MAXIMUM_BYTES_PER_SECOND);
+
+  /**
+   * Held while the cloud backup directory is read for staging or thinned after an upload (they run on different threads)
+   */
+  private final Object cloudBackupDirectoryLock = new Object();
+
   /**
    * Initialise the backup manager to use the specified cloudBackupDirectory.
    * All the cloud backups will be written and read from this directory.
@@ -247,10 +264,14 @@ public enum BackupManager {
    * <p/>
    * This is a copy of the supplied wallet file, timestamped and copied to the rolling-backup directory
    * There is a maximum number of rolling backups, removals are done using a first in - first out rule.
+   * <p/>
+   * The encrypted wallet written by the last save is copied as it is (it has the same encryption as a rolling backup)
+   * and nothing is written if it is identical to the newest rolling backup. The wallet is only serialized and encrypted
+   * again if there is no encrypted wallet to copy.
    *
    * @param walletSummary The wallet data with the wallet to backup
    *
-   * @return the File of the created rolling wallet backup
+   * @return the File of the encrypted rolling wallet backup (the newest existing one if the wallet is unchanged)
    *
    * @throws java.io.IOException if the wallet backup could not be created
    */
@@ -282,14 +303,41 @@ public enum BackupManager {
       + WalletManager.MBHD_WALLET_SUFFIX;
 
     File walletBackupFile = new File(walletBackupFilename);
-    log.debug("Creating rolling-backup\n'{}'", walletBackupFilename);
-    walletSummary.getWallet().saveToFile(walletBackupFile);
-    log.debug("Created rolling-backup successfully. Size = {}", walletBackupFile.length());
+    File encryptedAESCopy = new File(walletBackupFilename + WalletManager.MBHD_AES_SUFFIX);
 
-    File encryptedAESCopy = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(walletBackupFile, password);
-    log.debug("Created rolling-backup AES copy successfully as file:\n'{}'", encryptedAESCopy == null ? "" : encryptedAESCopy.getAbsolutePath());
+    // The last save encrypted the wallet with the same key as the rolling backups
+    File currentWalletFile = new File(walletRootDirectory, WalletManager.MBHD_WALLET_NAME + WalletManager.MBHD_AES_SUFFIX);
 
     List<File> rollingBackups = getRollingBackups(walletSummary.getWalletId());
+    if (currentWalletFile.exists() && !rollingBackups.isEmpty()) {
+      File newestRollingBackup = rollingBackups.get(rollingBackups.size() - 1);
+      if (newestRollingBackup.length() == currentWalletFile.length() && Files.equal(newestRollingBackup, currentWalletFile)) {
+        log.debug("Wallet is unchanged since rolling-backup\n'{}'", newestRollingBackup.getAbsolutePath());
+        return newestRollingBackup;
+      }
+    }
+
+    boolean copied = false;
+    if (currentWalletFile.exists() && !encryptedAESCopy.exists()) {
+      log.debug("Creating rolling-backup by copying\n'{}'", currentWalletFile.getAbsolutePath());
+      try {
+        EncryptedFileReaderWriter.copyEncryptedFile(currentWalletFile, encryptedAESCopy);
+        copied = true;
+      } catch (EncryptedFileReaderWriterException e) {
+        log.warn("Could not copy the encrypted wallet so saving the wallet instead", e);
+      }
+    }
+
+    if (!copied) {
+      log.debug("Creating rolling-backup\n'{}'", walletBackupFilename);
+      walletSummary.getWallet().saveToFile(walletBackupFile);
+      log.debug("Created rolling-backup successfully. Size = {}", walletBackupFile.length());
+
+      encryptedAESCopy = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(walletBackupFile, password);
+    }
+    log.debug("Created rolling-backup AES copy successfully as file:\n'{}'", encryptedAESCopy == null ? "" : encryptedAESCopy.getAbsolutePath());
+
+    rollingBackups = getRollingBackups(walletSummary.getWalletId());
 
     // If there are more than the maximum number of rolling backups, secure delete the eldest
     if (rollingBackups.size() > MAXIMUM_NUMBER_OF_ROLLING_BACKUPS) {
@@ -302,16 +350,16 @@ public enum BackupManager {
       // Delete the second eldest
       SecureFiles.secureDelete(rollingBackups.get(1));
     }
-    return walletBackupFile;
+    return encryptedAESCopy;
   }
 
   /**
    * Create a local zip backup of the specified wallet id.
    * The wallet manager is interrogated to find the physical directory where the wallet is stored.
    * The whole directory (except the zip-backups) is then copied and zipped into a timestamped backup file
-   * This is then written to the local backup directories
+   * This is then written to the local backup directories (unless nothing has changed since the last local backup)
    *
-   * @return The created local backup as a file
+   * @return The created local backup as a file (the last local backup if nothing has changed)
    */
   public File createLocalBackup(WalletId walletId, CharSequence password) throws IOException {
     Preconditions.checkNotNull(walletId);
@@ -325,41 +373,50 @@ public enum BackupManager {
     }
 
     WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(walletRootDirectory, walletId);
+    KeyParameter backupAESKey = EncryptedFileReaderWriter.decryptBackupAESKey((String) password, walletSummary.getEncryptedBackupKey());
 
     File localBackupDirectory = new File(walletRootDirectory.getAbsoluteFile() + File.separator + LOCAL_ZIP_BACKUP_DIRECTORY_NAME);
     SecureFiles.verifyOrCreateDirectory(localBackupDirectory);
 
-    String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
-      + WALLET_ID_SEPARATOR
-      + walletId.toFormattedString()
-      + WALLET_ID_SEPARATOR
-      + Dates.formatBackupDate(Dates.nowUtc())
-      + BACKUP_ZIP_FILE_EXTENSION;
-    String localBackupFilename = localBackupDirectory.getAbsolutePath() + File.separator + backupFilename;
-
-    log.debug("Creating local zip-backup\n'{}'", localBackupFilename);
-    ZipFiles.zipFolder(walletRootDirectory.getAbsolutePath(), localBackupFilename, false);
-    File localBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(
-      new File(localBackupFilename),
-      (String) password,
-      walletSummary.getEncryptedBackupKey());
-    log.debug("Created encrypted local zip-backup successfully. Size = {} bytes", localBackupEncryptedFilename.length());
+    log.debug("Creating local zip-backup in\n'{}'", localBackupDirectory);
+    List<BackupSummary> localBackups = getWalletBackups(walletId, localBackupDirectory);
+    Optional<File> localBackupEncryptedFilename = createZipBackup(walletId, walletRootDirectory, localBackups, localBackupDirectory, backupAESKey);
+    if (!localBackupEncryptedFilename.isPresent()) {
+      return getLatestBackup(localBackups).get().getFile();
+    }
+    log.debug("Created encrypted local zip-backup successfully. Size = {} bytes", localBackupEncryptedFilename.get().length());
 
     // Thin the local backup directory
     thinBackupDirectory(walletId, localBackupDirectory);
 
-    return localBackupEncryptedFilename;
+    return localBackupEncryptedFilename.get();
   }
 
   /**
    * Create a cloud backup of the specified wallet id.
    * The wallet manager is interrogated to find the physical directory where the wallet is stored.
    * The whole directory (except the zip-backups) is then copied and zipped into a timestamped backup file
-   * This is then written to the cloud backup directories
+   * This is then staged locally and uploaded to the cloud backup directory before returning
    *
    * @return The created cloud backup as a file or null if nothing was generated
    */
   public File createCloudBackup(WalletId walletId, CharSequence password) throws IOException {
+
+    Optional<File> stagedBackup = stageCloudBackup(walletId, password);
+    if (!stagedBackup.isPresent()) {
+      return null;
+    }
+
+    return uploadCloudBackup(walletId, stagedBackup.get());
+  }
+
+  /**
+   * Create a cloud backup of the specified wallet id in the local staging directory ready to be uploaded.
+   * Nothing is staged if the wallet is unchanged since the last uploaded or staged cloud backup.
+   *
+   * @return The staged cloud backup, absent if no cloud backup directory is set or nothing has changed
+   */
+  public Optional<File> stageCloudBackup(WalletId walletId, CharSequence password) throws IOException {
     Preconditions.checkNotNull(walletId);
     createApplicationDataDirectoryIfNotSet();
 
@@ -372,32 +429,189 @@ public enum BackupManager {
 
     WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(walletRootDirectory, walletId);
 
-
-    String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
-      + WALLET_ID_SEPARATOR
-      + walletId.toFormattedString()
-      + WALLET_ID_SEPARATOR
-      + Dates.formatBackupDate(Dates.nowUtc())
-      + BACKUP_ZIP_FILE_EXTENSION;
-
     if (cloudBackupDirectory.isPresent() && cloudBackupDirectory.get().exists()) {
-      String cloudBackupFilename = cloudBackupDirectory.get().getAbsolutePath() + File.separator + backupFilename;
-      log.debug("Creating cloud zip-backup '" + cloudBackupFilename + "'");
-      ZipFiles.zipFolder(walletRootDirectory.getAbsolutePath(), cloudBackupFilename, false);
-      File cloudBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(
-        new File(cloudBackupFilename),
-        (String) password,
-        walletSummary.getEncryptedBackupKey());
+      KeyParameter backupAESKey = EncryptedFileReaderWriter.decryptBackupAESKey((String) password, walletSummary.getEncryptedBackupKey());
 
-      log.debug("Created encrypted cloud zip-backup successfully. Size = " + (cloudBackupEncryptedFilename).length() + " bytes");
+      File stagingDirectory = getCloudBackupStagingDirectory(walletRootDirectory);
+      SecureFiles.verifyOrCreateDirectory(stagingDirectory);
 
-      // Thin the local backup directory
-      thinBackupDirectory(walletId, cloudBackupDirectory.get());
+      log.debug("Staging cloud zip-backup for '{}' in\n'{}'", cloudBackupDirectory.get(), stagingDirectory);
+      Optional<File> stagedBackup;
+      synchronized (cloudBackupDirectoryLock) {
+        List<BackupSummary> cloudBackups = getWalletBackups(walletId, cloudBackupDirectory.get());
+        cloudBackups.addAll(getWalletBackups(walletId, stagingDirectory));
+        stagedBackup = createZipBackup(walletId, walletRootDirectory, cloudBackups, stagingDirectory, backupAESKey);
+      }
+      if (stagedBackup.isPresent()) {
+        log.debug("Staged encrypted cloud zip-backup successfully. Size = {} bytes", stagedBackup.get().length());
+      }
 
-      return cloudBackupEncryptedFilename;
+      return stagedBackup;
     } else {
       log.debug("No cloud backup made for wallet '" + walletId + "' as no cloudBackupDirectory is set.");
-      return null;
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * Get the staged cloud backups that have not been uploaded yet (including any left over from an earlier session)
+   *
+   * @return The staged backups, oldest first
+   */
+  public List<File> getStagedCloudBackups(WalletId walletId) {
+    Preconditions.checkNotNull(walletId);
+    createApplicationDataDirectoryIfNotSet();
+
+    File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
+
+    List<File> stagedBackups = Lists.newArrayList();
+    for (BackupSummary backup : getWalletBackups(walletId, getCloudBackupStagingDirectory(walletRootDirectory))) {
+      stagedBackups.add(backup.getFile());
+    }
+    // The timestamp is in the name
+    Collections.sort(stagedBackups);
+
+    return stagedBackups;
+  }
+
+  /**
+   * Upload a staged cloud backup to the cloud backup directory at a limited rate, then remove it from the staging
+   * directory and thin the cloud backup directory.
+   * This is slow and should not be run on the thread making the other backups.
+   *
+   * @param walletId     The wallet id of the backup
+   * @param stagedBackup The staged backup (see stageCloudBackup)
+   *
+   * @return The uploaded backup
+   *
+   * @throws IOException If the upload failed (the staged backup is kept so the upload can be resumed)
+   */
+  public File uploadCloudBackup(WalletId walletId, File stagedBackup) throws IOException {
+    Preconditions.checkNotNull(walletId);
+    Preconditions.checkNotNull(stagedBackup);
+    createApplicationDataDirectoryIfNotSet();
+
+    if (!cloudBackupDirectory.isPresent() || !cloudBackupDirectory.get().exists()) {
+      throw new IOException("No cloud backup directory to upload '" + stagedBackup.getName() + "' to");
+    }
+
+    log.debug("Uploading cloud zip-backup '{}' to\n'{}'", stagedBackup.getName(), cloudBackupDirectory.get());
+    File cloudBackup = cloudBackupUploader.upload(stagedBackup, cloudBackupDirectory.get());
+    SecureFiles.secureDelete(stagedBackup);
+    log.debug(
+      "Uploaded encrypted cloud zip-backup successfully. Size = {} bytes, average rate = {} bytes/s",
+      cloudBackup.length(),
+      (long) cloudBackupUploader.getBytesPerSecond()
+    );
+
+    // Thin the cloud backup directory
+    synchronized (cloudBackupDirectoryLock) {
+      thinBackupDirectory(walletId, cloudBackupDirectory.get());
+    }
+
+    return cloudBackup;
+  }
+
+  /**
+   * @return The uploader of the cloud backups (for its throughput)
+   */
+  public BackupUploader getCloudBackupUploader() {
+    return cloudBackupUploader;
+  }
+
+  private File getCloudBackupStagingDirectory(File walletRootDirectory) {
+    return new File(walletRootDirectory.getAbsoluteFile() + File.separator + LOCAL_ZIP_BACKUP_DIRECTORY_NAME + File.separator + CLOUD_BACKUP_STAGING_DIRECTORY_NAME);
+  }
+
+  /**
+   * Create a zip backup of the wallet root directory in the output directory.
+   * <p/>
+   * Every backup holds all the files (with a manifest of the SHA-256 of every file) so it can be restored on its own.
+   * No backup is written if the most recent earlier backup already holds the same files.
+   *
+   * @param earlierBackups  The earlier backups of the wallet
+   * @param outputDirectory The directory to write the backup to
+   *
+   * @return The created backup as a file, absent if nothing has changed since the most recent earlier backup
+   */
+  private Optional<File> createZipBackup(WalletId walletId, final File walletRootDirectory, List<BackupSummary> earlierBackups, File outputDirectory, KeyParameter backupAESKey) throws IOException {
+
+    // Compare with the most recent backup (and reuse its checksums for files that have not been touched since)
+    Optional<BackupSummary> latestBackup = getLatestBackup(earlierBackups);
+    Optional<BackupManifest> latestManifest = Optional.absent();
+    if (latestBackup.isPresent()) {
+      latestManifest = readManifest(latestBackup.get(), backupAESKey);
+    }
+
+    Exception lastException = null;
+    for (int attempt = 0; attempt < MAXIMUM_NUMBER_OF_ZIP_BACKUP_ATTEMPTS; attempt++) {
+
+      String backupFilename = outputDirectory.getAbsolutePath()
+        + File.separator
+        + WalletManager.WALLET_DIRECTORY_PREFIX
+        + WALLET_ID_SEPARATOR
+        + walletId.toFormattedString()
+        + WALLET_ID_SEPARATOR
+        + Dates.formatBackupDate(Dates.nowUtc())
+        + ENCRYPTED_BACKUP_FILE_EXTENSION;
+      File encryptedBackupFile = new File(backupFilename);
+
+      final BackupManifest manifest = BackupManifest.scan(walletRootDirectory, latestManifest);
+      if (latestManifest.isPresent() && manifest.hasSameContents(latestManifest.get())) {
+        log.debug("No zip backup written as nothing has changed since '{}'", latestBackup.get().getName());
+        return Optional.absent();
+      }
+      log.debug("Writing {} files, {} bytes", manifest.getEntries().size(), manifest.getTotalLength());
+
+      try {
+        // Zip straight into the cipher so no plain zip is ever written to disk
+        EncryptedFileReaderWriter.encryptAndWrite(
+          new EncryptedFileReaderWriter.PlainStreamWriter() {
+            @Override
+            public void writeTo(OutputStream plainOutputStream) throws IOException {
+              ZipFiles.zipBackup(walletRootDirectory, manifest, plainOutputStream);
+            }
+          },
+          backupAESKey,
+          encryptedBackupFile
+        );
+
+        return Optional.of(encryptedBackupFile);
+      } catch (EncryptedFileReaderWriterException e) {
+        log.warn("Zip backup attempt {} failed: {}", attempt + 1, e.getMessage());
+        lastException = e;
+      }
+    }
+
+    throw new IOException("Could not create zip backup", lastException);
+  }
+
+  /**
+   * @return The most recent of the backups (the timestamp is in the name)
+   */
+  private Optional<BackupSummary> getLatestBackup(List<BackupSummary> backups) {
+
+    Optional<BackupSummary> latestBackup = Optional.absent();
+    for (BackupSummary backup : backups) {
+      if (!latestBackup.isPresent() || backup.getName().compareTo(latestBackup.get().getName()) > 0) {
+        latestBackup = Optional.of(backup);
+      }
+    }
+
+    return latestBackup;
+  }
+
+  /**
+   * @return The manifest of the backup (absent for backups made before manifests were introduced or that cannot be read)
+   */
+  private Optional<BackupManifest> readManifest(BackupSummary backup, KeyParameter backupAESKey) {
+
+    // The manifest is the first entry so only the start of the file is decrypted
+    try (InputStream decryptedInputStream = EncryptedFileReaderWriter.newDecryptingInputStream(new FileInputStream(backup.getFile()), backupAESKey)) {
+      return BackupManifest.readFromZip(new ZipInputStream(decryptedInputStream));
+    } catch (IOException e) {
+      log.debug("Could not read the manifest of backup '{}': {}", backup.getName(), e.getMessage());
+      return Optional.absent();
     }
   }
 
@@ -474,7 +688,6 @@ public enum BackupManager {
    * @param backupAESKey     The AES key to use to decrypt the backup file
    */
   public WalletId loadZipBackup(File backupFileToLoad, KeyParameter backupAESKey) throws IOException {
-    File temporaryFile = null;
     try {
       // Work out the walletId of the backup file being loaded
       String backupFilename = backupFileToLoad.getName();
@@ -493,28 +706,22 @@ public enum BackupManager {
 
       File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
 
-      // Read the encrypted file in.
-      byte[] encryptedBytes = Files.toByteArray(new File(backupFileToLoad.getAbsolutePath()));
-
-      // Decrypt the backup bytes
-      byte[] decryptedBytes = AESUtils.decrypt(encryptedBytes, backupAESKey, WalletManager.aesInitialisationVector());
-
-      File tempDirectory = Files.createTempDir();
-      temporaryFile = File.createTempFile("backup", "zip", tempDirectory);
-      try (FileOutputStream outputFileStream = new FileOutputStream(temporaryFile)) {
-        ByteStreams.copy(new ByteArrayInputStream(decryptedBytes), outputFileStream);
+      // A payments journal is only extracted if the backup has one so remove any left behind (it belongs to another snapshot)
+      File paymentsJournalFile = new File(walletRootDirectory.getAbsolutePath()
+        + File.separator + WalletService.PAYMENTS_DIRECTORY_NAME
+        + File.separator + WalletService.PAYMENTS_DATABASE_NAME + PaymentsJournal.JOURNAL_SUFFIX);
+      if (paymentsJournalFile.exists()) {
+        SecureFiles.secureDelete(paymentsJournalFile);
       }
 
-      // Unzip the backup into the wallet root directory - this overwrites files if already present (hence the backup just done)
-      ZipFiles.unzip(temporaryFile.getAbsolutePath(), walletRootDirectory.getAbsolutePath());
+      // Decrypt and unzip the backup into the wallet root directory as it is read - this overwrites files if already present (hence the backup just done)
+      try (InputStream decryptedInputStream = EncryptedFileReaderWriter.newDecryptingInputStream(new FileInputStream(backupFileToLoad), backupAESKey)) {
+        ZipFiles.unzipBackup(decryptedInputStream, walletRootDirectory);
+      }
 
       return walletId;
     } catch (Exception e) {
       throw new EncryptedFileReaderWriterException("Cannot read and decrypt the backup file '" + backupFileToLoad.getAbsolutePath() + "'", e);
-    } finally {
-      if (temporaryFile != null) {
-        SecureFiles.secureDelete(temporaryFile);
-      }
     }
   }
 
@@ -526,7 +733,7 @@ public enum BackupManager {
    * @param walletId        the wallet id of wallet backups to thin
    * @param backupDirectory the directory to thin
    */
-  private void thinBackupDirectory(WalletId walletId, File backupDirectory) {
+  private synchronized void thinBackupDirectory(WalletId walletId, File backupDirectory) {
     if (dateFormat == null) {
       dateFormat = new SimpleDateFormat(BACKUP_TIMESTAMP_SUFFIX_FORMAT);
     }
@@ -1,5 +1,6 @@
 package org.multibit.hd.core.managers;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.bitcoinj.core.CheckpointManager;
@@ -7,7 +8,6 @@ import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
-import org.bitcoinj.store.SPVBlockStore;
 import org.joda.time.DateTime;
 import org.multibit.commons.utils.Dates;
 import org.slf4j.Logger;
@@ -22,6 +22,9 @@ import java.util.Stack;
  * <p>Manager to provide the following to BitcoinNetworkService:</p>
  * <ul>
  * <li>Create a blockstore</li>
+ * <li>Maintain a block time index alongside the blockstore</li>
+ * <li>Rewind a blockstore in place for a replay</li>
+ * <li>Checkpoint a blockstore from the binary checkpoint index when available</li>
  * </ul>
  */
 public class BlockStoreManager {
@@ -61,14 +64,14 @@ public class BlockStoreManager {
     log.debug("Get or create SPV block store:\n'{}'", blockStoreFile.getAbsolutePath());
     BlockStore blockStore;
     try {
-      blockStore = new SPVBlockStore(networkParameters, blockStoreFile);
+      blockStore = new IndexedSPVBlockStore(networkParameters, blockStoreFile);
     } catch (BlockStoreException bse) {
       try {
         log.warn("Failed to get or create SPV block store", bse.getMessage());
         // If the block store creation failed, delete the block store file and try again.
         blockStoreCreatedNew = deleteBlockStoreIfRequired(true, blockStoreFile);
 
-        blockStore = new SPVBlockStore(networkParameters, blockStoreFile);
+        blockStore = new IndexedSPVBlockStore(networkParameters, blockStoreFile);
       } catch (BlockStoreException bse2) {
         log.error("Unrecoverable failure in opening block store. This is bad.", bse2.getMessage());
         // Throw the exception so that it is indicated on the UI
@@ -78,24 +81,17 @@ public class BlockStoreManager {
 
     log.debug("Block store in place. Created new: {}", blockStoreCreatedNew);
 
-    // Load the existing checkpoint file and checkpoint from today.
-    if (checkpointsFile.exists()) {
+    // Load the existing checkpoint file and checkpoint from today (an empty file has no checkpoints for this network)
+    if (checkpointsFile.exists() && checkpointsFile.length() > 0) {
 
-      log.debug("Checkpoints exist attempting to stream from:\n'{}'", checkpointsFile.getAbsolutePath());
-
-      try (FileInputStream checkpointsInputStream = new FileInputStream(checkpointsFile)) {
-
-        Preconditions.checkNotNull(checkpointsInputStream, "'stream' must be present");
-
-        if (checkpointDate == null) {
-          if (blockStoreCreatedNew) {
-            // Brand new block store
-            CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, Dates.nowInSeconds());
-          }
-        } else {
-          // Use manager's date (block replay).
-          CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, checkpointDate.getMillis() / 1000);
+      if (checkpointDate == null) {
+        if (blockStoreCreatedNew) {
+          // Brand new block store
+          checkpoint(checkpointsFile, blockStore, Dates.nowInSeconds());
         }
+      } else {
+        // Use manager's date (block replay).
+        checkpoint(checkpointsFile, blockStore, checkpointDate.getMillis() / 1000);
       }
     }
 
@@ -120,7 +116,7 @@ public class BlockStoreManager {
     log.debug("StoredBlockStack is size {}", storedBlockStack == null ? 0 : storedBlockStack.size());
     BlockStore blockStore;
     try {
-      blockStore = new SPVBlockStore(networkParameters, blockStoreFile);
+      blockStore = new IndexedSPVBlockStore(networkParameters, blockStoreFile);
 
       if (storedBlockStack != null && !storedBlockStack.isEmpty()) {
         StoredBlock loopStoredBlock = null;
@@ -138,7 +134,7 @@ public class BlockStoreManager {
         // If the block store creation failed, try to delete the block store file and try again.
         blockStoreCreatedNew = deleteBlockStoreIfRequired(createNew, blockStoreFile);
 
-        blockStore = new SPVBlockStore(networkParameters, blockStoreFile);
+        blockStore = new IndexedSPVBlockStore(networkParameters, blockStoreFile);
         if (storedBlockStack != null && !storedBlockStack.isEmpty()) {
           StoredBlock loopStoredBlock = null;
           while (!storedBlockStack.isEmpty()) {
@@ -161,6 +157,80 @@ public class BlockStoreManager {
     return blockStore;
   }
 
+  /**
+   * <p>Rewind an existing block store in place so that its chain head is the given stored block</p>
+   * <p>The file is not deleted and no checkpoints are written so a short replay can start downloading
+   * immediately. Blocks above the new chain head are overwritten as the chain is downloaded again.</p>
+   *
+   * @param blockStoreFile    The file used for the block store
+   * @param rewindStoredBlock The stored block to use as the chain head
+   *
+   * @return The block store, or absent if the block store no longer holds the stored block
+   */
+  public Optional<BlockStore> rewindBlockStore(File blockStoreFile, StoredBlock rewindStoredBlock) {
+
+    Preconditions.checkNotNull(rewindStoredBlock, "'rewindStoredBlock' must be present");
+
+    if (blockStoreFile.length() == 0) {
+      return Optional.absent();
+    }
+
+    BlockStore blockStore = null;
+    try {
+      blockStore = new IndexedSPVBlockStore(networkParameters, blockStoreFile);
+
+      StoredBlock storedBlock = blockStore.get(rewindStoredBlock.getHeader().getHash());
+      if (storedBlock == null) {
+        log.debug("Block store no longer holds block at height {} so cannot rewind", rewindStoredBlock.getHeight());
+        blockStore.close();
+        return Optional.absent();
+      }
+
+      blockStore.setChainHead(storedBlock);
+      log.debug("Rewound block store in place to height {}", storedBlock.getHeight());
+
+      return Optional.of(blockStore);
+
+    } catch (BlockStoreException bse) {
+      log.warn("Failed to rewind SPV block store: {}", bse.getMessage());
+      if (blockStore != null) {
+        try {
+          blockStore.close();
+        } catch (BlockStoreException e) {
+          log.warn("Failed to close SPV block store: {}", e.getMessage());
+        }
+      }
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * <p>Checkpoint the block store using the binary checkpoint index if present, otherwise the checkpoints file</p>
+   *
+   * @param checkpointsFile The file to use for the checkpoints
+   * @param blockStore      The block store
+   * @param timeSeconds     The time to checkpoint from
+   */
+  private void checkpoint(File checkpointsFile, BlockStore blockStore, long timeSeconds) throws BlockStoreException, IOException {
+
+    File indexFile = CheckpointIndex.getIndexFile(checkpointsFile);
+    Optional<CheckpointIndex> checkpointIndex = CheckpointIndex.open(networkParameters, indexFile);
+    if (checkpointIndex.isPresent()) {
+      log.debug("Checkpoint index exists attempting to map from:\n'{}'", indexFile.getAbsolutePath());
+      checkpointIndex.get().checkpoint(blockStore, timeSeconds);
+      return;
+    }
+
+    log.debug("Checkpoints exist attempting to stream from:\n'{}'", checkpointsFile.getAbsolutePath());
+
+    try (FileInputStream checkpointsInputStream = new FileInputStream(checkpointsFile)) {
+
+      Preconditions.checkNotNull(checkpointsInputStream, "'stream' must be present");
+
+      CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, timeSeconds);
+    }
+  }
+
   @SuppressFBWarnings({"DM_GC"})
   private boolean deleteBlockStoreIfRequired(boolean createNew, File blockStoreFile) {
     // If the spvBlockStore is to be created new
@@ -175,6 +245,12 @@ public class BlockStoreManager {
         log.debug("Deleting SPV block store (pass 1) from file:\n'{}'", blockStoreFile.getAbsolutePath());
         log.debug("isWritable: '{}' isDeletedOK: '{}'", isWritable, isDeletedOk);
       }
+
+      // The index describes the deleted chain
+      File indexFile = IndexedSPVBlockStore.getIndexFile(blockStoreFile);
+      if (indexFile.exists() && !indexFile.delete()) {
+        log.warn("Could not delete block time index:\n'{}'", indexFile.getAbsolutePath());
+      }
       return true;
 
     } else {
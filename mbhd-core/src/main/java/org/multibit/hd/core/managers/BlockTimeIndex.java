@@ -0,0 +1,261 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * <p>Index to provide the following to the SPV block store:</p>
+ * <ul>
+ * <li>Block hash and header time by height for the best chain held in the block store</li>
+ * <li>Binary search for the last block before a given time</li>
+ * <li>Persistence alongside the block store file</li>
+ * </ul>
+ * <p>Heights are contiguous from the base height to the top height. Header times are not strictly increasing
+ * so the search uses the running maximum time, which can only give an earlier block than a linear walk back from
+ * the chain head (never a later one).</p>
+ *
+ * @since 0.3.0
+ */
+public class BlockTimeIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(BlockTimeIndex.class);
+
+  private static final int MAGIC = 0x4d425449; // "MBTI"
+
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * The number of oldest entries removed at once when the index is full
+   */
+  private static final int TRIM_SIZE = 500;
+
+  private final int capacity;
+
+  private final Sha256Hash[] hashes;
+
+  private final long[] times;
+
+  /**
+   * The running maximum header time (non-decreasing so it can be searched)
+   */
+  private final long[] maximumTimes;
+
+  private int baseHeight = 0;
+
+  private int count = 0;
+
+  /**
+   * @param capacity The number of entries to keep (older entries are trimmed)
+   */
+  public BlockTimeIndex(int capacity) {
+
+    Preconditions.checkArgument(capacity > 0, "'capacity' must be positive");
+
+    this.capacity = capacity;
+    this.hashes = new Sha256Hash[capacity + TRIM_SIZE];
+    this.times = new long[capacity + TRIM_SIZE];
+    this.maximumTimes = new long[capacity + TRIM_SIZE];
+
+  }
+
+  /**
+   * @return True if there are no entries
+   */
+  public synchronized boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * @return The lowest height in the index
+   */
+  public synchronized int getBaseHeight() {
+    return baseHeight;
+  }
+
+  /**
+   * @return The highest height in the index, or one less than the base height if empty
+   */
+  public synchronized int getTopHeight() {
+    return baseHeight + count - 1;
+  }
+
+  /**
+   * @param height The block height
+   *
+   * @return The block hash at the height, or absent if not in the index
+   */
+  public synchronized Optional<Sha256Hash> getHash(int height) {
+    if (height < baseHeight || height > getTopHeight()) {
+      return Optional.absent();
+    }
+    return Optional.of(hashes[height - baseHeight]);
+  }
+
+  /**
+   * @param height The block height
+   * @param hash   The block hash
+   *
+   * @return True if the index holds this hash at this height
+   */
+  public synchronized boolean matches(int height, Sha256Hash hash) {
+    Optional<Sha256Hash> indexedHash = getHash(height);
+    return indexedHash.isPresent() && indexedHash.get().equals(hash);
+  }
+
+  /**
+   * <p>Add an entry directly above the top height (or the first entry of an empty index)</p>
+   *
+   * @param height      The block height
+   * @param hash        The block hash
+   * @param timeSeconds The block header time in seconds
+   */
+  public synchronized void append(int height, Sha256Hash hash, long timeSeconds) {
+
+    Preconditions.checkNotNull(hash, "'hash' must be present");
+
+    if (count == 0) {
+      baseHeight = height;
+    }
+    Preconditions.checkArgument(height == baseHeight + count, "'height' must be directly above the top height");
+
+    if (count == hashes.length) {
+      trim(TRIM_SIZE);
+    }
+
+    hashes[count] = hash;
+    times[count] = timeSeconds;
+    maximumTimes[count] = count == 0 ? timeSeconds : Math.max(maximumTimes[count - 1], timeSeconds);
+    count++;
+
+  }
+
+  /**
+   * @param height The highest height to keep
+   */
+  public synchronized void truncateAbove(int height) {
+    if (height < baseHeight) {
+      clear();
+    } else if (height < getTopHeight()) {
+      for (int i = height - baseHeight + 1; i < count; i++) {
+        hashes[i] = null;
+      }
+      count = height - baseHeight + 1;
+    }
+  }
+
+  /**
+   * <p>Remove all entries</p>
+   */
+  public synchronized void clear() {
+    for (int i = 0; i < count; i++) {
+      hashes[i] = null;
+    }
+    count = 0;
+    baseHeight = 0;
+  }
+
+  /**
+   * @param timeSeconds The time in seconds
+   *
+   * @return The highest height whose block (and all blocks below it) has a header time before the given time
+   */
+  public synchronized Optional<Integer> findHeightBefore(long timeSeconds) {
+
+    // Find the first entry at or after the time
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (maximumTimes[middle] < timeSeconds) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    if (low == 0) {
+      return Optional.absent();
+    }
+    return Optional.of(baseHeight + low - 1);
+  }
+
+  /**
+   * @param indexFile The file to write to (replaced atomically)
+   *
+   * @throws IOException If the index could not be written
+   */
+  public synchronized void write(File indexFile) throws IOException {
+
+    // Keep no more than the capacity on disk
+    int skip = Math.max(0, count - capacity);
+
+    File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(baseHeight + skip);
+      out.writeInt(count - skip);
+      for (int i = skip; i < count; i++) {
+        out.write(hashes[i].getBytes());
+        out.writeLong(times[i]);
+      }
+    }
+    Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+  }
+
+  /**
+   * @param indexFile The file to read
+   * @param capacity  The number of entries to keep
+   *
+   * @return The index, or absent if the file is missing or unreadable (it can be rebuilt from the block store)
+   */
+  public static Optional<BlockTimeIndex> read(File indexFile, int capacity) {
+
+    if (!indexFile.exists()) {
+      return Optional.absent();
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        log.warn("Ignoring block time index with unknown format");
+        return Optional.absent();
+      }
+
+      int baseHeight = in.readInt();
+      int count = in.readInt();
+
+      BlockTimeIndex index = new BlockTimeIndex(capacity);
+      byte[] hashBytes = new byte[32];
+      for (int i = 0; i < count; i++) {
+        in.readFully(hashBytes);
+        index.append(baseHeight + i, Sha256Hash.wrap(hashBytes.clone()), in.readLong());
+      }
+      return Optional.of(index);
+
+    } catch (IOException | IllegalArgumentException e) {
+      log.warn("Ignoring unreadable block time index: {}", e.getMessage());
+      return Optional.absent();
+    }
+  }
+
+  private void trim(int trimCount) {
+
+    System.arraycopy(hashes, trimCount, hashes, 0, count - trimCount);
+    System.arraycopy(times, trimCount, times, 0, count - trimCount);
+    System.arraycopy(maximumTimes, trimCount, maximumTimes, 0, count - trimCount);
+    for (int i = count - trimCount; i < count; i++) {
+      hashes[i] = null;
+    }
+    count -= trimCount;
+    baseHeight += trimCount;
+
+  }
+}
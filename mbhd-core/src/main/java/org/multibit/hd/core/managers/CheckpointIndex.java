@@ -0,0 +1,212 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>Index to provide the following to BlockStoreManager:</p>
+ * <ul>
+ * <li>A precompiled binary form of the checkpoints, written by <code>BuildCheckpoints</code></li>
+ * <li>Memory-mapped binary search for the last checkpoint before a given time</li>
+ * </ul>
+ * <p>The bitcoinj <code>CheckpointManager</code> reads and hashes every checkpoint before it can search them. This index
+ * holds fixed length records sorted by header time so only the records visited by the search are read.</p>
+ *
+ * @since 0.3.0
+ */
+public class CheckpointIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(CheckpointIndex.class);
+
+  /**
+   * The suffix added to the checkpoints file name to give the index file name
+   */
+  public static final String INDEX_SUFFIX = ".idx";
+
+  private static final int MAGIC = 0x4d424349; // "MBCI"
+
+  private static final int FORMAT_VERSION = 1;
+
+  private static final int HEADER_SIZE = 12;
+
+  /**
+   * The header time (4 bytes) followed by the compact stored block
+   */
+  private static final int RECORD_SIZE = 4 + StoredBlock.COMPACT_SERIALIZED_SIZE;
+
+  /**
+   * Match the allowance made by the CheckpointManager for clock drift between miners
+   */
+  private static final long CLOCK_DRIFT_SECONDS = 86400 * 7;
+
+  private final NetworkParameters networkParameters;
+
+  private final ByteBuffer buffer;
+
+  private final int count;
+
+  private CheckpointIndex(NetworkParameters networkParameters, ByteBuffer buffer, int count) {
+    this.networkParameters = networkParameters;
+    this.buffer = buffer;
+    this.count = count;
+  }
+
+  /**
+   * @param checkpointsFile The checkpoints file
+   *
+   * @return The index file for the checkpoints
+   */
+  public static File getIndexFile(File checkpointsFile) {
+    return new File(checkpointsFile.getAbsolutePath() + INDEX_SUFFIX);
+  }
+
+  /**
+   * @param networkParameters The network parameters
+   * @param indexFile         The index file
+   *
+   * @return The memory-mapped index, or absent if the file is missing or unreadable (use the checkpoints file instead)
+   */
+  public static Optional<CheckpointIndex> open(NetworkParameters networkParameters, File indexFile) {
+
+    Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+
+    if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+      return Optional.absent();
+    }
+
+    // The mapping remains valid after the channel is closed
+    try (FileChannel channel = new RandomAccessFile(indexFile, "r").getChannel()) {
+
+      MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (mappedBuffer.getInt(0) != MAGIC || mappedBuffer.getInt(4) != FORMAT_VERSION) {
+        log.warn("Ignoring checkpoint index with unknown format");
+        return Optional.absent();
+      }
+
+      int count = mappedBuffer.getInt(8);
+      if (count <= 0 || channel.size() != HEADER_SIZE + (long) count * RECORD_SIZE) {
+        log.warn("Ignoring checkpoint index with unexpected length");
+        return Optional.absent();
+      }
+
+      return Optional.of(new CheckpointIndex(networkParameters, mappedBuffer, count));
+
+    } catch (IOException e) {
+      log.warn("Ignoring unreadable checkpoint index: {}", e.getMessage());
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * @param checkpoints The checkpoints (any order)
+   * @param indexFile   The file to write to (replaced atomically)
+   *
+   * @throws IOException If the index could not be written
+   */
+  public static void write(Collection<StoredBlock> checkpoints, File indexFile) throws IOException {
+
+    Preconditions.checkArgument(!checkpoints.isEmpty(), "'checkpoints' must not be empty");
+
+    List<StoredBlock> sortedCheckpoints = Lists.newArrayList(checkpoints);
+    Collections.sort(sortedCheckpoints, new Comparator<StoredBlock>() {
+      @Override
+      public int compare(StoredBlock o1, StoredBlock o2) {
+        return Long.compare(o1.getHeader().getTimeSeconds(), o2.getHeader().getTimeSeconds());
+      }
+    });
+
+    File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(sortedCheckpoints.size());
+
+      ByteBuffer compactBuffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+      for (StoredBlock checkpoint : sortedCheckpoints) {
+        out.writeInt((int) checkpoint.getHeader().getTimeSeconds());
+        checkpoint.serializeCompact(compactBuffer);
+        out.write(compactBuffer.array());
+        compactBuffer.position(0);
+      }
+    }
+    Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+  }
+
+  /**
+   * @return The number of checkpoints
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * @param timeSeconds The time in seconds
+   *
+   * @return The last checkpoint with a header time at or before the given time, or the genesis block if there is none
+   */
+  public StoredBlock getCheckpointBefore(long timeSeconds) {
+
+    // Find the first record after the time
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (getTimeSeconds(middle) <= timeSeconds) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    if (low == 0) {
+      Block genesis = networkParameters.getGenesisBlock().cloneAsHeader();
+      return new StoredBlock(genesis, genesis.getWork(), 0);
+    }
+
+    ByteBuffer recordBuffer = buffer.duplicate();
+    recordBuffer.position(HEADER_SIZE + (low - 1) * RECORD_SIZE + 4);
+    return StoredBlock.deserializeCompact(networkParameters, recordBuffer);
+  }
+
+  /**
+   * <p>Move the chain head of the block store to the last checkpoint a week before the given time</p>
+   * <p>This matches <code>CheckpointManager.checkpoint()</code></p>
+   *
+   * @param blockStore  The block store
+   * @param timeSeconds The time in seconds
+   *
+   * @throws BlockStoreException If the block store could not be updated
+   */
+  public void checkpoint(BlockStore blockStore, long timeSeconds) throws BlockStoreException {
+
+    StoredBlock checkpoint = getCheckpointBefore(timeSeconds - CLOCK_DRIFT_SECONDS);
+    blockStore.put(checkpoint);
+    blockStore.setChainHead(checkpoint);
+
+  }
+
+  private long getTimeSeconds(int record) {
+    return buffer.getInt(HEADER_SIZE + record * RECORD_SIZE) & 0xffffffffL;
+  }
+}
@@ -0,0 +1,160 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.SPVBlockStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <p>Block store to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>An SPV block store with a {@link BlockTimeIndex} of its best chain</li>
+ * </ul>
+ * <p>The index is updated as the chain head moves, walking back from the new head only as far as the
+ * last indexed block (one step normally, the fork depth on a re-org). It is written alongside the block store
+ * periodically and on close, and brought up to date from the block store when opened.</p>
+ *
+ * @since 0.3.0
+ */
+public class IndexedSPVBlockStore extends SPVBlockStore {
+
+  private static final Logger log = LoggerFactory.getLogger(IndexedSPVBlockStore.class);
+
+  /**
+   * The suffix added to the block store file name to give the index file name
+   */
+  public static final String INDEX_SUFFIX = ".index";
+
+  /**
+   * The number of chain head changes between writes of the index
+   */
+  private static final int WRITE_INTERVAL = 1000;
+
+  private final File indexFile;
+
+  private final BlockTimeIndex blockTimeIndex;
+
+  private int changesSinceWrite = 0;
+
+  /**
+   * @param params         The network parameters
+   * @param blockStoreFile The block store file
+   *
+   * @throws BlockStoreException If the block store could not be opened
+   */
+  public IndexedSPVBlockStore(NetworkParameters params, File blockStoreFile) throws BlockStoreException {
+
+    super(params, blockStoreFile);
+
+    indexFile = getIndexFile(blockStoreFile);
+    blockTimeIndex = BlockTimeIndex.read(indexFile, DEFAULT_NUM_HEADERS).or(new BlockTimeIndex(DEFAULT_NUM_HEADERS));
+
+    StoredBlock chainHead = getChainHead();
+    if (chainHead != null) {
+      updateIndex(chainHead);
+    }
+
+    log.debug("Block time index covers heights {} to {}", blockTimeIndex.getBaseHeight(), blockTimeIndex.getTopHeight());
+  }
+
+  /**
+   * @param blockStoreFile The block store file
+   *
+   * @return The index file for the block store
+   */
+  public static File getIndexFile(File blockStoreFile) {
+    return new File(blockStoreFile.getAbsolutePath() + INDEX_SUFFIX);
+  }
+
+  /**
+   * @return The block time index of the best chain
+   */
+  public BlockTimeIndex getBlockTimeIndex() {
+    return blockTimeIndex;
+  }
+
+  @Override
+  public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+
+    super.setChainHead(chainHead);
+
+    // The super constructor sets the chain head of a new store before the index exists
+    if (blockTimeIndex == null) {
+      return;
+    }
+
+    updateIndex(chainHead);
+
+    if (++changesSinceWrite >= WRITE_INTERVAL) {
+      writeIndex();
+    }
+  }
+
+  @Override
+  public void close() throws BlockStoreException {
+
+    if (blockTimeIndex != null) {
+      writeIndex();
+    }
+
+    super.close();
+  }
+
+  /**
+   * @param chainHead The new chain head
+   */
+  private void updateIndex(StoredBlock chainHead) throws BlockStoreException {
+
+    synchronized (blockTimeIndex) {
+
+      // Usual case of the head extending the indexed chain by one block
+      int height = chainHead.getHeight();
+      if (!blockTimeIndex.isEmpty()
+        && height == blockTimeIndex.getTopHeight() + 1
+        && blockTimeIndex.matches(height - 1, chainHead.getHeader().getPrevBlockHash())) {
+        blockTimeIndex.append(height, chainHead.getHeader().getHash(), chainHead.getHeader().getTimeSeconds());
+        return;
+      }
+
+      // Walk back to the last block the index agrees with (a re-org, a checkpoint or a stale index)
+      List<StoredBlock> newBlocks = Lists.newArrayList();
+      StoredBlock cursor = chainHead;
+      while (cursor != null && !blockTimeIndex.matches(cursor.getHeight(), cursor.getHeader().getHash())) {
+        newBlocks.add(cursor);
+        cursor = cursor.getPrev(this);
+      }
+
+      if (cursor == null) {
+        blockTimeIndex.clear();
+      } else {
+        blockTimeIndex.truncateAbove(cursor.getHeight());
+      }
+
+      for (StoredBlock storedBlock : Lists.reverse(newBlocks)) {
+        blockTimeIndex.append(storedBlock.getHeight(), storedBlock.getHeader().getHash(), storedBlock.getHeader().getTimeSeconds());
+      }
+
+      if (newBlocks.size() > 1) {
+        log.debug("Re-indexed {} blocks up to height {}", newBlocks.size(), height);
+      }
+    }
+  }
+
+  private void writeIndex() {
+
+    try {
+      blockTimeIndex.write(indexFile);
+      changesSinceWrite = 0;
+    } catch (IOException e) {
+      // The index is rebuilt from the block store if it is missing
+      log.warn("Could not write block time index: {}", e.getMessage());
+    }
+  }
+}
@@ -233,6 +233,44 @@ public class InstallationManager {
       log.debug("Checkpoints already exist.");
 
     }
+
+    copyCheckpointIndexTo(CheckpointIndex.getIndexFile(destinationCheckpointsFile));
+  }
+
+  /**
+   * Copy the binary checkpoint index (if provided) from the MultiBitHD installation to the specified filename
+   *
+   * @param destinationIndexFile The sink to receive the source checkpoint index file
+   */
+  private static void copyCheckpointIndexTo(File destinationIndexFile) throws IOException {
+
+    if (destinationIndexFile.exists() && destinationIndexFile.length() > 0) {
+      log.debug("Checkpoint index already exists.");
+      return;
+    }
+
+    // Work out the source index (put into the program installation directory by the installer)
+    File sourceIndexFile = new File(new File(".").getAbsolutePath() + File.separator + MBHD_PREFIX + CHECKPOINTS_SUFFIX + CheckpointIndex.INDEX_SUFFIX);
+
+    final InputStream sourceIndexStream;
+    if (sourceIndexFile.exists()) {
+      sourceIndexStream = new FileInputStream(sourceIndexFile);
+    } else {
+      sourceIndexStream = InstallationManager.class.getResourceAsStream("/" + MBHD_PREFIX + CHECKPOINTS_SUFFIX + CheckpointIndex.INDEX_SUFFIX);
+    }
+
+    if (sourceIndexStream == null) {
+      // The checkpoints file is used instead
+      log.debug("No checkpoint index to copy.");
+      return;
+    }
+
+    try (FileOutputStream sinkIndexStream = new FileOutputStream(destinationIndexFile)) {
+      long bytes = ByteStreams.copy(sourceIndexStream, sinkIndexStream);
+      log.debug("New checkpoint index is {} bytes in length.", bytes);
+    } finally {
+      sourceIndexStream.close();
+    }
   }
 
   /**
@@ -6,7 +6,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.io.Files;
 import com.google.common.primitives.Bytes;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -33,6 +32,7 @@ import org.multibit.hd.brit.core.seed_phrase.SeedPhraseGenerator;
 import org.multibit.hd.brit.core.services.FeeService;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.config.Yaml;
+import org.multibit.hd.core.crypto.DerivedKeyCache;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.error_reporting.ExceptionHandler;
@@ -47,6 +47,7 @@ import org.multibit.hd.core.extensions.WalletTypeExtension;
 import org.multibit.hd.core.services.BackupService;
 import org.multibit.hd.core.services.BitcoinNetworkService;
 import org.multibit.hd.core.services.CoreServices;
+import org.multibit.hd.core.services.WalletService;
 import org.multibit.hd.core.utils.BitcoinNetwork;
 import org.multibit.hd.core.utils.Collators;
 import org.multibit.hd.core.wallet.UnconfirmedTransactionDetector;
@@ -97,7 +98,11 @@ public enum WalletManager implements WalletEventListener {
 
     @Override
     public void onReorganize(Wallet wallet) {
-
+      // Transactions may have moved between blocks without individual notifications
+      Optional<WalletService> walletService = CoreServices.getCurrentWalletService();
+      if (walletService.isPresent()) {
+        walletService.get().invalidatePaymentDataSet();
+      }
     }
 
     @Override
@@ -861,13 +866,18 @@ public enum WalletManager implements WalletEventListener {
           // Work out if the wallet has unconfirmed transactions in the time window of interest for replay
           unconfirmedTransactionReplayDate = UnconfirmedTransactionDetector.calculateReplayDate(walletBeingReturned, Dates.nowUtc());
 
-          // If (wallet and block store match or wallet is brand new) and
-          //    no sync is required due to unconfirmed transactions
-          // then use regular sync
-          if (((walletBlockHeight > 0 && walletBlockHeight == blockStoreBlockHeight) ||
-            (walletLastSeenBlockTime == null && !keyCreationTimeIsInThePast)) && !unconfirmedTransactionReplayDate.isPresent()) {
-            // Regular sync is ok - no need to use checkpoints / replayDate
-            log.debug("Will perform a regular sync");
+          // If (wallet and block store match or wallet is brand new) then use regular sync
+          if ((walletBlockHeight > 0 && walletBlockHeight == blockStoreBlockHeight) ||
+            (walletLastSeenBlockTime == null && !keyCreationTimeIsInThePast)) {
+            if (unconfirmedTransactionReplayDate.isPresent()) {
+              // Ask the peers about the unconfirmed transactions after the sync rather than replaying every block since
+              // the oldest of them - the replay only happens if they cannot be accounted for
+              log.debug("Will perform a regular sync followed by a check of the unconfirmed transactions");
+              bitcoinNetworkService.checkStuckTransactionsAfterDownload(calculateReplayDateTime(walletBeingReturned, unconfirmedTransactionReplayDate));
+            } else {
+              // Regular sync is ok - no need to use checkpoints / replayDate
+              log.debug("Will perform a regular sync");
+            }
             performRegularSync = true;
           }
         } catch (BlockStoreException bse) {
@@ -960,25 +970,17 @@ public enum WalletManager implements WalletEventListener {
    */
   public Wallet loadWalletFromFile(File walletFile, CharSequence password) throws IOException, UnreadableWalletException {
 
-    // Read the encrypted file in and decrypt it.
-    byte[] encryptedWalletBytes = Files.toByteArray(walletFile);
-
-    Preconditions.checkNotNull(encryptedWalletBytes, "'encryptedWalletBytes' must be present");
-
-    log.trace("Encrypted wallet bytes after load:\n{}", Utils.HEX.encode(encryptedWalletBytes));
-    log.debug("Loaded the encrypted wallet bytes with length: {}", encryptedWalletBytes.length);
+    log.debug("Loading the encrypted wallet with length: {}", walletFile.length());
 
-    KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(EncryptedFileReaderWriter.makeScryptParameters(SCRYPT_SALT));
-    KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+    KeyParameter keyParameter = DerivedKeyCache.deriveKey(password, SCRYPT_SALT);
 
-    // Decrypt the wallet bytes
-    byte[] decryptedBytes = AESUtils.decrypt(encryptedWalletBytes, keyParameter, AES_INITIALISATION_VECTOR);
-
-    log.debug("Successfully decrypted wallet bytes, length is now: {}", decryptedBytes.length);
-
-    InputStream inputStream = new ByteArrayInputStream(decryptedBytes);
+    // Decrypt the wallet as it is parsed to avoid holding the encrypted and decrypted bytes in memory
+    Protos.Wallet walletProto;
+    try (InputStream inputStream = EncryptedFileReaderWriter.newDecryptingInputStream(new FileInputStream(walletFile), keyParameter)) {
+      walletProto = WalletProtobufSerializer.parseToProto(inputStream);
+    }
 
-    Protos.Wallet walletProto = WalletProtobufSerializer.parseToProto(inputStream);
+    log.debug("Successfully decrypted and parsed wallet");
 
     WalletExtension[] walletExtensions = new WalletExtension[]{new SendFeeDtoWalletExtension(), new MatcherResponseWalletExtension(), new WalletTypeExtension()};
     Wallet wallet = new WalletProtobufSerializer().readWallet(BitcoinNetwork.current().get(), walletExtensions, walletProto);
@@ -1835,6 +1837,9 @@ public enum WalletManager implements WalletEventListener {
     // log.debug("Wallet at shutdown:\n{}\n", getCurrentWalletSummary().isPresent() ? getCurrentWalletSummary().get().getWallet() : "");
     currentWalletSummary = Optional.absent();
 
+    // Wipe any keys derived from the wallet password
+    DerivedKeyCache.clear();
+
   }
 
   /**
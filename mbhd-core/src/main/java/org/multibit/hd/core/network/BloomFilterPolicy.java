@@ -0,0 +1,162 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.base.Optional;
+import org.bitcoinj.core.PeerGroup;
+import org.multibit.hd.core.events.SyncMetricsEvent;
+import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.services.WalletService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Policy to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>A keychain lookahead sized from the payment request gap and the number of issued addresses</li>
+ * <li>A bloom filter false positive rate tuned against the measured false positives per block</li>
+ * <li>Detection of a changed key set so the filter is only re-sent when it has to be</li>
+ * </ul>
+ *
+ * @since 0.3.0
+ */
+public class BloomFilterPolicy {
+
+  private static final Logger log = LoggerFactory.getLogger(BloomFilterPolicy.class);
+
+  /**
+   * The smallest lookahead (the fixed size used previously)
+   */
+  public static final int MINIMUM_LOOKAHEAD_SIZE = WalletManager.LOOK_AHEAD_SIZE;
+
+  /**
+   * The largest lookahead (a merchant wallet with many outstanding payment requests)
+   */
+  public static final int MAXIMUM_LOOKAHEAD_SIZE = 500;
+
+  public static final double MINIMUM_FALSE_POSITIVE_RATE = 0.000001;
+
+  public static final double MAXIMUM_FALSE_POSITIVE_RATE = 0.001;
+
+  /**
+   * The starting false positive rate (the bitcoinj default)
+   */
+  public static final double DEFAULT_FALSE_POSITIVE_RATE = PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE;
+
+  /**
+   * Fewer false positive transactions per block than this gives away more about the wallet than is needed
+   */
+  private static final double LOW_FALSE_POSITIVES_PER_BLOCK = 0.05;
+
+  /**
+   * More false positive transactions per block than this wastes bandwidth
+   */
+  private static final double HIGH_FALSE_POSITIVES_PER_BLOCK = 1.0;
+
+  /**
+   * The number of blocks in the metrics window needed before the rate is changed
+   */
+  private static final int MINIMUM_BLOCKS_FOR_TUNING = 100;
+
+  /**
+   * Each change re-sends the filter so changes are limited
+   */
+  private static final long MINIMUM_TUNING_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+
+  private long lastTuningMillis = 0;
+
+  private int lastElementCount = -1;
+
+  private long lastEarliestKeyCreationTime = -1;
+
+  /**
+   * @param gap                The number of unpaid payment requests since the last paid one (absent if not known)
+   * @param issuedExternalKeys The number of receiving addresses issued so far
+   *
+   * @return The keychain lookahead size
+   */
+  public int getLookaheadSize(Optional<Integer> gap, int issuedExternalKeys) {
+
+    // Look past every unpaid payment request by at least the BIP44 gap limit, twice over for payments arriving
+    // out of order
+    int gapLookahead = 2 * (gap.or(0) + WalletService.GAP_LIMIT);
+
+    // A wallet that has issued many addresses is likely to issue many more before the next sync
+    int usageLookahead = issuedExternalKeys / 4;
+
+    int lookahead = Math.max(MINIMUM_LOOKAHEAD_SIZE, Math.max(gapLookahead, usageLookahead));
+    return Math.min(MAXIMUM_LOOKAHEAD_SIZE, lookahead);
+  }
+
+  /**
+   * @return The current bloom filter false positive rate
+   */
+  public synchronized double getFalsePositiveRate() {
+    return falsePositiveRate;
+  }
+
+  /**
+   * @param syncMetricsEvent The latest sync metrics
+   * @param nowMillis        The current time
+   *
+   * @return The new false positive rate, or absent if it should not change
+   */
+  public synchronized Optional<Double> tune(SyncMetricsEvent syncMetricsEvent, long nowMillis) {
+
+    if (nowMillis - lastTuningMillis < MINIMUM_TUNING_INTERVAL_MILLIS) {
+      return Optional.absent();
+    }
+
+    double blocks = syncMetricsEvent.getBlocksPerSecond() * SyncMetrics.WINDOW_SECONDS;
+    if (blocks < MINIMUM_BLOCKS_FOR_TUNING) {
+      return Optional.absent();
+    }
+
+    double falsePositivesPerBlock = syncMetricsEvent.getMatchesPerBlock() * syncMetricsEvent.getFalsePositiveRate();
+
+    double tunedRate = falsePositiveRate;
+    if (falsePositivesPerBlock > HIGH_FALSE_POSITIVES_PER_BLOCK) {
+      tunedRate = Math.max(MINIMUM_FALSE_POSITIVE_RATE, falsePositiveRate / 2);
+    } else if (falsePositivesPerBlock < LOW_FALSE_POSITIVES_PER_BLOCK) {
+      tunedRate = Math.min(MAXIMUM_FALSE_POSITIVE_RATE, falsePositiveRate * 2);
+    }
+
+    if (tunedRate == falsePositiveRate) {
+      return Optional.absent();
+    }
+
+    log.debug("Bloom filter false positive rate {} -> {} ({} false positives per block)", falsePositiveRate, tunedRate, falsePositivesPerBlock);
+    falsePositiveRate = tunedRate;
+    lastTuningMillis = nowMillis;
+
+    return Optional.of(tunedRate);
+  }
+
+  /**
+   * <p>Record the key set that the next filter will be built from</p>
+   *
+   * @param elementCount            The number of bloom filter elements provided by the wallet
+   * @param earliestKeyCreationTime The earliest key creation time provided by the wallet
+   *
+   * @return True if the key set differs from the one last recorded (the filter must be re-sent)
+   */
+  public synchronized boolean isKeySetChanged(int elementCount, long earliestKeyCreationTime) {
+
+    boolean changed = elementCount != lastElementCount || earliestKeyCreationTime != lastEarliestKeyCreationTime;
+
+    lastElementCount = elementCount;
+    lastEarliestKeyCreationTime = earliestKeyCreationTime;
+
+    return changed;
+  }
+
+  /**
+   * <p>Forget the recorded key set (a new peer group needs the filter)</p>
+   */
+  public synchronized void reset() {
+    lastElementCount = -1;
+    lastEarliestKeyCreationTime = -1;
+  }
+}
@@ -5,6 +5,7 @@ import org.bitcoinj.core.*;
 import org.multibit.hd.core.dto.BitcoinNetworkSummary;
 import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.events.CoreEvents;
+import org.multibit.hd.core.events.SyncMetricsEvent;
 import org.multibit.hd.core.events.TransactionSeenEvent;
 import org.multibit.hd.core.managers.WalletManager;
 import org.slf4j.Logger;
@@ -19,6 +20,15 @@ public class MultiBitPeerEventListener implements PeerEventListener {
 
   private static final Logger log = LoggerFactory.getLogger(MultiBitPeerEventListener.class);
 
+  /**
+   * The interval between sync metrics events and log lines during a download
+   */
+  private static final long METRICS_INTERVAL_MILLIS = 10_000;
+
+  private final SyncMetrics syncMetrics = new SyncMetrics();
+
+  private long lastMetricsMillis = 0;
+
   private int originalBlocksLeft = -1;
   private int lastPercent = 0;
 
@@ -36,6 +46,9 @@ public class MultiBitPeerEventListener implements PeerEventListener {
 
   @Override
   public void onBlocksDownloaded(Peer peer, Block block, FilteredBlock filteredBlock, int blocksLeft) {
+
+    recordSyncMetrics(peer, block, filteredBlock, blocksLeft);
+
     if (blocksLeft > originalBlocksLeft) {
       originalBlocksLeft = blocksLeft;
     }
@@ -183,6 +196,85 @@ public class MultiBitPeerEventListener implements PeerEventListener {
     return null;
   }
 
+  /**
+   * @return The sync metrics gathered by this listener
+   */
+  public SyncMetrics getSyncMetrics() {
+    return syncMetrics;
+  }
+
+  /**
+   * <p>Record the block in the rolling windows and periodically fire and log the sync metrics</p>
+   */
+  private void recordSyncMetrics(Peer peer, Block block, FilteredBlock filteredBlock, int blocksLeft) {
+
+    long now = System.currentTimeMillis();
+
+    long blockBytes = 0;
+    int matchCount = 0;
+    int falsePositiveCount = 0;
+    if (filteredBlock != null) {
+      blockBytes = getMessageSize(filteredBlock);
+      List<Sha256Hash> matchedHashes = filteredBlock.getTransactionHashes();
+      matchCount = matchedHashes.size();
+      if (matchCount > 0) {
+        falsePositiveCount = countFalsePositives(matchedHashes);
+      }
+    } else if (block != null) {
+      blockBytes = getMessageSize(block);
+    }
+
+    syncMetrics.recordBlock(peer == null ? null : peer.getAddress(), blockBytes, matchCount, falsePositiveCount, now);
+
+    if (blocksLeft >= 0 && (blocksLeft == 0 || now - lastMetricsMillis >= METRICS_INTERVAL_MILLIS)) {
+      lastMetricsMillis = now;
+
+      SyncMetricsEvent syncMetricsEvent = syncMetrics.snapshot(blocksLeft, now);
+      log.info(
+        "Sync metrics: blocksPerSecond={} bytesPerSecond={} matchesPerBlock={} falsePositiveRate={} blocksLeft={} secondsToTip={} blocksByPeer={}",
+        String.format("%.2f", syncMetricsEvent.getBlocksPerSecond()),
+        String.format("%.0f", syncMetricsEvent.getBytesPerSecond()),
+        String.format("%.2f", syncMetricsEvent.getMatchesPerBlock()),
+        String.format("%.3f", syncMetricsEvent.getFalsePositiveRate()),
+        blocksLeft,
+        syncMetricsEvent.getSecondsToTip().isPresent() ? syncMetricsEvent.getSecondsToTip().get() : "unknown",
+        syncMetricsEvent.getBlocksByPeer()
+      );
+      CoreEvents.fireSyncMetricsEvent(syncMetricsEvent);
+    }
+  }
+
+  /**
+   * @param matchedHashes The transactions matched by the bloom filter
+   *
+   * @return The number that are not in the current wallet (the block has already been added to the chain)
+   */
+  private int countFalsePositives(List<Sha256Hash> matchedHashes) {
+
+    Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+    if (!currentWalletSummary.isPresent() || currentWalletSummary.get().getWallet() == null) {
+      return 0;
+    }
+
+    Wallet currentWallet = currentWalletSummary.get().getWallet();
+    int falsePositiveCount = 0;
+    for (Sha256Hash matchedHash : matchedHashes) {
+      if (currentWallet.getTransaction(matchedHash) == null) {
+        falsePositiveCount++;
+      }
+    }
+    return falsePositiveCount;
+  }
+
+  private long getMessageSize(Message message) {
+    try {
+      return message.getMessageSize();
+    } catch (IllegalStateException e) {
+      // Length is not known for messages that were not parsed from the network
+      return 0;
+    }
+  }
+
   /**
    * Called when download progress is made.
    *
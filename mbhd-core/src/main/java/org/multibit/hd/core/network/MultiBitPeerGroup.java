@@ -0,0 +1,48 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerGroup;
+
+import java.util.List;
+
+/**
+ * <p>Peer group to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Choice of the download peer using the scores kept by the PeerManager</li>
+ * </ul>
+ *
+ * @since 0.3.0
+ */
+public class MultiBitPeerGroup extends PeerGroup {
+
+  private final PeerManager peerManager;
+
+  /**
+   * @param networkParameters The Bitcoin network parameters
+   * @param blockChain        The block chain
+   * @param peerManager       The peer manager holding the peer scores
+   */
+  public MultiBitPeerGroup(NetworkParameters networkParameters, AbstractBlockChain blockChain, PeerManager peerManager) {
+
+    super(networkParameters, blockChain);
+
+    Preconditions.checkNotNull(peerManager, "'peerManager' must be present");
+
+    this.peerManager = peerManager;
+  }
+
+  @Override
+  protected Peer selectDownloadPeer(List<Peer> peers) {
+
+    // Only consider peers that agree with the chain height chosen by bitcoinj
+    Peer peer = super.selectDownloadPeer(peers);
+    if (peer == null) {
+      return null;
+    }
+
+    return peerManager.selectDownloadPeer(peers, peer.getBestHeight()).or(peer);
+  }
+}
@@ -0,0 +1,481 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.net.InetAddresses;
+import org.bitcoinj.core.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Manager to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Per-peer ping latency, block throughput and failure counts</li>
+ * <li>A small cache of the best scoring peers, persisted for a fast reconnect at the next start</li>
+ * <li>Choice of the download peer by measured throughput</li>
+ * <li>More connections during an initial sync and fewer when idle</li>
+ * </ul>
+ * <p>The connection count is left alone once a local full node is connected since bitcoinj then uses it
+ * exclusively.</p>
+ *
+ * @since 0.3.0
+ */
+public class PeerManager extends AbstractPeerEventListener {
+
+  private static final Logger log = LoggerFactory.getLogger(PeerManager.class);
+
+  /**
+   * The name of the peer cache file in the application data directory
+   */
+  public static final String PEER_CACHE_FILE_NAME = "mbhd.peers";
+
+  /**
+   * The number of peers to keep in the cache
+   */
+  static final int MAXIMUM_CACHED_PEERS = 32;
+
+  /**
+   * The number of blocks left that counts as an initial sync (roughly a week)
+   */
+  private static final int INITIAL_SYNC_BLOCKS = 1000;
+
+  /**
+   * A peer that disconnects sooner than this after connecting counts as a failure
+   */
+  private static final long MINIMUM_CONNECTION_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * Cached peers not seen for longer than this are dropped
+   */
+  private static final long MAXIMUM_CACHE_AGE_MILLIS = TimeUnit.DAYS.toMillis(14);
+
+  /**
+   * The period over which block throughput is measured
+   */
+  private static final long THROUGHPUT_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+  /**
+   * The ping time assumed for a peer that has not been pinged
+   */
+  private static final long UNKNOWN_PING_MILLIS = 1000;
+
+  /**
+   * The weight given to the latest measurement in the moving averages
+   */
+  private static final double SMOOTHING = 0.3;
+
+  private final File peerCacheFile;
+
+  private final int idleConnections;
+
+  private final int syncConnections;
+
+  private final ConcurrentMap<InetSocketAddress, PeerScore> peerScores = new ConcurrentHashMap<>();
+
+  private volatile PeerGroup peerGroup;
+
+  /**
+   * True once a peer on a loopback address has connected (a local full node)
+   */
+  private volatile boolean localNode = false;
+
+  /**
+   * @param applicationDataDirectory The application data directory holding the peer cache
+   * @param idleConnections          The number of connections to keep when the chain is in sync
+   * @param syncConnections          The number of connections to keep during an initial sync
+   */
+  public PeerManager(File applicationDataDirectory, int idleConnections, int syncConnections) {
+
+    Preconditions.checkNotNull(applicationDataDirectory, "'applicationDataDirectory' must be present");
+    Preconditions.checkArgument(idleConnections > 0 && idleConnections <= syncConnections, "'idleConnections' must be positive and no more than 'syncConnections'");
+
+    this.peerCacheFile = new File(applicationDataDirectory, PEER_CACHE_FILE_NAME);
+    this.idleConnections = idleConnections;
+    this.syncConnections = syncConnections;
+
+    load();
+  }
+
+  /**
+   * <p>Add the cached peers to the peer group (best first) so they are tried before DNS discovery and listen for peer events</p>
+   *
+   * @param peerGroup The new peer group (not yet started)
+   */
+  public void attach(PeerGroup peerGroup) {
+
+    Preconditions.checkNotNull(peerGroup, "'peerGroup' must be present");
+
+    this.peerGroup = peerGroup;
+    this.localNode = false;
+
+    List<InetSocketAddress> rankedAddresses = getRankedAddresses();
+    for (InetSocketAddress address : rankedAddresses) {
+      peerGroup.addAddress(new PeerAddress(address.getAddress(), address.getPort()));
+    }
+    log.debug("Added {} cached peers", rankedAddresses.size());
+
+    peerGroup.setMaxConnections(idleConnections);
+    peerGroup.addEventListener(this);
+
+  }
+
+  /**
+   * <p>Stop listening to the peer group and save the peer cache</p>
+   *
+   * @param peerGroup The peer group being stopped
+   */
+  public void detach(PeerGroup peerGroup) {
+
+    if (peerGroup != null) {
+      peerGroup.removeEventListener(this);
+    }
+    if (this.peerGroup == peerGroup) {
+      this.peerGroup = null;
+    }
+
+    save();
+
+  }
+
+  /**
+   * @param peer       The peer
+   * @param pingMillis The round trip time of a successful ping
+   */
+  public void recordPing(Peer peer, long pingMillis) {
+    recordPing(peer.getAddress().toSocketAddress(), pingMillis);
+  }
+
+  /**
+   * @param peer The peer that failed to respond
+   */
+  public void recordFailure(Peer peer) {
+    recordFailure(peer.getAddress().toSocketAddress());
+  }
+
+  /**
+   * @param peers         The connected peers
+   * @param minimumHeight The lowest acceptable best chain height
+   *
+   * @return The peer with the best score at or above the height, or absent if none have been measured
+   */
+  public Optional<Peer> selectDownloadPeer(List<Peer> peers, long minimumHeight) {
+
+    Peer bestPeer = null;
+    double bestScore = 0;
+    for (Peer peer : peers) {
+      if (peer.getBestHeight() < minimumHeight) {
+        continue;
+      }
+      PeerScore peerScore = peerScores.get(peer.getAddress().toSocketAddress());
+      if (peerScore != null && peerScore.isMeasured() && peerScore.getScore() > bestScore) {
+        bestPeer = peer;
+        bestScore = peerScore.getScore();
+      }
+    }
+
+    if (bestPeer != null) {
+      log.debug("Selected download peer {} with score {}", bestPeer, bestScore);
+    }
+    return Optional.fromNullable(bestPeer);
+  }
+
+  @Override
+  public void onPeerConnected(Peer peer, int peerCount) {
+
+    if (isLocalPeer(peer)) {
+      localNode = true;
+    }
+
+    getOrCreatePeerScore(peer.getAddress().toSocketAddress()).connected(System.currentTimeMillis());
+  }
+
+  @Override
+  public void onPeerDisconnected(Peer peer, int peerCount) {
+
+    PeerScore peerScore = getOrCreatePeerScore(peer.getAddress().toSocketAddress());
+
+    long pingMillis = peer.getPingTime();
+    if (pingMillis > 0 && pingMillis < Long.MAX_VALUE) {
+      peerScore.recordPing(pingMillis);
+    }
+    peerScore.disconnected(System.currentTimeMillis());
+
+  }
+
+  @Override
+  public void onChainDownloadStarted(Peer peer, int blocksLeft) {
+
+    // A local node is used exclusively so there is nothing to gain from more connections
+    if (blocksLeft >= INITIAL_SYNC_BLOCKS && !isLocalPeer(peer)) {
+      setMaxConnections(syncConnections);
+    }
+
+  }
+
+  @Override
+  public void onBlocksDownloaded(Peer peer, Block block, FilteredBlock filteredBlock, int blocksLeft) {
+
+    if (peer != null) {
+      recordBlocks(peer.getAddress().toSocketAddress(), 1, System.currentTimeMillis());
+    }
+
+    // Do not undo the exclusive connection to a local node
+    if (blocksLeft == 0 && !isLocalPeer(peer)) {
+      setMaxConnections(idleConnections);
+    }
+
+  }
+
+  /**
+   * <p>Write the best scoring peers to the peer cache file</p>
+   */
+  public void save() {
+
+    List<String> lines = Lists.newArrayList();
+    for (InetSocketAddress address : getRankedAddresses()) {
+      PeerScore peerScore = peerScores.get(address);
+      if (peerScore != null) {
+        lines.add(peerScore.toCacheLine(address));
+      }
+    }
+
+    File tempFile = new File(peerCacheFile.getAbsolutePath() + ".tmp");
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), Charsets.UTF_8)) {
+      writer.write(Joiner.on('\n').join(lines));
+      writer.flush();
+      Files.move(tempFile.toPath(), peerCacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      log.debug("Saved {} peers to the peer cache", lines.size());
+    } catch (IOException e) {
+      // The peers will be discovered again
+      log.warn("Could not save the peer cache: {}", e.getMessage());
+    }
+
+  }
+
+  /**
+   * @return The addresses of the best scoring peers seen recently, best first
+   */
+  List<InetSocketAddress> getRankedAddresses() {
+
+    final long now = System.currentTimeMillis();
+
+    List<InetSocketAddress> addresses = Lists.newArrayList();
+    for (InetSocketAddress address : peerScores.keySet()) {
+      PeerScore peerScore = peerScores.get(address);
+      if (peerScore != null && now - peerScore.getLastSeenMillis() < MAXIMUM_CACHE_AGE_MILLIS) {
+        addresses.add(address);
+      }
+    }
+
+    Collections.sort(addresses, new Comparator<InetSocketAddress>() {
+      @Override
+      public int compare(InetSocketAddress o1, InetSocketAddress o2) {
+        return Double.compare(scoreOf(o2), scoreOf(o1));
+      }
+    });
+
+    return addresses.size() > MAXIMUM_CACHED_PEERS ? addresses.subList(0, MAXIMUM_CACHED_PEERS) : addresses;
+  }
+
+  void recordPing(InetSocketAddress address, long pingMillis) {
+    getOrCreatePeerScore(address).recordPing(pingMillis);
+  }
+
+  void recordFailure(InetSocketAddress address) {
+    getOrCreatePeerScore(address).recordFailure();
+  }
+
+  void recordBlocks(InetSocketAddress address, int blocks, long nowMillis) {
+    getOrCreatePeerScore(address).recordBlocks(blocks, nowMillis);
+  }
+
+  private double scoreOf(InetSocketAddress address) {
+    PeerScore peerScore = peerScores.get(address);
+    return peerScore == null ? 0 : peerScore.getScore();
+  }
+
+  private PeerScore getOrCreatePeerScore(InetSocketAddress address) {
+
+    PeerScore peerScore = peerScores.get(address);
+    if (peerScore == null) {
+      peerScores.putIfAbsent(address, new PeerScore());
+      peerScore = peerScores.get(address);
+    }
+    return peerScore;
+
+  }
+
+  /**
+   * @param peer The peer (may be null)
+   *
+   * @return True if the peer is a local full node
+   */
+  private boolean isLocalPeer(Peer peer) {
+    return peer != null && peer.getAddress().getAddr().isLoopbackAddress();
+  }
+
+  private void setMaxConnections(int maxConnections) {
+
+    if (localNode) {
+      log.debug("Keeping the connection target for the local node");
+      return;
+    }
+
+    PeerGroup currentPeerGroup = peerGroup;
+    if (currentPeerGroup != null && currentPeerGroup.getMaxConnections() != maxConnections) {
+      log.debug("Changing the connection target to {}", maxConnections);
+      currentPeerGroup.setMaxConnections(maxConnections);
+    }
+
+  }
+
+  private void load() {
+
+    if (!peerCacheFile.exists()) {
+      return;
+    }
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(peerCacheFile), Charsets.UTF_8))) {
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+        List<String> fields = Splitter.on(' ').omitEmptyStrings().splitToList(line);
+        if (fields.size() != PeerScore.CACHE_FIELDS) {
+          continue;
+        }
+        try {
+          InetAddress inetAddress = InetAddresses.forString(fields.get(0));
+          InetSocketAddress address = new InetSocketAddress(inetAddress, Integer.parseInt(fields.get(1)));
+          peerScores.put(address, PeerScore.fromCacheFields(fields));
+        } catch (IllegalArgumentException e) {
+          log.debug("Ignoring peer cache line '{}'", line);
+        }
+      }
+      log.debug("Loaded {} peers from the peer cache", peerScores.size());
+
+    } catch (IOException e) {
+      log.warn("Could not read the peer cache: {}", e.getMessage());
+    }
+
+  }
+
+  /**
+   * The measurements of a single peer
+   */
+  static class PeerScore {
+
+    static final int CACHE_FIELDS = 6;
+
+    private double pingMillis = -1;
+
+    private double blocksPerSecond = -1;
+
+    private int failures = 0;
+
+    private long lastSeenMillis = 0;
+
+    private long connectedMillis = 0;
+
+    private long windowStartMillis = 0;
+
+    private int windowBlocks = 0;
+
+    synchronized void connected(long nowMillis) {
+      connectedMillis = nowMillis;
+      lastSeenMillis = nowMillis;
+    }
+
+    synchronized void disconnected(long nowMillis) {
+      // A peer that never connected is a failed connection attempt
+      if (connectedMillis == 0 || nowMillis - connectedMillis < MINIMUM_CONNECTION_MILLIS) {
+        failures++;
+      }
+      connectedMillis = 0;
+    }
+
+    synchronized void recordPing(long millis) {
+      pingMillis = pingMillis < 0 ? millis : SMOOTHING * millis + (1 - SMOOTHING) * pingMillis;
+      lastSeenMillis = System.currentTimeMillis();
+    }
+
+    synchronized void recordFailure() {
+      failures++;
+    }
+
+    synchronized void recordBlocks(int blocks, long nowMillis) {
+
+      if (windowStartMillis == 0) {
+        windowStartMillis = nowMillis;
+      }
+      windowBlocks += blocks;
+
+      long elapsedMillis = nowMillis - windowStartMillis;
+      if (elapsedMillis >= THROUGHPUT_WINDOW_MILLIS) {
+        double rate = windowBlocks * 1000.0 / elapsedMillis;
+        blocksPerSecond = blocksPerSecond < 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * blocksPerSecond;
+        windowStartMillis = nowMillis;
+        windowBlocks = 0;
+      }
+      lastSeenMillis = nowMillis;
+
+    }
+
+    /**
+     * @return True if the peer has a ping time or throughput
+     */
+    synchronized boolean isMeasured() {
+      return pingMillis >= 0 || blocksPerSecond >= 0;
+    }
+
+    /**
+     * @return The score (higher is better) favouring throughput, then low latency, then reliability
+     */
+    synchronized double getScore() {
+      double ping = pingMillis < 0 ? UNKNOWN_PING_MILLIS : pingMillis;
+      double throughput = blocksPerSecond < 0 ? 0 : blocksPerSecond;
+      return (1 + throughput) * 1000.0 / (100 + ping) / (1 + failures);
+    }
+
+    synchronized long getLastSeenMillis() {
+      return lastSeenMillis;
+    }
+
+    synchronized String toCacheLine(InetSocketAddress address) {
+      return Joiner.on(' ').join(
+        InetAddresses.toAddrString(address.getAddress()),
+        address.getPort(),
+        (long) pingMillis,
+        blocksPerSecond,
+        failures,
+        lastSeenMillis
+      );
+    }
+
+    static PeerScore fromCacheFields(List<String> fields) {
+
+      PeerScore peerScore = new PeerScore();
+      peerScore.pingMillis = Long.parseLong(fields.get(2));
+      peerScore.blocksPerSecond = Double.parseDouble(fields.get(3));
+      peerScore.failures = Integer.parseInt(fields.get(4));
+      peerScore.lastSeenMillis = Long.parseLong(fields.get(5));
+      return peerScore;
+
+    }
+  }
+}
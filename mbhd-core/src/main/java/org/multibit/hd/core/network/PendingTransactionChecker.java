@@ -0,0 +1,310 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.AbstractPeerEventListener;
+import org.bitcoinj.core.FilteredBlock;
+import org.bitcoinj.core.GetDataMessage;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>Checker to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>A targeted check on pending transactions that have been waiting too long to confirm</li>
+ * <li>Memory pool lookups for transactions that are still waiting</li>
+ * <li>Merkle block lookups over the blocks since the oldest transaction for transactions that were missed</li>
+ * </ul>
+ * <p>Only the transactions that cannot be accounted for need a replay of the block chain.</p>
+ *
+ * @since 0.3.0
+ */
+public class PendingTransactionChecker {
+
+  private static final Logger log = LoggerFactory.getLogger(PendingTransactionChecker.class);
+
+  private static final long MEMPOOL_TIMEOUT_SECONDS = 5;
+
+  private static final long MERKLE_BLOCK_TIMEOUT_SECONDS = 30;
+
+  /**
+   * Miners may timestamp a block up to 2 hours ahead so a transaction may be in a block dated before it was seen
+   */
+  private static final long BLOCK_TIME_MARGIN_SECONDS = TimeUnit.HOURS.toSeconds(2);
+
+  /**
+   * The largest number of blocks asked for in one getdata message
+   */
+  private static final int MAX_BLOCKS_PER_REQUEST = 500;
+
+  private final NetworkParameters networkParameters;
+
+  private final BlockStore blockStore;
+
+  /**
+   * @param networkParameters The network parameters
+   * @param blockStore        The block store holding the blocks that may contain the transactions
+   */
+  public PendingTransactionChecker(NetworkParameters networkParameters, BlockStore blockStore) {
+    this.networkParameters = networkParameters;
+    this.blockStore = blockStore;
+  }
+
+  /**
+   * <p>Check the pending transactions against the peer (the peer must have the wallet bloom filter loaded)</p>
+   *
+   * @param peer         The peer to ask
+   * @param transactions The pending transactions
+   *
+   * @return The outcome for each transaction
+   */
+  public Result check(Peer peer, Collection<Transaction> transactions) throws BlockStoreException, InterruptedException {
+
+    Set<Sha256Hash> inMemPool = Sets.newHashSet();
+    List<Transaction> notInMemPool = Lists.newArrayList();
+
+    // Ask for all the transactions at once then wait for the answers
+    Map<Transaction, ListenableFuture<Transaction>> mempoolLookups = Maps.newLinkedHashMap();
+    for (Transaction transaction : transactions) {
+      mempoolLookups.put(transaction, peer.getPeerMempoolTransaction(transaction.getHash()));
+    }
+    for (Map.Entry<Transaction, ListenableFuture<Transaction>> entry : mempoolLookups.entrySet()) {
+      Transaction transaction = entry.getKey();
+      try {
+        if (entry.getValue().get(MEMPOOL_TIMEOUT_SECONDS, TimeUnit.SECONDS) != null) {
+          // Still waiting for a miner so a replay would not find it
+          inMemPool.add(transaction.getHash());
+          continue;
+        }
+      } catch (ExecutionException | TimeoutException e) {
+        log.debug("No memory pool answer for {}: {}", transaction.getHashAsString(), e.getMessage());
+      }
+      notInMemPool.add(transaction);
+    }
+
+    Map<Sha256Hash, StoredBlock> confirmed = Maps.newHashMap();
+    if (!notInMemPool.isEmpty()) {
+      confirmed = findInBlocks(peer, notInMemPool);
+    }
+
+    Set<Sha256Hash> unresolved = Sets.newHashSet();
+    for (Transaction transaction : notInMemPool) {
+      if (!confirmed.containsKey(transaction.getHash())) {
+        unresolved.add(transaction.getHash());
+      }
+    }
+
+    log.info(
+      "Checked {} pending transactions: {} in memory pool, {} found in blocks, {} unresolved",
+      transactions.size(),
+      inMemPool.size(),
+      confirmed.size(),
+      unresolved.size()
+    );
+
+    return new Result(inMemPool, confirmed, unresolved);
+  }
+
+  /**
+   * <p>Check the pending transactions and move those found in a block out of the wallet's pending pool</p>
+   *
+   * @param peer         The peer to ask (the peer must have the wallet bloom filter loaded)
+   * @param wallet       The wallet holding the pending transactions
+   * @param transactions The pending transactions
+   *
+   * @return True if every transaction was accounted for (false if a replay is needed)
+   */
+  public boolean checkAndApply(Peer peer, Wallet wallet, Collection<Transaction> transactions) throws BlockStoreException, InterruptedException {
+
+    Result result = check(peer, transactions);
+
+    int chainHeadHeight = blockStore.getChainHead().getHeight();
+    for (Map.Entry<Sha256Hash, StoredBlock> confirmed : result.getConfirmed().entrySet()) {
+      // Move the transaction out of the pending pool as if its block had just been downloaded
+      wallet.notifyTransactionIsInBlock(confirmed.getKey(), confirmed.getValue(), AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+
+      // The blocks above it have already been seen so the depth is measured from the chain head
+      Transaction transaction = wallet.getTransaction(confirmed.getKey());
+      if (transaction != null) {
+        transaction.getConfidence().setDepthInBlocks(chainHeadHeight - confirmed.getValue().getHeight() + 1);
+      }
+    }
+
+    return result.getUnresolved().isEmpty();
+  }
+
+  /**
+   * @return The blocks containing the transactions (transactions in no block are left out)
+   */
+  private Map<Sha256Hash, StoredBlock> findInBlocks(Peer peer, List<Transaction> transactions) throws BlockStoreException, InterruptedException {
+
+    Set<Sha256Hash> transactionHashes = Sets.newHashSet();
+    long earliestSeconds = Long.MAX_VALUE;
+    for (Transaction transaction : transactions) {
+      transactionHashes.add(transaction.getHash());
+      earliestSeconds = Math.min(earliestSeconds, transaction.getUpdateTime().getTime() / 1000);
+    }
+    earliestSeconds -= BLOCK_TIME_MARGIN_SECONDS;
+
+    // Walk back from the chain head to the first block older than the oldest transaction
+    Map<Sha256Hash, StoredBlock> candidateBlocks = Maps.newLinkedHashMap();
+    StoredBlock cursor = blockStore.getChainHead();
+    while (cursor != null && cursor.getHeader().getTimeSeconds() >= earliestSeconds) {
+      candidateBlocks.put(cursor.getHeader().getHash(), cursor);
+      cursor = cursor.getPrev(blockStore);
+    }
+
+    if (candidateBlocks.isEmpty()) {
+      return Maps.newHashMap();
+    }
+    log.debug("Asking for {} merkle blocks", candidateBlocks.size());
+
+    MerkleBlockCollector collector = new MerkleBlockCollector(candidateBlocks.keySet());
+
+    // The collector must see the messages before the peer does so that the old blocks stay out of the chain
+    peer.addEventListener(collector, Threading.SAME_THREAD);
+    try {
+      GetDataMessage getData = new GetDataMessage(networkParameters);
+      for (Sha256Hash blockHash : candidateBlocks.keySet()) {
+        getData.addFilteredBlock(blockHash);
+        if (getData.getItems().size() == MAX_BLOCKS_PER_REQUEST) {
+          peer.sendMessage(getData);
+          getData = new GetDataMessage(networkParameters);
+        }
+      }
+      if (!getData.getItems().isEmpty()) {
+        peer.sendMessage(getData);
+      }
+
+      if (!collector.await(MERKLE_BLOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        log.debug("Only {} of {} merkle blocks arrived", collector.getFilteredBlocks().size(), candidateBlocks.size());
+      }
+    } finally {
+      peer.removeEventListener(collector);
+    }
+
+    Map<Sha256Hash, StoredBlock> confirmed = Maps.newHashMap();
+    for (FilteredBlock filteredBlock : collector.getFilteredBlocks()) {
+      for (Sha256Hash matchedHash : filteredBlock.getTransactionHashes()) {
+        if (transactionHashes.contains(matchedHash)) {
+          confirmed.put(matchedHash, candidateBlocks.get(filteredBlock.getHash()));
+        }
+      }
+    }
+
+    return confirmed;
+  }
+
+  /**
+   * <p>Listener to take the requested merkle blocks (and the transactions that follow them) out of the message stream</p>
+   */
+  private static class MerkleBlockCollector extends AbstractPeerEventListener {
+
+    private final Set<Sha256Hash> requestedBlocks;
+
+    private final ConcurrentMap<Sha256Hash, FilteredBlock> filteredBlocks = Maps.newConcurrentMap();
+
+    private final Set<Sha256Hash> followingTransactions = Sets.newConcurrentHashSet();
+
+    private final CountDownLatch latch;
+
+    MerkleBlockCollector(Set<Sha256Hash> requestedBlocks) {
+      this.requestedBlocks = ImmutableSet.copyOf(requestedBlocks);
+      this.latch = new CountDownLatch(requestedBlocks.size());
+    }
+
+    @Override
+    public Message onPreMessageReceived(Peer peer, Message m) {
+
+      if (m instanceof FilteredBlock) {
+        FilteredBlock filteredBlock = (FilteredBlock) m;
+        if (requestedBlocks.contains(filteredBlock.getHash())) {
+          if (filteredBlocks.putIfAbsent(filteredBlock.getHash(), filteredBlock) == null) {
+            followingTransactions.addAll(filteredBlock.getTransactionHashes());
+            latch.countDown();
+          }
+          return null;
+        }
+      } else if (m instanceof Transaction) {
+        // Matched transactions are sent after their merkle block
+        if (followingTransactions.remove(((Transaction) m).getHash())) {
+          return null;
+        }
+      }
+
+      return m;
+    }
+
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+      return latch.await(timeout, unit);
+    }
+
+    Collection<FilteredBlock> getFilteredBlocks() {
+      return filteredBlocks.values();
+    }
+  }
+
+  /**
+   * <p>The outcome of a check</p>
+   */
+  public static class Result {
+
+    private final ImmutableSet<Sha256Hash> inMemPool;
+
+    private final ImmutableMap<Sha256Hash, StoredBlock> confirmed;
+
+    private final ImmutableSet<Sha256Hash> unresolved;
+
+    Result(Set<Sha256Hash> inMemPool, Map<Sha256Hash, StoredBlock> confirmed, Set<Sha256Hash> unresolved) {
+      this.inMemPool = ImmutableSet.copyOf(inMemPool);
+      this.confirmed = ImmutableMap.copyOf(confirmed);
+      this.unresolved = ImmutableSet.copyOf(unresolved);
+    }
+
+    /**
+     * @return The transactions the peer still has in its memory pool
+     */
+    public ImmutableSet<Sha256Hash> getInMemPool() {
+      return inMemPool;
+    }
+
+    /**
+     * @return The transactions found in a block, with the block
+     */
+    public ImmutableMap<Sha256Hash, StoredBlock> getConfirmed() {
+      return confirmed;
+    }
+
+    /**
+     * @return The transactions found neither in the memory pool nor in a block (a replay is needed)
+     */
+    public ImmutableSet<Sha256Hash> getUnresolved() {
+      return unresolved;
+    }
+  }
+}
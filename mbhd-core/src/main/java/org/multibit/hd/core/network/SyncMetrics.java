@@ -0,0 +1,149 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import org.bitcoinj.core.PeerAddress;
+import org.multibit.hd.core.events.SyncMetricsEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Metrics to provide the following to MultiBitPeerEventListener:</p>
+ * <ul>
+ * <li>Rolling per-second counts of blocks, bytes, bloom filter matches and false positives</li>
+ * <li>Blocks downloaded from each peer</li>
+ * <li>Snapshots of the rates as a SyncMetricsEvent</li>
+ * </ul>
+ * <p>Recording a block does not allocate: each counter is a fixed ring of one second buckets that are reset as the
+ * window moves on.</p>
+ *
+ * @since 0.3.0
+ */
+public class SyncMetrics {
+
+  /**
+   * The length of the rolling window
+   */
+  public static final int WINDOW_SECONDS = 30;
+
+  private final RollingCounter blocks = new RollingCounter(WINDOW_SECONDS);
+
+  private final RollingCounter bytes = new RollingCounter(WINDOW_SECONDS);
+
+  private final RollingCounter matches = new RollingCounter(WINDOW_SECONDS);
+
+  private final RollingCounter falsePositives = new RollingCounter(WINDOW_SECONDS);
+
+  private final ConcurrentMap<PeerAddress, AtomicLong> blocksByPeer = new ConcurrentHashMap<>();
+
+  /**
+   * @param peerAddress   The address of the peer that provided the block (may be null)
+   * @param blockBytes    The size of the block message
+   * @param matchCount    The number of transactions matched by the bloom filter
+   * @param falsePositive The number of matched transactions not relevant to the wallet
+   * @param nowMillis     The current time
+   */
+  public synchronized void recordBlock(PeerAddress peerAddress, long blockBytes, int matchCount, int falsePositive, long nowMillis) {
+
+    long second = nowMillis / 1000;
+    blocks.add(second, 1);
+    bytes.add(second, blockBytes);
+    matches.add(second, matchCount);
+    falsePositives.add(second, falsePositive);
+
+    if (peerAddress != null) {
+      AtomicLong peerBlocks = blocksByPeer.get(peerAddress);
+      if (peerBlocks == null) {
+        // Only allocates for the first block from each peer
+        blocksByPeer.putIfAbsent(peerAddress, new AtomicLong());
+        peerBlocks = blocksByPeer.get(peerAddress);
+      }
+      peerBlocks.incrementAndGet();
+    }
+
+  }
+
+  /**
+   * @param blocksLeft The number of blocks left to download
+   * @param nowMillis  The current time
+   *
+   * @return The rates over the rolling window
+   */
+  public synchronized SyncMetricsEvent snapshot(int blocksLeft, long nowMillis) {
+
+    long second = nowMillis / 1000;
+    long blockCount = blocks.sum(second);
+    long matchCount = matches.sum(second);
+
+    double blocksPerSecond = blockCount / (double) WINDOW_SECONDS;
+    double bytesPerSecond = bytes.sum(second) / (double) WINDOW_SECONDS;
+    double matchesPerBlock = blockCount == 0 ? 0 : matchCount / (double) blockCount;
+    double falsePositiveRate = matchCount == 0 ? 0 : falsePositives.sum(second) / (double) matchCount;
+
+    Optional<Long> secondsToTip = Optional.absent();
+    if (blocksLeft > 0 && blockCount > 0) {
+      secondsToTip = Optional.of((long) Math.ceil(blocksLeft / blocksPerSecond));
+    }
+
+    ImmutableMap.Builder<String, Long> peerSnapshot = ImmutableMap.builder();
+    for (Map.Entry<PeerAddress, AtomicLong> entry : blocksByPeer.entrySet()) {
+      peerSnapshot.put(entry.getKey().toString(), entry.getValue().get());
+    }
+
+    return new SyncMetricsEvent(
+      blocksPerSecond,
+      bytesPerSecond,
+      matchesPerBlock,
+      falsePositiveRate,
+      blocksLeft,
+      secondsToTip,
+      peerSnapshot.build()
+    );
+  }
+
+  /**
+   * A count over the last few seconds held in one bucket per second
+   */
+  static class RollingCounter {
+
+    private final long[] counts;
+
+    /**
+     * The second each bucket was last used for
+     */
+    private final long[] seconds;
+
+    RollingCounter(int windowSeconds) {
+      counts = new long[windowSeconds];
+      seconds = new long[windowSeconds];
+    }
+
+    void add(long second, long value) {
+      int bucket = (int) (second % counts.length);
+      if (seconds[bucket] != second) {
+        // The bucket holds a count from an earlier lap of the ring
+        seconds[bucket] = second;
+        counts[bucket] = 0;
+      }
+      counts[bucket] += value;
+    }
+
+    /**
+     * @param second The current second
+     *
+     * @return The total over the window ending at the current second
+     */
+    long sum(long second) {
+      long total = 0;
+      for (int bucket = 0; bucket < counts.length; bucket++) {
+        if (second - seconds[bucket] < counts.length) {
+          total += counts[bucket];
+        }
+      }
+      return total;
+    }
+  }
+}
@@ -6,11 +6,20 @@ import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.managers.BackupManager;
+import org.multibit.hd.core.managers.WalletManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * <p>Service to provide the following to application API:</p>
@@ -48,6 +57,10 @@ import java.util.concurrent.TimeUnit;
  * make saves every 30 minutes
  * make first save 1 minutes after MBHD start
  * make a save at MBHD exit
+ * saves are staged locally and uploaded one at a time on a separate thread at a limited rate
+ * so a slow cloud directory never holds up the other backups
+ * a soft shutdown waits up to EXIT_BACKUP_TIMEOUT_SECONDS for the exit backup to be uploaded
+ * staged backups left over from an earlier session are queued for upload when the service starts
  * <p/>
  * <p/>
  * Do not bother tracking if the wallet is dirty, this only really affects the rolling backups and
@@ -87,6 +100,11 @@ public class BackupService extends AbstractService {
    */
   private static final int CLOUD_ZIP_BACKUP_MODULO = 150;
 
+  /**
+   * The longest time in seconds a soft shutdown waits for the exit backups and their uploads
+   */
+  private static final int EXIT_BACKUP_TIMEOUT_SECONDS = 30;
+
   /**
    * The number of times the backup main loop has incremented
    * We expect this service to be a singleton
@@ -123,6 +141,11 @@ public class BackupService extends AbstractService {
    */
   private Optional<CharSequence> rememberedPasswordForCloudBackup = Optional.absent();
 
+  /**
+   * The names of the staged cloud backups waiting for or being uploaded
+   */
+  private final Set<String> queuedCloudUploads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
   /**
    * Whether backups are enabled or not
    */
@@ -149,6 +172,17 @@ public class BackupService extends AbstractService {
     // Use the provided executor service management
     requireSingleThreadScheduledExecutor("backup");
 
+    // Cloud uploads are slow so have their own thread
+    requireFixedThreadPoolExecutor(1, "backup-upload");
+
+    // Resume the uploads left over from an earlier session
+    Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+    if (currentWalletSummary.isPresent()) {
+      for (File backup : BackupManager.INSTANCE.getStagedCloudBackups(currentWalletSummary.get().getWalletId())) {
+        queueCloudUpload(currentWalletSummary.get().getWalletId(), backup);
+      }
+    }
+
     // Use the provided executor service management
     getScheduledExecutorService().scheduleAtFixedRate(
       new Runnable() {
@@ -202,7 +236,7 @@ public class BackupService extends AbstractService {
           // Disable any new backups
           this.setBackupsAreEnabled(false);
 
-          getScheduledExecutorService().schedule(
+          Future<?> exitBackups = getScheduledExecutorService().submit(
             new Runnable() {
               public void run() {
                 // Wait for any current backups to complete
@@ -218,7 +252,10 @@ public class BackupService extends AbstractService {
 
               }
 
-            }, 0, TimeUnit.MILLISECONDS);
+            });
+
+          // The executors are shut down on return so wait for the exit backups and drain the upload queue first
+          awaitExitBackups(exitBackups);
         }
         break;
       case SWITCH:
@@ -230,6 +267,29 @@ public class BackupService extends AbstractService {
 
   }
 
+  /**
+   * Wait for the backups at shutdown and the uploads they queue (up to EXIT_BACKUP_TIMEOUT_SECONDS)
+   */
+  private void awaitExitBackups(Future<?> exitBackups) {
+
+    long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(EXIT_BACKUP_TIMEOUT_SECONDS);
+    try {
+      exitBackups.get(EXIT_BACKUP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      while (!queuedCloudUploads.isEmpty() && System.nanoTime() < deadlineNanos) {
+        Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      log.warn("Backups at shutdown did not complete", e);
+    }
+
+    if (!queuedCloudUploads.isEmpty()) {
+      // The staged backups are kept and queued when the service next starts
+      log.warn("{} cloud backup uploads did not complete before shutdown", queuedCloudUploads.size());
+    }
+  }
+
   /**
    * Remember a wallet summary and credentials.
    * This will be used at the next rolling backup.
@@ -306,13 +366,20 @@ public class BackupService extends AbstractService {
     if (rememberedWalletIdForCloudBackup.isPresent() && rememberedPasswordForCloudBackup.isPresent()) {
       log.debug("Performing a cloud zip backup");
 
+      WalletId walletId = rememberedWalletIdForCloudBackup.get();
+      CharSequence password = rememberedPasswordForCloudBackup.get();
       try {
-        BackupManager.INSTANCE.createCloudBackup(rememberedWalletIdForCloudBackup.get(), rememberedPasswordForCloudBackup.get());
+        BackupManager.INSTANCE.stageCloudBackup(walletId, password);
 
         // Don't use anything remembered in the past at this point again
         // (This will miss anything newly remembered whilst the backup is taking place
         rememberedWalletIdForCloudBackup = Optional.absent();
         rememberedPasswordForCloudBackup = Optional.absent();
+
+        // Includes any staged backups that failed to upload earlier (even if nothing new was staged)
+        for (File backup : BackupManager.INSTANCE.getStagedCloudBackups(walletId)) {
+          queueCloudUpload(walletId, backup);
+        }
       } catch (IOException ioe) {
         log.error("Failed to perform cloud backup", ioe);
         CoreEvents.fireEnvironmentEvent(EnvironmentSummary.newBackupFailed());
@@ -322,6 +389,53 @@ public class BackupService extends AbstractService {
     }
   }
 
+  /**
+   * Upload a staged cloud backup on the upload thread (unless it is already queued)
+   */
+  private void queueCloudUpload(final WalletId walletId, final File stagedBackup) {
+
+    if (!queuedCloudUploads.add(stagedBackup.getName())) {
+      return;
+    }
+
+    log.debug("Queued upload of '{}'. Queue depth = {}", stagedBackup.getName(), queuedCloudUploads.size());
+    try {
+      getExecutorService().submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              BackupManager.INSTANCE.uploadCloudBackup(walletId, stagedBackup);
+            } catch (IOException ioe) {
+              // The staged backup is kept and the upload resumes after the next cloud backup
+              log.error("Failed to upload cloud backup", ioe);
+              CoreEvents.fireEnvironmentEvent(EnvironmentSummary.newBackupFailed());
+            } finally {
+              queuedCloudUploads.remove(stagedBackup.getName());
+            }
+          }
+        });
+    } catch (RejectedExecutionException e) {
+      // The service is shutting down so the staged backup is kept for the next start
+      log.warn("Upload of '{}' rejected: {}", stagedBackup.getName(), e.getMessage());
+      queuedCloudUploads.remove(stagedBackup.getName());
+    }
+  }
+
+  /**
+   * @return The number of staged cloud backups waiting for or being uploaded
+   */
+  public int getCloudUploadQueueDepth() {
+    return queuedCloudUploads.size();
+  }
+
+  /**
+   * @return The average cloud backup upload rate in bytes per second
+   */
+  public double getCloudUploadBytesPerSecond() {
+    return BackupManager.INSTANCE.getCloudBackupUploader().getBytesPerSecond();
+  }
+
   /**
    * Set whether backups are enabled.
    * Can be called on any thread.
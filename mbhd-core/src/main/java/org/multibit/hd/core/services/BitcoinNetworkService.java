@@ -4,10 +4,10 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.Uninterruptibles;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.bitcoinj.core.*;
 import org.bitcoinj.crypto.ChildNumber;
@@ -19,24 +19,35 @@ import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.wallet.DecryptingKeyBag;
 import org.bitcoinj.wallet.DeterministicKeyChain;
 import org.bitcoinj.wallet.KeyChain;
 import org.joda.time.DateTime;
 import org.multibit.commons.files.SecureFiles;
+import org.multibit.commons.utils.Dates;
+import org.multibit.hd.core.coin_selection.CoinSelectionStrategy;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.*;
 import org.multibit.hd.core.managers.BlockStoreManager;
+import org.multibit.hd.core.managers.BlockTimeIndex;
+import org.multibit.hd.core.managers.IndexedSPVBlockStore;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.network.BloomFilterPolicy;
 import org.multibit.hd.core.network.MultiBitPeerEventListener;
+import org.multibit.hd.core.network.MultiBitPeerGroup;
+import org.multibit.hd.core.network.PeerManager;
+import org.multibit.hd.core.network.PendingTransactionChecker;
 import org.multibit.hd.core.utils.Coins;
+import org.multibit.hd.core.wallet.ParallelTransactionSigner;
+import org.multibit.hd.core.wallet.TransactionSizeEstimator;
+import org.multibit.hd.core.wallet.UnconfirmedTransactionDetector;
 import org.multibit.hd.hardware.core.HardwareWalletService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -67,7 +78,10 @@ public class BitcoinNetworkService extends AbstractService {
 
   public static final int MAXIMUM_NUMBER_OF_PEERS = 10;
 
-  private static final int SIZE_OF_SIGNATURE = 72; // bytes
+  /**
+   * The number of peers to stay connected to once the block chain is in sync
+   */
+  public static final int IDLE_NUMBER_OF_PEERS = 4;
 
   private static int CONNECTION_TIMEOUT = 4000; // milliseconds
 
@@ -87,6 +101,8 @@ public class BitcoinNetworkService extends AbstractService {
   private PeerGroup peerGroup;
   private BlockChain blockChain;
   private MultiBitPeerEventListener peerEventListener;
+  private PeerManager peerManager;
+  private final BloomFilterPolicy bloomFilterPolicy = new BloomFilterPolicy();
 
   private final NetworkParameters networkParameters;
 
@@ -95,6 +111,11 @@ public class BitcoinNetworkService extends AbstractService {
   private Optional<SendRequestSummary> lastSendRequestSummaryOptional = Optional.absent();
   private Optional<Wallet> lastWalletOptional = Optional.absent();
 
+  /**
+   * The date to replay from if the stuck transactions check after the next download fails (absent for no check)
+   */
+  private volatile Optional<DateTime> stuckTransactionReplayDate = Optional.absent();
+
   /**
    * @param networkParameters The Bitcoin network parameters
    */
@@ -184,8 +205,15 @@ public class BitcoinNetworkService extends AbstractService {
         blockStoreToReturn = new BlockStoreManager(networkParameters).createOrOpenBlockStore(blockStoreFile, checkpointsFile, replayConfig.getReplayDate().get(), true);
       } else {
         if (replayConfig.getReplayStoredBlockStack().isPresent()) {
-          // Create a blockstore using the StoredBlockStack
-          blockStoreToReturn = new BlockStoreManager(networkParameters).createOrOpenBlockStore(blockStoreFile, replayConfig.getReplayStoredBlockStack().get(), true);
+          Stack<StoredBlock> replayStoredBlockStack = replayConfig.getReplayStoredBlockStack().get();
+          if (replayConfig.isRewindInPlace() && !replayStoredBlockStack.isEmpty()) {
+            // Try to move the chain head of the existing blockstore back to the most recent stored block
+            blockStoreToReturn = new BlockStoreManager(networkParameters).rewindBlockStore(blockStoreFile, replayStoredBlockStack.firstElement()).orNull();
+          }
+          if (blockStoreToReturn == null) {
+            // Create a blockstore using the StoredBlockStack
+            blockStoreToReturn = new BlockStoreManager(networkParameters).createOrOpenBlockStore(blockStoreFile, replayStoredBlockStack, true);
+          }
         } else {
           // Load or create the blockStore - no checkpointing or storedBlock used
           log.debug("Create new block store - no replay date or storedBlock");
@@ -222,9 +250,34 @@ public class BitcoinNetworkService extends AbstractService {
     return startedOk;
   }
 
+  /**
+   * <p>Size the keychain lookahead and recalculate the bloom filter</p>
+   * <p>The filter is only force-sent to the peers when the wallet key set has changed since it was last sent</p>
+   *
+   * @param wait True if the call should block until the download peer has received a changed filter
+   */
   public void recalculateFastCatchupAndFilter(boolean wait) {
 
     if (peerGroup != null) {
+
+      boolean keySetChanged = true;
+      int elementCount = -1;
+      if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
+        Wallet wallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
+        if (wallet != null) {
+          applyLookaheadSize(wallet);
+          elementCount = wallet.getBloomFilterElementCount();
+          keySetChanged = bloomFilterPolicy.isKeySetChanged(elementCount, wallet.getEarliestKeyCreationTime());
+        }
+      }
+
+      if (!keySetChanged) {
+        // Only sends if the filter itself differs (e.g. outpoints of new transactions)
+        log.debug("Wallet key set unchanged - bloom filter will only be sent if changed");
+        peerGroup.recalculateFastCatchupAndFilter(PeerGroup.FilterRecalculateMode.SEND_IF_CHANGED);
+        return;
+      }
+
       ListenableFuture<BloomFilter> bloomFilterFuture = peerGroup.recalculateFastCatchupAndFilter(PeerGroup.FilterRecalculateMode.FORCE_SEND_FOR_REFRESH);
 
       if (wait) {
@@ -234,12 +287,81 @@ public class BitcoinNetworkService extends AbstractService {
           log.error("Bloom filter construction failed with error {}", e.getMessage());
         }
 
-        // Wait one second for the remote peer to process the new BloomFilter
-        Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
+        // Messages are processed in order so a ping reply shows the download peer has the new BloomFilter
+        waitForDownloadPeer();
 
       }
 
-      log.debug("Status of BloomFilterFuture after 1 second:{}", bloomFilterFuture.isDone());
+      log.debug("Status of BloomFilterFuture:{}", bloomFilterFuture.isDone());
+
+      if (elementCount >= 0) {
+        CoreEvents.fireBloomFilterChangedEvent(new BloomFilterChangedEvent(elementCount, bloomFilterPolicy.getFalsePositiveRate()));
+      }
+    }
+  }
+
+  /**
+   * <p>Tune the bloom filter false positive rate against the measured false positives</p>
+   *
+   * @param syncMetricsEvent The sync metrics
+   */
+  @Subscribe
+  public void onSyncMetricsEvent(SyncMetricsEvent syncMetricsEvent) {
+
+    Optional<Double> falsePositiveRate = bloomFilterPolicy.tune(syncMetricsEvent, System.currentTimeMillis());
+
+    PeerGroup currentPeerGroup = peerGroup;
+    if (falsePositiveRate.isPresent() && currentPeerGroup != null) {
+      // The new filter is sent to the peers if it differs
+      currentPeerGroup.setBloomFilterFalsePositiveRate(falsePositiveRate.get());
+
+      if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
+        Wallet wallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
+        if (wallet != null) {
+          CoreEvents.fireBloomFilterChangedEvent(new BloomFilterChangedEvent(wallet.getBloomFilterElementCount(), falsePositiveRate.get()));
+        }
+      }
+    }
+  }
+
+  /**
+   * <p>Size the keychain lookahead from the payment request gap and the issued addresses</p>
+   *
+   * @param wallet The current wallet
+   */
+  private void applyLookaheadSize(Wallet wallet) {
+
+    Optional<Integer> gap = Optional.absent();
+    Optional<WalletService> walletService = CoreServices.getCurrentWalletService();
+    if (walletService.isPresent()) {
+      try {
+        gap = walletService.get().getGap();
+      } catch (IllegalStateException e) {
+        log.debug("Gap is not available: {}", e.getMessage());
+      }
+    }
+
+    int lookaheadSize = bloomFilterPolicy.getLookaheadSize(gap, wallet.getActiveKeychain().getIssuedExternalKeys());
+    if (lookaheadSize != wallet.getKeychainLookaheadSize()) {
+      log.debug("Changing keychain lookahead size from {} to {}", wallet.getKeychainLookaheadSize(), lookaheadSize);
+      wallet.setKeychainLookaheadSize(lookaheadSize);
+    }
+  }
+
+  /**
+   * <p>Ping the download peer (if any) to make sure it has processed the messages sent to it</p>
+   */
+  private void waitForDownloadPeer() {
+
+    Peer downloadPeer = peerGroup == null ? null : peerGroup.getDownloadPeer();
+    if (downloadPeer == null) {
+      return;
+    }
+
+    try {
+      downloadPeer.ping().get(1, TimeUnit.SECONDS);
+    } catch (ProtocolException | InterruptedException | ExecutionException | TimeoutException e) {
+      log.debug("Download peer did not reply to ping: {}", e.getMessage());
     }
   }
 
@@ -282,6 +404,13 @@ public class BitcoinNetworkService extends AbstractService {
               CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newChainDownloadCompleted());
               CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newNetworkPeerCount(peerGroup.numConnectedPeers()));
             }
+
+            // Only check once the wallet has seen the latest blocks
+            Optional<DateTime> fallbackReplayDate = stuckTransactionReplayDate;
+            stuckTransactionReplayDate = Optional.absent();
+            if (fallbackReplayDate.isPresent()) {
+              checkStuckTransactions(fallbackReplayDate.get());
+            }
           } catch (RuntimeException re) {
             log.debug("Blockchain download was interrupted. Error was : '" + re.getMessage() + "'");
           }
@@ -289,6 +418,59 @@ public class BitcoinNetworkService extends AbstractService {
       });
   }
 
+  /**
+   * <p>After the next block chain download check the pending transactions that have been waiting too long to confirm</p>
+   *
+   * @param fallbackReplayDate The date to replay from if the check cannot account for all of them
+   */
+  public void checkStuckTransactionsAfterDownload(DateTime fallbackReplayDate) {
+
+    Preconditions.checkNotNull(fallbackReplayDate, "'fallbackReplayDate' must be present");
+
+    stuckTransactionReplayDate = Optional.of(fallbackReplayDate);
+  }
+
+  /**
+   * <p>Ask the download peer about the stuck pending transactions and only replay if some cannot be accounted for</p>
+   *
+   * @param fallbackReplayDate The date to replay from
+   */
+  private void checkStuckTransactions(DateTime fallbackReplayDate) {
+
+    if (!WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
+      return;
+    }
+    Wallet wallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
+    if (wallet == null) {
+      return;
+    }
+
+    // The download may have confirmed some of them already
+    List<Transaction> stuckTransactions = UnconfirmedTransactionDetector.findStuckTransactions(wallet, Dates.nowUtc());
+    if (stuckTransactions.isEmpty()) {
+      log.debug("No stuck transactions remain after the download");
+      return;
+    }
+
+    boolean resolved = false;
+    Peer downloadPeer = peerGroup == null ? null : peerGroup.getDownloadPeer();
+    if (downloadPeer != null && blockStore != null) {
+      try {
+        resolved = new PendingTransactionChecker(networkParameters, blockStore).checkAndApply(downloadPeer, wallet, stuckTransactions);
+      } catch (BlockStoreException | VerificationException e) {
+        log.warn("Stuck transactions check failed", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+
+    if (!resolved) {
+      log.info("Stuck transactions could not be accounted for. Replaying from {}", fallbackReplayDate);
+      replayWallet(InstallationManager.getOrCreateApplicationDataDirectory(), Optional.of(fallbackReplayDate), true, false);
+    }
+  }
+
   /**
    * Sync the current wallet from the date specified. If Optional.absent() is specified no checkpointing is performed
    * The blockstore is deleted and created anew, checkpointed and then the blockchain is downloaded.
@@ -329,7 +511,8 @@ public class BitcoinNetworkService extends AbstractService {
       Optional<Stack<StoredBlock>> replayStoredBlockStack = findStoredBlockBefore(replayDateTime);
       if (replayStoredBlockStack.isPresent()) {
         log.debug("Can replay wallet from storedBlock");
-        replayConfig = new ReplayConfig(replayStoredBlockStack.get());
+        // The stored blocks came from the current block store so it can be rewound rather than recreated
+        replayConfig = new ReplayConfig(replayStoredBlockStack.get(), blockStore instanceof IndexedSPVBlockStore);
       } else {
          if (replayDateTime.isPresent()) {
           // Use the specified replay date
@@ -387,6 +570,11 @@ public class BitcoinNetworkService extends AbstractService {
     }
 
     try {
+      if (blockStore instanceof IndexedSPVBlockStore) {
+        // Binary search the block time index rather than walking back from the chain head
+        return findStoredBlockBeforeUsingIndex((IndexedSPVBlockStore) blockStore, replayDateTime.get());
+      }
+
       StoredBlock cursor = blockStore.getChainHead();
       if (cursor == null) {
         // No chainHead so cannot search back in time
@@ -417,6 +605,70 @@ public class BitcoinNetworkService extends AbstractService {
     }
   }
 
+  /**
+   * As findStoredBlockBefore but the replay point is found by a binary search of the block time index and the
+   * difficulty transition is checked from the heights before any blocks are read
+   *
+   * @return The snippet of chain as for pushStoredBlocksToCursorAndCheckDifficulty, or absent
+   */
+  private Optional<Stack<StoredBlock>> findStoredBlockBeforeUsingIndex(IndexedSPVBlockStore indexedBlockStore, DateTime replayDateTime) throws BlockStoreException {
+
+    BlockTimeIndex blockTimeIndex = indexedBlockStore.getBlockTimeIndex();
+
+    Optional<Integer> replayHeight = blockTimeIndex.findHeightBefore(replayDateTime.getMillis() / 1000);
+    if (!replayHeight.isPresent()) {
+      log.debug("No stored block available before replay date");
+      return Optional.absent();
+    }
+
+    // Go back some more blocks to cater for possible forks
+    int topHeight = replayHeight.get() - NUMBER_OF_BLOCKS_DELTA_FOR_REPLAY;
+    if (topHeight < blockTimeIndex.getBaseHeight() || !hasDifficultyTransition(blockTimeIndex.getBaseHeight() + 1, topHeight)) {
+      log.debug("Not enough blocks or no difficulty transition in block time index");
+      return Optional.absent();
+    }
+
+    // Push from the top down so the earliest block is popped first (the oldest may have left the block store)
+    Stack<StoredBlock> stack = new Stack<>();
+    int earliestHeight = topHeight + 1;
+    for (int height = topHeight; height >= blockTimeIndex.getBaseHeight(); height--) {
+      Optional<Sha256Hash> hash = blockTimeIndex.getHash(height);
+      StoredBlock storedBlock = hash.isPresent() ? indexedBlockStore.get(hash.get()) : null;
+      if (storedBlock == null) {
+        break;
+      }
+      stack.push(storedBlock);
+      earliestHeight = height;
+    }
+
+    if (!hasDifficultyTransition(earliestHeight + 1, topHeight)) {
+      log.debug("No difficulty transition in chain snippet");
+      return Optional.absent();
+    }
+
+    log.debug("Found a chain snippet for use in replay of length {} from the block time index", stack.size());
+    return Optional.of(stack);
+  }
+
+  /**
+   * @param fromHeight The lowest height of a block whose previous block is available
+   * @param toHeight   The highest height
+   *
+   * @return True if there is a difficulty transition (as per AbstractBitcoinNetParams#isDifficultyTransitionPoint) in the range
+   */
+  private boolean hasDifficultyTransition(int fromHeight, int toHeight) {
+
+    if (fromHeight > toHeight) {
+      return false;
+    }
+
+    // The first multiple of the interval at or above the lowest height
+    int interval = networkParameters.getInterval();
+    int firstTransitionHeight = ((fromHeight + interval - 1) / interval) * interval;
+
+    return firstTransitionHeight <= toHeight;
+  }
+
   /**
    * Push to a stack all the headers from the earliest known in the block store to NUMBER_OF_BLOCKS_DELTA_FOR_REPLAY prior to the cursor
    * The stack returned is guaranteed to have a difficulty transition
@@ -721,6 +973,7 @@ public class BitcoinNetworkService extends AbstractService {
       }
       sendRequest.fee = Coin.ZERO;
       sendRequest.feePerKb = sendRequestSummary.getFeePerKB();
+      sendRequest.coinSelector = getCoinSelectionStrategy().newCoinSelector(sendRequest.feePerKb);
 
       // Append the Bitcoinj send request to the summary
       sendRequestSummary.setSendRequest(sendRequest);
@@ -755,6 +1008,18 @@ public class BitcoinNetworkService extends AbstractService {
 
   }
 
+  /**
+   * @return The coin selection strategy from the wallet configuration (STANDARD if there is no configuration)
+   */
+  private CoinSelectionStrategy getCoinSelectionStrategy() {
+
+    if (Configurations.currentConfiguration == null || Configurations.currentConfiguration.getWallet() == null) {
+      return CoinSelectionStrategy.STANDARD;
+    }
+
+    return CoinSelectionStrategy.fromName(Configurations.currentConfiguration.getWallet().getCoinSelectionStrategy());
+  }
+
   /**
    * @param sendRequestSummary The information required to prepare a transaction for sending (this is everything except the credentials)
    *                           This prepares the transaction but does not sign it
@@ -822,6 +1087,13 @@ public class BitcoinNetworkService extends AbstractService {
       setFiatEquivalent(sendRequestSummary);
     }
 
+    // The fee was sized by the wallet using dummy signatures so check it against the largest possible signatures
+    Wallet.SendRequest sendRequest = sendRequestSummary.getSendRequest().get();
+    Coin estimatedFee = TransactionSizeEstimator.estimateFee(sendRequest.tx, sendRequest.feePerKb);
+    if (sendRequest.fee != null && sendRequest.fee.isLessThan(estimatedFee)) {
+      log.warn("Mining fee {} is below the {} estimated for the signed size", sendRequest.fee, estimatedFee);
+    }
+
     // Must be OK to be here
     log.debug("Prepare transaction has completed");
 
@@ -1027,7 +1299,13 @@ public class BitcoinNetworkService extends AbstractService {
       // Sign the transaction
       sendRequest.signInputs = true;
       log.debug("sendRequest just before signing: {} ", sendRequest);
-      wallet.signTransaction(sendRequest);
+
+      // Single key inputs (all of them for a soft wallet) are signed across all cores, anything else by the wallet
+      boolean signedInParallel = wallet.getTransactionSigners().size() == 1
+        && new ParallelTransactionSigner().sign(sendRequest.tx, new DecryptingKeyBag(wallet, sendRequest.aesKey));
+      if (!signedInParallel) {
+        wallet.signTransaction(sendRequest);
+      }
 
       // Check the signatures are canonical - non-canonical signatures are not relayed
       for (TransactionInput txInput : sendRequest.tx.getInputs()) {
@@ -1404,8 +1682,13 @@ public class BitcoinNetworkService extends AbstractService {
       "seed.bitcoinstats.com",       // Chris Decker
       "seed.bitnodes.io",            // Addy Yeow
     };
+    if (peerManager == null) {
+      // Loads the peer cache from the previous run
+      peerManager = new PeerManager(InstallationManager.getOrCreateApplicationDataDirectory(), IDLE_NUMBER_OF_PEERS, MAXIMUM_NUMBER_OF_PEERS);
+    }
+
     log.info("Creating new DNS peer group for '{}'", networkParameters);
-    peerGroup = new PeerGroup(networkParameters, blockChain);
+    peerGroup = new MultiBitPeerGroup(networkParameters, blockChain, peerManager);
     peerGroup.addPeerDiscovery(new DnsDiscovery(dnsSeeds, networkParameters));
     peerGroup.setConnectTimeoutMillis(CONNECTION_TIMEOUT);
 
@@ -1414,9 +1697,15 @@ public class BitcoinNetworkService extends AbstractService {
       InstallationManager.MBHD_APP_NAME,
       Configurations.currentConfiguration.getCurrentVersion());
 
-    peerGroup.setMaxConnections(MAXIMUM_NUMBER_OF_PEERS);
     peerGroup.setUseLocalhostPeerWhenPossible(true);
 
+    // A new peer group always needs the filter
+    peerGroup.setBloomFilterFalsePositiveRate(bloomFilterPolicy.getFalsePositiveRate());
+    bloomFilterPolicy.reset();
+
+    // Cached peers are tried first and the connection target follows the sync state
+    peerManager.attach(peerGroup);
+
     peerEventListener = new MultiBitPeerEventListener();
     peerGroup.addEventListener(peerEventListener);
 
@@ -1465,6 +1754,7 @@ public class BitcoinNetworkService extends AbstractService {
 
   /**
    * Ping all connected peers to see if there is an active network connection
+   * The pings are sent together and the round trip times are recorded for peer selection
    *
    * @return true is two or more peers respond to the ping
    */
@@ -1472,24 +1762,39 @@ public class BitcoinNetworkService extends AbstractService {
     List<Peer> connectedPeers = peerGroup.getConnectedPeers();
     int numberOfSuccessfulPings = 0;
     if (connectedPeers != null) {
+
+      // Send all the pings before waiting for any of them
+      Map<Peer, ListenableFuture<Long>> pings = Maps.newLinkedHashMap();
       for (Peer peer : connectedPeers) {
 
         log.debug("Ping: {}", peer.getAddress().toString());
 
         try {
-          ListenableFuture<Long> result = peer.ping();
-          result.get(4, TimeUnit.SECONDS);
+          pings.put(peer, peer.ping());
+        } catch (ProtocolException e) {
+          log.warn("Peer '" + peer.getAddress().toString() + "' failed ping test. Message was " + e.getMessage());
+        }
+      }
+
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(4);
+      for (Map.Entry<Peer, ListenableFuture<Long>> ping : pings.entrySet()) {
+        Peer peer = ping.getKey();
+        try {
+          long pingMillis = ping.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
           numberOfSuccessfulPings++;
-          if (numberOfSuccessfulPings >= NUMBER_OF_PEERS_TO_PING) {
-            break;
+          if (peerManager != null) {
+            peerManager.recordPing(peer, pingMillis);
           }
-        } catch (ProtocolException | InterruptedException | ExecutionException | TimeoutException e) {
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
           log.warn("Peer '" + peer.getAddress().toString() + "' failed ping test. Message was " + e.getMessage());
+          if (peerManager != null) {
+            peerManager.recordFailure(peer);
+          }
         }
       }
     }
 
-    return numberOfSuccessfulPings >= 2;
+    return numberOfSuccessfulPings >= NUMBER_OF_PEERS_TO_PING;
   }
 
   /**
@@ -1530,6 +1835,11 @@ public class BitcoinNetworkService extends AbstractService {
       peerGroup.removeEventListener(peerEventListener);
       peerEventListener = null;
 
+      // Save the peer cache for the next start
+      if (peerManager != null) {
+        peerManager.detach(peerGroup);
+      }
+
       // Remove the wallet from the peer group
       if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
         peerGroup.removeWallet(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet());
@@ -1590,23 +1900,6 @@ public class BitcoinNetworkService extends AbstractService {
     startedOk = true;
   }
 
-  /**
-   * Calculate the size of the transaction
-   *
-   * @param transaction The transaction to calculate the size of
-   *
-   * @return size of the transaction
-   */
-  private int calculateSizeWithSignatures(Transaction transaction) throws IOException {
-    ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
-    transaction.bitcoinSerialize(byteOutputStream);
-
-    int unsignedSize = byteOutputStream.size();
-
-    // Add on size of signatures
-    return unsignedSize + SIZE_OF_SIGNATURE * transaction.getInputs().size();
-  }
-
   public Optional<SendRequestSummary> getLastSendRequestSummaryOptional() {
     return lastSendRequestSummaryOptional;
   }
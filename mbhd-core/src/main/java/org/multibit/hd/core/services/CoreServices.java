@@ -21,6 +21,7 @@ import org.multibit.hd.core.dto.WalletMode;
 import org.multibit.hd.core.dto.WalletPassword;
 import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.error_reporting.ExceptionHandler;
+import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.exceptions.PaymentsLoadException;
 import org.multibit.hd.core.logging.LoggingFactory;
@@ -161,6 +162,9 @@ public class CoreServices {
       Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
     }
 
+    // Select the core event dispatcher (moving any early subscribers across)
+    CoreEvents.useRingBufferDispatcher(Configurations.currentConfiguration.isRingBufferEvents());
+
     // Set up the bitcoinj context
     context = new Context(NetworkParameters.fromID(NetworkParameters.ID_MAINNET));
     log.debug("Context identity: {}", System.identityHashCode(context));
@@ -4,11 +4,17 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.googlecode.jcsv.writer.CSVEntryConverter;
@@ -22,6 +28,7 @@ import org.joda.time.DateTime;
 import org.multibit.commons.concurrent.SafeExecutors;
 import org.multibit.commons.crypto.AESUtils;
 import org.multibit.commons.files.SecureFiles;
+import org.multibit.hd.core.crypto.DerivedKeyCache;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.*;
@@ -33,7 +40,9 @@ import org.multibit.hd.core.managers.BackupManager;
 import org.multibit.hd.core.managers.ExportManager;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.store.PaymentSearchIndex;
 import org.multibit.hd.core.store.Payments;
+import org.multibit.hd.core.store.PaymentsJournal;
 import org.multibit.hd.core.store.PaymentsProtobufSerializer;
 import org.multibit.hd.core.store.TransactionInfo;
 import org.multibit.hd.core.utils.BitcoinNetwork;
@@ -47,6 +56,7 @@ import java.math.BigDecimal;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -102,11 +112,21 @@ public class WalletService extends AbstractService {
    */
   public static final int GAP_LIMIT = 20;
 
+  /**
+   * The maximum number of threads used to read BIP70 files when a wallet is opened
+   */
+  private static final int MAXIMUM_BIP70_READ_THREADS = 4;
+
   /**
    * The Bitcoin network parameters
    */
   private final NetworkParameters networkParameters;
 
+  /**
+   * The SHA-256 of the plain content of each BIP70 file as last read or written
+   */
+  private final Map<File, HashCode> bip70FileHashes = new ConcurrentHashMap<>();
+
   /**
    * The location of the encrypted database file containing BIP70 protobuf files
    */
@@ -117,6 +137,11 @@ public class WalletService extends AbstractService {
    */
   private PaymentsProtobufSerializer protobufSerializer;
 
+  /**
+   * The journal of changes to the payments database
+   */
+  private PaymentsJournal paymentsJournal;
+
   /**
    * The MBHD payment requests in a map, indexed by the bitcoin address
    */
@@ -143,9 +168,44 @@ public class WalletService extends AbstractService {
   private final Stack<PaymentData> undoDeletePaymentDataStack = new Stack<>();
 
   /**
-   * The last seen payments data
+   * The last seen payments data (an immutable snapshot of the payment data index)
+   */
+  private volatile Set<PaymentData> lastSeenPaymentDataSet = Collections.emptySet();
+
+  /**
+   * The adapted transactions, indexed by the transaction hash and maintained incrementally from wallet events
+   */
+  private final Map<String, TransactionData> transactionDataIndex = Maps.newHashMap();
+
+  /**
+   * The content search index over the last seen payments data
    */
-  private Set<PaymentData> lastSeenPaymentDataSet = Sets.newHashSet();
+  private final PaymentSearchIndex paymentSearchIndex = new PaymentSearchIndex();
+
+  /**
+   * The transaction hashes reported by the wallet since the payment data index was last refreshed
+   */
+  private final Set<String> changedTransactionHashes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /**
+   * The wallet that the transaction data index was built from
+   */
+  private Wallet indexedWallet = null;
+
+  /**
+   * True if every transaction in the wallet must be adapted again (e.g. reorganisation or payment requests changed)
+   */
+  private volatile boolean transactionDataIndexStale = true;
+
+  /**
+   * True if the last seen payment data set no longer reflects the payment requests
+   */
+  private volatile boolean paymentDataSetStale = true;
+
+  /**
+   * Serialises refreshes of the payment data index
+   */
+  private final Object paymentDataIndexLock = new Object();
 
   /**
    * Handles wallet operations
@@ -176,7 +236,8 @@ public class WalletService extends AbstractService {
     if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
       try {
         if (WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword() != null) {
-          writePayments(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword());
+          // Compact the journal so only the snapshot needs to be re-encrypted on a password change
+          writePayments(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword(), true);
         }
       } catch (PaymentsSaveException pse) {
         // Cannot do much as shutting down
@@ -215,6 +276,7 @@ public class WalletService extends AbstractService {
     this.paymentDatabaseFile = new File(paymentsDirectory.getAbsolutePath() + File.separator + PAYMENTS_DATABASE_NAME);
 
     protobufSerializer = new PaymentsProtobufSerializer();
+    paymentsJournal = new PaymentsJournal(paymentDatabaseFile);
 
     if (paymentDatabaseFile.exists()) {
       readPayments(password);
@@ -223,7 +285,10 @@ public class WalletService extends AbstractService {
 
   /**
    * <p>Get all the payments (payments and payment requests) in the current wallet.</p>
-   * <h3>NOTE: This is moderately expensive so don't call it indiscriminately</h3>
+   * <p>Only the transactions reported as changed by the wallet since the last call are adapted again, so
+   * if nothing has changed the previous snapshot is returned directly</p>
+   *
+   * @return An immutable snapshot of the payment data
    */
   public Set<PaymentData> getPaymentDataSet() {
 
@@ -243,42 +308,134 @@ public class WalletService extends AbstractService {
     // There should be a wallet
     Preconditions.checkNotNull(wallet, "There is no wallet to process");
 
-    // Get all the transactions in the wallet
-    Set<Transaction> transactions = wallet.getTransactions(true);
+    synchronized (paymentDataIndexLock) {
 
-    // Adapted transaction data to return
-    Set<TransactionData> transactionDataSet = Sets.newHashSet();
+      if (wallet != indexedWallet) {
+        // A different wallet (e.g. after a repair) so nothing in the index can be trusted
+        transactionDataIndexStale = true;
+      }
 
-    // Work out the unmatched BIP70 payment requests
-    Set<PaymentData> unmatchedBip70PaymentDatas = createUnmatchedPaymentRequestDatas();
+      if (!transactionDataIndexStale && !paymentDataSetStale && changedTransactionHashes.isEmpty()) {
+        // Nothing has changed since the last refresh
+        return lastSeenPaymentDataSet;
+      }
 
-    // Create a Map of all the unmatched paymentDetails
-    Map<UUID, Protos.PaymentDetails> unmatchedPaymentDetailsMap = createUnmatchedPaymentDetails(unmatchedBip70PaymentDatas);
+      // Clear the flags before adapting so that any changes made concurrently are picked up on the next call
+      boolean rebuild = transactionDataIndexStale;
+      transactionDataIndexStale = false;
+      paymentDataSetStale = false;
+
+      // Work out the unmatched BIP70 payment requests
+      Set<PaymentData> unmatchedBip70PaymentDatas = createUnmatchedPaymentRequestDatas();
+
+      // Create a Map of all the unmatched paymentDetails
+      Map<UUID, Protos.PaymentDetails> unmatchedPaymentDetailsMap = createUnmatchedPaymentDetails(unmatchedBip70PaymentDatas);
+
+      if (rebuild) {
+        rebuildTransactionDataIndex(wallet, unmatchedPaymentDetailsMap);
+      } else {
+        updateTransactionDataIndex(wallet, unmatchedPaymentDetailsMap);
+      }
+
+      // Adapting may have linked BIP70 payment requests to transactions so work out the unmatched ones again
+      unmatchedBip70PaymentDatas = createUnmatchedPaymentRequestDatas();
+
+      // Determine which MBHDPaymentRequests have not been fully funded or request zero funds (these will appear as independent entities in the UI)
+      Set<MBHDPaymentRequestData> paymentRequestsNotFullyFunded = Sets.newHashSet();
+      for (MBHDPaymentRequestData baseMBHDPaymentRequestData : getMBHDPaymentRequestDataList()) {
+        boolean requestAmountIsZeroOrAbsent = !baseMBHDPaymentRequestData.getAmountCoin().isPresent() || baseMBHDPaymentRequestData.getAmountCoin().get().compareTo(Coin.ZERO) == 0;
+        if ((requestAmountIsZeroOrAbsent && baseMBHDPaymentRequestData.getPaidAmountCoin().compareTo(Coin.ZERO) == 0) ||
+                (!requestAmountIsZeroOrAbsent && baseMBHDPaymentRequestData.getPaidAmountCoin().compareTo(baseMBHDPaymentRequestData.getAmountCoin().or(Coin.ZERO)) < 0)) {
+          paymentRequestsNotFullyFunded.add(baseMBHDPaymentRequestData);
+        }
+      }
+
+      // Keep the search index in step with the payment requests that will be shown
+      List<PaymentData> paymentRequests = Lists.newArrayList();
+      paymentRequests.addAll(paymentRequestsNotFullyFunded);
+      paymentRequests.addAll(unmatchedBip70PaymentDatas);
+      paymentSearchIndex.setPaymentRequests(paymentRequests);
+
+      // Union the transactionData index, the paymentData set and the unmatched BIP70 payment requests
+      Set<PaymentData> paymentDataSet = Sets.newHashSetWithExpectedSize(
+              transactionDataIndex.size() + paymentRequestsNotFullyFunded.size() + unmatchedBip70PaymentDatas.size()
+      );
+      paymentDataSet.addAll(transactionDataIndex.values());
+      paymentDataSet.addAll(paymentRequestsNotFullyFunded);
+      paymentDataSet.addAll(unmatchedBip70PaymentDatas);
+
+      lastSeenPaymentDataSet = Collections.unmodifiableSet(paymentDataSet);
+
+      //log.debug("lastSeenPaymentDataSet:\n" + lastSeenPaymentDataSet.toString());
+      return lastSeenPaymentDataSet;
+    }
+  }
+
+  /**
+   * <p>Mark the whole payment data index as stale so that every transaction is adapted again on the next refresh</p>
+   * <p>Used when the wallet changes in a way that is not reported against individual transactions (e.g. a reorganisation)</p>
+   */
+  public void invalidatePaymentDataSet() {
+    transactionDataIndexStale = true;
+  }
+
+  /**
+   * <p>Adapt every transaction in the wallet, replacing the contents of the transaction data index</p>
+   *
+   * @param wallet                     The current wallet
+   * @param unmatchedPaymentDetailsMap Unmatched BIP70 payment details map
+   */
+  private void rebuildTransactionDataIndex(Wallet wallet, Map<UUID, Protos.PaymentDetails> unmatchedPaymentDetailsMap) {
+
+    // Any outstanding changes are covered by the rebuild
+    changedTransactionHashes.clear();
+    transactionDataIndex.clear();
+    paymentSearchIndex.clear();
+    indexedWallet = wallet;
+
+    // Get all the transactions in the wallet
+    Set<Transaction> transactions = wallet.getTransactions(true);
 
     if (transactions != null) {
       for (Transaction transaction : transactions) {
         // Adapt the transaction - adding on matching MBHDPaymentRequests and BIP70 PaymentRequests
         TransactionData transactionData = adaptTransaction(wallet, transaction, unmatchedPaymentDetailsMap);
-        transactionDataSet.add(transactionData);
+        transactionDataIndex.put(transactionData.getTransactionId(), transactionData);
+        paymentSearchIndex.put(transactionData);
       }
     }
 
-    // Determine which MBHDPaymentRequests have not been fully funded or request zero funds (these will appear as independent entities in the UI)
-    Set<MBHDPaymentRequestData> paymentRequestsNotFullyFunded = Sets.newHashSet();
-    for (MBHDPaymentRequestData baseMBHDPaymentRequestData : mbhdPaymentRequestDataMap.values()) {
-      boolean requestAmountIsZeroOrAbsent = !baseMBHDPaymentRequestData.getAmountCoin().isPresent() || baseMBHDPaymentRequestData.getAmountCoin().get().compareTo(Coin.ZERO) == 0;
-      if ((requestAmountIsZeroOrAbsent && baseMBHDPaymentRequestData.getPaidAmountCoin().compareTo(Coin.ZERO) == 0) ||
-              (!requestAmountIsZeroOrAbsent && baseMBHDPaymentRequestData.getPaidAmountCoin().compareTo(baseMBHDPaymentRequestData.getAmountCoin().or(Coin.ZERO)) < 0)) {
-        paymentRequestsNotFullyFunded.add(baseMBHDPaymentRequestData);
+    log.debug("Rebuilt transaction data index with {} transactions", transactionDataIndex.size());
+  }
+
+  /**
+   * <p>Adapt only the transactions reported as changed since the last refresh</p>
+   *
+   * @param wallet                     The current wallet
+   * @param unmatchedPaymentDetailsMap Unmatched BIP70 payment details map
+   */
+  private void updateTransactionDataIndex(Wallet wallet, Map<UUID, Protos.PaymentDetails> unmatchedPaymentDetailsMap) {
+
+    // Take a copy so that hashes reported during the update are kept for the next refresh
+    List<String> transactionHashes = Lists.newArrayList(changedTransactionHashes);
+    changedTransactionHashes.removeAll(transactionHashes);
+
+    for (String transactionHashAsString : transactionHashes) {
+      Transaction transaction = wallet.getTransaction(Sha256Hash.wrap(transactionHashAsString));
+      if (transaction == null) {
+        // No longer in the wallet
+        TransactionData transactionData = transactionDataIndex.remove(transactionHashAsString);
+        if (transactionData != null) {
+          paymentSearchIndex.remove(transactionData);
+        }
+      } else {
+        TransactionData transactionData = adaptTransaction(wallet, transaction, unmatchedPaymentDetailsMap);
+        transactionDataIndex.put(transactionHashAsString, transactionData);
+        paymentSearchIndex.put(transactionData);
       }
     }
-    // Union the transactionData set and paymentData set
-    lastSeenPaymentDataSet = Sets.union(transactionDataSet, paymentRequestsNotFullyFunded);
 
-    lastSeenPaymentDataSet = Sets.union(lastSeenPaymentDataSet, unmatchedBip70PaymentDatas);
-
-    //log.debug("lastSeenPaymentDataSet:\n" + lastSeenPaymentDataSet.toString());
-    return lastSeenPaymentDataSet;
+    log.trace("Updated {} transactions in transaction data index", transactionHashes.size());
   }
 
   private Set<PaymentData> createUnmatchedPaymentRequestDatas() {
@@ -361,51 +518,16 @@ public class WalletService extends AbstractService {
   }
 
   /**
-   * @param query The text fragment to match (case-insensitive, anywhere in the name)
+   * <p>Search the last seen payments data using the content search index</p>
+   *
+   * @param query The text fragment to match (case-insensitive, anywhere in the description, note, label or output
+   *              addresses, or at the start of an address or transaction hash)
+   *
    * @return A filtered set of Payments for the given query
    */
-  @SuppressFBWarnings({"ITC_INHERITANCE_TYPE_CHECKING"})
   public List<PaymentData> filterPaymentsByContent(String query) {
 
-    String lowerQuery = query.toLowerCase();
-
-    List<PaymentData> filteredPayments = Lists.newArrayList();
-
-    for (PaymentData paymentData : lastSeenPaymentDataSet) {
-
-      boolean isDescriptionMatched = paymentData.getDescription().toLowerCase().contains(lowerQuery);
-      boolean isNoteMatched = paymentData.getNote().toLowerCase().contains(lowerQuery);
-
-      boolean isQrCodeLabelMatched = false;
-      boolean isPaymentAddressMatched = false;
-      boolean isOutputAddressMatched = false;
-      boolean isRawTransactionMatched = false;
-
-      if (paymentData instanceof MBHDPaymentRequestData) {
-
-        MBHDPaymentRequestData MBHDPaymentRequestData = (MBHDPaymentRequestData) paymentData;
-        isQrCodeLabelMatched = MBHDPaymentRequestData.getLabel().toLowerCase().contains(lowerQuery);
-
-        // Exact match only
-        isPaymentAddressMatched = MBHDPaymentRequestData.getAddress().toString().equals(query);
-
-      } else if (paymentData instanceof TransactionData) {
-
-        TransactionData transactionData = (TransactionData) paymentData;
-        isOutputAddressMatched = Joiner.on(" ").join(transactionData.getOutputAddresses()).toLowerCase().contains(lowerQuery);
-        isRawTransactionMatched = transactionData.getRawTransaction().toLowerCase().contains(lowerQuery);
-
-      }
-      if (isDescriptionMatched
-              || isNoteMatched
-              || isQrCodeLabelMatched
-              || isPaymentAddressMatched
-              || isOutputAddressMatched
-              || isRawTransactionMatched
-              ) {
-        filteredPayments.add(paymentData);
-      }
-    }
+    List<PaymentData> filteredPayments = paymentSearchIndex.search(query);
 
     Collections.sort(filteredPayments, new PaymentComparator());
 
@@ -469,17 +591,11 @@ public class WalletService extends AbstractService {
     String description = calculateDescriptionAndUpdatePaymentRequests(wallet, transaction, transactionHashAsString, paymentType, amountBTC.get(), unmatchedPaymentDetailsMap);
     // Also works out outputAddresses
 
-    // Include the raw serialized form of the transaction for lowest level viewing
-    String rawTransaction = transaction.toString() + "\n" + Utils.HEX.encode(transaction.bitcoinSerialize()) + "\n";
+    // The raw serialized form of the transaction for lowest level viewing is only rendered when required
+    Supplier<String> rawTransaction = newRawTransactionSupplier(transaction);
 
-    int size = -1;
-    ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
-    try {
-      transaction.bitcoinSerialize(byteOutputStream);
-      size = byteOutputStream.size();
-    } catch (IOException e) {
-      log.error("Failed to serialize transaction", e);
-    }
+    // A single serialization is enough to work out the size
+    int size = transaction.bitcoinSerialize().length;
 
     List<Address> outputAddresses = calculateOutputAddresses(transaction);
 
@@ -509,6 +625,20 @@ public class WalletService extends AbstractService {
     return transactionData;
   }
 
+  /**
+   * @param transaction The transaction
+   *
+   * @return A supplier of the raw form of the transaction (toString followed by the hex of the serialized bytes)
+   */
+  private static Supplier<String> newRawTransactionSupplier(final Transaction transaction) {
+    return new Supplier<String>() {
+      @Override
+      public String get() {
+        return transaction.toString() + "\n" + Utils.HEX.encode(transaction.bitcoinSerialize()) + "\n";
+      }
+    };
+  }
+
   /**
    * <p>Calculate the PaymentStatus of the transaction:</p>
    * <ul>
@@ -836,12 +966,17 @@ public class WalletService extends AbstractService {
     mbhdPaymentRequestDataMap.clear();
     transactionInfoMap.clear();
     bip70PaymentRequestDataMap.clear();
+    bip70FileHashes.clear();
+    invalidatePaymentDataSet();
 
     if (paymentDatabaseFile.exists()) {
-      ByteArrayInputStream decryptedInputStream = EncryptedFileReaderWriter.readAndDecrypt(
-              paymentDatabaseFile,
-              password);
-      Payments payments = protobufSerializer.readPayments(decryptedInputStream);
+      // Read the snapshot and replay any journaled changes over it
+      Payments payments;
+      try {
+        payments = protobufSerializer.readPayments(paymentsJournal.load(password));
+      } catch (IOException e) {
+        throw new PaymentsLoadException("Could not read payments db '" + paymentDatabaseFile.getAbsolutePath() + "'", e);
+      }
 
       // For quick access payment requests and transaction infos are stored in maps
       Collection<MBHDPaymentRequestData> mbhdPaymentRequestDataCollection = payments.getMBHDPaymentRequestDataCollection();
@@ -899,6 +1034,15 @@ public class WalletService extends AbstractService {
    * <p>Save the payments data to the backing store</p>
    */
   public void writePayments(CharSequence password) throws PaymentsSaveException {
+    writePayments(password, false);
+  }
+
+  /**
+   * <p>Save the payments data to the backing store</p>
+   *
+   * @param compact True to write a full snapshot rather than journaling the changes
+   */
+  private void writePayments(CharSequence password, boolean compact) throws PaymentsSaveException {
     Preconditions.checkNotNull(paymentDatabaseFile, "'backingStoreFile' must be present. Initialise WalletService.");
     Preconditions.checkState(WalletManager.INSTANCE.getCurrentWalletSummary().isPresent(), "Current wallet summary must be present");
 
@@ -906,7 +1050,6 @@ public class WalletService extends AbstractService {
       log.debug("Writing payments to\n'{}'", paymentDatabaseFile.getAbsolutePath());
       log.trace("Writing TransactionInfoMap: {}", transactionInfoMap);
 
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
       Payments payments = new Payments();
       Collection<TransactionInfo> transactionInfoCollection = transactionInfoMap.values();
       payments.setTransactionInfoCollection(transactionInfoCollection);
@@ -914,19 +1057,20 @@ public class WalletService extends AbstractService {
       payments.setMBHDPaymentRequestDataCollection(mbhdPaymentRequestDataCollection);
       Collection<PaymentRequestData> paymentRequestDataCollection = bip70PaymentRequestDataMap.values();
       payments.setPaymentRequestDataCollection(paymentRequestDataCollection);
-      protobufSerializer.writePayments(payments, byteArrayOutputStream);
-      EncryptedFileReaderWriter.encryptAndWrite(
-              byteArrayOutputStream.toByteArray(),
+
+      // Journal only the changed records, compacting into a full snapshot when due
+      boolean compacted = paymentsJournal.save(
+              protobufSerializer.paymentsToProto(payments),
               WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword(),
-              paymentDatabaseFile
+              compact
       );
 
-      writePaymentRequestDataFiles(paymentRequestDataCollection, paymentDatabaseFile, password);
+      BIP70WriteSummary bip70WriteSummary = writePaymentRequestDataFiles(paymentRequestDataCollection, paymentDatabaseFile, password);
 
       log.debug(
-              "Writing payments completed\nTransaction infos: {}\nMBHD payment requests: {}\nBIP70 payment requests: {}",
+              "Writing payments completed\nTransaction infos: {}\nMBHD payment requests: {}\nBIP70 payment requests: {}\nBIP70 files written: {}, skipped: {}\nCompacted: {}",
               transactionInfoCollection.size(), mbhdPaymentRequestDataCollection.size(),
-              paymentRequestDataCollection.size());
+              paymentRequestDataCollection.size(), bip70WriteSummary.written, bip70WriteSummary.skipped, compacted);
     } catch (Exception e) {
       log.error("Could not write to payments db\n'{}'", paymentDatabaseFile.getAbsolutePath(), e);
       throw new PaymentsSaveException("Could not write payments db '" + paymentDatabaseFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
@@ -990,87 +1134,197 @@ public class WalletService extends AbstractService {
 
   /**
    * Write all the PaymentRequestData collection with serialized supporting BIP70 files
+   * <p>Only payment requests that have changed since they were last read or written are serialized, and a file
+   * is only encrypted and written if it is missing or its content hash differs from the persisted content</p>
    *
    * @param paymentRequestDataCollection The collection of PaymentRequestData entries to write
    * @param backingStoreFile             The location of the backing store
+   *
+   * @return The number of files written and skipped
    */
-  private void writePaymentRequestDataFiles(Collection<PaymentRequestData> paymentRequestDataCollection, File backingStoreFile, CharSequence password) throws EncryptedFileReaderWriterException {
+  private BIP70WriteSummary writePaymentRequestDataFiles(Collection<PaymentRequestData> paymentRequestDataCollection, File backingStoreFile, CharSequence password) throws EncryptedFileReaderWriterException {
     Preconditions.checkNotNull(paymentRequestDataCollection);
 
+    BIP70WriteSummary writeSummary = new BIP70WriteSummary();
+
     // Work out the directory the raw BIP70 payment requests get written to.
     File bip70PaymentRequestDirectory = new File(backingStoreFile.getParent() + File.separator + BIP70_PAYMENT_REQUEST_DIRECTORY);
     if (!bip70PaymentRequestDirectory.exists()) {
       if (!bip70PaymentRequestDirectory.mkdir()) {
         log.error("Could not make directory to store BIP70 payment requests");
-        return;
+        return writeSummary;
       }
     }
 
-    // Write all the payment requests, payments and paymentACKS to disk, encrypted with the wallet password
-    // Existing files are not overwritten
+    // Write the changed payment requests, payments and paymentACKS to disk, encrypted with the wallet password
     for (PaymentRequestData paymentRequestData : paymentRequestDataCollection) {
       File paymentRequestFile = getPaymentRequestFile(paymentRequestData.getUuid(), backingStoreFile);
-      if (!paymentRequestFile.exists()) {
-        // Write the PaymentRequest
-        if (paymentRequestData.getPaymentRequest().isPresent()) {
-          byte[] serialisedBytes = paymentRequestData.getPaymentRequest().get().toByteArray();
-          EncryptedFileReaderWriter.encryptAndWriteDirect(
-                  serialisedBytes,
-                  password, paymentRequestFile);
-          log.debug("Written serialised bytes of unencrypted length {} to output file\n'{}'", serialisedBytes.length, paymentRequestFile.getAbsolutePath());
+      File paymentFile = getPaymentFile(paymentRequestData.getUuid(), backingStoreFile);
+      File paymentACKFile = getPaymentACKFile(paymentRequestData.getUuid(), backingStoreFile);
+
+      if (paymentRequestData.isDeferred()) {
+        // Not read since the wallet was opened so the files on disk are current
+        for (File file : new File[]{paymentRequestFile, paymentFile, paymentACKFile}) {
+          if (file.exists()) {
+            writeSummary.skipped++;
+          }
         }
+        continue;
       }
 
-      File paymentFile = getPaymentFile(paymentRequestData.getUuid(), backingStoreFile);
-      if (!paymentFile.exists()) {
-        // Write the Payment
+      if (!paymentRequestData.isDirty()) {
+        // Unchanged so the files on disk are current unless they have been removed
+        int presentCount = 0;
+        boolean missingFile = false;
+        if (paymentRequestData.getPaymentRequest().isPresent()) {
+          presentCount++;
+          missingFile = !paymentRequestFile.exists();
+        }
         if (paymentRequestData.getPayment().isPresent()) {
-          byte[] serialisedBytes = paymentRequestData.getPayment().get().toByteArray();
-
-          EncryptedFileReaderWriter.encryptAndWriteDirect(
-                  serialisedBytes,
-                  password, paymentFile);
-          log.debug("Written serialised bytes of unencrypted length {} to output file\n'{}'", serialisedBytes.length, paymentFile.getAbsolutePath());
+          presentCount++;
+          missingFile |= !paymentFile.exists();
+        }
+        if (paymentRequestData.getPaymentACK().isPresent()) {
+          presentCount++;
+          missingFile |= !paymentACKFile.exists();
+        }
+        if (!missingFile) {
+          writeSummary.skipped += presentCount;
+          continue;
         }
       }
 
-      File paymentACKFile = getPaymentACKFile(paymentRequestData.getUuid(), backingStoreFile);
-      if (!paymentACKFile.exists()) {
-        // Write the PaymentACK
-        if (paymentRequestData.getPaymentACK().isPresent()) {
-          byte[] serialisedBytes = paymentRequestData.getPaymentACK().get().toByteArray();
+      // Write the PaymentRequest
+      if (paymentRequestData.getPaymentRequest().isPresent()) {
+        writeBIP70FileIfChanged(paymentRequestData.getPaymentRequest().get().toByteArray(), paymentRequestFile, password, writeSummary);
+      }
 
-          EncryptedFileReaderWriter.encryptAndWriteDirect(
-                  serialisedBytes,
-                  password, paymentACKFile);
-          log.debug("Written serialised bytes of unencrypted length {} to output file\n'{}'", serialisedBytes.length, paymentACKFile.getAbsolutePath());
-        }
+      // Write the Payment
+      if (paymentRequestData.getPayment().isPresent()) {
+        writeBIP70FileIfChanged(paymentRequestData.getPayment().get().toByteArray(), paymentFile, password, writeSummary);
       }
+
+      // Write the PaymentACK
+      if (paymentRequestData.getPaymentACK().isPresent()) {
+        writeBIP70FileIfChanged(paymentRequestData.getPaymentACK().get().toByteArray(), paymentACKFile, password, writeSummary);
+      }
+
+      paymentRequestData.setDirty(false);
     }
+
+    return writeSummary;
+  }
+
+  /**
+   * @param serialisedBytes The serialised BIP70 object
+   * @param outputFile      The encrypted file
+   * @param writeSummary    The summary to update
+   */
+  private void writeBIP70FileIfChanged(byte[] serialisedBytes, File outputFile, CharSequence password, BIP70WriteSummary writeSummary) throws EncryptedFileReaderWriterException {
+
+    HashCode contentHash = Hashing.sha256().hashBytes(serialisedBytes);
+    if (outputFile.exists() && contentHash.equals(bip70FileHashes.get(outputFile))) {
+      // Same content as the file on disk
+      writeSummary.skipped++;
+      return;
+    }
+
+    EncryptedFileReaderWriter.encryptAndWriteDirect(
+            serialisedBytes,
+            password, outputFile);
+    bip70FileHashes.put(outputFile, contentHash);
+    writeSummary.written++;
+    log.debug("Written serialised bytes of unencrypted length {} to output file\n'{}'", serialisedBytes.length, outputFile.getAbsolutePath());
+
   }
 
   /**
    * Read and populate all the PaymentRequestData collection with deserialized supporting BIP70 files
+   * <p>Unmatched payment requests are shown in the payments table so their files are read now, in parallel with
+   * a single derived key. Files for paid payment requests are read on first use.</p>
    *
    * @param paymentRequestDataCollection The collection of PaymentRequestData entries to read
    * @param backingStoreFile             The backing store file
    */
-  private void readPaymentRequestsDataFiles(Collection<PaymentRequestData> paymentRequestDataCollection, File backingStoreFile, CharSequence password) throws EncryptedFileReaderWriterException {
+  private void readPaymentRequestsDataFiles(Collection<PaymentRequestData> paymentRequestDataCollection, final File backingStoreFile, final CharSequence password) throws EncryptedFileReaderWriterException {
 
     Preconditions.checkNotNull(paymentRequestDataCollection);
     Preconditions.checkNotNull(backingStoreFile);
 
-    // Read all the payment requests from disk
-    for (PaymentRequestData paymentRequestData : paymentRequestDataCollection) {
-      addBIP70PaymentInfoFromFiles(backingStoreFile, paymentRequestData, password);
+    List<PaymentRequestData> unmatchedPaymentRequestDatas = Lists.newArrayList();
+    for (final PaymentRequestData paymentRequestData : paymentRequestDataCollection) {
+      if (paymentRequestData.getTransactionHash().isPresent()) {
+        // Paid so only shown as part of its transaction (nothing to write until the files have been read)
+        paymentRequestData.setDirty(false);
+        paymentRequestData.setDeferredFileLoader(
+          new Runnable() {
+            @Override
+            public void run() {
+              // The password may have changed since the wallet was opened
+              Optional<WalletSummary> walletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+              CharSequence currentPassword = walletSummary.isPresent() && walletSummary.get().getWalletPassword() != null
+                ? walletSummary.get().getWalletPassword().getPassword()
+                : password;
+              try {
+                addBIP70PaymentInfoFromFiles(backingStoreFile, paymentRequestData, DerivedKeyCache.deriveKey(currentPassword, WalletManager.scryptSalt()));
+              } catch (EncryptedFileReaderWriterException e) {
+                log.error("Could not read BIP70 files for payment request {}", paymentRequestData.getUuid(), e);
+              }
+            }
+          });
+      } else {
+        unmatchedPaymentRequestDatas.add(paymentRequestData);
+      }
+    }
+
+    if (unmatchedPaymentRequestDatas.isEmpty()) {
+      return;
+    }
+
+    // Derive the key once for all the files
+    final KeyParameter keyParameter = DerivedKeyCache.deriveKey(password, WalletManager.scryptSalt());
+
+    if (unmatchedPaymentRequestDatas.size() == 1) {
+      addBIP70PaymentInfoFromFiles(backingStoreFile, unmatchedPaymentRequestDatas.get(0), keyParameter);
+      return;
+    }
+
+    int threadCount = Math.min(MAXIMUM_BIP70_READ_THREADS, Runtime.getRuntime().availableProcessors());
+    ListeningExecutorService bip70ReadExecutorService = SafeExecutors.newFixedThreadPool(threadCount, "bip70-read");
+    try {
+      List<ListenableFuture<?>> futures = Lists.newArrayList();
+      for (final PaymentRequestData paymentRequestData : unmatchedPaymentRequestDatas) {
+        futures.add(bip70ReadExecutorService.submit(
+          new Runnable() {
+            @Override
+            public void run() {
+              addBIP70PaymentInfoFromFiles(backingStoreFile, paymentRequestData, keyParameter);
+            }
+          }));
+      }
+
+      // Wait for all the reads (the first failure is reported)
+      Futures.allAsList(futures).get();
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EncryptedFileReaderWriterException("Interrupted while reading BIP70 payment requests", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof EncryptedFileReaderWriterException) {
+        throw (EncryptedFileReaderWriterException) e.getCause();
+      }
+      throw new EncryptedFileReaderWriterException("Failed to read BIP70 payment request/ payment/ paymentACK", e.getCause());
+    } finally {
+      bip70ReadExecutorService.shutdownNow();
     }
   }
 
   /**
    * @param backingStoreFile   The backing store file
    * @param paymentRequestData The payment request data providing the location and receiving the deserialized object
+   * @param keyParameter       The AES key derived from the wallet password
    */
-  private void addBIP70PaymentInfoFromFiles(File backingStoreFile, PaymentRequestData paymentRequestData, CharSequence password) throws EncryptedFileReaderWriterException {
+  private void addBIP70PaymentInfoFromFiles(File backingStoreFile, PaymentRequestData paymentRequestData, KeyParameter keyParameter) throws EncryptedFileReaderWriterException {
     // Locate the PaymentRequest
     File paymentRequestFile = getPaymentRequestFile(paymentRequestData.getUuid(), backingStoreFile);
 
@@ -1079,8 +1333,9 @@ public class WalletService extends AbstractService {
 
         byte[] serialisedBytes = EncryptedFileReaderWriter.readAndDecryptToByteArray(
                 paymentRequestFile,
-                password);
+                keyParameter);
         log.debug("Read serialised bytes of unencrypted length {} from input file:\n'{}'", serialisedBytes.length, paymentRequestFile.getAbsolutePath());
+        bip70FileHashes.put(paymentRequestFile, Hashing.sha256().hashBytes(serialisedBytes));
 
         // Read the serialised Payment Request
         Optional<Protos.PaymentRequest> paymentRequest = Optional.of(Protos.PaymentRequest.parseFrom(serialisedBytes));
@@ -1093,8 +1348,9 @@ public class WalletService extends AbstractService {
       if (paymentFile.exists()) {
         byte[] serialisedBytes = EncryptedFileReaderWriter.readAndDecryptToByteArray(
                 paymentFile,
-                password);
+                keyParameter);
         log.debug("Read serialised bytes of unencrypted length {} from input file:\n'{}'", serialisedBytes.length, paymentFile.getAbsolutePath());
+        bip70FileHashes.put(paymentFile, Hashing.sha256().hashBytes(serialisedBytes));
 
         // Read the serialised Payment
         Optional<Protos.Payment> payment = Optional.of(Protos.Payment.parseFrom(serialisedBytes));
@@ -1107,13 +1363,17 @@ public class WalletService extends AbstractService {
       if (paymentACKFile.exists()) {
         byte[] serialisedBytes = EncryptedFileReaderWriter.readAndDecryptToByteArray(
                 paymentACKFile,
-                password);
+                keyParameter);
         log.debug("Read serialised bytes of unencrypted length {} from input file:\n'{}'", serialisedBytes.length, paymentACKFile.getAbsolutePath());
+        bip70FileHashes.put(paymentACKFile, Hashing.sha256().hashBytes(serialisedBytes));
 
         // Read the serialised PaymentACK
         Optional<Protos.PaymentACK> paymentACK = Optional.of(Protos.PaymentACK.parseFrom(serialisedBytes));
         paymentRequestData.setPaymentACK(paymentACK);
       }
+
+      // The contents now match the files
+      paymentRequestData.setDirty(false);
     } catch (InvalidProtocolBufferException e) {
       throw new EncryptedFileReaderWriterException("Failed to read BIP70 payment request/ payment/ paymentACK", e);
     }
@@ -1125,6 +1385,9 @@ public class WalletService extends AbstractService {
 
   public void addMBHDPaymentRequestData(MBHDPaymentRequestData MBHDPaymentRequestData) {
     mbhdPaymentRequestDataMap.put(MBHDPaymentRequestData.getAddress(), MBHDPaymentRequestData);
+
+    // Existing transactions may fund this payment request
+    invalidatePaymentDataSet();
   }
 
   /**
@@ -1140,11 +1403,21 @@ public class WalletService extends AbstractService {
 
     bip70PaymentRequestDataMap.put(paymentRequestData.getUuid(), paymentRequestData);
 
+    if (paymentRequestData.getTransactionHash().isPresent()) {
+      paymentDataSetStale = true;
+    } else {
+      // Existing transactions may pay this payment request
+      invalidatePaymentDataSet();
+    }
+
     log.debug("Adding payment request data: {}", paymentRequestData);
   }
 
   public void addTransactionInfo(TransactionInfo transactionInfo) {
     transactionInfoMap.put(transactionInfo.getHash(), transactionInfo);
+
+    // The note and fiat amount of the transaction may have changed
+    changedTransactionHashes.add(transactionInfo.getHash());
   }
 
   public TransactionInfo getTransactionInfoByHash(String transactionHashAsString) {
@@ -1371,18 +1644,29 @@ public class WalletService extends AbstractService {
   public void deleteMBHDPaymentRequest(MBHDPaymentRequestData mbhdPaymentRequestData) {
     undoDeletePaymentDataStack.push(mbhdPaymentRequestData);
     mbhdPaymentRequestDataMap.remove(mbhdPaymentRequestData.getAddress());
+
+    // Transaction descriptions may have been derived from this payment request
+    invalidatePaymentDataSet();
   }
 
   /**
    * Delete a BIP70 payment request
    */
   public void deletePaymentRequest(PaymentRequestData paymentRequestData) {
+    // Read any deferred files before they are deleted so that the delete can be undone
+    paymentRequestData.getPaymentRequest();
+
     undoDeletePaymentDataStack.push(paymentRequestData);
     bip70PaymentRequestDataMap.remove(paymentRequestData.getUuid());
+    paymentDataSetStale = true;
+
+    // The files are about to be deleted
+    paymentRequestData.setDirty(true);
 
     // Delete the serialised payment request file
     File paymentRequestFile = getPaymentRequestFile(paymentRequestData.getUuid(), paymentDatabaseFile);
     try {
+      bip70FileHashes.remove(paymentRequestFile);
       if (paymentRequestFile.exists()) {
         SecureFiles.secureDelete(paymentRequestFile);
       }
@@ -1393,6 +1677,7 @@ public class WalletService extends AbstractService {
     // Delete the serialised payment file
     File paymentFile = getPaymentFile(paymentRequestData.getUuid(), paymentDatabaseFile);
     try {
+      bip70FileHashes.remove(paymentFile);
       if (paymentFile.exists()) {
         SecureFiles.secureDelete(paymentFile);
       }
@@ -1403,6 +1688,7 @@ public class WalletService extends AbstractService {
     // Delete the serialised payment ACK file
     File paymentACKFile = getPaymentACKFile(paymentRequestData.getUuid(), paymentDatabaseFile);
     try {
+      bip70FileHashes.remove(paymentACKFile);
       if (paymentACKFile.exists()) {
         SecureFiles.secureDelete(paymentACKFile);
       }
@@ -1588,6 +1874,15 @@ public class WalletService extends AbstractService {
         throw new IllegalStateException("The encryption of the new credentials was not reversible. Aborting change of wallet credentials");
       }
 
+      // Fold any payments journal left by the shutdown into the payments database as only the latter can be re-encrypted
+      File paymentsDatabaseFile = new File(WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId)).getAbsolutePath()
+        + File.separator + PAYMENTS_DIRECTORY_NAME + File.separator + PAYMENTS_DATABASE_NAME);
+      try {
+        PaymentsJournal.compact(paymentsDatabaseFile, oldPassword);
+      } catch (IOException e) {
+        throw new IllegalStateException("The payments journal could not be compacted. Aborting change of wallet credentials", e);
+      }
+
       // Change the password on all the non-wallet files, save them to disk but don't do the "rename existing + rename new + delete old" commit
       List<File> newFiles = EncryptedFileReaderWriter.changeEncryptionPrepare(filesToChangePassword, oldPassword, newPassword);
 
@@ -1667,15 +1962,60 @@ public class WalletService extends AbstractService {
   }
 
   /**
-   * <p>When a transaction is seen by the network, ensure there is a transaction info available storing the exchange rate</p>
+   * <p>When a batch of transactions is seen by the network, ensure there is a transaction info available storing
+   * the exchange rate for each and record them as changed in the payment data index</p>
    *
-   * @param transactionSeenEvent The event (very high frequency during synchronisation)
+   * @param transactionSeenBatchEvent The event (one per batch of transaction seen events)
    */
   @Subscribe
+  public void onTransactionSeenBatchEvent(TransactionSeenBatchEvent transactionSeenBatchEvent) {
+
+    ApplicationEventService applicationEventService = CoreServices.getApplicationEventService();
+
+    // Look up the exchange rate once for the whole batch
+    Optional<ExchangeRateChangedEvent> exchangeRateChangedEvent = applicationEventService == null
+      ? Optional.<ExchangeRateChangedEvent>absent()
+      : applicationEventService.getLatestExchangeRateChangedEvent();
+
+    for (TransactionSeenEvent transactionSeenEvent : transactionSeenBatchEvent.getTransactionSeenEvents()) {
+      onTransactionSeenEvent(transactionSeenEvent, applicationEventService != null, exchangeRateChangedEvent);
+    }
+
+    log.trace("Processed {} transaction seen events", transactionSeenBatchEvent.getTransactionSeenEvents().size());
+  }
+
+  /**
+   * <p>When a transaction is seen by the network, ensure there is a transaction info available storing the exchange rate
+   * and record it as changed in the payment data index</p>
+   *
+   * @param transactionSeenEvent The event
+   */
   public void onTransactionSeenEvent(TransactionSeenEvent transactionSeenEvent) {
 
+    ApplicationEventService applicationEventService = CoreServices.getApplicationEventService();
+    if (applicationEventService == null) {
+      onTransactionSeenEvent(transactionSeenEvent, false, Optional.<ExchangeRateChangedEvent>absent());
+    } else {
+      onTransactionSeenEvent(transactionSeenEvent, true, applicationEventService.getLatestExchangeRateChangedEvent());
+    }
+  }
+
+  /**
+   * @param transactionSeenEvent     The event
+   * @param createTransactionInfo    True if a missing transaction info should be created
+   * @param exchangeRateChangedEvent The latest exchange rate
+   */
+  private void onTransactionSeenEvent(
+    TransactionSeenEvent transactionSeenEvent,
+    boolean createTransactionInfo,
+    Optional<ExchangeRateChangedEvent> exchangeRateChangedEvent
+  ) {
+
+    // Ensure the payment data index adapts this transaction again on the next refresh
+    changedTransactionHashes.add(transactionSeenEvent.getTransactionId());
+
     // If not in the transaction info map create on and add
-    if (transactionInfoMap.get(transactionSeenEvent.getTransactionId()) == null) {
+    if (createTransactionInfo && transactionInfoMap.get(transactionSeenEvent.getTransactionId()) == null) {
 
       // Create a new transaction info
       TransactionInfo transactionInfo = new TransactionInfo();
@@ -1685,38 +2025,35 @@ public class WalletService extends AbstractService {
       FiatPayment amountFiat = new FiatPayment();
       amountFiat.setExchangeName(Optional.of(ExchangeKey.current().getExchangeName()));
 
-      if (CoreServices.getApplicationEventService() != null) {
-        Optional<ExchangeRateChangedEvent> exchangeRateChangedEvent = CoreServices.getApplicationEventService().getLatestExchangeRateChangedEvent();
-        if (exchangeRateChangedEvent.isPresent() && exchangeRateChangedEvent.get().getRate() != null) {
-
-          amountFiat.setRate(Optional.of(exchangeRateChangedEvent.get().getRate().toString()));
-          BigDecimal localAmount = Coins.toLocalAmount(
-                  transactionSeenEvent.getAmount(),
-                  exchangeRateChangedEvent.get().getRate()
-          );
-
-          if (localAmount.compareTo(BigDecimal.ZERO) != 0) {
-            amountFiat.setAmount(Optional.of(localAmount));
-          } else {
-            amountFiat.setAmount(Optional.<BigDecimal>absent());
-          }
+      if (exchangeRateChangedEvent.isPresent() && exchangeRateChangedEvent.get().getRate() != null) {
 
-          amountFiat.setCurrency(Optional.of(exchangeRateChangedEvent.get().getCurrency()));
+        amountFiat.setRate(Optional.of(exchangeRateChangedEvent.get().getRate().toString()));
+        BigDecimal localAmount = Coins.toLocalAmount(
+                transactionSeenEvent.getAmount(),
+                exchangeRateChangedEvent.get().getRate()
+        );
 
+        if (localAmount.compareTo(BigDecimal.ZERO) != 0) {
+          amountFiat.setAmount(Optional.of(localAmount));
         } else {
-          amountFiat.setRate(Optional.<String>absent());
           amountFiat.setAmount(Optional.<BigDecimal>absent());
-          amountFiat.setCurrency(Optional.<Currency>absent());
         }
 
-        transactionInfo.setAmountFiat(amountFiat);
+        amountFiat.setCurrency(Optional.of(exchangeRateChangedEvent.get().getCurrency()));
 
-        // Use the atomic putIfAbsent to ensure we don't overwrite
-        if (transactionInfoMap.putIfAbsent(transactionSeenEvent.getTransactionId(), transactionInfo) == null) {
-          log.debug("Created TransactionInfo: {}", transactionInfo);
-        } else {
-          log.debug("Not adding transactionInfo - another process has already added transactionInfo: {}", transactionInfo);
-        }
+      } else {
+        amountFiat.setRate(Optional.<String>absent());
+        amountFiat.setAmount(Optional.<BigDecimal>absent());
+        amountFiat.setCurrency(Optional.<Currency>absent());
+      }
+
+      transactionInfo.setAmountFiat(amountFiat);
+
+      // Use the atomic putIfAbsent to ensure we don't overwrite
+      if (transactionInfoMap.putIfAbsent(transactionSeenEvent.getTransactionId(), transactionInfo) == null) {
+        log.debug("Created TransactionInfo: {}", transactionInfo);
+      } else {
+        log.debug("Not adding transactionInfo - another process has already added transactionInfo: {}", transactionInfo);
       }
     }
   }
@@ -1742,4 +2079,15 @@ public class WalletService extends AbstractService {
   public File getPaymentDatabaseFile() {
     return paymentDatabaseFile;
   }
+
+  /**
+   * The number of BIP70 files written and skipped by a save
+   */
+  private static class BIP70WriteSummary {
+
+    private int written = 0;
+
+    private int skipped = 0;
+
+  }
 }
@@ -0,0 +1,374 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.bitcoinj.core.Address;
+import org.multibit.hd.core.dto.MBHDPaymentRequestData;
+import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentRequestData;
+import org.multibit.hd.core.dto.TransactionData;
+
+import java.util.*;
+
+/**
+ * <p>Index to provide the following to WalletService:</p>
+ * <ul>
+ * <li>Fast content search over the payments shown in the payments screen</li>
+ * </ul>
+ * <p>Descriptions, notes, labels and output addresses are broken into trigrams so that a case-insensitive
+ * substring query only checks the payments containing every trigram of the query. Addresses and transaction
+ * hashes are also kept as sorted tokens to support prefix matches.</p>
+ *
+ * @since 0.3.0
+ */
+public class PaymentSearchIndex {
+
+  /**
+   * The length of the n-grams held in the index
+   */
+  static final int GRAM_LENGTH = 3;
+
+  /**
+   * Separates the fields of the searchable text so that no n-gram (or match) spans two fields
+   */
+  private static final char FIELD_SEPARATOR = '\u0000';
+
+  /**
+   * The indexed payments by key
+   */
+  private final Map<String, Entry> entries = Maps.newHashMap();
+
+  /**
+   * The keys of the indexed payments containing each n-gram
+   */
+  private final Map<String, Set<String>> grams = Maps.newHashMap();
+
+  /**
+   * The keys of the indexed payments for each address or transaction hash
+   */
+  private final NavigableMap<String, Set<String>> tokens = new TreeMap<>();
+
+  /**
+   * The keys of the indexed payment requests (MBHD and BIP70)
+   */
+  private final Set<String> paymentRequestKeys = Sets.newHashSet();
+
+  /**
+   * <p>Add or replace a payment in the index</p>
+   *
+   * @param paymentData The payment data
+   */
+  public synchronized void put(PaymentData paymentData) {
+
+    Preconditions.checkNotNull(paymentData, "'paymentData' must be present");
+
+    String key = createKey(paymentData);
+    String text = createText(paymentData);
+
+    Entry existing = entries.get(key);
+    if (existing != null) {
+      if (existing.text.equals(text)) {
+        // Same key and content (e.g. only the confirmations changed) so the postings are still valid
+        existing.paymentData = paymentData;
+        return;
+      }
+      removeEntry(key, existing);
+    }
+
+    Entry entry = new Entry(paymentData, text, createTokens(paymentData));
+    entries.put(key, entry);
+
+    for (String gram : createGrams(text)) {
+      addPosting(grams, gram, key);
+    }
+    for (String token : entry.tokens) {
+      addPosting(tokens, token, key);
+    }
+
+    if (!(paymentData instanceof TransactionData)) {
+      paymentRequestKeys.add(key);
+    }
+
+  }
+
+  /**
+   * <p>Remove a payment from the index</p>
+   *
+   * @param paymentData The payment data
+   */
+  public synchronized void remove(PaymentData paymentData) {
+
+    Preconditions.checkNotNull(paymentData, "'paymentData' must be present");
+
+    String key = createKey(paymentData);
+    Entry existing = entries.get(key);
+    if (existing != null) {
+      removeEntry(key, existing);
+    }
+
+  }
+
+  /**
+   * <p>Replace the indexed payment requests, leaving the transactions untouched</p>
+   *
+   * @param paymentRequests The MBHD and BIP70 payment requests that should be searchable
+   */
+  public synchronized void setPaymentRequests(Collection<? extends PaymentData> paymentRequests) {
+
+    Set<String> retainedKeys = Sets.newHashSet();
+    for (PaymentData paymentRequest : paymentRequests) {
+      retainedKeys.add(createKey(paymentRequest));
+      put(paymentRequest);
+    }
+
+    for (String key : Lists.newArrayList(paymentRequestKeys)) {
+      if (!retainedKeys.contains(key)) {
+        removeEntry(key, entries.get(key));
+      }
+    }
+
+  }
+
+  /**
+   * <p>Remove all payments from the index</p>
+   */
+  public synchronized void clear() {
+
+    entries.clear();
+    grams.clear();
+    tokens.clear();
+    paymentRequestKeys.clear();
+
+  }
+
+  /**
+   * @return The number of payments in the index
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @param query The text fragment to match (case-insensitive, anywhere in the description, note, label or output
+   *              addresses or at the start of an address or transaction hash)
+   *
+   * @return The matching payments in no particular order
+   */
+  public synchronized List<PaymentData> search(String query) {
+
+    String lowerQuery = Strings.nullToEmpty(query).toLowerCase();
+
+    Set<String> matchedKeys = Sets.newHashSet();
+
+    // Substring matches
+    Collection<String> candidateKeys = lowerQuery.length() < GRAM_LENGTH ? entries.keySet() : findCandidateKeys(lowerQuery);
+    for (String key : candidateKeys) {
+      if (entries.get(key).text.contains(lowerQuery)) {
+        matchedKeys.add(key);
+      }
+    }
+
+    // Prefix matches
+    if (!lowerQuery.isEmpty()) {
+      for (Set<String> keys : tokens.subMap(lowerQuery, true, lowerQuery + Character.MAX_VALUE, true).values()) {
+        matchedKeys.addAll(keys);
+      }
+    }
+
+    List<PaymentData> matches = Lists.newArrayListWithCapacity(matchedKeys.size());
+    for (String key : matchedKeys) {
+      matches.add(entries.get(key).paymentData);
+    }
+
+    return matches;
+  }
+
+  /**
+   * @param lowerQuery The lower case query (at least GRAM_LENGTH characters)
+   *
+   * @return The keys of the payments containing every n-gram of the query
+   */
+  private Collection<String> findCandidateKeys(String lowerQuery) {
+
+    List<Set<String>> postings = Lists.newArrayList();
+    for (String gram : createGrams(lowerQuery)) {
+      Set<String> posting = grams.get(gram);
+      if (posting == null) {
+        // No payment contains this n-gram
+        return Collections.emptySet();
+      }
+      postings.add(posting);
+    }
+
+    // Intersect starting from the smallest posting
+    Collections.sort(postings, new Comparator<Set<String>>() {
+      @Override
+      public int compare(Set<String> o1, Set<String> o2) {
+        return Integer.compare(o1.size(), o2.size());
+      }
+    });
+
+    Set<String> candidateKeys = Sets.newHashSet(postings.get(0));
+    for (int i = 1; i < postings.size() && !candidateKeys.isEmpty(); i++) {
+      candidateKeys.retainAll(postings.get(i));
+    }
+
+    return candidateKeys;
+  }
+
+  private void removeEntry(String key, Entry entry) {
+
+    entries.remove(key);
+    paymentRequestKeys.remove(key);
+
+    for (String gram : createGrams(entry.text)) {
+      removePosting(grams, gram, key);
+    }
+    for (String token : entry.tokens) {
+      removePosting(tokens, token, key);
+    }
+
+  }
+
+  private static void addPosting(Map<String, Set<String>> postings, String term, String key) {
+
+    Set<String> posting = postings.get(term);
+    if (posting == null) {
+      posting = Sets.newHashSet();
+      postings.put(term, posting);
+    }
+    posting.add(key);
+
+  }
+
+  private static void removePosting(Map<String, Set<String>> postings, String term, String key) {
+
+    Set<String> posting = postings.get(term);
+    if (posting != null) {
+      posting.remove(key);
+      if (posting.isEmpty()) {
+        postings.remove(term);
+      }
+    }
+
+  }
+
+  /**
+   * @param text The lower case text
+   *
+   * @return The distinct n-grams of the text that do not span a field separator
+   */
+  static Set<String> createGrams(String text) {
+
+    Set<String> textGrams = Sets.newHashSet();
+    for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+      String gram = text.substring(i, i + GRAM_LENGTH);
+      if (gram.indexOf(FIELD_SEPARATOR) == -1) {
+        textGrams.add(gram);
+      }
+    }
+
+    return textGrams;
+  }
+
+  /**
+   * @param paymentData The payment data
+   *
+   * @return A key unique to the payment across transactions and both kinds of payment request
+   */
+  @SuppressFBWarnings({"ITC_INHERITANCE_TYPE_CHECKING"})
+  private static String createKey(PaymentData paymentData) {
+
+    if (paymentData instanceof TransactionData) {
+      return "tx:" + ((TransactionData) paymentData).getTransactionId();
+    }
+    if (paymentData instanceof MBHDPaymentRequestData) {
+      return "mbhd:" + ((MBHDPaymentRequestData) paymentData).getAddress();
+    }
+    if (paymentData instanceof PaymentRequestData) {
+      return "bip70:" + ((PaymentRequestData) paymentData).getUuid();
+    }
+
+    throw new IllegalArgumentException("Unsupported payment data: " + paymentData.getClass().getSimpleName());
+  }
+
+  /**
+   * @param paymentData The payment data
+   *
+   * @return The lower case text available for substring matching
+   */
+  @SuppressFBWarnings({"ITC_INHERITANCE_TYPE_CHECKING"})
+  private static String createText(PaymentData paymentData) {
+
+    StringBuilder text = new StringBuilder()
+      .append(Strings.nullToEmpty(paymentData.getDescription()))
+      .append(FIELD_SEPARATOR)
+      .append(Strings.nullToEmpty(paymentData.getNote()));
+
+    if (paymentData instanceof MBHDPaymentRequestData) {
+      text
+        .append(FIELD_SEPARATOR)
+        .append(Strings.nullToEmpty(((MBHDPaymentRequestData) paymentData).getLabel()));
+    } else if (paymentData instanceof TransactionData) {
+      Collection<Address> outputAddresses = ((TransactionData) paymentData).getOutputAddresses();
+      if (outputAddresses != null) {
+        text
+          .append(FIELD_SEPARATOR)
+          .append(Joiner.on(" ").join(outputAddresses));
+      }
+    }
+
+    return text.toString().toLowerCase();
+  }
+
+  /**
+   * @param paymentData The payment data
+   *
+   * @return The lower case addresses and transaction hashes available for prefix matching
+   */
+  @SuppressFBWarnings({"ITC_INHERITANCE_TYPE_CHECKING"})
+  private static List<String> createTokens(PaymentData paymentData) {
+
+    List<String> paymentTokens = Lists.newArrayList();
+
+    if (paymentData instanceof MBHDPaymentRequestData) {
+      Address address = ((MBHDPaymentRequestData) paymentData).getAddress();
+      if (address != null) {
+        paymentTokens.add(address.toString().toLowerCase());
+      }
+    } else if (paymentData instanceof TransactionData) {
+      TransactionData transactionData = (TransactionData) paymentData;
+      paymentTokens.add(transactionData.getTransactionId().toLowerCase());
+      if (transactionData.getOutputAddresses() != null) {
+        for (Address address : transactionData.getOutputAddresses()) {
+          paymentTokens.add(address.toString().toLowerCase());
+        }
+      }
+    }
+
+    return paymentTokens;
+  }
+
+  /**
+   * An indexed payment
+   */
+  private static class Entry {
+
+    private PaymentData paymentData;
+
+    private final String text;
+
+    private final List<String> tokens;
+
+    private Entry(PaymentData paymentData, String text, List<String> tokens) {
+      this.paymentData = paymentData;
+      this.text = text;
+      this.tokens = tokens;
+    }
+  }
+}
@@ -0,0 +1,609 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.protobuf.MessageLite;
+import org.multibit.commons.crypto.AESUtils;
+import org.multibit.hd.core.crypto.DerivedKeyCache;
+import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.protobuf.MBHDPaymentsProtos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Journal to provide the following to WalletService:</p>
+ * <ul>
+ * <li>Saving changes to the payments database by appending only the changed records</li>
+ * <li>Crash-safe recovery of the payments database by replaying the journal over the snapshot</li>
+ * </ul>
+ * <p>The snapshot is the existing payments database (payments.aes). Each save appends a frame containing the MBHD
+ * payment requests, transaction infos and BIP70 payment requests that have changed since the last save, and a frame
+ * containing the keys of any that were removed. When the journal grows too large it is compacted into a new
+ * snapshot and deleted.</p>
+ * <p>The journal starts with a header holding the SHA-256 of the snapshot file it was started against. A journal whose
+ * header does not match the snapshot (e.g. one left by a crash before an older snapshot was restored from a backup) is
+ * kept aside rather than replayed.</p>
+ * <p>Each frame is: body length (int), CRC32 of the body (int), body. The body is a random IV followed by the AES
+ * encrypted type byte and payload, followed by an HMAC-SHA256 of the IV and encrypted bytes. A torn frame at the end
+ * of the journal (e.g. after a crash) is discarded. A frame that fails authentication ends the journal, and if the
+ * first frame fails the journal is kept aside as it was written with a different key.</p>
+ * <p>The journal is not understood by the generic file password change so it must be compacted (see
+ * {@link #compact(File, CharSequence)}) before the wallet password is changed.</p>
+ *
+ * @since 0.3.0
+ */
+public class PaymentsJournal {
+
+  private static final Logger log = LoggerFactory.getLogger(PaymentsJournal.class);
+
+  /**
+   * The suffix added to the snapshot file name to give the journal file name
+   */
+  public static final String JOURNAL_SUFFIX = ".journal";
+
+  /**
+   * The suffix added to a journal that cannot be decrypted (kept rather than deleted)
+   */
+  static final String UNREADABLE_SUFFIX = ".unreadable";
+
+  /**
+   * The suffix added to a journal that was started against a different snapshot (kept rather than deleted)
+   */
+  static final String STALE_SUFFIX = ".stale";
+
+  /**
+   * The number of frames after which the journal is compacted
+   */
+  static final int MAXIMUM_FRAME_COUNT = 500;
+
+  /**
+   * The journal is compacted when it is larger than the snapshot and at least this size
+   */
+  static final long MINIMUM_COMPACTION_LENGTH = 64 * 1024;
+
+  /**
+   * A sanity limit for a single frame
+   */
+  private static final int MAXIMUM_FRAME_LENGTH = 64 * 1024 * 1024;
+
+  /**
+   * Identifies a journal with a snapshot header ("MPJ" and version 1)
+   */
+  private static final int HEADER_MAGIC = 0x4d504a01;
+
+  /**
+   * The length of the header: magic (int) followed by the SHA-256 of the snapshot file
+   */
+  private static final int HEADER_LENGTH = 4 + 32;
+
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+  /**
+   * The length of the HMAC at the end of each frame body
+   */
+  private static final int MAC_LENGTH = 32;
+
+  /**
+   * Distinguishes the MAC key from the AES key it is derived from
+   */
+  private static final byte[] MAC_KEY_LABEL = "MultiBit HD payments journal MAC".getBytes(Charsets.UTF_8);
+
+  private static final byte FRAME_TYPE_UPSERT = 1;
+  private static final byte FRAME_TYPE_DELETE = 2;
+
+  private static final String MBHD_PAYMENT_REQUEST_KEY_PREFIX = "mbhd:";
+  private static final String TRANSACTION_INFO_KEY_PREFIX = "tx:";
+  private static final String PAYMENT_REQUEST_KEY_PREFIX = "bip70:";
+
+  private static final char KEY_SEPARATOR = '\n';
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private final File snapshotFile;
+
+  private final File journalFile;
+
+  /**
+   * The SHA-256 of each record as it is persisted (snapshot plus journal)
+   */
+  private Map<String, HashCode> persistedHashes = Maps.newHashMap();
+
+  /**
+   * The number of frames in the journal
+   */
+  private int frameCount = 0;
+
+  /**
+   * @param snapshotFile The payments database
+   */
+  public PaymentsJournal(File snapshotFile) {
+
+    Preconditions.checkNotNull(snapshotFile, "'snapshotFile' must be present");
+
+    this.snapshotFile = snapshotFile;
+    this.journalFile = new File(snapshotFile.getAbsolutePath() + JOURNAL_SUFFIX);
+
+  }
+
+  /**
+   * <p>Fold any journal left beside the snapshot into a new snapshot so that only the snapshot remains</p>
+   *
+   * @param snapshotFile The payments database
+   * @param password     The password the journal was written with
+   *
+   * @throws IOException If the journal could not be compacted
+   */
+  public static void compact(File snapshotFile, CharSequence password) throws IOException {
+
+    PaymentsJournal paymentsJournal = new PaymentsJournal(snapshotFile);
+    if (!paymentsJournal.getJournalFile().exists()) {
+      return;
+    }
+
+    paymentsJournal.save(paymentsJournal.load(password), password, true);
+
+  }
+
+  /**
+   * @return The journal file (may not exist)
+   */
+  public File getJournalFile() {
+    return journalFile;
+  }
+
+  /**
+   * <p>Read the snapshot and replay the journal over it</p>
+   *
+   * @param password The wallet password
+   *
+   * @return The payments as last saved
+   *
+   * @throws IOException If the snapshot could not be read
+   */
+  public synchronized MBHDPaymentsProtos.Payments load(CharSequence password) throws IOException {
+
+    Preconditions.checkNotNull(password, "'password' must be present");
+
+    Records records = new Records();
+    if (snapshotFile.exists()) {
+      try (InputStream decryptedInputStream = EncryptedFileReaderWriter.newDecryptingInputStream(snapshotFile, password)) {
+        records.putAll(PaymentsProtobufSerializer.parseToProto(decryptedInputStream));
+      }
+    }
+
+    frameCount = 0;
+    if (journalFile.exists() && matchesSnapshot()) {
+      replay(records, DerivedKeyCache.deriveKey(password, WalletManager.scryptSalt()));
+    }
+
+    persistedHashes = records.hashes();
+
+    return records.toPayments();
+  }
+
+  /**
+   * <p>Save the payments, appending the changes to the journal or compacting them into a new snapshot</p>
+   *
+   * @param payments The current payments
+   * @param password The wallet password
+   * @param compact  True to write a new snapshot regardless of the journal size (e.g. on shutdown)
+   *
+   * @return True if a new snapshot was written
+   *
+   * @throws IOException If the payments could not be saved
+   */
+  public synchronized boolean save(final MBHDPaymentsProtos.Payments payments, CharSequence password, boolean compact) throws IOException {
+
+    Preconditions.checkNotNull(payments, "'payments' must be present");
+    Preconditions.checkNotNull(password, "'password' must be present");
+
+    KeyParameter keyParameter = DerivedKeyCache.deriveKey(password, WalletManager.scryptSalt());
+
+    if (!compact && snapshotFile.exists() && !isCompactionDue()) {
+      append(payments, keyParameter);
+      return false;
+    }
+
+    // Bring the journal up to date first so that a crash after the snapshot is written replays to the same state
+    if (journalFile.exists()) {
+      append(payments, keyParameter);
+    }
+
+    EncryptedFileReaderWriter.encryptAndWrite(
+      new EncryptedFileReaderWriter.PlainStreamWriter() {
+        @Override
+        public void writeTo(OutputStream plainOutputStream) throws IOException {
+          payments.writeTo(plainOutputStream);
+        }
+      },
+      password,
+      snapshotFile
+    );
+
+    if (journalFile.exists() && !journalFile.delete()) {
+      throw new IOException("Could not delete the payments journal '" + journalFile.getAbsolutePath() + "'");
+    }
+
+    Records records = new Records();
+    records.putAll(payments);
+    persistedHashes = records.hashes();
+    frameCount = 0;
+
+    log.debug("Compacted payments into snapshot of {} bytes", snapshotFile.length());
+
+    return true;
+  }
+
+  /**
+   * @return True if the journal should be compacted into a new snapshot
+   */
+  synchronized boolean isCompactionDue() {
+    return frameCount >= MAXIMUM_FRAME_COUNT
+      || journalFile.length() > Math.max(MINIMUM_COMPACTION_LENGTH, snapshotFile.length());
+  }
+
+  /**
+   * @param payments     The current payments
+   * @param keyParameter The AES key
+   */
+  private void append(MBHDPaymentsProtos.Payments payments, KeyParameter keyParameter) throws IOException {
+
+    Records records = new Records();
+    records.putAll(payments);
+    Map<String, HashCode> currentHashes = records.hashes();
+
+    MBHDPaymentsProtos.Payments changedRecords = records.changedSince(persistedHashes);
+
+    List<String> removedKeys = Lists.newArrayList();
+    for (String key : persistedHashes.keySet()) {
+      if (!currentHashes.containsKey(key)) {
+        removedKeys.add(key);
+      }
+    }
+
+    int changedCount = changedRecords.getMbhdPaymentRequestCount() + changedRecords.getTransactionInfoCount() + changedRecords.getPaymentRequestCount();
+    if (changedCount == 0 && removedKeys.isEmpty()) {
+      log.debug("No payments changes to journal");
+      return;
+    }
+
+    // Write the frames in one go so a crash leaves at most one torn frame
+    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    DataOutputStream framesOutputStream = new DataOutputStream(frames);
+    if (journalFile.length() == 0) {
+      // Starting a new journal so tie it to the snapshot it applies to
+      framesOutputStream.writeInt(HEADER_MAGIC);
+      framesOutputStream.write(hashSnapshot());
+    }
+    int appendedFrameCount = 0;
+    if (changedCount > 0) {
+      writeFrame(framesOutputStream, FRAME_TYPE_UPSERT, changedRecords.toByteArray(), keyParameter);
+      appendedFrameCount++;
+    }
+    if (!removedKeys.isEmpty()) {
+      writeFrame(framesOutputStream, FRAME_TYPE_DELETE, Joiner.on(KEY_SEPARATOR).join(removedKeys).getBytes(Charsets.UTF_8), keyParameter);
+      appendedFrameCount++;
+    }
+    framesOutputStream.flush();
+
+    long originalLength = journalFile.length();
+    try (FileOutputStream journalOutputStream = new FileOutputStream(journalFile, true)) {
+      frames.writeTo(journalOutputStream);
+      journalOutputStream.getFD().sync();
+    } catch (IOException e) {
+      // Do not leave a torn frame in front of later frames
+      truncate(originalLength);
+      throw e;
+    }
+
+    persistedHashes = currentHashes;
+    frameCount += appendedFrameCount;
+
+    log.debug("Journaled {} changed and {} removed payments records in {} bytes", changedCount, removedKeys.size(), frames.size());
+  }
+
+  /**
+   * @param records      The records read from the snapshot to update
+   * @param keyParameter The AES key
+   */
+  private void replay(Records records, KeyParameter keyParameter) throws IOException {
+
+    byte[] macKey = deriveMacKey(keyParameter);
+
+    long validLength = HEADER_LENGTH;
+    try (DataInputStream journalInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+      journalInputStream.skipBytes(HEADER_LENGTH);
+      while (true) {
+        byte[] body = readFrameBody(journalInputStream);
+        if (body == null) {
+          break;
+        }
+
+        int macOffset = body.length - MAC_LENGTH;
+        if (!MessageDigest.isEqual(mac(macKey, body, macOffset), Arrays.copyOfRange(body, macOffset, body.length))) {
+          if (frameCount == 0) {
+            // The first frame is intact so the key is wrong (e.g. the password was changed without compacting)
+            log.error("Cannot authenticate the payments journal, keeping it as '{}{}'", journalFile.getAbsolutePath(), UNREADABLE_SUFFIX);
+            journalInputStream.close();
+            if (!journalFile.renameTo(new File(journalFile.getAbsolutePath() + UNREADABLE_SUFFIX))) {
+              log.error("Could not rename the unreadable payments journal");
+            }
+            return;
+          }
+          log.warn("Payments journal frame {} failed authentication so ending the journal there", frameCount);
+          break;
+        }
+
+        byte[] plainBytes = AESUtils.decrypt(
+          Arrays.copyOfRange(body, AESUtils.BLOCK_LENGTH, macOffset),
+          keyParameter,
+          Arrays.copyOf(body, AESUtils.BLOCK_LENGTH)
+        );
+
+        applyFrame(records, plainBytes);
+        validLength += 8 + body.length;
+        frameCount++;
+      }
+    }
+
+    if (validLength < journalFile.length()) {
+      log.warn("Discarding {} bytes of torn or unauthenticated payments journal", journalFile.length() - validLength);
+      truncate(validLength);
+    }
+
+    log.debug("Replayed {} payments journal frames", frameCount);
+  }
+
+  /**
+   * <p>Check the journal header against the snapshot, keeping a journal started against another snapshot aside</p>
+   *
+   * @return True if the journal applies to the snapshot and should be replayed
+   */
+  private boolean matchesSnapshot() throws IOException {
+
+    if (journalFile.length() < HEADER_LENGTH) {
+      // A crash while the journal was started so no frame was ever written
+      log.warn("Deleting payments journal with a torn header");
+      if (!journalFile.delete()) {
+        throw new IOException("Could not delete the payments journal '" + journalFile.getAbsolutePath() + "'");
+      }
+      return false;
+    }
+
+    byte[] snapshotHash = new byte[HEADER_LENGTH - 4];
+    int magic;
+    try (DataInputStream journalInputStream = new DataInputStream(new FileInputStream(journalFile))) {
+      magic = journalInputStream.readInt();
+      journalInputStream.readFully(snapshotHash);
+    }
+
+    if (magic == HEADER_MAGIC && snapshotFile.exists() && Arrays.equals(snapshotHash, hashSnapshot())) {
+      return true;
+    }
+
+    log.error("The payments journal was not written against this snapshot, keeping it as '{}{}'", journalFile.getAbsolutePath(), STALE_SUFFIX);
+    if (!journalFile.renameTo(new File(journalFile.getAbsolutePath() + STALE_SUFFIX)) && !journalFile.delete()) {
+      // It must not stay where later frames would be appended to it
+      throw new IOException("Could not remove the stale payments journal '" + journalFile.getAbsolutePath() + "'");
+    }
+    return false;
+  }
+
+  /**
+   * @return The SHA-256 of the snapshot file as written (so any other snapshot gives a different hash)
+   */
+  private byte[] hashSnapshot() throws IOException {
+    return Files.hash(snapshotFile, Hashing.sha256()).asBytes();
+  }
+
+  /**
+   * @param records    The records to update
+   * @param plainBytes The decrypted frame (type byte followed by payload)
+   */
+  private void applyFrame(Records records, byte[] plainBytes) throws IOException {
+
+    byte[] payload = Arrays.copyOfRange(plainBytes, 1, plainBytes.length);
+    switch (plainBytes[0]) {
+      case FRAME_TYPE_UPSERT:
+        records.putAll(MBHDPaymentsProtos.Payments.parseFrom(payload));
+        break;
+      case FRAME_TYPE_DELETE:
+        for (String key : Splitter.on(KEY_SEPARATOR).split(new String(payload, Charsets.UTF_8))) {
+          records.remove(key);
+        }
+        break;
+      default:
+        throw new IOException("Unknown payments journal frame type " + plainBytes[0]);
+    }
+  }
+
+  /**
+   * @param journalInputStream The journal
+   *
+   * @return The body of the next frame, or null at the end of the journal or at a torn frame
+   */
+  private byte[] readFrameBody(DataInputStream journalInputStream) throws IOException {
+
+    try {
+      int length = journalInputStream.readInt();
+      int checksum = journalInputStream.readInt();
+      if (length < 2 * AESUtils.BLOCK_LENGTH + MAC_LENGTH || length > MAXIMUM_FRAME_LENGTH) {
+        return null;
+      }
+
+      byte[] body = new byte[length];
+      journalInputStream.readFully(body);
+
+      CRC32 crc32 = new CRC32();
+      crc32.update(body);
+      return (int) crc32.getValue() == checksum ? body : null;
+
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  private void writeFrame(DataOutputStream framesOutputStream, byte type, byte[] payload, KeyParameter keyParameter) throws IOException {
+
+    byte[] plainBytes = new byte[payload.length + 1];
+    plainBytes[0] = type;
+    System.arraycopy(payload, 0, plainBytes, 1, payload.length);
+
+    byte[] initialisationVector = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(initialisationVector);
+    byte[] encryptedBytes = AESUtils.encrypt(plainBytes, keyParameter, initialisationVector);
+
+    int macOffset = initialisationVector.length + encryptedBytes.length;
+    byte[] body = new byte[macOffset + MAC_LENGTH];
+    System.arraycopy(initialisationVector, 0, body, 0, initialisationVector.length);
+    System.arraycopy(encryptedBytes, 0, body, initialisationVector.length, encryptedBytes.length);
+    System.arraycopy(mac(deriveMacKey(keyParameter), body, macOffset), 0, body, macOffset, MAC_LENGTH);
+
+    CRC32 crc32 = new CRC32();
+    crc32.update(body);
+
+    framesOutputStream.writeInt(body.length);
+    framesOutputStream.writeInt((int) crc32.getValue());
+    framesOutputStream.write(body);
+  }
+
+  /**
+   * @param keyParameter The AES key
+   *
+   * @return The key used to authenticate frames (kept separate from the AES key)
+   */
+  private static byte[] deriveMacKey(KeyParameter keyParameter) {
+    return mac(keyParameter.getKey(), MAC_KEY_LABEL, MAC_KEY_LABEL.length);
+  }
+
+  /**
+   * @param key    The HMAC key
+   * @param bytes  The bytes to authenticate
+   * @param length The number of bytes to authenticate from the start
+   *
+   * @return The HMAC-SHA256 of the bytes
+   */
+  private static byte[] mac(byte[] key, byte[] bytes, int length) {
+
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+      mac.update(bytes, 0, length);
+      return mac.doFinal();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Could not authenticate payments journal frame", e);
+    }
+
+  }
+
+  private void truncate(long length) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+      randomAccessFile.setLength(length);
+    }
+  }
+
+  /**
+   * The payments records by key
+   */
+  private static class Records {
+
+    private final Map<String, MBHDPaymentsProtos.MBHDPaymentRequest> mbhdPaymentRequests = Maps.newLinkedHashMap();
+
+    private final Map<String, MBHDPaymentsProtos.TransactionInfo> transactionInfos = Maps.newLinkedHashMap();
+
+    private final Map<String, MBHDPaymentsProtos.PaymentRequest> paymentRequests = Maps.newLinkedHashMap();
+
+    private void putAll(MBHDPaymentsProtos.Payments payments) {
+      for (MBHDPaymentsProtos.MBHDPaymentRequest mbhdPaymentRequest : payments.getMbhdPaymentRequestList()) {
+        mbhdPaymentRequests.put(MBHD_PAYMENT_REQUEST_KEY_PREFIX + mbhdPaymentRequest.getAddress(), mbhdPaymentRequest);
+      }
+      for (MBHDPaymentsProtos.TransactionInfo transactionInfo : payments.getTransactionInfoList()) {
+        transactionInfos.put(TRANSACTION_INFO_KEY_PREFIX + transactionInfo.getHash(), transactionInfo);
+      }
+      for (MBHDPaymentsProtos.PaymentRequest paymentRequest : payments.getPaymentRequestList()) {
+        paymentRequests.put(PAYMENT_REQUEST_KEY_PREFIX + paymentRequest.getUuid(), paymentRequest);
+      }
+    }
+
+    private void remove(String key) {
+      mbhdPaymentRequests.remove(key);
+      transactionInfos.remove(key);
+      paymentRequests.remove(key);
+    }
+
+    private Map<String, HashCode> hashes() {
+      Map<String, HashCode> hashes = Maps.newHashMap();
+      putHashes(hashes, mbhdPaymentRequests);
+      putHashes(hashes, transactionInfos);
+      putHashes(hashes, paymentRequests);
+      return hashes;
+    }
+
+    /**
+     * @param persistedHashes The hashes of the persisted records
+     *
+     * @return The records that are new or differ from the persisted records
+     */
+    private MBHDPaymentsProtos.Payments changedSince(Map<String, HashCode> persistedHashes) {
+      MBHDPaymentsProtos.Payments.Builder changed = MBHDPaymentsProtos.Payments.newBuilder();
+      for (Map.Entry<String, MBHDPaymentsProtos.MBHDPaymentRequest> entry : mbhdPaymentRequests.entrySet()) {
+        if (isChanged(persistedHashes, entry.getKey(), entry.getValue())) {
+          changed.addMbhdPaymentRequest(entry.getValue());
+        }
+      }
+      for (Map.Entry<String, MBHDPaymentsProtos.TransactionInfo> entry : transactionInfos.entrySet()) {
+        if (isChanged(persistedHashes, entry.getKey(), entry.getValue())) {
+          changed.addTransactionInfo(entry.getValue());
+        }
+      }
+      for (Map.Entry<String, MBHDPaymentsProtos.PaymentRequest> entry : paymentRequests.entrySet()) {
+        if (isChanged(persistedHashes, entry.getKey(), entry.getValue())) {
+          changed.addPaymentRequest(entry.getValue());
+        }
+      }
+      return changed.build();
+    }
+
+    private MBHDPaymentsProtos.Payments toPayments() {
+      return MBHDPaymentsProtos.Payments.newBuilder()
+        .addAllMbhdPaymentRequest(mbhdPaymentRequests.values())
+        .addAllTransactionInfo(transactionInfos.values())
+        .addAllPaymentRequest(paymentRequests.values())
+        .build();
+    }
+
+    private static boolean isChanged(Map<String, HashCode> persistedHashes, String key, MessageLite record) {
+      return !hash(record).equals(persistedHashes.get(key));
+    }
+
+    private static void putHashes(Map<String, HashCode> hashes, Map<String, ? extends MessageLite> records) {
+      for (Map.Entry<String, ? extends MessageLite> entry : records.entrySet()) {
+        hashes.put(entry.getKey(), hash(entry.getValue()));
+      }
+    }
+
+    private static HashCode hash(MessageLite record) {
+      return Hashing.sha256().hashBytes(record.toByteArray());
+    }
+  }
+}
@@ -136,6 +136,17 @@ public class PaymentsProtobufSerializer {
     }
   }
 
+  /**
+   * <p>Loads payments data from an already parsed protocol buffer (e.g. the snapshot with the journal replayed)</p>
+   *
+   * @throws org.multibit.hd.core.exceptions.PaymentsLoadException thrown in various error conditions.
+   */
+  public Payments readPayments(MBHDPaymentsProtos.Payments paymentsProto) throws PaymentsLoadException {
+    Payments payments = new Payments();
+    readPayments(paymentsProto, payments);
+    return payments;
+  }
+
   /**
    * <p>Loads payments data from the given protocol buffer and inserts it into the given Payments object.
    * <p/>
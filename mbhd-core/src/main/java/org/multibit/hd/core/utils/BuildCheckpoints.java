@@ -36,6 +36,7 @@ import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.MemoryBlockStore;
 import org.bitcoinj.utils.BriefLogFormatter;
 import org.bitcoinj.utils.Threading;
+import org.multibit.hd.core.managers.CheckpointIndex;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -55,6 +56,7 @@ public class BuildCheckpoints {
     private static final NetworkParameters PARAMS = MainNetParams.get();
     private static final File PLAIN_CHECKPOINTS_FILE = new File("mbhd.checkpoints");
     private static final File TEXTUAL_CHECKPOINTS_FILE = new File("mbhd.checkpoints.txt");
+    private static final File INDEX_CHECKPOINTS_FILE = new File("mbhd.checkpoints" + CheckpointIndex.INDEX_SUFFIX);
 
     public static void main(String[] args) throws Exception {
         BriefLogFormatter.initWithSilentBitcoinJ();
@@ -93,6 +95,8 @@ public class BuildCheckpoints {
         // Write checkpoint data out.
         writeBinaryCheckpoints(checkpoints, PLAIN_CHECKPOINTS_FILE);
         writeTextualCheckpoints(checkpoints, TEXTUAL_CHECKPOINTS_FILE);
+        CheckpointIndex.write(checkpoints.values(), INDEX_CHECKPOINTS_FILE);
+        System.out.println("Checkpoint index written to '" + INDEX_CHECKPOINTS_FILE.getCanonicalPath() + "'.");
 
         peerGroup.stop();
         store.close();
@@ -100,6 +104,7 @@ public class BuildCheckpoints {
         // Sanity check the created files.
         sanityCheck(PLAIN_CHECKPOINTS_FILE, checkpoints.size());
         sanityCheck(TEXTUAL_CHECKPOINTS_FILE, checkpoints.size());
+        sanityCheckIndex(INDEX_CHECKPOINTS_FILE, checkpoints.size());
     }
 
     private static void writeBinaryCheckpoints(TreeMap<Integer, StoredBlock> checkpoints, File file) throws Exception {
@@ -164,5 +169,14 @@ public class BuildCheckpoints {
                     .equals("0000000000035ae7d5025c2538067fe7adb1cf5d5d9c31b024137d9090ed13a9"));
         }
     }
-}
 
+    private static void sanityCheckIndex(File file, int expectedSize) throws IOException {
+        CheckpointIndex index = CheckpointIndex.open(PARAMS, file).orNull();
+        checkState(index != null && index.size() == expectedSize);
+
+        // The index must agree with the checkpoint manager
+        CheckpointManager manager = new CheckpointManager(PARAMS, new FileInputStream(PLAIN_CHECKPOINTS_FILE));
+        StoredBlock expected = manager.getCheckpointBefore(1390500000); // Thu Jan 23 19:00:00 CET 2014
+        checkState(index.getCheckpointBefore(1390500000).equals(expected));
+    }
+}
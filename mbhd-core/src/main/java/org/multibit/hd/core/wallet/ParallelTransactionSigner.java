@@ -0,0 +1,189 @@
+package org.multibit.hd.core.wallet;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.ScriptException;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.wallet.KeyBag;
+import org.bitcoinj.wallet.RedeemData;
+import org.multibit.commons.concurrent.SafeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Signer to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Signing of transaction inputs across all cores</li>
+ * <li>Key decryption, signature hashing and ECDSA for each input run independently</li>
+ * </ul>
+ * <p>Bitcoinj hashes for a signature under the lock of the transaction (copying it for every input) so each thread
+ * hashes against its own copy of the unsigned transaction rather than the shared one.</p>
+ * <p>Only pay to address and pay to public key inputs are handled (everything a soft wallet spends). Anything else is
+ * left to the Bitcoinj wallet signers.</p>
+ *
+ * @since 0.3.0
+ */
+public class ParallelTransactionSigner {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelTransactionSigner.class);
+
+  /**
+   * Below this many inputs handing off to other threads costs more than it saves
+   */
+  static final int PARALLEL_THRESHOLD = 8;
+
+  private final int threadCount;
+
+  /**
+   * Use one thread per core
+   */
+  public ParallelTransactionSigner() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param threadCount The largest number of threads to sign with
+   */
+  public ParallelTransactionSigner(int threadCount) {
+    Preconditions.checkArgument(threadCount > 0, "'threadCount' must be positive");
+    this.threadCount = threadCount;
+  }
+
+  /**
+   * <p>Sign every input with SIGHASH_ALL</p>
+   *
+   * @param transaction The transaction with connected inputs
+   * @param keyBag      The keys (decrypting if the wallet is encrypted)
+   *
+   * @return True if the inputs were signed, false if an input is not a single key spend (the transaction is unchanged)
+   *
+   * @throws ExecutionException If an input could not be signed (for example the keys could not be decrypted)
+   */
+  public boolean sign(final Transaction transaction, final KeyBag keyBag) throws InterruptedException, ExecutionException {
+
+    final List<TransactionInput> inputs = transaction.getInputs();
+    final List<Script> scriptPubKeys = Lists.newArrayListWithCapacity(inputs.size());
+
+    for (TransactionInput input : inputs) {
+      TransactionOutput connectedOutput = input.getConnectedOutput();
+      if (connectedOutput == null) {
+        return false;
+      }
+      try {
+        Script scriptPubKey = connectedOutput.getScriptPubKey();
+        if (!scriptPubKey.isSentToAddress() && !scriptPubKey.isSentToRawPubKey()) {
+          return false;
+        }
+        scriptPubKeys.add(scriptPubKey);
+      } catch (ScriptException e) {
+        return false;
+      }
+    }
+
+    // Each signature hash blanks the other script sigs so every input can be signed against the unsigned transaction
+    final boolean parallel = inputs.size() >= PARALLEL_THRESHOLD && threadCount > 1;
+    final int taskCount = parallel ? Math.min(threadCount, inputs.size()) : 1;
+    final byte[] unsignedTransactionBytes = parallel ? transaction.bitcoinSerialize() : null;
+
+    List<Callable<List<InputSignature>>> signingTasks = Lists.newArrayListWithCapacity(taskCount);
+    for (int i = 0; i < taskCount; i++) {
+      final int fromIndex = i * inputs.size() / taskCount;
+      final int toIndex = (i + 1) * inputs.size() / taskCount;
+      signingTasks.add(new Callable<List<InputSignature>>() {
+        @Override
+        public List<InputSignature> call() throws Exception {
+          // A copy per thread so that no hashing waits on another thread
+          Transaction hashingTransaction = parallel ? new Transaction(transaction.getParams(), unsignedTransactionBytes) : transaction;
+          return signInputs(hashingTransaction, inputs, fromIndex, toIndex, keyBag);
+        }
+      });
+    }
+
+    List<InputSignature> signatures = Lists.newArrayListWithCapacity(inputs.size());
+    if (!parallel) {
+      try {
+        signatures.addAll(signingTasks.get(0).call());
+      } catch (Exception e) {
+        throw new ExecutionException(e);
+      }
+    } else {
+      ListeningExecutorService executorService = SafeExecutors.newFixedThreadPool(taskCount, "transaction-signing");
+      try {
+        for (Future<List<InputSignature>> future : executorService.invokeAll(signingTasks)) {
+          signatures.addAll(future.get());
+        }
+      } finally {
+        executorService.shutdownNow();
+      }
+    }
+
+    for (int i = 0; i < inputs.size(); i++) {
+      InputSignature signature = signatures.get(i);
+      if (scriptPubKeys.get(i).isSentToAddress()) {
+        inputs.get(i).setScriptSig(ScriptBuilder.createInputScript(signature.signature, signature.key));
+      } else {
+        inputs.get(i).setScriptSig(ScriptBuilder.createInputScript(signature.signature));
+      }
+    }
+
+    log.debug("Signed {} inputs", inputs.size());
+
+    return true;
+  }
+
+  /**
+   * @param hashingTransaction The unsigned transaction to hash against (not shared with other threads)
+   * @param inputs             The connected inputs of the transaction being signed
+   * @param fromIndex          The first input to sign
+   * @param toIndex            The input after the last one to sign
+   * @param keyBag             The keys
+   *
+   * @return The signatures in input order
+   */
+  private static List<InputSignature> signInputs(Transaction hashingTransaction, List<TransactionInput> inputs, int fromIndex, int toIndex, KeyBag keyBag) {
+
+    List<InputSignature> signatures = Lists.newArrayListWithCapacity(toIndex - fromIndex);
+    for (int index = fromIndex; index < toIndex; index++) {
+
+      // The copy has no connected outputs so the redeem data comes from the original input
+      RedeemData redeemData = inputs.get(index).getConnectedRedeemData(keyBag);
+      Preconditions.checkState(redeemData != null, "No key to redeem input %s", index);
+
+      ECKey key = redeemData.getFullKey();
+      Preconditions.checkState(key != null, "No private key to redeem input %s", index);
+
+      TransactionSignature signature = hashingTransaction.calculateSignature(index, key, redeemData.redeemScript, Transaction.SigHash.ALL, false);
+
+      signatures.add(new InputSignature(key, signature));
+    }
+
+    return signatures;
+  }
+
+  /**
+   * A signature with the key that made it
+   */
+  private static class InputSignature {
+
+    private final ECKey key;
+
+    private final TransactionSignature signature;
+
+    InputSignature(ECKey key, TransactionSignature signature) {
+      this.key = key;
+      this.signature = signature;
+    }
+  }
+}
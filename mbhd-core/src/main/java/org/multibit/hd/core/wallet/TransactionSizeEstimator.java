@@ -0,0 +1,174 @@
+package org.multibit.hd.core.wallet;
+
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ScriptException;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.VarInt;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptOpCodes;
+
+import javax.annotation.Nullable;
+
+/**
+ * <p>Estimator to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>The size of a transaction once signed, worked out from the script types of the outputs being spent</li>
+ * <li>The fee for that size at a given fee per kilobyte</li>
+ * </ul>
+ * <p>Nothing is serialized so the cost is a few additions per input and output. Signatures are counted at their
+ * largest DER encoding so the estimate is never below the signed size.</p>
+ *
+ * @since 0.3.0
+ */
+public class TransactionSizeEstimator {
+
+  /**
+   * The largest DER encoded signature (72 bytes) plus the sighash byte
+   */
+  public static final int MAX_SIGNATURE_SIZE = 73;
+
+  /**
+   * All MultiBit HD keys are compressed
+   */
+  public static final int COMPRESSED_PUBLIC_KEY_SIZE = 33;
+
+  private static final int VERSION_SIZE = 4;
+
+  private static final int LOCK_TIME_SIZE = 4;
+
+  /**
+   * Transaction hash (32) and output index (4)
+   */
+  private static final int OUTPOINT_SIZE = 36;
+
+  private static final int SEQUENCE_SIZE = 4;
+
+  private static final int VALUE_SIZE = 8;
+
+  /**
+   * Utility - no public constructor
+   */
+  private TransactionSizeEstimator() {
+  }
+
+  /**
+   * @param transaction The transaction (signed or not) with its inputs connected where possible
+   *
+   * @return The size of the transaction once every input is signed
+   */
+  public static int estimateSignedSize(Transaction transaction) {
+
+    Preconditions.checkNotNull(transaction, "'transaction' must be present");
+
+    int size = VERSION_SIZE + LOCK_TIME_SIZE;
+
+    size += VarInt.sizeOf(transaction.getInputs().size());
+    for (TransactionInput input : transaction.getInputs()) {
+      size += estimateInputSize(input);
+    }
+
+    size += VarInt.sizeOf(transaction.getOutputs().size());
+    for (TransactionOutput output : transaction.getOutputs()) {
+      size += getOutputSize(output);
+    }
+
+    return size;
+  }
+
+  /**
+   * @param transaction The transaction
+   * @param feePerKb    The fee per started kilobyte
+   *
+   * @return The fee for the signed size (calculated per started kilobyte in the same way as the Bitcoinj wallet)
+   */
+  public static Coin estimateFee(Transaction transaction, Coin feePerKb) {
+    return feePerKb.multiply(estimateSignedSize(transaction) / 1000 + 1);
+  }
+
+  /**
+   * @param input The input
+   *
+   * @return The size of the input once signed
+   */
+  static int estimateInputSize(TransactionInput input) {
+    return estimateSpendSize(input.getConnectedOutput());
+  }
+
+  /**
+   * @param output The output to be spent (null if not known)
+   *
+   * @return The size of a signed input spending the output
+   */
+  public static int estimateSpendSize(@Nullable TransactionOutput output) {
+
+    int scriptSigSize = estimateScriptSigSize(output);
+
+    return OUTPOINT_SIZE + VarInt.sizeOf(scriptSigSize) + scriptSigSize + SEQUENCE_SIZE;
+  }
+
+  /**
+   * @param output The output
+   *
+   * @return The size of the output
+   */
+  public static int getOutputSize(TransactionOutput output) {
+
+    int scriptSize = output.getScriptBytes().length;
+
+    return VALUE_SIZE + VarInt.sizeOf(scriptSize) + scriptSize;
+  }
+
+  private static int estimateScriptSigSize(@Nullable TransactionOutput connectedOutput) {
+
+    if (connectedOutput == null) {
+      // Nothing is known about the output being spent so assume the usual pay to address
+      return getPayToAddressScriptSigSize();
+    }
+
+    try {
+      Script scriptPubKey = connectedOutput.getScriptPubKey();
+      if (scriptPubKey.isSentToRawPubKey()) {
+        // <sig>
+        return getPushSize(MAX_SIGNATURE_SIZE);
+      }
+      if (scriptPubKey.isSentToMultiSig()) {
+        // OP_0 <sig>... (the extra item is consumed by the CHECKMULTISIG bug)
+        return 1 + scriptPubKey.getNumberOfSignaturesRequiredToSpend() * getPushSize(MAX_SIGNATURE_SIZE);
+      }
+    } catch (ScriptException e) {
+      // Treat as pay to address
+    }
+
+    return getPayToAddressScriptSigSize();
+  }
+
+  /**
+   * @return The size of "&lt;sig&gt; &lt;pubkey&gt;"
+   */
+  private static int getPayToAddressScriptSigSize() {
+    return getPushSize(MAX_SIGNATURE_SIZE) + getPushSize(COMPRESSED_PUBLIC_KEY_SIZE);
+  }
+
+  /**
+   * @param dataLength The length of the data pushed onto the stack
+   *
+   * @return The length of the push including the opcode and length prefix
+   */
+  private static int getPushSize(int dataLength) {
+
+    if (dataLength < ScriptOpCodes.OP_PUSHDATA1) {
+      return 1 + dataLength;
+    }
+    if (dataLength <= 0xff) {
+      return 2 + dataLength;
+    }
+    if (dataLength <= 0xffff) {
+      return 3 + dataLength;
+    }
+
+    return 5 + dataLength;
+  }
+}
@@ -2,6 +2,7 @@ package org.multibit.hd.core.wallet;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.Wallet;
@@ -12,6 +13,7 @@ import org.joda.time.Hours;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -62,6 +64,36 @@ public class UnconfirmedTransactionDetector {
    * @return The datetime of the oldest transaction in the time window of interest
    */
   public static Optional<DateTime> calculateReplayDate(Wallet wallet, DateTime compareDate) {
+
+    Optional<DateTime> replayDate = Optional.absent();
+
+    for (Transaction loopTransaction : findStuckTransactions(wallet, compareDate)) {
+      DateTime loopTransactionTime = new DateTime(loopTransaction.getUpdateTime());
+      // Eligible transaction - keep track of the date
+      if (replayDate.isPresent()) {
+        if (replayDate.get().isAfter(loopTransactionTime)) {
+          // This is an earlier unconfirmed transaction in the window of interest
+          replayDate = Optional.of(loopTransactionTime);
+        }
+      } else {
+        replayDate = Optional.of(loopTransactionTime);
+      }
+    }
+
+    log.debug("Calculated replay date for unconfirmed transaction is {}", replayDate);
+    return replayDate;
+  }
+
+  /**
+   * Find the unconfirmed transactions in the wallet that are in the time period of interest (between the LOWER and
+   * UPPER time window limits). These are candidates for a targeted confirmation check before any replay.
+   *
+   * @param wallet      The wallet containing the transactions
+   * @param compareDate The date to compare transaction dates against (typically the time now)
+   *
+   * @return The unconfirmed transactions in the time window of interest
+   */
+  public static List<Transaction> findStuckTransactions(Wallet wallet, DateTime compareDate) {
     Preconditions.checkNotNull(wallet);
     Preconditions.checkNotNull(compareDate);
 
@@ -69,25 +101,16 @@ public class UnconfirmedTransactionDetector {
     // between the LOWER_LIMIT_OF_TIME_WINDOW and UPPER_LIMIT_OF_TIME_WINDOW
     Map<Sha256Hash, Transaction> pending = wallet.getTransactionPool(WalletTransaction.Pool.PENDING);
 
-    Optional<DateTime> replayDate = Optional.absent();
+    List<Transaction> stuckTransactions = Lists.newArrayList();
 
     for (Transaction loopTransaction : pending.values()) {
       DateTime loopTransactionTime = new DateTime(loopTransaction.getUpdateTime());
       if (compareDate.minus(LOWER_LIMIT_OF_TIME_WINDOW).isAfter(loopTransactionTime) &&
               compareDate.isBefore(loopTransactionTime.plus(UPPER_LIMIT_OF_TIME_WINDOW))) {
-        // Eligible transaction - keep track of the date
-        if (replayDate.isPresent()) {
-          if (replayDate.get().isAfter(loopTransactionTime)) {
-            // This is an earlier unconfirmed transaction in the window of interest
-            replayDate = Optional.of(loopTransactionTime);
-          }
-        } else {
-          replayDate = Optional.of(loopTransactionTime);
-        }
+        stuckTransactions.add(loopTransaction);
       }
     }
 
-    log.debug("Calculated replay date for unconfirmed transaction is {}", replayDate);
-    return replayDate;
+    return stuckTransactions;
   }
 }
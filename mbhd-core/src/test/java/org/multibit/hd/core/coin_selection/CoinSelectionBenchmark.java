@@ -0,0 +1,135 @@
+package org.multibit.hd.core.coin_selection;
+
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.CoinSelector;
+import org.multibit.hd.core.wallet.TransactionSizeEstimator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.bitcoinj.testing.FakeTxBuilder.createFakeTx;
+
+/**
+ * <p>Benchmark to provide the following to developers:</p>
+ * <ul>
+ * <li>Comparison of the selection time of each coin selection strategy</li>
+ * <li>Comparison of the estimated size of the resulting transaction (printed after each trial)</li>
+ * </ul>
+ * <p>Run with <code>main</code> from the test classpath. The wallet holds payments of random size so the searches see
+ * a realistic spread of values.</p>
+ *
+ * @since 0.3.0
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CoinSelectionBenchmark {
+
+  /**
+   * Version, lock time, the counts and a payment plus a change output
+   */
+  private static final int FIXED_SIZE = 4 + 4 + 3 + 1 + 34 + 34;
+
+  @Param({"STANDARD", "LARGEST_FIRST", "BRANCH_AND_BOUND", "CONSOLIDATE"})
+  public String strategy;
+
+  @Param({"100", "1000", "10000"})
+  public int utxoCount;
+
+  @Param({"1000", "50000"})
+  public long feePerKb;
+
+  private final NetworkParameters mainNet = MainNetParams.get();
+
+  private List<TransactionOutput> candidates;
+
+  private Coin target;
+
+  private CoinSelector coinSelector;
+
+  private CoinSelection lastSelection;
+
+  @Setup
+  public void setUp() {
+
+    Context.propagate(new Context(mainNet));
+
+    // Fixed seed so every strategy sees the same wallet
+    Random random = new Random(utxoCount);
+
+    candidates = Lists.newArrayListWithCapacity(utxoCount);
+    long total = 0;
+    for (int i = 0; i < utxoCount; i++) {
+      // Between 0.01 and 10 mBTC
+      long value = 1_000 + (long) (random.nextDouble() * 999_000);
+      Transaction transaction = createFakeTx(mainNet, Coin.valueOf(value), new ECKey().toAddress(mainNet));
+      transaction.getConfidence().setAppearedAtChainHeight(1);
+      candidates.add(transaction.getOutput(0));
+      total += value;
+    }
+
+    // Spend about a tenth of the wallet
+    target = Coin.valueOf(total / 10);
+
+    coinSelector = CoinSelectionStrategy.fromName(strategy).newCoinSelector(Coin.valueOf(feePerKb));
+
+  }
+
+  @TearDown
+  public void tearDown() {
+
+    if (lastSelection == null) {
+      return;
+    }
+
+    int size = FIXED_SIZE;
+    for (TransactionOutput output : lastSelection.gathered) {
+      size += TransactionSizeEstimator.estimateSpendSize(output);
+    }
+
+    System.out.printf(
+      "%n%s with %d outputs at %d sat/kB: %d inputs, %d bytes, %d satoshis change%n",
+      strategy,
+      utxoCount,
+      feePerKb,
+      lastSelection.gathered.size(),
+      size,
+      lastSelection.valueGathered.subtract(target).value
+    );
+
+  }
+
+  @Benchmark
+  public CoinSelection select() {
+
+    lastSelection = coinSelector.select(target, candidates);
+
+    return lastSelection;
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    Options options = new OptionsBuilder()
+      .include(CoinSelectionBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(options).run();
+
+  }
+}
@@ -0,0 +1,148 @@
+package org.multibit.hd.core.coin_selection;
+
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.DefaultCoinSelector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.bitcoinj.testing.FakeTxBuilder.createFakeTx;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoinSelectorsTest {
+
+  private static final Coin LOW_FEE_PER_KB = Coin.valueOf(1_000);
+
+  private static final Coin HIGH_FEE_PER_KB = Coin.valueOf(100_000);
+
+  private final NetworkParameters mainNet = MainNetParams.get();
+
+  private List<TransactionOutput> candidates;
+
+  @Before
+  public void setUp() throws Exception {
+
+    // Confidence is held in the context
+    Context.propagate(new Context(mainNet));
+
+    candidates = Lists.newArrayList();
+
+    // 1, 2, 3, 5 and 8 mBTC
+    for (long millis : new long[]{1, 2, 3, 5, 8}) {
+      candidates.add(newConfirmedOutput(Coin.MILLICOIN.multiply(millis)));
+    }
+
+  }
+
+  @Test
+  public void testLargestFirst() throws Exception {
+
+    CoinSelection selection = new LargestFirstCoinSelector(LOW_FEE_PER_KB).select(Coin.MILLICOIN.multiply(11), candidates);
+
+    // 8 + 5
+    assertThat(selection.gathered).hasSize(2);
+    assertThat(selection.valueGathered).isEqualTo(Coin.MILLICOIN.multiply(13));
+
+  }
+
+  @Test
+  public void testBranchAndBound_ExactMatch() throws Exception {
+
+    CoinSelection selection = new BranchAndBoundCoinSelector(LOW_FEE_PER_KB).select(Coin.MILLICOIN.multiply(11), candidates);
+
+    // An exact match needs no change
+    assertThat(selection.valueGathered).isEqualTo(Coin.MILLICOIN.multiply(11));
+
+  }
+
+  @Test
+  public void testBranchAndBound_NoMatch() throws Exception {
+
+    // Nothing lands within the cost of change of 1 satoshi above 10 mBTC so fall back to largest first
+    Coin target = Coin.MILLICOIN.multiply(10).add(Coin.SATOSHI);
+    CoinSelection selection = new BranchAndBoundCoinSelector(LOW_FEE_PER_KB).select(target, candidates);
+
+    assertThat(selection.valueGathered.isLessThan(target)).isFalse();
+    assertThat(selection.gathered).hasSize(2);
+
+  }
+
+  @Test
+  public void testTargetNotReachable() throws Exception {
+
+    for (CoinSelectionStrategy strategy : CoinSelectionStrategy.values()) {
+
+      // Emptying the wallet asks for the maximum money
+      CoinSelection selection = strategy.newCoinSelector(LOW_FEE_PER_KB).select(NetworkParameters.MAX_MONEY, candidates);
+
+      assertThat(selection.gathered).hasSize(candidates.size());
+      assertThat(selection.valueGathered).isEqualTo(Coin.MILLICOIN.multiply(19));
+    }
+
+  }
+
+  @Test
+  public void testConsolidate() throws Exception {
+
+    // A dust output costs more to spend than it is worth
+    candidates.add(newConfirmedOutput(Coin.valueOf(100)));
+
+    ConsolidatingCoinSelector lowFeeSelector = new ConsolidatingCoinSelector(LOW_FEE_PER_KB);
+    assertThat(lowFeeSelector.isConsolidating()).isTrue();
+
+    CoinSelection selection = lowFeeSelector.select(Coin.MILLICOIN.multiply(7), candidates);
+
+    // The 8 mBTC output covers the target then every other economic output is swept up
+    assertThat(selection.gathered).hasSize(5);
+    assertThat(selection.valueGathered).isEqualTo(Coin.MILLICOIN.multiply(19));
+
+    ConsolidatingCoinSelector highFeeSelector = new ConsolidatingCoinSelector(HIGH_FEE_PER_KB);
+    assertThat(highFeeSelector.isConsolidating()).isFalse();
+
+    // Branch and bound finds 5 + 2
+    selection = highFeeSelector.select(Coin.MILLICOIN.multiply(7), candidates);
+    assertThat(selection.valueGathered).isEqualTo(Coin.MILLICOIN.multiply(7));
+
+  }
+
+  @Test
+  public void testUnconfirmedOutputsAreSkipped() throws Exception {
+
+    Transaction unconfirmed = createFakeTx(mainNet, Coin.COIN, new ECKey().toAddress(mainNet));
+    candidates.add(unconfirmed.getOutput(0));
+
+    CoinSelection selection = new LargestFirstCoinSelector(LOW_FEE_PER_KB).select(Coin.MILLICOIN, candidates);
+
+    assertThat(selection.gathered).excludes(unconfirmed.getOutput(0));
+
+  }
+
+  @Test
+  public void testFromName() throws Exception {
+
+    assertThat(CoinSelectionStrategy.fromName("BRANCH_AND_BOUND")).isEqualTo(CoinSelectionStrategy.BRANCH_AND_BOUND);
+    assertThat(CoinSelectionStrategy.fromName("consolidate")).isEqualTo(CoinSelectionStrategy.CONSOLIDATE);
+    assertThat(CoinSelectionStrategy.fromName("unknown")).isEqualTo(CoinSelectionStrategy.STANDARD);
+    assertThat(CoinSelectionStrategy.fromName(null)).isEqualTo(CoinSelectionStrategy.STANDARD);
+
+    assertThat(CoinSelectionStrategy.STANDARD.newCoinSelector(LOW_FEE_PER_KB)).isInstanceOf(DefaultCoinSelector.class);
+
+  }
+
+  private TransactionOutput newConfirmedOutput(Coin value) {
+
+    Transaction transaction = createFakeTx(mainNet, value, new ECKey().toAddress(mainNet));
+    transaction.getConfidence().setAppearedAtChainHeight(1);
+
+    return transaction.getOutput(0);
+  }
+}
@@ -0,0 +1,104 @@
+package org.multibit.hd.core.crypto;
+
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.managers.WalletManager;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DerivedKeyCacheTest {
+
+  private static final CharSequence PASSWORD1 = "aTestPassword";
+
+  private static final CharSequence PASSWORD2 = "flim flam bim bam jim jam";
+
+  @Before
+  public void setUp() throws Exception {
+
+    DerivedKeyCache.clear();
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    DerivedKeyCache.clear();
+
+  }
+
+  @Test
+  public void testDeriveKeyMatchesScrypt() throws Exception {
+
+    KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(EncryptedFileReaderWriter.makeScryptParameters(WalletManager.scryptSalt()));
+    byte[] expected = keyCrypterScrypt.deriveKey(PASSWORD1).getKey();
+
+    // Miss then hit
+    assertThat(DerivedKeyCache.deriveKey(PASSWORD1, WalletManager.scryptSalt()).getKey()).isEqualTo(expected);
+    assertThat(DerivedKeyCache.deriveKey(PASSWORD1, WalletManager.scryptSalt()).getKey()).isEqualTo(expected);
+    assertThat(DerivedKeyCache.size()).isEqualTo(1);
+
+    // A different password is a different entry
+    assertThat(DerivedKeyCache.deriveKey(PASSWORD2, WalletManager.scryptSalt()).getKey()).isNotEqualTo(expected);
+    assertThat(DerivedKeyCache.size()).isEqualTo(2);
+
+  }
+
+  @Test
+  public void testCallersReceiveCopies() throws Exception {
+
+    KeyParameter first = DerivedKeyCache.deriveKey(PASSWORD1, WalletManager.scryptSalt());
+    byte[] expected = Arrays.copyOf(first.getKey(), first.getKey().length);
+
+    // Wiping a returned key must not affect the cached key
+    Arrays.fill(first.getKey(), (byte) 0);
+
+    assertThat(DerivedKeyCache.deriveKey(PASSWORD1, WalletManager.scryptSalt()).getKey()).isEqualTo(expected);
+
+  }
+
+  @Test
+  public void testClear() throws Exception {
+
+    DerivedKeyCache.deriveKey(PASSWORD1, WalletManager.scryptSalt());
+    assertThat(DerivedKeyCache.size()).isEqualTo(1);
+
+    DerivedKeyCache.clear();
+    assertThat(DerivedKeyCache.size()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testClearWhileDeriving() throws Exception {
+
+    final byte[] expected = DerivedKeyCache.deriveKey(PASSWORD1, WalletManager.scryptSalt()).getKey();
+    final AtomicBoolean deriving = new AtomicBoolean(true);
+
+    // Keep clearing (and wiping) the cache while keys are handed out
+    Thread clearer = new Thread(
+      new Runnable() {
+        @Override
+        public void run() {
+          while (deriving.get()) {
+            DerivedKeyCache.clear();
+          }
+        }
+      });
+    clearer.start();
+
+    try {
+      for (int i = 0; i < 200; i++) {
+        assertThat(DerivedKeyCache.deriveKey(PASSWORD1, WalletManager.scryptSalt()).getKey()).isEqualTo(expected);
+      }
+    } finally {
+      deriving.set(false);
+      clearer.join();
+    }
+
+  }
+}
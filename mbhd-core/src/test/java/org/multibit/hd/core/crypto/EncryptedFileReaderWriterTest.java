@@ -26,11 +26,10 @@ import org.multibit.commons.crypto.AESUtils;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.commons.files.SecureFiles;
 import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.managers.WalletManager;
+import org.spongycastle.crypto.params.KeyParameter;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.security.SecureRandom;
 import java.util.List;
 
@@ -131,6 +130,39 @@ public class EncryptedFileReaderWriterTest {
     }
   }
 
+  @Test
+  public void testStreamingMatchesAESUtils() throws Exception {
+    // Create a random temporary directory
+    File temporaryDirectory = SecureFiles.createTemporaryDirectory();
+
+    File outputFile = new File(temporaryDirectory + File.separator + "outputFile.aes");
+
+    // Several blocks with a partial final block
+    final byte[] plainBytes = new byte[100_003];
+    new SecureRandom().nextBytes(plainBytes);
+
+    EncryptedFileReaderWriter.encryptAndWrite(
+      new EncryptedFileReaderWriter.PlainStreamWriter() {
+        @Override
+        public void writeTo(OutputStream plainOutputStream) throws IOException {
+          plainOutputStream.write(plainBytes);
+        }
+      },
+      PASSWORD1,
+      outputFile
+    );
+
+    // The streamed file has the same format as a file encrypted in memory
+    KeyParameter keyParameter = DerivedKeyCache.deriveKey(PASSWORD1, WalletManager.scryptSalt());
+    byte[] expectedEncryptedBytes = AESUtils.encrypt(plainBytes, keyParameter, WalletManager.aesInitialisationVector());
+    assertThat(readBytes(new FileInputStream(outputFile))).isEqualTo(expectedEncryptedBytes);
+
+    // Streamed decryption reads files encrypted in memory
+    try (InputStream decryptedInputStream = EncryptedFileReaderWriter.newDecryptingInputStream(new ByteArrayInputStream(expectedEncryptedBytes), keyParameter)) {
+      assertThat(readBytes(decryptedInputStream)).isEqualTo(plainBytes);
+    }
+  }
+
   private byte[] readBytes(InputStream inputStream) throws IOException {
     ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
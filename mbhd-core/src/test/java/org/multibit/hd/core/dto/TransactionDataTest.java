@@ -0,0 +1,72 @@
+package org.multibit.hd.core.dto;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.TransactionConfidence;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class TransactionDataTest {
+
+  @Test
+  public void testRawTransaction_RenderedOnDemand() throws Exception {
+
+    final AtomicInteger renderCount = new AtomicInteger();
+    Supplier<String> rawTransaction = new Supplier<String>() {
+      @Override
+      public String get() {
+        renderCount.incrementAndGet();
+        return "raw";
+      }
+    };
+
+    TransactionData transactionData = newTransactionData(rawTransaction);
+
+    // Nothing is rendered while the transaction is only listed
+    assertThat(renderCount.get()).isEqualTo(0);
+    assertThat(transactionData.getSize()).isEqualTo(225);
+
+    // Rendered on first use then kept
+    assertThat(transactionData.getRawTransaction()).isEqualTo("raw");
+    assertThat(transactionData.getRawTransaction()).isEqualTo("raw");
+    assertThat(renderCount.get()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testRawTransaction_Mock() throws Exception {
+
+    TransactionData transactionData = new TransactionData(null, null, null, null, null, null, null, null, null, null, false, null, null, 0, true);
+
+    assertThat(transactionData.getRawTransaction()).isEqualTo("");
+
+  }
+
+  private TransactionData newTransactionData(Supplier<String> rawTransaction) {
+
+    return new TransactionData(
+      "transactionId",
+      DateTime.now(),
+      new PaymentStatus(RAGStatus.GREEN, CoreMessageKey.CONFIRMED_BY_ONE_BLOCK),
+      Optional.of(Coin.COIN),
+      null,
+      Optional.<Coin>absent(),
+      Optional.<Coin>absent(),
+      TransactionConfidence.ConfidenceType.BUILDING,
+      PaymentType.RECEIVED,
+      "description",
+      false,
+      Collections.<Address>emptyList(),
+      rawTransaction,
+      225,
+      false
+    );
+  }
+}
@@ -0,0 +1,147 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.multibit.commons.concurrent.SafeExecutors;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Benchmark to provide the following to developers:</p>
+ * <ul>
+ * <li>Comparison of the Guava event bus and thread pool with the ring buffer dispatcher</li>
+ * </ul>
+ * <p>Run with <code>main</code> from the test classpath. Throughput publishes a burst of events and waits for
+ * delivery, latency measures a single event from publication to delivery.</p>
+ *
+ * @since 0.3.0
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CoreEventsBenchmark {
+
+  private static final int BURST_SIZE = 1000;
+
+  /**
+   * The number of subscribers to each event (similar to a typical screen)
+   */
+  private static final int SUBSCRIBER_COUNT = 8;
+
+  @Param({"eventBus", "ringBuffer"})
+  public String dispatcher;
+
+  private final AtomicLong deliveredCount = new AtomicLong();
+
+  private EventBus eventBus;
+
+  private ListeningExecutorService eventExecutor;
+
+  private RingBufferEventDispatcher ringBufferDispatcher;
+
+  @Setup
+  public void setUp() {
+
+    if ("eventBus".equals(dispatcher)) {
+      // As CoreEvents does it
+      eventBus = new EventBus();
+      eventExecutor = SafeExecutors.newFixedThreadPool(10, "core-events");
+    } else {
+      ringBufferDispatcher = new RingBufferEventDispatcher();
+    }
+
+    for (int i = 0; i < SUBSCRIBER_COUNT; i++) {
+      Object subscriber = new CountingSubscriber();
+      if (eventBus != null) {
+        eventBus.register(subscriber);
+      } else {
+        ringBufferDispatcher.register(subscriber);
+      }
+    }
+
+  }
+
+  @TearDown
+  public void tearDown() {
+
+    if (eventExecutor != null) {
+      eventExecutor.shutdownNow();
+    }
+    if (ringBufferDispatcher != null) {
+      ringBufferDispatcher.shutdown();
+    }
+
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(BURST_SIZE)
+  public void throughput() {
+
+    long target = deliveredCount.get() + BURST_SIZE * SUBSCRIBER_COUNT;
+    for (int i = 0; i < BURST_SIZE; i++) {
+      publish(new ConfigurationChangedEvent());
+    }
+    awaitDelivered(target);
+
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void latency() {
+
+    long target = deliveredCount.get() + SUBSCRIBER_COUNT;
+    publish(new ConfigurationChangedEvent());
+    awaitDelivered(target);
+
+  }
+
+  private void publish(final Object event) {
+
+    if (eventBus != null) {
+      eventExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          eventBus.post(event);
+        }
+      });
+    } else {
+      ringBufferDispatcher.publish(event);
+    }
+
+  }
+
+  private void awaitDelivered(long target) {
+    while (deliveredCount.get() < target) {
+      Thread.yield();
+    }
+  }
+
+  public class CountingSubscriber {
+
+    @Subscribe
+    public void onConfigurationChangedEvent(ConfigurationChangedEvent event) {
+      deliveredCount.incrementAndGet();
+    }
+
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    Options options = new OptionsBuilder()
+      .include(CoreEventsBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(options).run();
+
+  }
+}
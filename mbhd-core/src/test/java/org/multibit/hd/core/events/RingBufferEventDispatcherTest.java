@@ -0,0 +1,162 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class RingBufferEventDispatcherTest {
+
+  private RingBufferEventDispatcher dispatcher;
+
+  @After
+  public void tearDown() throws Exception {
+
+    if (dispatcher != null) {
+      dispatcher.shutdown();
+    }
+
+  }
+
+  @Test
+  public void testEventsAreDeliveredInOrderAcrossTypes() throws Exception {
+
+    // A small ring so the publisher has to wait for the subscriber
+    dispatcher = new RingBufferEventDispatcher(8, 2);
+
+    RecordingSubscriber subscriber = new RecordingSubscriber(101);
+    dispatcher.register(subscriber);
+
+    for (int i = 0; i < 50; i++) {
+      dispatcher.publish(new ConfigurationChangedEvent());
+      dispatcher.publish(new SlowTransactionSeenEvent());
+    }
+    dispatcher.publish(new ShutdownEvent(ShutdownEvent.ShutdownType.SOFT));
+
+    assertThat(subscriber.latch.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // Alternating types followed by the shutdown event
+    for (int i = 0; i < 100; i++) {
+      assertThat(subscriber.events.get(i)).isInstanceOf(i % 2 == 0 ? ConfigurationChangedEvent.class : SlowTransactionSeenEvent.class);
+    }
+    assertThat(subscriber.events.get(100)).isInstanceOf(ShutdownEvent.class);
+
+  }
+
+  @Test
+  public void testOnlyMatchingEventsAreDelivered() throws Exception {
+
+    dispatcher = new RingBufferEventDispatcher();
+
+    ShutdownSubscriber shutdownSubscriber = new ShutdownSubscriber();
+    RecordingSubscriber recordingSubscriber = new RecordingSubscriber(2);
+    dispatcher.register(shutdownSubscriber);
+    dispatcher.register(recordingSubscriber);
+
+    dispatcher.publish(new ConfigurationChangedEvent());
+    dispatcher.publish(new ShutdownEvent(ShutdownEvent.ShutdownType.SOFT));
+
+    assertThat(recordingSubscriber.latch.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(shutdownSubscriber.latch.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(shutdownSubscriber.shutdownCount).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testUnregisteredSubscriberReceivesNothing() throws Exception {
+
+    dispatcher = new RingBufferEventDispatcher();
+
+    RecordingSubscriber unregistered = new RecordingSubscriber(1);
+    RecordingSubscriber registered = new RecordingSubscriber(1);
+    dispatcher.register(unregistered);
+    dispatcher.register(registered);
+    dispatcher.unregister(unregistered);
+
+    dispatcher.publish(new ConfigurationChangedEvent());
+
+    assertThat(registered.latch.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(unregistered.events).isEmpty();
+
+  }
+
+  @Test
+  public void testSubscriberPublishingIntoFullRingKeepsOrder() throws Exception {
+
+    // A single worker so the ring fills while the republishing subscriber is being served
+    dispatcher = new RingBufferEventDispatcher(2, 1);
+
+    RepublishingSubscriber republishingSubscriber = new RepublishingSubscriber(dispatcher, 10);
+    RecordingSubscriber recordingSubscriber = new RecordingSubscriber(11);
+    dispatcher.register(republishingSubscriber);
+    dispatcher.register(recordingSubscriber);
+
+    dispatcher.publish(new ConfigurationChangedEvent());
+
+    assertThat(recordingSubscriber.latch.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // The events published by the subscriber arrive after the event that caused them
+    assertThat(recordingSubscriber.events.get(0)).isInstanceOf(ConfigurationChangedEvent.class);
+    for (int i = 1; i <= 10; i++) {
+      assertThat(recordingSubscriber.events.get(i)).isInstanceOf(SlowTransactionSeenEvent.class);
+    }
+    assertThat(dispatcher.getHandedOffCount()).isGreaterThan(0);
+
+  }
+
+  public static class RepublishingSubscriber {
+
+    private final RingBufferEventDispatcher dispatcher;
+
+    private final int count;
+
+    public RepublishingSubscriber(RingBufferEventDispatcher dispatcher, int count) {
+      this.dispatcher = dispatcher;
+      this.count = count;
+    }
+
+    @Subscribe
+    public void onConfigurationChangedEvent(ConfigurationChangedEvent event) {
+      for (int i = 0; i < count; i++) {
+        dispatcher.publish(new SlowTransactionSeenEvent());
+      }
+    }
+  }
+
+  public static class RecordingSubscriber {
+
+    private final List<Object> events = Collections.synchronizedList(Lists.newArrayList());
+
+    private final CountDownLatch latch;
+
+    public RecordingSubscriber(int expectedCount) {
+      latch = new CountDownLatch(expectedCount);
+    }
+
+    @Subscribe
+    public void onCoreEvent(CoreEvent event) {
+      events.add(event);
+      latch.countDown();
+    }
+  }
+
+  public static class ShutdownSubscriber {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private volatile int shutdownCount = 0;
+
+    @Subscribe
+    public void onShutdownEvent(ShutdownEvent event) {
+      shutdownCount++;
+      latch.countDown();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package org.multibit.hd.core.events;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class TransactionSeenBatcherTest {
+
+  private NetworkParameters networkParameters;
+
+  @Before
+  public void setUp() throws Exception {
+
+    networkParameters = MainNetParams.get();
+
+  }
+
+  @Test
+  public void testRepeatedTransactionsAreCoalesced() throws Exception {
+
+    TransactionSeenBatcher batcher = new TransactionSeenBatcher();
+
+    Transaction transaction1 = newTransaction(1);
+    Transaction transaction2 = newTransaction(2);
+
+    TransactionSeenEvent firstAppearance = new TransactionSeenEvent(transaction1, Coin.COIN);
+    firstAppearance.setFirstAppearanceInWallet(true);
+
+    // Only the first event asks for a drain
+    assertThat(batcher.offer(firstAppearance)).isTrue();
+    assertThat(batcher.offer(new TransactionSeenEvent(transaction2, Coin.COIN))).isFalse();
+    TransactionSeenEvent latest = new TransactionSeenEvent(transaction1, Coin.COIN);
+    assertThat(batcher.offer(latest)).isFalse();
+
+    List<TransactionSeenEvent> batch = batcher.drain();
+
+    // The latest event is kept in first seen order and remains a first appearance
+    assertThat(batch).hasSize(2);
+    assertThat(batch.get(0)).isSameAs(latest);
+    assertThat(batch.get(0).isFirstAppearanceInWallet()).isTrue();
+    assertThat(batch.get(1).getTransactionId()).isEqualTo(transaction2.getHashAsString());
+
+    assertThat(batcher.getReceivedCount()).isEqualTo(3);
+    assertThat(batcher.getCoalescedCount()).isEqualTo(1);
+    assertThat(batcher.getBatchCount()).isEqualTo(1);
+
+    // The next event starts a new batch
+    assertThat(batcher.drain()).isEmpty();
+    assertThat(batcher.offer(new TransactionSeenEvent(transaction2, Coin.COIN))).isTrue();
+
+  }
+
+  @Test
+  public void testNothingIsDropped() throws Exception {
+
+    TransactionSeenBatcher batcher = new TransactionSeenBatcher();
+
+    // A flood larger than any fixed buffer
+    for (int i = 0; i < 10000; i++) {
+      batcher.offer(new TransactionSeenEvent(newTransaction(i), Coin.COIN));
+    }
+
+    List<TransactionSeenEvent> batch = batcher.drain();
+
+    assertThat(batch).hasSize(10000);
+    assertThat(batch.get(0).getTransactionId()).isEqualTo(newTransaction(0).getHashAsString());
+
+  }
+
+  @Test
+  public void testCancelledDrainIsRequestedAgain() throws Exception {
+
+    TransactionSeenBatcher batcher = new TransactionSeenBatcher();
+
+    assertThat(batcher.offer(new TransactionSeenEvent(newTransaction(1), Coin.COIN))).isTrue();
+
+    // Scheduling the drain failed
+    batcher.cancelDrain();
+
+    // The next event asks again and the earlier event is still delivered
+    assertThat(batcher.offer(new TransactionSeenEvent(newTransaction(2), Coin.COIN))).isTrue();
+    assertThat(batcher.drain()).hasSize(2);
+
+  }
+
+  private Transaction newTransaction(int lockTime) {
+
+    // Vary the lock time to give each transaction a different hash
+    Transaction transaction = new Transaction(networkParameters);
+    transaction.setLockTime(lockTime);
+    return transaction;
+
+  }
+}
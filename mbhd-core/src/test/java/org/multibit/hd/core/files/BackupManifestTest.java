@@ -0,0 +1,179 @@
+package org.multibit.hd.core.files;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.multibit.hd.core.managers.BackupManager;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BackupManifestTest {
+
+  private File walletRootDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+
+    walletRootDirectory = Files.createTempDir();
+
+    Files.write("wallet", new File(walletRootDirectory, "mbhd.wallet.aes"), Charsets.UTF_8);
+    File paymentsDirectory = new File(walletRootDirectory, "payments");
+    assertThat(paymentsDirectory.mkdir()).isTrue();
+    Files.write("payment request", new File(paymentsDirectory, "request.aes"), Charsets.UTF_8);
+
+    // Left out of the backup
+    File zipBackupDirectory = new File(walletRootDirectory, BackupManager.LOCAL_ZIP_BACKUP_DIRECTORY_NAME);
+    assertThat(zipBackupDirectory.mkdir()).isTrue();
+    Files.write("old backup", new File(zipBackupDirectory, "backup.zip.aes"), Charsets.UTF_8);
+
+  }
+
+  @Test
+  public void testScanAndRoundTrip() throws Exception {
+
+    BackupManifest manifest = BackupManifest.scan(walletRootDirectory, Optional.<BackupManifest>absent());
+
+    assertThat(manifest.getEntries().keySet()).containsOnly("mbhd.wallet.aes", "payments" + File.separator + "request.aes");
+    assertThat(BackupManifest.scan(walletRootDirectory, Optional.of(manifest)).hasSameContents(manifest)).isTrue();
+
+    Files.write("wallet changed", new File(walletRootDirectory, "mbhd.wallet.aes"), Charsets.UTF_8);
+    BackupManifest changed = BackupManifest.scan(walletRootDirectory, Optional.of(manifest));
+
+    assertThat(changed.hasSameContents(manifest)).isFalse();
+    assertThat(changed.getTotalLength()).isEqualTo("wallet changed".length() + "payment request".length());
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    changed.write(outputStream);
+    BackupManifest reborn = BackupManifest.read(new ByteArrayInputStream(outputStream.toByteArray()));
+
+    assertThat(reborn.getEntries().keySet()).isEqualTo(changed.getEntries().keySet());
+    assertThat(reborn.hasSameContents(changed)).isTrue();
+    assertThat(reborn.getScannedMillis()).isEqualTo(changed.getScannedMillis());
+    assertThat(reborn.getEntries().get("mbhd.wallet.aes").getCrc32()).isEqualTo(changed.getEntries().get("mbhd.wallet.aes").getCrc32());
+
+  }
+
+  @Test
+  public void testRacyRewriteIsHashedAgain() throws Exception {
+
+    File wallet = new File(walletRootDirectory, "mbhd.wallet.aes");
+    BackupManifest manifest = BackupManifest.scan(walletRootDirectory, Optional.<BackupManifest>absent());
+
+    // Same length and modification time as a rewrite within the filesystem granularity would give
+    long lastModified = wallet.lastModified();
+    Files.write("wallot", wallet, Charsets.UTF_8);
+    assertThat(wallet.setLastModified(lastModified)).isTrue();
+
+    BackupManifest rewritten = BackupManifest.scan(walletRootDirectory, Optional.of(manifest));
+
+    assertThat(rewritten.hasSameContents(manifest)).isFalse();
+    assertThat(rewritten.getEntries().get("mbhd.wallet.aes").getCrc32())
+      .isNotEqualTo(manifest.getEntries().get("mbhd.wallet.aes").getCrc32());
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testChangedWhileBackingUp() throws Exception {
+
+    BackupManifest manifest = BackupManifest.scan(walletRootDirectory, Optional.<BackupManifest>absent());
+
+    // Same length so only the CRC-32 shows the change
+    Files.write("wallot", new File(walletRootDirectory, "mbhd.wallet.aes"), Charsets.UTF_8);
+
+    ZipFiles.zipBackup(walletRootDirectory, manifest, new ByteArrayOutputStream());
+
+  }
+
+  @Test
+  public void testRestoreFromSingleBackup() throws Exception {
+
+    BackupManifest first = BackupManifest.scan(walletRootDirectory, Optional.<BackupManifest>absent());
+    ByteArrayOutputStream firstBackup = new ByteArrayOutputStream();
+    ZipFiles.zipBackup(walletRootDirectory, first, firstBackup);
+
+    Files.write("wallet changed", new File(walletRootDirectory, "mbhd.wallet.aes"), Charsets.UTF_8);
+    BackupManifest second = BackupManifest.scan(walletRootDirectory, Optional.of(first));
+    ByteArrayOutputStream secondBackup = new ByteArrayOutputStream();
+    ZipFiles.zipBackup(walletRootDirectory, second, secondBackup);
+
+    // The manifest can be read from the start of the backup
+    Optional<BackupManifest> manifest = BackupManifest.readFromZip(new ZipInputStream(new ByteArrayInputStream(secondBackup.toByteArray())));
+    assertThat(manifest.isPresent()).isTrue();
+    assertThat(manifest.get().hasSameContents(second)).isTrue();
+
+    // The later backup holds the unchanged files as well so it restores without the earlier one
+    File restoreDirectory = Files.createTempDir();
+    ZipFiles.unzipBackup(new ByteArrayInputStream(secondBackup.toByteArray()), restoreDirectory);
+
+    assertThat(Files.toString(new File(restoreDirectory, "mbhd.wallet.aes"), Charsets.UTF_8)).isEqualTo("wallet changed");
+    assertThat(Files.toString(new File(restoreDirectory, "payments" + File.separator + "request.aes"), Charsets.UTF_8)).isEqualTo("payment request");
+    assertThat(new File(restoreDirectory, BackupManager.LOCAL_ZIP_BACKUP_DIRECTORY_NAME).exists()).isFalse();
+    assertThat(new File(restoreDirectory, BackupManifest.ENTRY_NAME).exists()).isFalse();
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testRestoreWithMissingFile() throws Exception {
+
+    // A manifest listing a file that the zip does not hold
+    BackupManifest manifest = BackupManifest.scan(walletRootDirectory, Optional.<BackupManifest>absent());
+    ByteArrayOutputStream backup = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(backup)) {
+      zip.putNextEntry(new ZipEntry(BackupManifest.ENTRY_NAME));
+      manifest.write(zip);
+      zip.closeEntry();
+    }
+
+    ZipFiles.unzipBackup(new ByteArrayInputStream(backup.toByteArray()), Files.createTempDir());
+
+  }
+
+  @Test
+  public void testEncryptWhileZipping() throws Exception {
+
+    final BackupManifest manifest = BackupManifest.scan(walletRootDirectory, Optional.<BackupManifest>absent());
+    byte[] keyBytes = new byte[32];
+    new SecureRandom().nextBytes(keyBytes);
+    KeyParameter backupAESKey = new KeyParameter(keyBytes);
+    File backupDirectory = Files.createTempDir();
+
+    // Plain zip then encrypted copy
+    File plainZip = new File(backupDirectory, "two-pass.zip");
+    try (FileOutputStream outputStream = new FileOutputStream(plainZip)) {
+      ZipFiles.zipBackup(walletRootDirectory, manifest, outputStream);
+    }
+    File twoPass = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(plainZip, backupAESKey);
+
+    // Zip straight into the cipher
+    File singlePass = new File(backupDirectory, "single-pass.zip.aes");
+    EncryptedFileReaderWriter.encryptAndWrite(
+      new EncryptedFileReaderWriter.PlainStreamWriter() {
+        @Override
+        public void writeTo(OutputStream plainOutputStream) throws IOException {
+          ZipFiles.zipBackup(walletRootDirectory, manifest, plainOutputStream);
+        }
+      },
+      backupAESKey,
+      singlePass
+    );
+
+    assertThat(plainZip.exists()).isFalse();
+    assertThat(Files.toByteArray(singlePass)).isEqualTo(Files.toByteArray(twoPass));
+
+  }
+}
@@ -0,0 +1,116 @@
+package org.multibit.hd.core.files;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.multibit.commons.files.SecureFiles;
+import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmark to provide the following to developers:</p>
+ * <ul>
+ * <li>Comparison of writing a plain zip backup then making an encrypted copy with zipping straight into the cipher</li>
+ * </ul>
+ * <p>Run with <code>main</code> from the test classpath. The wallet root holds a wallet file and many small payment
+ * request files, all random (and so incompressible like the AES encrypted originals).</p>
+ *
+ * @since 0.3.0
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BackupPipelineBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int paymentRequestCount;
+
+  private File walletRootDirectory;
+
+  private File backupDirectory;
+
+  private BackupManifest manifest;
+
+  private KeyParameter backupAESKey;
+
+  @Setup
+  public void setUp() throws IOException {
+
+    Random random = new Random(paymentRequestCount);
+
+    walletRootDirectory = Files.createTempDir();
+    backupDirectory = Files.createTempDir();
+
+    byte[] wallet = new byte[2 * 1024 * 1024];
+    random.nextBytes(wallet);
+    Files.write(wallet, new File(walletRootDirectory, "mbhd.wallet.aes"));
+
+    File paymentsDirectory = new File(walletRootDirectory, "payments");
+    SecureFiles.verifyOrCreateDirectory(paymentsDirectory);
+    for (int i = 0; i < paymentRequestCount; i++) {
+      byte[] paymentRequest = new byte[16 * 1024];
+      random.nextBytes(paymentRequest);
+      Files.write(paymentRequest, new File(paymentsDirectory, "request-" + i + ".aes"));
+    }
+
+    manifest = BackupManifest.scan(walletRootDirectory, Optional.<BackupManifest>absent());
+
+    byte[] keyBytes = new byte[32];
+    random.nextBytes(keyBytes);
+    backupAESKey = new KeyParameter(keyBytes);
+
+  }
+
+  @Benchmark
+  public File plainZipThenEncryptedCopy() throws IOException {
+
+    File plainZip = new File(backupDirectory, "two-pass.zip");
+    try (FileOutputStream outputStream = new FileOutputStream(plainZip)) {
+      ZipFiles.zipBackup(walletRootDirectory, manifest, outputStream);
+    }
+
+    // Includes the secure delete of the plain zip
+    return EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(plainZip, backupAESKey);
+  }
+
+  @Benchmark
+  public File encryptWhileZipping() {
+
+    File encryptedZip = new File(backupDirectory, "single-pass.zip.aes");
+    EncryptedFileReaderWriter.encryptAndWrite(
+      new EncryptedFileReaderWriter.PlainStreamWriter() {
+        @Override
+        public void writeTo(OutputStream plainOutputStream) throws IOException {
+          ZipFiles.zipBackup(walletRootDirectory, manifest, plainOutputStream);
+        }
+      },
+      backupAESKey,
+      encryptedZip
+    );
+
+    return encryptedZip;
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    Options options = new OptionsBuilder()
+      .include(BackupPipelineBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(options).run();
+
+  }
+}
@@ -0,0 +1,101 @@
+package org.multibit.hd.core.files;
+
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class BackupUploaderTest {
+
+  private static final String BACKUP_NAME = "backup.zip.aes";
+
+  private File stagedFile;
+
+  private File destinationDirectory;
+
+  private byte[] backup;
+
+  @Before
+  public void setUp() throws Exception {
+
+    backup = new byte[200 * 1024];
+    new Random(1).nextBytes(backup);
+
+    stagedFile = new File(Files.createTempDir(), BACKUP_NAME);
+    Files.write(backup, stagedFile);
+
+    destinationDirectory = Files.createTempDir();
+
+  }
+
+  @Test
+  public void testUpload() throws Exception {
+
+    BackupUploader uploader = new BackupUploader(0);
+
+    File uploadedFile = uploader.upload(stagedFile, destinationDirectory);
+
+    assertThat(uploadedFile).isEqualTo(new File(destinationDirectory, BACKUP_NAME));
+    assertThat(Files.toByteArray(uploadedFile)).isEqualTo(backup);
+    assertThat(new File(destinationDirectory, BACKUP_NAME + BackupUploader.PARTIAL_FILE_EXTENSION).exists()).isFalse();
+    assertThat(stagedFile.exists()).isTrue();
+    assertThat(uploader.getBytesCopied()).isEqualTo(backup.length);
+
+  }
+
+  @Test
+  public void testResume() throws Exception {
+
+    // An earlier upload stopped part way through
+    Files.write(Arrays.copyOf(backup, 150 * 1024), new File(destinationDirectory, BACKUP_NAME + BackupUploader.PARTIAL_FILE_EXTENSION));
+
+    BackupUploader uploader = new BackupUploader(0);
+    File uploadedFile = uploader.upload(stagedFile, destinationDirectory);
+
+    assertThat(Files.toByteArray(uploadedFile)).isEqualTo(backup);
+    assertThat(uploader.getBytesCopied()).isEqualTo(50 * 1024);
+
+  }
+
+  @Test
+  public void testResume_Corrupt() throws Exception {
+
+    // The partial copy does not match the start of the staged file
+    File partialFile = new File(destinationDirectory, BACKUP_NAME + BackupUploader.PARTIAL_FILE_EXTENSION);
+    Files.write(new byte[1024], partialFile);
+
+    BackupUploader uploader = new BackupUploader(0);
+    try {
+      uploader.upload(stagedFile, destinationDirectory);
+      fail("Expected the checksum to fail");
+    } catch (IOException e) {
+      assertThat(partialFile.exists()).isFalse();
+      assertThat(new File(destinationDirectory, BACKUP_NAME).exists()).isFalse();
+    }
+
+    // The next attempt starts again
+    assertThat(Files.toByteArray(uploader.upload(stagedFile, destinationDirectory))).isEqualTo(backup);
+
+  }
+
+  @Test
+  public void testRateLimit() throws Exception {
+
+    // 200KB at 400KB/s takes at least half a second
+    BackupUploader uploader = new BackupUploader(400 * 1024);
+
+    long start = System.currentTimeMillis();
+    uploader.upload(stagedFile, destinationDirectory);
+
+    assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(450);
+    assertThat(uploader.getBytesPerSecond()).isLessThanOrEqualTo(410 * 1024);
+
+  }
+}
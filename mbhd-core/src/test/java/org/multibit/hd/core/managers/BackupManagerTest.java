@@ -15,7 +15,9 @@
  */
 package org.multibit.hd.core.managers;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.bitcoinj.core.Wallet;
 import org.bitcoinj.crypto.MnemonicCode;
@@ -101,7 +103,12 @@ public class BackupManagerTest {
               true);
 
     // Wallet manager does not initiate the backup
-    BackupManager.INSTANCE.createRollingBackup(walletSummary, password);
+    File rollingBackup = BackupManager.INSTANCE.createRollingBackup(walletSummary, password);
+
+    // An unchanged wallet is not backed up again
+    assertThat(BackupManager.INSTANCE.createRollingBackup(walletSummary, password)).isEqualTo(rollingBackup);
+    assertThat(BackupManager.INSTANCE.getRollingBackups(walletSummary.getWalletId())).hasSize(1);
+
     BackupManager.INSTANCE.createLocalBackup(walletSummary.getWalletId(), password);
     BackupManager.INSTANCE.createCloudBackup(walletSummary.getWalletId(), password);
 
@@ -115,8 +122,17 @@ public class BackupManagerTest {
     assertThat(cloudBackups).isNotNull();
     assertThat(cloudBackups.size()).isEqualTo(1);
 
+    // An unchanged wallet is not backed up again
+    assertThat(BackupManager.INSTANCE.createLocalBackup(walletSummary.getWalletId(), password)).isEqualTo(localBackups.get(0).getFile());
+    assertThat(BackupManager.INSTANCE.createCloudBackup(walletSummary.getWalletId(), password)).isNull();
+    assertThat(BackupManager.INSTANCE.getLocalZipBackups(walletSummary.getWalletId())).hasSize(1);
+
     Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
 
+    // Change the wallet directory
+    File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(applicationDirectory, WalletManager.createWalletRoot(walletSummary.getWalletId()));
+    Files.write("changed", new File(walletRootDirectory, "backup-manager-test.txt"), Charsets.UTF_8);
+
     // Backup the wallet.
     // This zips the wallet root directory and adds a timestamp, then saves the file in both the local and cloud backup directories
     File localBackupFile = BackupManager.INSTANCE.createLocalBackup(walletSummary.getWalletId(), password);
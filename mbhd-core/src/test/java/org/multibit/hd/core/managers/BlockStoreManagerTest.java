@@ -0,0 +1,89 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStore;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.commons.files.SecureFiles;
+
+import java.io.File;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BlockStoreManagerTest {
+
+  private NetworkParameters networkParameters;
+
+  private File blockStoreFile;
+
+  /**
+   * The stored blocks of the chain, indexed by height
+   */
+  private List<StoredBlock> chain;
+
+  @Before
+  public void setUp() throws Exception {
+
+    networkParameters = UnitTestParams.get();
+
+    blockStoreFile = new File(SecureFiles.createTemporaryDirectory(), "mbhd.spvchain");
+
+    // A short chain on top of the genesis block
+    Address address = new ECKey().toAddress(networkParameters);
+    BlockStore blockStore = new IndexedSPVBlockStore(networkParameters, blockStoreFile);
+    chain = Lists.newArrayList(blockStore.getChainHead());
+    for (int i = 1; i <= 5; i++) {
+      StoredBlock previous = chain.get(i - 1);
+      StoredBlock next = previous.build(previous.getHeader().createNextBlock(address).cloneAsHeader());
+      blockStore.put(next);
+      blockStore.setChainHead(next);
+      chain.add(next);
+    }
+    blockStore.close();
+
+  }
+
+  @Test
+  public void testRewindInPlace() throws Exception {
+
+    long length = blockStoreFile.length();
+
+    Optional<BlockStore> blockStore = new BlockStoreManager(networkParameters).rewindBlockStore(blockStoreFile, chain.get(2));
+
+    assertThat(blockStore.isPresent()).isTrue();
+    try {
+      // The chain head moves back without recreating the file
+      assertThat(blockStore.get().getChainHead().getHeight()).isEqualTo(2);
+      assertThat(blockStore.get().getChainHead().getHeader().getHash()).isEqualTo(chain.get(2).getHeader().getHash());
+      assertThat(blockStoreFile.length()).isEqualTo(length);
+
+      // The time index follows the chain head
+      assertThat(((IndexedSPVBlockStore) blockStore.get()).getBlockTimeIndex().getTopHeight()).isEqualTo(2);
+    } finally {
+      blockStore.get().close();
+    }
+
+  }
+
+  @Test
+  public void testRewindToUnknownBlock() throws Exception {
+
+    // A block from a different chain
+    Address address = new ECKey().toAddress(networkParameters);
+    StoredBlock unknown = chain.get(0).build(chain.get(0).getHeader().createNextBlock(address).cloneAsHeader());
+
+    assertThat(new BlockStoreManager(networkParameters).rewindBlockStore(blockStoreFile, unknown).isPresent()).isFalse();
+
+    // A missing block store cannot be rewound
+    File emptyFile = new File(SecureFiles.createTemporaryDirectory(), "mbhd.spvchain");
+    assertThat(new BlockStoreManager(networkParameters).rewindBlockStore(emptyFile, chain.get(2)).isPresent()).isFalse();
+
+  }
+}
@@ -0,0 +1,104 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Optional;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Test;
+import org.multibit.commons.files.SecureFiles;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BlockTimeIndexTest {
+
+  private static final int BASE_HEIGHT = 350_000;
+
+  private static final long BASE_TIME = 1_430_000_000L;
+
+  @Test
+  public void testFindHeightBefore() throws Exception {
+
+    BlockTimeIndex index = newIndex(100, 1000);
+
+    // Before the first block
+    assertThat(index.findHeightBefore(BASE_TIME).isPresent()).isFalse();
+
+    // Blocks are 600 seconds apart
+    assertThat(index.findHeightBefore(BASE_TIME + 1).get()).isEqualTo(BASE_HEIGHT);
+    assertThat(index.findHeightBefore(BASE_TIME + 600 * 10).get()).isEqualTo(BASE_HEIGHT + 9);
+    assertThat(index.findHeightBefore(BASE_TIME + 600 * 10 + 1).get()).isEqualTo(BASE_HEIGHT + 10);
+
+    // After the last block
+    assertThat(index.findHeightBefore(BASE_TIME * 2).get()).isEqualTo(index.getTopHeight());
+
+  }
+
+  @Test
+  public void testOutOfOrderTimeGivesEarlierBlock() throws Exception {
+
+    BlockTimeIndex index = new BlockTimeIndex(100);
+    index.append(BASE_HEIGHT, hash(0), BASE_TIME);
+    index.append(BASE_HEIGHT + 1, hash(1), BASE_TIME + 1200);
+    // A timestamp earlier than its predecessor
+    index.append(BASE_HEIGHT + 2, hash(2), BASE_TIME + 600);
+    index.append(BASE_HEIGHT + 3, hash(3), BASE_TIME + 1800);
+
+    // A linear walk from the head would stop at height + 2 but that is after a later block
+    assertThat(index.findHeightBefore(BASE_TIME + 1000).get()).isEqualTo(BASE_HEIGHT);
+
+  }
+
+  @Test
+  public void testTruncateAndTrim() throws Exception {
+
+    BlockTimeIndex index = newIndex(100, 10);
+
+    // A re-org replaces the top blocks
+    index.truncateAbove(BASE_HEIGHT + 7);
+    assertThat(index.getTopHeight()).isEqualTo(BASE_HEIGHT + 7);
+    index.append(BASE_HEIGHT + 8, hash(1_000), BASE_TIME);
+    assertThat(index.matches(BASE_HEIGHT + 8, hash(1_000))).isTrue();
+    assertThat(index.matches(BASE_HEIGHT + 8, hash(8))).isFalse();
+
+    // Growing past capacity trims the oldest entries
+    BlockTimeIndex fullIndex = newIndex(100, 1000);
+    assertThat(fullIndex.getTopHeight()).isEqualTo(BASE_HEIGHT + 999);
+    assertThat(fullIndex.getTopHeight() - fullIndex.getBaseHeight() + 1).isLessThan(1000);
+    assertThat(fullIndex.getHash(BASE_HEIGHT).isPresent()).isFalse();
+
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+
+    File indexFile = new File(SecureFiles.createTemporaryDirectory(), "mbhd.spvchain.index");
+
+    BlockTimeIndex index = newIndex(100, 50);
+    index.write(indexFile);
+
+    Optional<BlockTimeIndex> readIndex = BlockTimeIndex.read(indexFile, 100);
+    assertThat(readIndex.isPresent()).isTrue();
+    assertThat(readIndex.get().getBaseHeight()).isEqualTo(BASE_HEIGHT);
+    assertThat(readIndex.get().getTopHeight()).isEqualTo(BASE_HEIGHT + 49);
+    assertThat(readIndex.get().matches(BASE_HEIGHT + 20, hash(20))).isTrue();
+    assertThat(readIndex.get().findHeightBefore(BASE_TIME + 600 * 10).get()).isEqualTo(BASE_HEIGHT + 9);
+
+    // A missing index is rebuilt
+    assertThat(BlockTimeIndex.read(new File(indexFile.getParentFile(), "missing"), 100).isPresent()).isFalse();
+
+  }
+
+  private BlockTimeIndex newIndex(int capacity, int count) {
+
+    BlockTimeIndex index = new BlockTimeIndex(capacity);
+    for (int i = 0; i < count; i++) {
+      index.append(BASE_HEIGHT + i, hash(i), BASE_TIME + 600 * i);
+    }
+    return index;
+
+  }
+
+  private Sha256Hash hash(int i) {
+    return Sha256Hash.of(new byte[]{(byte) (i >> 24), (byte) (i >> 16), (byte) (i >> 8), (byte) i});
+  }
+}
@@ -0,0 +1,81 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.bitcoinj.core.CheckpointManager;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.commons.files.SecureFiles;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CheckpointIndexTest {
+
+  private static final NetworkParameters MAINNET = MainNetParams.get();
+
+  private CheckpointManager checkpointManager;
+
+  private File indexFile;
+
+  @Before
+  public void setUp() throws Exception {
+
+    try (InputStream checkpointsStream = CheckpointIndexTest.class.getResourceAsStream("/mbhd.checkpoints")) {
+      checkpointManager = new CheckpointManager(MAINNET, checkpointsStream);
+    }
+
+    indexFile = new File(SecureFiles.createTemporaryDirectory(), "mbhd.checkpoints" + CheckpointIndex.INDEX_SUFFIX);
+    try (InputStream indexStream = CheckpointIndexTest.class.getResourceAsStream("/mbhd.checkpoints.idx");
+         FileOutputStream indexOutputStream = new FileOutputStream(indexFile)) {
+      ByteStreams.copy(indexStream, indexOutputStream);
+    }
+
+  }
+
+  @Test
+  public void testShippedIndexMatchesCheckpoints() throws Exception {
+
+    Optional<CheckpointIndex> index = CheckpointIndex.open(MAINNET, indexFile);
+    assertThat(index.isPresent()).isTrue();
+    assertThat(index.get().size()).isEqualTo(checkpointManager.numCheckpoints());
+
+    // Before the first checkpoint, between checkpoints and after the last checkpoint
+    for (long timeSeconds : new long[]{1_231_006_506L, 1_300_000_000L, 1_390_500_000L, 1_420_000_000L, 1_500_000_000L}) {
+      assertThat(index.get().getCheckpointBefore(timeSeconds)).isEqualTo(checkpointManager.getCheckpointBefore(timeSeconds));
+    }
+
+    // Matches the CheckpointManager test in BuildCheckpoints
+    assertThat(index.get().getCheckpointBefore(1_390_500_000L).getHeight()).isEqualTo(280_224);
+
+  }
+
+  @Test
+  public void testWriteAndOpen() throws Exception {
+
+    StoredBlock first = checkpointManager.getCheckpointBefore(1_300_000_000L);
+    StoredBlock second = checkpointManager.getCheckpointBefore(1_400_000_000L);
+    List<StoredBlock> checkpoints = Lists.newArrayList(second, first);
+
+    File writtenIndexFile = new File(SecureFiles.createTemporaryDirectory(), "written" + CheckpointIndex.INDEX_SUFFIX);
+    CheckpointIndex.write(checkpoints, writtenIndexFile);
+
+    Optional<CheckpointIndex> index = CheckpointIndex.open(MAINNET, writtenIndexFile);
+    assertThat(index.isPresent()).isTrue();
+    assertThat(index.get().size()).isEqualTo(2);
+    assertThat(index.get().getCheckpointBefore(1_350_000_000L)).isEqualTo(first);
+    assertThat(index.get().getCheckpointBefore(second.getHeader().getTimeSeconds())).isEqualTo(second);
+
+    // A missing index falls back to the checkpoints file
+    assertThat(CheckpointIndex.open(MAINNET, new File(writtenIndexFile.getParentFile(), "missing")).isPresent()).isFalse();
+
+  }
+}
@@ -0,0 +1,79 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import org.bitcoinj.core.PeerGroup;
+import org.junit.Test;
+import org.multibit.hd.core.events.SyncMetricsEvent;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BloomFilterPolicyTest {
+
+  private static final long NOW = 1_450_000_000_000L;
+
+  @Test
+  public void testLookaheadSize() throws Exception {
+
+    BloomFilterPolicy testObject = new BloomFilterPolicy();
+
+    // A personal wallet keeps the previous fixed size
+    assertThat(testObject.getLookaheadSize(Optional.of(0), 10)).isEqualTo(BloomFilterPolicy.MINIMUM_LOOKAHEAD_SIZE);
+    assertThat(testObject.getLookaheadSize(Optional.<Integer>absent(), 10)).isEqualTo(BloomFilterPolicy.MINIMUM_LOOKAHEAD_SIZE);
+
+    // Many unpaid payment requests
+    assertThat(testObject.getLookaheadSize(Optional.of(80), 100)).isEqualTo(200);
+
+    // Many issued addresses
+    assertThat(testObject.getLookaheadSize(Optional.of(0), 1_000)).isEqualTo(250);
+
+    // Bounded
+    assertThat(testObject.getLookaheadSize(Optional.of(10_000), 100_000)).isEqualTo(BloomFilterPolicy.MAXIMUM_LOOKAHEAD_SIZE);
+
+  }
+
+  @Test
+  public void testTune() throws Exception {
+
+    BloomFilterPolicy testObject = new BloomFilterPolicy();
+    double initialRate = testObject.getFalsePositiveRate();
+
+    // Starts from the bitcoinj default
+    assertThat(initialRate).isEqualTo(PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE);
+
+    // Too few blocks to measure
+    assertThat(testObject.tune(newEvent(1, 10, 0.5), NOW).isPresent()).isFalse();
+
+    // 5 false positives per block halves the rate
+    Optional<Double> tunedRate = testObject.tune(newEvent(10, 10, 0.5), NOW);
+    assertThat(tunedRate.get()).isEqualTo(initialRate / 2);
+
+    // Not again within the tuning interval
+    assertThat(testObject.tune(newEvent(10, 10, 0.5), NOW + 1_000).isPresent()).isFalse();
+
+    // No false positives doubles the rate
+    assertThat(testObject.tune(newEvent(10, 1, 0), NOW + 120_000).get()).isEqualTo(initialRate);
+
+    // Within the target band
+    assertThat(testObject.tune(newEvent(10, 1, 0.5), NOW + 240_000).isPresent()).isFalse();
+
+  }
+
+  @Test
+  public void testKeySetChanged() throws Exception {
+
+    BloomFilterPolicy testObject = new BloomFilterPolicy();
+
+    assertThat(testObject.isKeySetChanged(100, 1_400_000_000L)).isTrue();
+    assertThat(testObject.isKeySetChanged(100, 1_400_000_000L)).isFalse();
+    assertThat(testObject.isKeySetChanged(102, 1_400_000_000L)).isTrue();
+
+    testObject.reset();
+    assertThat(testObject.isKeySetChanged(102, 1_400_000_000L)).isTrue();
+
+  }
+
+  private SyncMetricsEvent newEvent(double blocksPerSecond, double matchesPerBlock, double falsePositiveRate) {
+    return new SyncMetricsEvent(blocksPerSecond, 0, matchesPerBlock, falsePositiveRate, 100, Optional.<Long>absent(), ImmutableMap.<String, Long>of());
+  }
+}
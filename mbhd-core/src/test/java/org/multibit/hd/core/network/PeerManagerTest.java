@@ -0,0 +1,122 @@
+package org.multibit.hd.core.network;
+
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.PeerGroup;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.commons.files.SecureFiles;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class PeerManagerTest {
+
+  private File applicationDataDirectory;
+
+  private InetSocketAddress fastPeer;
+
+  private InetSocketAddress slowPeer;
+
+  private InetSocketAddress failingPeer;
+
+  @Before
+  public void setUp() throws Exception {
+
+    applicationDataDirectory = SecureFiles.createTemporaryDirectory();
+
+    fastPeer = new InetSocketAddress(InetAddress.getByAddress(new byte[]{10, 0, 0, 1}), 8333);
+    slowPeer = new InetSocketAddress(InetAddress.getByAddress(new byte[]{10, 0, 0, 2}), 8333);
+    failingPeer = new InetSocketAddress(InetAddress.getByAddress(new byte[]{10, 0, 0, 3}), 18333);
+
+  }
+
+  @Test
+  public void testRanking() throws Exception {
+
+    PeerManager testObject = new PeerManager(applicationDataDirectory, 4, 10);
+
+    // Same latency but the fast peer delivers ten times as many blocks
+    long now = System.currentTimeMillis();
+    testObject.recordPing(fastPeer, 100);
+    testObject.recordPing(slowPeer, 100);
+    testObject.recordBlocks(fastPeer, 1, now);
+    testObject.recordBlocks(fastPeer, 1000, now + 10_000);
+    testObject.recordBlocks(slowPeer, 1, now);
+    testObject.recordBlocks(slowPeer, 100, now + 10_000);
+
+    // Lowest latency but keeps failing
+    testObject.recordPing(failingPeer, 20);
+    for (int i = 0; i < 5; i++) {
+      testObject.recordFailure(failingPeer);
+    }
+
+    List<InetSocketAddress> rankedAddresses = testObject.getRankedAddresses();
+    assertThat(rankedAddresses).containsExactly(fastPeer, slowPeer, failingPeer);
+
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+
+    PeerManager testObject = new PeerManager(applicationDataDirectory, 4, 10);
+    testObject.recordPing(fastPeer, 50);
+    testObject.recordPing(failingPeer, 500);
+    testObject.save();
+
+    assertThat(new File(applicationDataDirectory, PeerManager.PEER_CACHE_FILE_NAME).exists()).isTrue();
+
+    // A new manager reads the cache from the previous run
+    PeerManager reloaded = new PeerManager(applicationDataDirectory, 4, 10);
+    assertThat(reloaded.getRankedAddresses()).containsExactly(fastPeer, failingPeer);
+
+  }
+
+  @Test
+  public void testFailedConnectionAttempts() throws Exception {
+
+    PeerManager.PeerScore connectedScore = new PeerManager.PeerScore();
+    PeerManager.PeerScore unreachableScore = new PeerManager.PeerScore();
+
+    long now = System.currentTimeMillis();
+    connectedScore.recordPing(100);
+    connectedScore.connected(now);
+    connectedScore.disconnected(now + 60_000);
+
+    // Disconnected without ever connecting
+    unreachableScore.recordPing(100);
+    unreachableScore.disconnected(now);
+
+    assertThat(unreachableScore.getScore()).isLessThan(connectedScore.getScore());
+
+  }
+
+  @Test
+  public void testLocalNodeKeepsExclusiveConnection() throws Exception {
+
+    PeerManager testObject = new PeerManager(applicationDataDirectory, 4, 10);
+
+    PeerGroup peerGroup = mock(PeerGroup.class);
+    testObject.attach(peerGroup);
+
+    // bitcoinj has found a local full node and limited the group to it
+    when(peerGroup.getMaxConnections()).thenReturn(1);
+    Peer localPeer = mock(Peer.class);
+    when(localPeer.getAddress()).thenReturn(new PeerAddress(InetAddress.getLoopbackAddress(), 8333));
+    testObject.onPeerConnected(localPeer, 1);
+
+    // Neither the start nor the end of a download changes the connection target
+    testObject.onChainDownloadStarted(localPeer, 5000);
+    testObject.onBlocksDownloaded(localPeer, null, null, 0);
+    testObject.onBlocksDownloaded(null, null, null, 0);
+
+    verify(peerGroup, never()).setMaxConnections(10);
+    verify(peerGroup, times(1)).setMaxConnections(4);
+
+  }
+}
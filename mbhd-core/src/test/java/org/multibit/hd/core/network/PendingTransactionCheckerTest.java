@@ -0,0 +1,218 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.FilteredBlock;
+import org.bitcoinj.core.GetDataMessage;
+import org.bitcoinj.core.InventoryItem;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PartialMerkleTree;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerEventListener;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class PendingTransactionCheckerTest {
+
+  private NetworkParameters networkParameters;
+
+  private BlockStore blockStore;
+
+  private Wallet wallet;
+
+  private Transaction pendingTransaction;
+
+  /**
+   * The full blocks of the chain (the peer answers with merkle blocks built from them)
+   */
+  private Map<Sha256Hash, Block> blocks;
+
+  private Peer peer;
+
+  private PeerEventListener peerListener;
+
+  @Before
+  public void setUp() throws Exception {
+
+    networkParameters = UnitTestParams.get();
+    blockStore = new MemoryBlockStore(networkParameters);
+
+    wallet = new Wallet(networkParameters);
+    wallet.setAcceptRiskyTransactions(true);
+
+    // A payment to the wallet that has been waiting since the genesis block
+    pendingTransaction = new Transaction(networkParameters);
+    pendingTransaction.addInput(new TransactionInput(
+      networkParameters,
+      pendingTransaction,
+      new byte[]{},
+      new TransactionOutPoint(networkParameters, 0, Sha256Hash.of(new byte[]{1}))
+    ));
+    pendingTransaction.addOutput(Coin.COIN, wallet.freshReceiveAddress());
+    wallet.receivePending(pendingTransaction, null);
+    pendingTransaction.setUpdateTime(new Date(networkParameters.getGenesisBlock().getTimeSeconds() * 1000));
+
+    blocks = Maps.newHashMap();
+    blocks.put(networkParameters.getGenesisBlock().getHash(), networkParameters.getGenesisBlock());
+
+    peer = mock(Peer.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        peerListener = (PeerEventListener) invocation.getArguments()[0];
+        return null;
+      }
+    }).when(peer).addEventListener(any(PeerEventListener.class), any(Executor.class));
+
+  }
+
+  @Test
+  public void testInMemPool() throws Exception {
+
+    buildChain(3, -1);
+
+    // The peer still has the transaction waiting for a miner
+    when(peer.getPeerMempoolTransaction(pendingTransaction.getHash())).thenReturn(Futures.immediateFuture(pendingTransaction));
+
+    PendingTransactionChecker testObject = new PendingTransactionChecker(networkParameters, blockStore);
+    assertThat(testObject.checkAndApply(peer, wallet, Collections.singletonList(pendingTransaction))).isTrue();
+
+    // No merkle blocks are needed and the transaction stays pending
+    verify(peer, never()).sendMessage(any(GetDataMessage.class));
+    assertThat(wallet.getPendingTransactions()).contains(pendingTransaction);
+    assertThat(pendingTransaction.getConfidence().getConfidenceType()).isEqualTo(TransactionConfidence.ConfidenceType.PENDING);
+
+  }
+
+  @Test
+  public void testFoundInMerkleBlock() throws Exception {
+
+    // The transaction was mined in block 1 and two more blocks followed
+    buildChain(3, 1);
+    answerWithMerkleBlocks();
+    when(peer.getPeerMempoolTransaction(pendingTransaction.getHash())).thenReturn(Futures.<Transaction>immediateFuture(null));
+
+    PendingTransactionChecker testObject = new PendingTransactionChecker(networkParameters, blockStore);
+    PendingTransactionChecker.Result result = testObject.check(peer, Collections.singletonList(pendingTransaction));
+    assertThat(result.getInMemPool()).isEmpty();
+    assertThat(result.getUnresolved()).isEmpty();
+    assertThat(result.getConfirmed().get(pendingTransaction.getHash()).getHeight()).isEqualTo(1);
+
+    assertThat(testObject.checkAndApply(peer, wallet, Collections.singletonList(pendingTransaction))).isTrue();
+
+    // The wallet sees the transaction as if block 1 had been downloaded
+    assertThat(wallet.getPendingTransactions()).excludes(pendingTransaction);
+    TransactionConfidence confidence = wallet.getTransaction(pendingTransaction.getHash()).getConfidence();
+    assertThat(confidence.getConfidenceType()).isEqualTo(TransactionConfidence.ConfidenceType.BUILDING);
+    assertThat(confidence.getAppearedAtChainHeight()).isEqualTo(1);
+    assertThat(confidence.getDepthInBlocks()).isEqualTo(3);
+
+  }
+
+  @Test
+  public void testUnresolvedNeedsReplay() throws Exception {
+
+    // The transaction is in neither the memory pool nor the recent blocks
+    buildChain(3, -1);
+    answerWithMerkleBlocks();
+    when(peer.getPeerMempoolTransaction(pendingTransaction.getHash())).thenReturn(Futures.<Transaction>immediateFuture(null));
+
+    PendingTransactionChecker testObject = new PendingTransactionChecker(networkParameters, blockStore);
+    assertThat(testObject.checkAndApply(peer, wallet, Collections.singletonList(pendingTransaction))).isFalse();
+
+    // Every block since the transaction was asked for and the wallet is left for the replay
+    verify(peer).sendMessage(any(GetDataMessage.class));
+    verify(peer).removeEventListener(peerListener);
+    assertThat(wallet.getPendingTransactions()).contains(pendingTransaction);
+    assertThat(pendingTransaction.getConfidence().getConfidenceType()).isEqualTo(TransactionConfidence.ConfidenceType.PENDING);
+
+  }
+
+  /**
+   * @param height           The height of the chain head
+   * @param transactionBlock The height of the block containing the pending transaction (-1 for none)
+   */
+  private void buildChain(int height, int transactionBlock) throws Exception {
+
+    Address address = new ECKey().toAddress(networkParameters);
+    StoredBlock previous = blockStore.getChainHead();
+    for (int i = 1; i <= height; i++) {
+      Block block = previous.getHeader().createNextBlock(address);
+      if (i == transactionBlock) {
+        // A copy so that the block does not become the parent of the wallet transaction
+        block.addTransaction(new Transaction(networkParameters, pendingTransaction.bitcoinSerialize()));
+        block.solve();
+      }
+      blocks.put(block.getHash(), block);
+
+      StoredBlock next = previous.build(block.cloneAsHeader());
+      blockStore.put(next);
+      blockStore.setChainHead(next);
+      previous = next;
+    }
+
+  }
+
+  /**
+   * <p>Make the peer answer a getdata message with merkle blocks matching the pending transaction</p>
+   */
+  private void answerWithMerkleBlocks() {
+
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        GetDataMessage getData = (GetDataMessage) invocation.getArguments()[0];
+        for (InventoryItem item : getData.getItems()) {
+          assertThat(item.type).isEqualTo(InventoryItem.Type.FilteredBlock);
+          assertThat(peerListener.onPreMessageReceived(peer, filteredBlock(blocks.get(item.hash)))).isNull();
+        }
+        return null;
+      }
+    }).when(peer).sendMessage(any(GetDataMessage.class));
+
+  }
+
+  /**
+   * @return A merkle block matching only the pending transaction
+   */
+  private FilteredBlock filteredBlock(Block block) {
+
+    List<Sha256Hash> leaves = Lists.newArrayList();
+    byte[] matches = new byte[(block.getTransactions().size() + 7) / 8];
+    for (int i = 0; i < block.getTransactions().size(); i++) {
+      Sha256Hash hash = block.getTransactions().get(i).getHash();
+      leaves.add(hash);
+      if (hash.equals(pendingTransaction.getHash())) {
+        matches[i / 8] |= (byte) (1 << (i % 8));
+      }
+    }
+
+    return new FilteredBlock(networkParameters, block.cloneAsHeader(), PartialMerkleTree.buildFromLeaves(networkParameters, matches, leaves));
+  }
+}
@@ -0,0 +1,48 @@
+package org.multibit.hd.core.network;
+
+import org.junit.Test;
+import org.multibit.hd.core.events.SyncMetricsEvent;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SyncMetricsTest {
+
+  private static final long NOW = 1_450_000_000_000L;
+
+  @Test
+  public void testSnapshot() throws Exception {
+
+    SyncMetrics testObject = new SyncMetrics();
+
+    // 10 blocks per second for the whole window, 2 matches per block with 1 false positive
+    for (int second = 0; second < SyncMetrics.WINDOW_SECONDS; second++) {
+      for (int block = 0; block < 10; block++) {
+        testObject.recordBlock(null, 1_000, 2, 1, NOW + second * 1000);
+      }
+    }
+
+    SyncMetricsEvent event = testObject.snapshot(3_000, NOW + (SyncMetrics.WINDOW_SECONDS - 1) * 1000);
+
+    assertThat(event.getBlocksPerSecond()).isEqualTo(10.0);
+    assertThat(event.getBytesPerSecond()).isEqualTo(10_000.0);
+    assertThat(event.getMatchesPerBlock()).isEqualTo(2.0);
+    assertThat(event.getFalsePositiveRate()).isEqualTo(0.5);
+    assertThat(event.getSecondsToTip().get()).isEqualTo(300L);
+
+  }
+
+  @Test
+  public void testWindowExpires() throws Exception {
+
+    SyncMetrics testObject = new SyncMetrics();
+    testObject.recordBlock(null, 1_000, 0, 0, NOW);
+
+    assertThat(testObject.snapshot(10, NOW).getBlocksPerSecond()).isGreaterThan(0);
+
+    // A window later the block no longer counts
+    SyncMetricsEvent event = testObject.snapshot(10, NOW + SyncMetrics.WINDOW_SECONDS * 1000);
+    assertThat(event.getBlocksPerSecond()).isEqualTo(0.0);
+    assertThat(event.getSecondsToTip().isPresent()).isFalse();
+
+  }
+}
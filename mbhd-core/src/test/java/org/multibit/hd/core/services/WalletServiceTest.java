@@ -18,6 +18,7 @@ import org.multibit.hd.brit.core.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.core.seed_phrase.SeedPhraseGenerator;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.*;
+import org.multibit.hd.core.events.TransactionSeenEvent;
 import org.multibit.hd.core.managers.BackupManager;
 import org.multibit.hd.core.managers.HttpsManager;
 import org.multibit.hd.core.managers.InstallationManager;
@@ -236,6 +237,55 @@ public class WalletServiceTest {
     assertThat(expectedPaymentACKFile.exists()).isTrue();
   }
 
+  @Test
+  public void testPaidBIP70PaymentRequestFilesAreReadOnFirstUse() throws Exception {
+    // Create a BIP70 PaymentRequestData paid by a transaction in the wallet
+    PaymentRequestData paymentRequestData = WalletServiceTest.createPlumpPaymentDataRequest();
+
+    Wallet wallet = walletSummary.getWallet();
+    Address address = Addresses.parse(walletService.generateNextReceivingAddress(Optional.<CharSequence>of(PASSWORD))).get();
+    Transaction tx = createFakeTx(networkParameters, Coin.MILLICOIN, address);
+    wallet.receivePending(tx, null);
+    paymentRequestData.setTransactionHash(Optional.of(tx.getHash()));
+
+    walletService.addPaymentRequestData(paymentRequestData);
+    walletService.writePayments(PASSWORD);
+
+    // Read the payment requests from disk
+    walletService.readPayments(PASSWORD);
+
+    // The paid payment request is not shown in the payments table so its files are not read yet
+    PaymentRequestData rebornPaymentRequestData = walletService.getPaymentRequestDataList().iterator().next();
+    assertThat(rebornPaymentRequestData.isDeferred()).isTrue();
+
+    // First use reads the files
+    checkPaymentRequestData(paymentRequestData, rebornPaymentRequestData);
+    assertThat(rebornPaymentRequestData.isDeferred()).isFalse();
+  }
+
+  @Test
+  public void testChangedBIP70PaymentIsRewritten() throws Exception {
+    PaymentRequestData paymentRequestData = WalletServiceTest.createPlumpPaymentDataRequest();
+    walletService.addPaymentRequestData(paymentRequestData);
+
+    // Write the files then save again with nothing changed
+    walletService.writePayments(PASSWORD);
+    assertThat(paymentRequestData.isDirty()).isFalse();
+    walletService.writePayments(PASSWORD);
+
+    // Change the payment memo after the files have been written
+    paymentRequestData.setPayment(Optional.of(paymentRequestData.getPayment().get().toBuilder().setMemo("A changed payment memo").build()));
+    assertThat(paymentRequestData.isDirty()).isTrue();
+    walletService.writePayments(PASSWORD);
+
+    // Read the payment requests from disk
+    walletService.readPayments(PASSWORD);
+
+    PaymentRequestData rebornPaymentRequestData = walletService.getPaymentRequestDataList().iterator().next();
+    assertThat(rebornPaymentRequestData.getPayment().get().getMemo()).isEqualTo("A changed payment memo");
+    assertThat(rebornPaymentRequestData.isDirty()).isFalse();
+  }
+
   private void checkPaymentRequestData(PaymentRequestData first, PaymentRequestData other) {
     assertThat(other.getUuid()).isEqualTo(first.getUuid());
     assertThat(other.getTransactionHash()).isEqualTo(first.getTransactionHash());
@@ -370,6 +420,39 @@ public class WalletServiceTest {
     assertThat(walletService.getGap()).isEqualTo(Optional.of(2));
   }
 
+  @Test
+  public void testPaymentDataSetIsIndexedIncrementally() throws Exception {
+    // Nothing has changed so the same snapshot is returned
+    Set<PaymentData> paymentDataSet = walletService.getPaymentDataSet();
+    assertThat(walletService.getPaymentDataSet()).isSameAs(paymentDataSet);
+
+    // Adding a payment request changes the snapshot
+    MBHDPaymentRequestData mbhdPaymentRequestData = createMBHDPaymentRequestData();
+    walletService.addMBHDPaymentRequestData(mbhdPaymentRequestData);
+    paymentDataSet = walletService.getPaymentDataSet();
+    assertThat(paymentDataSet).contains(mbhdPaymentRequestData);
+
+    // Receive a transaction paying the payment request and report it to the wallet service
+    Wallet wallet = walletSummary.getWallet();
+    Transaction tx = createFakeTx(networkParameters, valueOf(245, 0), mbhdPaymentRequestData.getAddress());
+    wallet.receivePending(tx, null);
+    walletService.onTransactionSeenEvent(new TransactionSeenEvent(tx, tx.getValue(wallet)));
+
+    // Only the reported transaction is adapted and the payment request is now fully funded
+    Set<PaymentData> updatedPaymentDataSet = walletService.getPaymentDataSet();
+    assertThat(updatedPaymentDataSet).isNotSameAs(paymentDataSet);
+    assertThat(updatedPaymentDataSet).excludes(mbhdPaymentRequestData);
+
+    boolean foundTransaction = false;
+    for (PaymentData paymentData : updatedPaymentDataSet) {
+      if (paymentData instanceof TransactionData && ((TransactionData) paymentData).getTransactionId().equals(tx.getHashAsString())) {
+        foundTransaction = true;
+      }
+    }
+    assertThat(foundTransaction).isTrue();
+    assertThat(mbhdPaymentRequestData.getPayingTransactionHashes()).contains(tx.getHashAsString());
+  }
+
   private MBHDPaymentRequestData createMBHDPaymentRequestData() {
     String address = walletService.generateNextReceivingAddress(Optional.<CharSequence>of(PASSWORD));
     MBHDPaymentRequestData mbhdPaymentRequestData = new MBHDPaymentRequestData();
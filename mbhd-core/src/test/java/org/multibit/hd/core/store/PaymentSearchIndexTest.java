@@ -0,0 +1,97 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Coin;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.MBHDPaymentRequestData;
+import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.utils.Addresses;
+
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PaymentSearchIndexTest {
+
+  private PaymentSearchIndex testObject;
+
+  private MBHDPaymentRequestData coffee;
+
+  private MBHDPaymentRequestData rent;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new PaymentSearchIndex();
+
+    coffee = newMBHDPaymentRequestData("1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty", "Coffee", "Flat white for Alice");
+    rent = newMBHDPaymentRequestData("12QxtuyEM8KBG3ngNRe2CZE28hFw3b1KMJ", "Rent", "October");
+
+    testObject.setPaymentRequests(Lists.<PaymentData>newArrayList(coffee, rent));
+
+  }
+
+  @Test
+  public void testSubstringIsCaseInsensitive() throws Exception {
+
+    assertThat(testObject.search("WHITE")).containsOnly(coffee);
+    assertThat(testObject.search("ctob")).containsOnly(rent);
+    assertThat(testObject.search("e")).containsOnly(coffee, rent);
+    assertThat(testObject.search("")).containsOnly(coffee, rent);
+    assertThat(testObject.search("bitcoin")).isEmpty();
+
+  }
+
+  @Test
+  public void testMatchDoesNotSpanFields() throws Exception {
+
+    // The description ends with "October" and the note starts with "October" but there is no "octoberoctober"
+    assertThat(testObject.search("october")).containsOnly(rent);
+    assertThat(testObject.search("beroct")).isEmpty();
+
+  }
+
+  @Test
+  public void testAddressPrefix() throws Exception {
+
+    assertThat(testObject.search("1AhN")).containsOnly(coffee);
+    assertThat(testObject.search("1ahn6rpdrmukbgfdkr1k9a8sclyangxhty")).containsOnly(coffee);
+
+  }
+
+  @Test
+  public void testReplaceAndRemove() throws Exception {
+
+    // Dropping a payment request removes it from the index
+    testObject.setPaymentRequests(Collections.<PaymentData>singletonList(rent));
+    assertThat(testObject.size()).isEqualTo(1);
+    assertThat(testObject.search("coffee")).isEmpty();
+
+    // Changing the content updates the postings
+    rent.setNote("November");
+    testObject.put(rent);
+    assertThat(testObject.search("octo")).isEmpty();
+    assertThat(testObject.search("novem")).containsOnly(rent);
+
+    testObject.remove(rent);
+    assertThat(testObject.size()).isEqualTo(0);
+    assertThat(testObject.search("")).isEmpty();
+
+  }
+
+  private MBHDPaymentRequestData newMBHDPaymentRequestData(String address, String label, String note) {
+
+    MBHDPaymentRequestData mbhdPaymentRequestData = new MBHDPaymentRequestData();
+    mbhdPaymentRequestData.setAddress(Addresses.parse(address).get());
+    mbhdPaymentRequestData.setAmountCoin(Optional.of(Coin.valueOf(245)));
+    mbhdPaymentRequestData.setDate(new DateTime());
+    mbhdPaymentRequestData.setLabel(label);
+    mbhdPaymentRequestData.setNote(note);
+
+    return mbhdPaymentRequestData;
+  }
+
+}
@@ -0,0 +1,194 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.commons.files.SecureFiles;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.crypto.DerivedKeyCache;
+import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.protobuf.MBHDPaymentsProtos;
+import org.multibit.hd.core.services.WalletService;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PaymentsJournalTest {
+
+  private static final CharSequence PASSWORD = "aTestPassword";
+
+  private File paymentsFile;
+
+  @Before
+  public void setUp() throws Exception {
+
+    InstallationManager.unrestricted = true;
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+
+    File temporaryDirectory = SecureFiles.createTemporaryDirectory();
+    paymentsFile = new File(temporaryDirectory.getAbsolutePath() + File.separator + WalletService.PAYMENTS_DATABASE_NAME);
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    InstallationManager.unrestricted = false;
+    DerivedKeyCache.clear();
+
+  }
+
+  @Test
+  public void testChangesAreJournaledAndReplayed() throws Exception {
+
+    PaymentsJournal journal = new PaymentsJournal(paymentsFile);
+
+    // The first save writes the snapshot
+    assertThat(journal.save(newPayments("note1", "note2"), PASSWORD, false)).isTrue();
+    assertThat(paymentsFile.exists()).isTrue();
+    assertThat(journal.getJournalFile().exists()).isFalse();
+
+    // A change is appended to the journal and the snapshot is untouched
+    long snapshotLength = paymentsFile.length();
+    assertThat(journal.save(newPayments("note1", "changed"), PASSWORD, false)).isFalse();
+    assertThat(journal.getJournalFile().exists()).isTrue();
+    assertThat(paymentsFile.length()).isEqualTo(snapshotLength);
+
+    // Removing a record writes a tombstone
+    assertThat(journal.save(newPayments("note1"), PASSWORD, false)).isFalse();
+
+    MBHDPaymentsProtos.Payments loaded = new PaymentsJournal(paymentsFile).load(PASSWORD);
+    assertThat(loaded.getTransactionInfoCount()).isEqualTo(1);
+    assertThat(loaded.getTransactionInfo(0).getNote()).isEqualTo("note1");
+
+  }
+
+  @Test
+  public void testTornTailIsDiscarded() throws Exception {
+
+    PaymentsJournal journal = new PaymentsJournal(paymentsFile);
+    journal.save(newPayments("note1"), PASSWORD, false);
+    journal.save(newPayments("changed"), PASSWORD, false);
+
+    long journalLength = journal.getJournalFile().length();
+
+    // Simulate a crash part way through appending a frame
+    try (FileOutputStream journalOutputStream = new FileOutputStream(journal.getJournalFile(), true)) {
+      journalOutputStream.write(new byte[]{0, 0, 0, 64, 1, 2, 3});
+    }
+
+    MBHDPaymentsProtos.Payments loaded = new PaymentsJournal(paymentsFile).load(PASSWORD);
+    assertThat(loaded.getTransactionInfo(0).getNote()).isEqualTo("changed");
+    assertThat(journal.getJournalFile().length()).isEqualTo(journalLength);
+
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+
+    PaymentsJournal journal = new PaymentsJournal(paymentsFile);
+    journal.save(newPayments("note1"), PASSWORD, false);
+    journal.save(newPayments("note1", "note2"), PASSWORD, false);
+
+    // Compacting folds the journal into the snapshot
+    assertThat(journal.save(newPayments("note1", "note2"), PASSWORD, true)).isTrue();
+    assertThat(journal.getJournalFile().exists()).isFalse();
+
+    MBHDPaymentsProtos.Payments loaded = new PaymentsJournal(paymentsFile).load(PASSWORD);
+    assertThat(loaded.getTransactionInfoCount()).isEqualTo(2);
+
+    // Nothing has changed since so nothing is journaled
+    journal.save(newPayments("note1", "note2"), PASSWORD, false);
+    assertThat(journal.getJournalFile().exists()).isFalse();
+
+  }
+
+  @Test
+  public void testUnauthenticatedFrameEndsJournal() throws Exception {
+
+    PaymentsJournal journal = new PaymentsJournal(paymentsFile);
+    journal.save(newPayments("note1"), PASSWORD, false);
+    journal.save(newPayments("changed"), PASSWORD, false);
+
+    long journalLength = journal.getJournalFile().length();
+
+    // An intact frame (correct length and CRC) that was not written with this key
+    byte[] body = new byte[256];
+    new Random(1).nextBytes(body);
+    CRC32 crc32 = new CRC32();
+    crc32.update(body);
+    try (DataOutputStream journalOutputStream = new DataOutputStream(new FileOutputStream(journal.getJournalFile(), true))) {
+      journalOutputStream.writeInt(body.length);
+      journalOutputStream.writeInt((int) crc32.getValue());
+      journalOutputStream.write(body);
+    }
+
+    MBHDPaymentsProtos.Payments loaded = new PaymentsJournal(paymentsFile).load(PASSWORD);
+    assertThat(loaded.getTransactionInfo(0).getNote()).isEqualTo("changed");
+    assertThat(journal.getJournalFile().length()).isEqualTo(journalLength);
+
+  }
+
+  @Test
+  public void testCompactBeforePasswordChange() throws Exception {
+
+    PaymentsJournal journal = new PaymentsJournal(paymentsFile);
+    journal.save(newPayments("note1"), PASSWORD, false);
+    journal.save(newPayments("changed"), PASSWORD, false);
+    assertThat(journal.getJournalFile().exists()).isTrue();
+
+    PaymentsJournal.compact(paymentsFile, PASSWORD);
+
+    // Only the snapshot remains and it holds the journaled change
+    assertThat(journal.getJournalFile().exists()).isFalse();
+    MBHDPaymentsProtos.Payments loaded = new PaymentsJournal(paymentsFile).load(PASSWORD);
+    assertThat(loaded.getTransactionInfo(0).getNote()).isEqualTo("changed");
+
+  }
+
+  @Test
+  public void testJournalForAnotherSnapshotIsKeptAside() throws Exception {
+
+    PaymentsJournal journal = new PaymentsJournal(paymentsFile);
+    journal.save(newPayments("note1"), PASSWORD, false);
+    byte[] backedUpSnapshot = Files.toByteArray(paymentsFile);
+
+    // A compaction followed by a change that a crash leaves in the journal
+    journal.save(newPayments("note1", "note2"), PASSWORD, true);
+    journal.save(newPayments("changed"), PASSWORD, false);
+    assertThat(journal.getJournalFile().exists()).isTrue();
+
+    // The earlier snapshot is restored from a backup taken before the compaction
+    Files.write(backedUpSnapshot, paymentsFile);
+
+    MBHDPaymentsProtos.Payments loaded = new PaymentsJournal(paymentsFile).load(PASSWORD);
+    assertThat(loaded.getTransactionInfoCount()).isEqualTo(1);
+    assertThat(loaded.getTransactionInfo(0).getNote()).isEqualTo("note1");
+    assertThat(journal.getJournalFile().exists()).isFalse();
+    assertThat(new File(journal.getJournalFile().getAbsolutePath() + PaymentsJournal.STALE_SUFFIX).exists()).isTrue();
+
+  }
+
+  /**
+   * @param notes The notes, one transaction info is created for each
+   *
+   * @return The payments proto
+   */
+  private MBHDPaymentsProtos.Payments newPayments(String... notes) {
+
+    MBHDPaymentsProtos.Payments.Builder builder = MBHDPaymentsProtos.Payments.newBuilder();
+    for (int i = 0; i < notes.length; i++) {
+      builder.addTransactionInfo(MBHDPaymentsProtos.TransactionInfo.newBuilder()
+        .setHash("hash" + i)
+        .setNote(notes[i]));
+    }
+    return builder.build();
+
+  }
+}
@@ -0,0 +1,167 @@
+package org.multibit.hd.core.testing.network;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.testing.FakeTxBuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>Test harness to provide the following to SimulatedPeer:</p>
+ * <ul>
+ * <li>A synthetic block chain with a configurable length and number of transactions per block</li>
+ * <li>A configurable fraction of transactions paying to wallet addresses</li>
+ * <li>Lookup of blocks by hash and height</li>
+ * </ul>
+ * <p>Blocks are solved against the network parameters so the chain only makes sense on regtest (where almost any
+ * hash meets the proof of work). The chain is generated from a seed so two runs with the same settings are comparable.</p>
+ *
+ * @since 0.3.0
+ */
+public class SimulatedChain {
+
+  /**
+   * The time between blocks
+   */
+  private static final long BLOCK_INTERVAL_SECONDS = 600;
+
+  private final List<Block> blocks;
+
+  private final Map<Sha256Hash, Integer> heightsByHash;
+
+  private final int transactionCount;
+
+  private final int relevantTransactionCount;
+
+  private SimulatedChain(List<Block> blocks, int transactionCount, int relevantTransactionCount) {
+
+    this.blocks = ImmutableList.copyOf(blocks);
+    this.transactionCount = transactionCount;
+    this.relevantTransactionCount = relevantTransactionCount;
+
+    heightsByHash = Maps.newHashMapWithExpectedSize(blocks.size());
+    for (int height = 0; height < blocks.size(); height++) {
+      heightsByHash.put(blocks.get(height).getHash(), height);
+    }
+
+  }
+
+  /**
+   * @param params                 The network parameters (regtest)
+   * @param length                 The number of blocks after the genesis block
+   * @param transactionsPerBlock   The number of transactions in each block besides the coinbase
+   * @param hitRate                The fraction of transactions that pay to a wallet address
+   * @param walletAddresses        The wallet addresses to pay to
+   * @param seed                   The seed for choosing transactions that pay to the wallet
+   *
+   * @return The generated chain with the last block timestamped close to the current time
+   */
+  public static SimulatedChain generate(
+    NetworkParameters params,
+    int length,
+    int transactionsPerBlock,
+    double hitRate,
+    List<Address> walletAddresses,
+    long seed
+  ) {
+
+    Preconditions.checkArgument(length > 0, "'length' must be positive");
+    // Staying inside the first difficulty interval avoids recalculating the target
+    Preconditions.checkArgument(length < params.getInterval(), "'length' must be less than the difficulty interval");
+    Preconditions.checkArgument(transactionsPerBlock >= 0, "'transactionsPerBlock' must not be negative");
+    Preconditions.checkArgument(hitRate >= 0 && hitRate <= 1, "'hitRate' must be between 0 and 1");
+    Preconditions.checkArgument(hitRate == 0 || !walletAddresses.isEmpty(), "'walletAddresses' must be present for a non-zero hit rate");
+
+    Random random = new Random(seed);
+
+    // The coinbase and the other side of the traffic go to addresses outside the wallet
+    Address coinbaseAddress = new ECKey().toAddress(params);
+    Address otherAddress = new ECKey().toAddress(params);
+
+    List<Block> blocks = Lists.newArrayListWithCapacity(length + 1);
+    blocks.add(params.getGenesisBlock());
+
+    int transactionCount = 0;
+    int relevantTransactionCount = 0;
+
+    // Finish just short of now so the wallet sees the chain tip as current
+    long startTime = System.currentTimeMillis() / 1000 - length * BLOCK_INTERVAL_SECONDS;
+
+    Block previous = params.getGenesisBlock();
+    for (int height = 1; height <= length; height++) {
+
+      Block block = previous.createNextBlock(coinbaseAddress, startTime + height * BLOCK_INTERVAL_SECONDS);
+
+      for (int i = 0; i < transactionsPerBlock; i++) {
+
+        Address to = otherAddress;
+        if (random.nextDouble() < hitRate) {
+          to = walletAddresses.get(random.nextInt(walletAddresses.size()));
+          relevantTransactionCount++;
+        }
+
+        // A distinct value keeps every transaction hash distinct
+        transactionCount++;
+        Transaction tx = FakeTxBuilder.createFakeTx(params, Coin.valueOf(10_000 + transactionCount), to);
+        block.addTransaction(tx);
+      }
+
+      block.solve();
+      blocks.add(block);
+      previous = block;
+    }
+
+    return new SimulatedChain(blocks, transactionCount, relevantTransactionCount);
+  }
+
+  /**
+   * @return The height of the chain tip
+   */
+  public int getBestHeight() {
+    return blocks.size() - 1;
+  }
+
+  /**
+   * @param height The block height (0 is the genesis block)
+   *
+   * @return The block
+   */
+  public Block getBlock(int height) {
+    return blocks.get(height);
+  }
+
+  /**
+   * @param hash The block hash
+   *
+   * @return The block height, or -1 if the block is not in the chain
+   */
+  public int getHeight(Sha256Hash hash) {
+    Integer height = heightsByHash.get(hash);
+    return height == null ? -1 : height;
+  }
+
+  /**
+   * @return The number of transactions in the chain excluding coinbases
+   */
+  public int getTransactionCount() {
+    return transactionCount;
+  }
+
+  /**
+   * @return The number of transactions paying to a wallet address
+   */
+  public int getRelevantTransactionCount() {
+    return relevantTransactionCount;
+  }
+}
@@ -0,0 +1,53 @@
+package org.multibit.hd.core.testing.network;
+
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.RegTestParams;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SimulatedChainTest {
+
+  private final NetworkParameters params = RegTestParams.get();
+
+  @Test
+  public void testGenerate() throws Exception {
+
+    List<Address> walletAddresses = Lists.newArrayList(new ECKey().toAddress(params), new ECKey().toAddress(params));
+
+    SimulatedChain testObject = SimulatedChain.generate(params, 20, 5, 0.5, walletAddresses, 1);
+
+    assertThat(testObject.getBestHeight()).isEqualTo(20);
+    assertThat(testObject.getTransactionCount()).isEqualTo(100);
+    assertThat(testObject.getRelevantTransactionCount()).isGreaterThan(0).isLessThan(100);
+
+    // Each block links to the one before with the coinbase and the generated transactions
+    for (int height = 1; height <= testObject.getBestHeight(); height++) {
+      Block block = testObject.getBlock(height);
+      assertThat(block.getPrevBlockHash()).isEqualTo(testObject.getBlock(height - 1).getHash());
+      assertThat(block.getTransactions()).hasSize(6);
+      assertThat(testObject.getHeight(block.getHash())).isEqualTo(height);
+    }
+
+    assertThat(testObject.getHeight(params.getGenesisBlock().getHash())).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testSameSeedSameHits() throws Exception {
+
+    List<Address> walletAddresses = Lists.newArrayList(new ECKey().toAddress(params));
+
+    SimulatedChain first = SimulatedChain.generate(params, 10, 10, 0.2, walletAddresses, 7);
+    SimulatedChain second = SimulatedChain.generate(params, 10, 10, 0.2, walletAddresses, 7);
+
+    assertThat(first.getRelevantTransactionCount()).isEqualTo(second.getRelevantTransactionCount());
+
+  }
+}
@@ -0,0 +1,363 @@
+package org.multibit.hd.core.testing.network;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.CountingOutputStream;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BloomFilter;
+import org.bitcoinj.core.FilteredBlock;
+import org.bitcoinj.core.GetBlocksMessage;
+import org.bitcoinj.core.GetDataMessage;
+import org.bitcoinj.core.GetHeadersMessage;
+import org.bitcoinj.core.HeadersMessage;
+import org.bitcoinj.core.InventoryItem;
+import org.bitcoinj.core.InventoryMessage;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.MessageSerializer;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.NotFoundMessage;
+import org.bitcoinj.core.Ping;
+import org.bitcoinj.core.Pong;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.VersionAck;
+import org.bitcoinj.core.VersionMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Test harness to provide the following to sync benchmarks:</p>
+ * <ul>
+ * <li>A peer listening on the loopback interface that speaks the Bitcoin P2P protocol</li>
+ * <li>Headers, inventories, full blocks and bloom filtered blocks served from a SimulatedChain</li>
+ * <li>Counts of the blocks and bytes served</li>
+ * </ul>
+ * <p>Only the messages used by an SPV client during a sync are answered, anything else is ignored. Listening on the
+ * default port for the network parameters means the PeerGroup in BitcoinNetworkService finds it as a local node and
+ * connects to nothing else.</p>
+ *
+ * @since 0.3.0
+ */
+public class SimulatedPeer {
+
+  private static final Logger log = LoggerFactory.getLogger(SimulatedPeer.class);
+
+  /**
+   * Magic (4), command (12), length (4) and checksum (4)
+   */
+  private static final int HEADER_LENGTH = 24;
+
+  private static final int MAX_HEADERS = 2000;
+
+  private static final int MAX_BLOCK_INVENTORY = 500;
+
+  private final NetworkParameters params;
+
+  private final SimulatedChain chain;
+
+  private final MessageSerializer serializer;
+
+  private final AtomicLong blocksServed = new AtomicLong();
+
+  private final AtomicLong bytesServed = new AtomicLong();
+
+  private ServerSocket serverSocket;
+
+  /**
+   * @param params The network parameters (regtest)
+   * @param chain  The chain to serve
+   */
+  public SimulatedPeer(NetworkParameters params, SimulatedChain chain) {
+    this.params = params;
+    this.chain = chain;
+    this.serializer = params.getDefaultSerializer();
+  }
+
+  /**
+   * <p>Start accepting connections on the default port for the network</p>
+   *
+   * @throws IOException If the port is in use (perhaps by a real node)
+   */
+  public void start() throws IOException {
+    start(params.getPort());
+  }
+
+  /**
+   * <p>Start accepting connections on the loopback interface</p>
+   *
+   * @param port The port to listen on
+   *
+   * @throws IOException If the port is in use
+   */
+  public synchronized void start(int port) throws IOException {
+
+    serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+
+    Thread acceptThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        acceptConnections();
+      }
+    }, "simulated-peer-accept");
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+
+    log.info("Simulated peer serving {} blocks on {}", chain.getBestHeight(), serverSocket.getLocalSocketAddress());
+
+  }
+
+  /**
+   * <p>Stop accepting connections (open connections close when the client disconnects)</p>
+   */
+  public synchronized void stop() {
+
+    if (serverSocket != null) {
+      try {
+        serverSocket.close();
+      } catch (IOException e) {
+        log.warn("Failed to close simulated peer", e);
+      }
+      serverSocket = null;
+    }
+
+  }
+
+  /**
+   * @return The number of full and filtered blocks served
+   */
+  public long getBlocksServed() {
+    return blocksServed.get();
+  }
+
+  /**
+   * @return The number of message bytes written to clients
+   */
+  public long getBytesServed() {
+    return bytesServed.get();
+  }
+
+  private void acceptConnections() {
+
+    while (true) {
+      final Socket socket;
+      try {
+        ServerSocket currentServerSocket = serverSocket;
+        if (currentServerSocket == null) {
+          return;
+        }
+        socket = currentServerSocket.accept();
+      } catch (IOException e) {
+        // Expected on stop
+        return;
+      }
+
+      Thread connectionThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          new Connection(socket).run();
+        }
+      }, "simulated-peer-" + socket.getPort());
+      connectionThread.setDaemon(true);
+      connectionThread.start();
+    }
+
+  }
+
+  /**
+   * A single client connection with its own bloom filter
+   */
+  private class Connection {
+
+    private final Socket socket;
+
+    private BloomFilter bloomFilter;
+
+    private OutputStream out;
+
+    Connection(Socket socket) {
+      this.socket = socket;
+    }
+
+    void run() {
+
+      try {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+
+        while (true) {
+          handle(read(in));
+        }
+
+      } catch (EOFException | SocketException e) {
+        // The client disconnected (PeerGroup also probes for a local node by connecting and closing straight away)
+        log.debug("Simulated peer connection closed: {}", e.getMessage());
+      } catch (IOException e) {
+        log.warn("Simulated peer connection failed", e);
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // Nothing more to do
+        }
+      }
+
+    }
+
+    private Message read(DataInputStream in) throws IOException {
+
+      byte[] header = new byte[HEADER_LENGTH];
+      in.readFully(header);
+
+      // The payload length is little endian
+      int payloadLength = (header[16] & 0xff)
+        | (header[17] & 0xff) << 8
+        | (header[18] & 0xff) << 16
+        | (header[19] & 0xff) << 24;
+
+      byte[] message = new byte[HEADER_LENGTH + payloadLength];
+      System.arraycopy(header, 0, message, 0, HEADER_LENGTH);
+      in.readFully(message, HEADER_LENGTH, payloadLength);
+
+      return serializer.deserialize(ByteBuffer.wrap(message));
+    }
+
+    private void handle(Message message) throws IOException {
+
+      if (message instanceof VersionMessage) {
+        send(new VersionMessage(params, chain.getBestHeight()));
+        send(new VersionAck());
+      } else if (message instanceof Ping) {
+        Ping ping = (Ping) message;
+        if (ping.hasNonce()) {
+          send(new Pong(ping.getNonce()));
+        }
+      } else if (message instanceof BloomFilter) {
+        bloomFilter = (BloomFilter) message;
+      } else if (message instanceof GetHeadersMessage) {
+        // Check before GetBlocksMessage since it is a subclass
+        sendHeaders((GetHeadersMessage) message);
+      } else if (message instanceof GetBlocksMessage) {
+        sendBlockInventory((GetBlocksMessage) message);
+      } else if (message instanceof GetDataMessage) {
+        sendData((GetDataMessage) message);
+      }
+
+      // Everything else (mempool, getaddr, addr, transactions) has nothing to answer with
+      out.flush();
+
+    }
+
+    private void sendHeaders(GetHeadersMessage getHeaders) throws IOException {
+
+      List<Block> headers = Lists.newArrayList();
+      for (int height = findStartHeight(getHeaders); height <= chain.getBestHeight() && headers.size() < MAX_HEADERS; height++) {
+        Block block = chain.getBlock(height);
+        headers.add(block.cloneAsHeader());
+        if (block.getHash().equals(getHeaders.getStopHash())) {
+          break;
+        }
+      }
+
+      send(new HeadersMessage(params, headers));
+
+    }
+
+    private void sendBlockInventory(GetBlocksMessage getBlocks) throws IOException {
+
+      InventoryMessage inventory = new InventoryMessage(params);
+      int count = 0;
+      for (int height = findStartHeight(getBlocks); height <= chain.getBestHeight() && count < MAX_BLOCK_INVENTORY; height++) {
+        Block block = chain.getBlock(height);
+        inventory.addBlock(block);
+        count++;
+        if (block.getHash().equals(getBlocks.getStopHash())) {
+          break;
+        }
+      }
+
+      if (count > 0) {
+        send(inventory);
+      }
+
+    }
+
+    private void sendData(GetDataMessage getData) throws IOException {
+
+      List<InventoryItem> notFound = Lists.newArrayList();
+
+      for (InventoryItem item : getData.getItems()) {
+
+        int height = chain.getHeight(item.hash);
+        if (height < 0 || (item.type != InventoryItem.Type.Block && item.type != InventoryItem.Type.FilteredBlock)) {
+          notFound.add(item);
+          continue;
+        }
+
+        Block block = chain.getBlock(height);
+        if (item.type == InventoryItem.Type.FilteredBlock && bloomFilter != null) {
+          sendFilteredBlock(block);
+        } else {
+          send(block);
+        }
+        blocksServed.incrementAndGet();
+      }
+
+      if (!notFound.isEmpty()) {
+        send(new NotFoundMessage(params, notFound));
+      }
+
+    }
+
+    private void sendFilteredBlock(Block block) throws IOException {
+
+      // Matching updates the filter with the outputs of matched transactions as a real node does
+      FilteredBlock filteredBlock = bloomFilter.applyAndUpdate(block);
+      send(filteredBlock);
+
+      // The matched transactions follow the merkle block
+      List<Sha256Hash> matchedHashes = filteredBlock.getTransactionHashes();
+      for (Transaction tx : block.getTransactions()) {
+        if (matchedHashes.contains(tx.getHash())) {
+          send(tx);
+        }
+      }
+
+    }
+
+    /**
+     * @return The height after the first locator hash found in the chain (the genesis block is always known)
+     */
+    private int findStartHeight(GetBlocksMessage getBlocks) {
+
+      for (Sha256Hash locatorHash : getBlocks.getLocator()) {
+        int height = chain.getHeight(locatorHash);
+        if (height >= 0) {
+          return height + 1;
+        }
+      }
+
+      return 1;
+    }
+
+    private void send(Message message) throws IOException {
+
+      CountingOutputStream countingOut = new CountingOutputStream(out);
+      serializer.serialize(message, countingOut);
+      bytesServed.addAndGet(countingOut.getCount());
+
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package org.multibit.hd.core.testing.network;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.RegTestParams;
+import org.joda.time.DateTime;
+import org.multibit.commons.files.SecureFiles;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.WalletSummary;
+import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.services.BitcoinNetworkService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmark to provide the following to developers:</p>
+ * <ul>
+ * <li>End to end sync time of WalletManager and BitcoinNetworkService against a SimulatedPeer</li>
+ * <li>Process CPU time and peak heap used during the sync</li>
+ * <li>A check that every wallet transaction in the chain was found</li>
+ * </ul>
+ * <p>Nothing leaves the machine so runs are reproducible and can be compared before and after a change. Usage:</p>
+ * <pre>
+ * SyncBenchmark [blocks] [transactions per block] [hit rate]
+ * </pre>
+ * <p>The defaults are 2000 blocks of 20 transactions with 1% paying to the wallet. The simulated peer listens on the
+ * regtest port so nothing else (such as a regtest node) can be using it.</p>
+ *
+ * @since 0.3.0
+ */
+public class SyncBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(SyncBenchmark.class);
+
+  /**
+   * The number of wallet addresses that the chain pays to
+   */
+  private static final int WALLET_ADDRESS_COUNT = 20;
+
+  private static final long CHAIN_SEED = 42;
+
+  private static final long POLL_MILLIS = 50;
+
+  private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+  private final int length;
+
+  private final int transactionsPerBlock;
+
+  private final double hitRate;
+
+  /**
+   * @param length               The number of blocks to sync
+   * @param transactionsPerBlock The number of transactions in each block
+   * @param hitRate              The fraction of transactions that pay to the wallet
+   */
+  public SyncBenchmark(int length, int transactionsPerBlock, double hitRate) {
+    this.length = length;
+    this.transactionsPerBlock = transactionsPerBlock;
+    this.hitRate = hitRate;
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    int length = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int transactionsPerBlock = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    double hitRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+
+    boolean synced = new SyncBenchmark(length, transactionsPerBlock, hitRate).run();
+
+    // The network service threads are not daemons
+    System.exit(synced ? 0 : 1);
+  }
+
+  /**
+   * @return True if the wallet reached the chain tip and found every transaction paying to it
+   */
+  public boolean run() throws Exception {
+
+    NetworkParameters params = RegTestParams.get();
+    Context.propagate(new Context(params));
+
+    // Keep the benchmark away from the real application data directory
+    InstallationManager.unrestricted = true;
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+    File applicationDataDirectory = SecureFiles.createTemporaryDirectory();
+
+    Wallet wallet = new Wallet(params);
+    List<Address> walletAddresses = Lists.newArrayList();
+    for (int i = 0; i < WALLET_ADDRESS_COUNT; i++) {
+      walletAddresses.add(wallet.freshReceiveAddress());
+    }
+
+    WalletId walletId = new WalletId(wallet.getKeyChainSeed().getSeedBytes());
+    WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
+    WalletManager.INSTANCE.setCurrentWalletSummary(new WalletSummary(walletId, wallet));
+
+    log.info("Generating {} blocks of {} transactions", length, transactionsPerBlock);
+    long generateStart = System.nanoTime();
+    SimulatedChain chain = SimulatedChain.generate(params, length, transactionsPerBlock, hitRate, walletAddresses, CHAIN_SEED);
+    log.info("Generated chain in {} ms with {} wallet transactions", millisSince(generateStart), chain.getRelevantTransactionCount());
+
+    SimulatedPeer peer = new SimulatedPeer(params, chain);
+    peer.start();
+
+    // Measure from a clean heap so earlier chain generation does not count
+    System.gc();
+    for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+      memoryPool.resetPeakUsage();
+    }
+    long cpuStart = getProcessCpuNanos();
+    long syncStart = System.nanoTime();
+
+    BitcoinNetworkService bitcoinNetworkService = new BitcoinNetworkService(params);
+    bitcoinNetworkService.replayWallet(applicationDataDirectory, Optional.<DateTime>absent(), false, false);
+
+    boolean synced = false;
+    while (millisSince(syncStart) < TIMEOUT_MILLIS) {
+      if (wallet.getLastBlockSeenHeight() >= chain.getBestHeight()) {
+        synced = true;
+        break;
+      }
+      Thread.sleep(POLL_MILLIS);
+    }
+
+    long syncMillis = millisSince(syncStart);
+    long cpuMillis = cpuStart < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(getProcessCpuNanos() - cpuStart);
+    long peakHeapBytes = getPeakHeapBytes();
+
+    peer.stop();
+
+    int foundTransactions = wallet.getTransactions(false).size();
+
+    log.info(
+      "Sync benchmark: synced={} blocks={} tx_per_block={} hit_rate={} wallet_tx={}/{} sync_ms={} blocks_per_sec={} cpu_ms={} peak_heap_mb={} served_blocks={} served_kb={}",
+      synced,
+      length,
+      transactionsPerBlock,
+      hitRate,
+      foundTransactions,
+      chain.getRelevantTransactionCount(),
+      syncMillis,
+      syncMillis == 0 ? 0 : length * 1000L / syncMillis,
+      cpuMillis < 0 ? "unavailable" : cpuMillis,
+      peakHeapBytes / (1024 * 1024),
+      peer.getBlocksServed(),
+      peer.getBytesServed() / 1024
+    );
+
+    return synced && foundTransactions == chain.getRelevantTransactionCount();
+  }
+
+  /**
+   * @return The CPU time used by all threads in the process, or -1 if the JVM does not report it
+   */
+  private static long getProcessCpuNanos() {
+
+    OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+    if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) operatingSystem).getProcessCpuTime();
+    }
+
+    return -1;
+  }
+
+  /**
+   * @return The sum of the peak usage of each heap memory pool since the peaks were reset
+   */
+  private static long getPeakHeapBytes() {
+
+    long peakHeapBytes = 0;
+    for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (memoryPool.getType() == MemoryType.HEAP) {
+        peakHeapBytes += memoryPool.getPeakUsage().getUsed();
+      }
+    }
+
+    return peakHeapBytes;
+  }
+
+  private static long millisSince(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
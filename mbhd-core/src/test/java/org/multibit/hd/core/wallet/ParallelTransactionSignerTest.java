@@ -0,0 +1,93 @@
+package org.multibit.hd.core.wallet;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.script.Script;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.bitcoinj.testing.FakeTxBuilder.createFakeTx;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ParallelTransactionSignerTest {
+
+  private final NetworkParameters mainNet = MainNetParams.get();
+
+  private Wallet wallet;
+
+  @Before
+  public void setUp() throws Exception {
+    wallet = new Wallet(mainNet);
+  }
+
+  @Test
+  public void testSignParallel() throws Exception {
+
+    Transaction transaction = newSpend(ParallelTransactionSigner.PARALLEL_THRESHOLD * 4);
+
+    assertThat(new ParallelTransactionSigner(4).sign(transaction, wallet)).isTrue();
+
+    assertCorrectlySpends(transaction);
+
+  }
+
+  @Test
+  public void testSignParallelUnevenSplit() throws Exception {
+
+    // The inputs do not divide evenly between the threads
+    Transaction transaction = newSpend(ParallelTransactionSigner.PARALLEL_THRESHOLD * 2 + 3);
+
+    assertThat(new ParallelTransactionSigner(5).sign(transaction, wallet)).isTrue();
+
+    assertCorrectlySpends(transaction);
+
+  }
+
+  @Test
+  public void testSignSerial() throws Exception {
+
+    Transaction transaction = newSpend(ParallelTransactionSigner.PARALLEL_THRESHOLD - 1);
+
+    assertThat(new ParallelTransactionSigner().sign(transaction, wallet)).isTrue();
+
+    assertCorrectlySpends(transaction);
+
+  }
+
+  @Test
+  public void testUnconnectedInputIsLeftToWallet() throws Exception {
+
+    Transaction transaction = newSpend(2);
+    Transaction unknownFunding = createFakeTx(mainNet, Coin.COIN, wallet.freshReceiveAddress());
+    transaction.addInput(unknownFunding.getHash(), 0, new Script(new byte[0]));
+
+    assertThat(new ParallelTransactionSigner().sign(transaction, wallet)).isFalse();
+
+  }
+
+  private Transaction newSpend(int inputCount) {
+
+    Transaction transaction = new Transaction(mainNet);
+    for (int i = 0; i < inputCount; i++) {
+      transaction.addInput(createFakeTx(mainNet, Coin.valueOf(100_000 + i), wallet.freshReceiveAddress()).getOutput(0));
+    }
+    transaction.addOutput(Coin.valueOf(50_000), new ECKey().toAddress(mainNet));
+
+    return transaction;
+  }
+
+  private void assertCorrectlySpends(Transaction transaction) {
+
+    for (int i = 0; i < transaction.getInputs().size(); i++) {
+      TransactionInput input = transaction.getInput(i);
+      // Throws if the signature does not verify
+      input.getScriptSig().correctlySpends(transaction, i, input.getConnectedOutput().getScriptPubKey());
+    }
+
+  }
+}
@@ -0,0 +1,117 @@
+package org.multibit.hd.core.wallet;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.script.Script;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.bitcoinj.testing.FakeTxBuilder.createFakeTx;
+
+/**
+ * <p>Benchmark to provide the following to developers:</p>
+ * <ul>
+ * <li>Comparison of Bitcoinj wallet signing with the ParallelTransactionSigner for multi-input sends</li>
+ * <li>Comparison of fee sizing by serialization with dummy signatures and the TransactionSizeEstimator</li>
+ * </ul>
+ * <p>Run with <code>main</code> from the test classpath. The sends are like those from emptying a wallet of many small
+ * payments: every input is a pay to address output of the wallet.</p>
+ *
+ * @since 0.3.0
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TransactionSigningBenchmark {
+
+  /**
+   * The size of a dummy signature as used by the previous fee sizing
+   */
+  private static final int DUMMY_SIGNATURE_SIZE = 72;
+
+  @Param({"10", "100", "1000"})
+  public int inputCount;
+
+  private final NetworkParameters mainNet = MainNetParams.get();
+
+  private Wallet wallet;
+
+  private Transaction transaction;
+
+  private ParallelTransactionSigner parallelTransactionSigner;
+
+  @Setup
+  public void setUp() {
+
+    wallet = new Wallet(mainNet);
+
+    transaction = new Transaction(mainNet);
+    for (int i = 0; i < inputCount; i++) {
+      transaction.addInput(createFakeTx(mainNet, Coin.valueOf(10_000 + i), wallet.freshReceiveAddress()).getOutput(0));
+    }
+    transaction.addOutput(Coin.valueOf(5_000L * inputCount), new ECKey().toAddress(mainNet));
+
+    parallelTransactionSigner = new ParallelTransactionSigner();
+
+  }
+
+  @Benchmark
+  public Transaction walletSigning() {
+
+    clearSignatures();
+    // Signs each input in turn on the calling thread
+    wallet.signTransaction(Wallet.SendRequest.forTx(transaction));
+
+    return transaction;
+  }
+
+  @Benchmark
+  public Transaction parallelSigning() throws Exception {
+
+    clearSignatures();
+    parallelTransactionSigner.sign(transaction, wallet);
+
+    return transaction;
+  }
+
+  @Benchmark
+  public int serializedSize() {
+    return transaction.bitcoinSerialize().length + DUMMY_SIGNATURE_SIZE * transaction.getInputs().size();
+  }
+
+  @Benchmark
+  public int estimatedSize() {
+    return TransactionSizeEstimator.estimateSignedSize(transaction);
+  }
+
+  /**
+   * The wallet skips inputs that are already signed
+   */
+  private void clearSignatures() {
+    for (TransactionInput input : transaction.getInputs()) {
+      input.setScriptSig(new Script(new byte[0]));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    Options options = new OptionsBuilder()
+      .include(TransactionSigningBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(options).run();
+
+  }
+}
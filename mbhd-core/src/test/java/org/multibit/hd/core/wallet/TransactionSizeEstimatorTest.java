@@ -0,0 +1,56 @@
+package org.multibit.hd.core.wallet;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+
+import static org.bitcoinj.testing.FakeTxBuilder.createFakeTx;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class TransactionSizeEstimatorTest {
+
+  private final NetworkParameters mainNet = MainNetParams.get();
+
+  @Test
+  public void testEstimateSignedSize() throws Exception {
+
+    Wallet wallet = new Wallet(mainNet);
+
+    Transaction transaction = new Transaction(mainNet);
+    for (int i = 0; i < 300; i++) {
+      transaction.addInput(createFakeTx(mainNet, Coin.valueOf(100_000 + i), wallet.freshReceiveAddress()).getOutput(0));
+    }
+    transaction.addOutput(Coin.valueOf(50_000), new ECKey().toAddress(mainNet));
+    transaction.addOutput(Coin.valueOf(25_000), wallet.freshReceiveAddress());
+
+    int estimatedSize = TransactionSizeEstimator.estimateSignedSize(transaction);
+
+    assertThat(new ParallelTransactionSigner().sign(transaction, wallet)).isTrue();
+    int signedSize = transaction.bitcoinSerialize().length;
+
+    // Never below the signed size and at most a couple of bytes per signature above it
+    assertThat(estimatedSize).isGreaterThanOrEqualTo(signedSize);
+    assertThat(estimatedSize - signedSize).isLessThanOrEqualTo(2 * transaction.getInputs().size());
+
+    // The estimate does not change once signed
+    assertThat(TransactionSizeEstimator.estimateSignedSize(transaction)).isEqualTo(estimatedSize);
+
+  }
+
+  @Test
+  public void testEstimateFee() throws Exception {
+
+    Transaction transaction = new Transaction(mainNet);
+    transaction.addInput(createFakeTx(mainNet, Coin.COIN, new ECKey().toAddress(mainNet)).getOutput(0));
+    transaction.addOutput(Coin.CENT, new ECKey().toAddress(mainNet));
+
+    // One input and one output is well under a kilobyte
+    assertThat(TransactionSizeEstimator.estimateSignedSize(transaction)).isEqualTo(4 + 1 + 148 + 1 + 34 + 4);
+    assertThat(TransactionSizeEstimator.estimateFee(transaction, Coin.valueOf(10_000))).isEqualTo(Coin.valueOf(10_000));
+
+  }
+}
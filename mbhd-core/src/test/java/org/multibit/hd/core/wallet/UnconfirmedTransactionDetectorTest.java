@@ -134,6 +134,7 @@ public class UnconfirmedTransactionDetectorTest {
     replayDate = UnconfirmedTransactionDetector.calculateReplayDate(wallet, now.plus(Hours.FOUR).plus(Minutes.ONE));
     assertThat(replayDate.isPresent()).isTrue();
     assertThat(replayDate.get().toDate()).isEqualTo(unconfirmedTransaction.getUpdateTime());
+    assertThat(UnconfirmedTransactionDetector.findStuckTransactions(wallet, now.plus(Hours.FOUR).plus(Minutes.ONE))).containsOnly(unconfirmedTransaction);
 
     // The unconfirmed transaction WILL be of interest in 4 days minus a minute
     replayDate = UnconfirmedTransactionDetector.calculateReplayDate(wallet, now.plus(Days.FOUR).minus(Minutes.ONE));
@@ -143,6 +144,7 @@ public class UnconfirmedTransactionDetectorTest {
     // The unconfirmed transaction WILL NOT be of interest in 4 days plus a minute
     replayDate = UnconfirmedTransactionDetector.calculateReplayDate(wallet, now.plus(Days.FOUR).plus(Minutes.ONE));
     assertThat(!replayDate.isPresent()).isTrue();
+    assertThat(UnconfirmedTransactionDetector.findStuckTransactions(wallet, now.plus(Days.FOUR).plus(Minutes.ONE))).isEmpty();
   }
 
 
@@ -2,9 +2,10 @@ package org.multibit.hd.ui;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Uninterruptibles;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import org.multibit.commons.concurrent.SafeExecutors;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.events.CoreEvents;
@@ -16,17 +17,21 @@ import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.services.CoreServices;
 import org.multibit.hd.core.utils.OSUtils;
 import org.multibit.hd.hardware.core.HardwareWalletService;
+import org.multibit.hd.hardware.core.events.HardwareWalletEvent;
 import org.multibit.hd.hardware.core.events.HardwareWalletEvents;
 import org.multibit.hd.ui.audio.Sounds;
 import org.multibit.hd.ui.controllers.HeaderController;
 import org.multibit.hd.ui.controllers.MainController;
 import org.multibit.hd.ui.events.controller.ControllerEvents;
 import org.multibit.hd.ui.events.view.ViewEvents;
+import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.platform.GenericApplicationFactory;
 import org.multibit.hd.ui.platform.GenericApplicationSpecification;
 import org.multibit.hd.ui.services.ExternalDataListeningService;
 import org.multibit.hd.ui.views.MainView;
 import org.multibit.hd.ui.views.SplashScreen;
+import org.multibit.hd.ui.views.fonts.AwesomeDecorator;
+import org.multibit.hd.ui.views.fonts.TitleFontDecorator;
 import org.multibit.hd.ui.views.themes.ThemeKey;
 import org.multibit.hd.ui.views.themes.Themes;
 import org.slf4j.Logger;
@@ -39,6 +44,9 @@ import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.io.File;
 import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -54,6 +62,12 @@ public class MultiBitHD {
   private final Logger log = LoggerFactory.getLogger(MultiBitHD.class);
   private MainController mainController;
   private SplashScreen splashScreen;
+  private StartupPipeline startupPipeline;
+  private final CountDownLatch hardwareWalletsSettled = new CountDownLatch(1);
+  // Guards the hardware wallet event subscription (the hardware wallets stage may run after the wait is over)
+  private final Object hardwareWalletsLock = new Object();
+  private boolean hardwareWalletsSubscribed = false;
+  private boolean hardwareWalletsAwaited = false;
 
   ////////////////////////////////////////////////////////////////////////////////////////////////
 
@@ -107,6 +121,8 @@ public class MultiBitHD {
 
   /**
    * <p>Start this instance of MultiBit HD</p>
+   * <p>Independent stages (configuration, CA certs, fonts, language bundle) run at the same time and the timings of
+   * each stage are logged once they are all done</p>
    *
    * @param args The command line arguments
    *
@@ -119,8 +135,57 @@ public class MultiBitHD {
     // Start the logging factory (see later for instance) to get console logging up fast
     LoggingFactory.bootstrap();
 
+    final String configurationStage = "configuration";
+    final String caCertsStage = "ca-certs";
+    final String fontsStage = "fonts";
+    final String languageStage = "language";
+    final String listeningServiceStage = "listening-service";
+    final String coreStage = "core";
+    final String controllersStage = "controllers";
+    final String hardwareWalletsStage = "hardware-wallets";
+
+    // Stages run as soon as the stages they depend on are done
+    startupPipeline = new StartupPipeline(4);
+
     // Get the configuration fast (Bitcoin URI processing relies on it)
-    CoreServices.bootstrap();
+    startupPipeline.addStage(
+      configurationStage, new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          CoreServices.bootstrap();
+          return null;
+        }
+      });
+
+    // Prepare the CA certs (the application data directory is created with the configuration)
+    startupPipeline.addStage(
+      caCertsStage, new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          initialiseCaCerts();
+          return null;
+        }
+      }, configurationStage);
+
+    // Load the fonts ahead of the first views
+    startupPipeline.addStage(
+      fontsStage, new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          initialiseFonts();
+          return null;
+        }
+      });
+
+    // Load the language bundle for the configured locale
+    startupPipeline.addStage(
+      languageStage, new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          ResourceBundle.getBundle(Languages.BASE_NAME, Languages.currentLocale());
+          return null;
+        }
+      }, configurationStage);
 
     // Analyse the command line
     if (args != null && args.length > 0) {
@@ -133,32 +198,62 @@ public class MultiBitHD {
       log.info("No command line arguments");
       args = new String[]{};
     }
+    final String[] commandLineArgs = args;
 
     // Check for another instance as soon as possible
-    Optional<ExternalDataListeningService> externalDataListeningService = initialiseListeningService(args);
-    if (!externalDataListeningService.isPresent()) {
+    ListenableFuture<Optional<ExternalDataListeningService>> externalDataListeningService = startupPipeline.addStage(
+      listeningServiceStage, new Callable<Optional<ExternalDataListeningService>>() {
+        @Override
+        public Optional<ExternalDataListeningService> call() throws Exception {
+          return initialiseListeningService(commandLineArgs);
+        }
+      }, configurationStage);
+    if (!externalDataListeningService.get().isPresent()) {
+      startupPipeline.finish();
       return false;
     }
 
+    // Start core services (logging, environment alerts, configuration, Bitcoin URI handling etc)
+    startupPipeline.addStage(
+      coreStage, new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          initialiseCore(commandLineArgs);
+          return null;
+        }
+      }, configurationStage);
+
+    // Create controllers so that the generic app can access listeners
+    ListenableFuture<Boolean> controllers = startupPipeline.addStage(
+      controllersStage, new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          return initialiseUIControllers();
+        }
+      }, coreStage);
+
+    // Start the hardware wallet support to allow credentials screen to be selected
+    startupPipeline.addStage(
+      hardwareWalletsStage, new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          initialiseHardwareWallets();
+          return null;
+        }
+      }, controllersStage);
+
+    startupPipeline.finish();
+
     log.info("This is the primary instance so showing splash screen.");
     // Provide an AWT splash screen to ensure faster initial rendering
     splashScreen = new SplashScreen();
-    // Provide a short thread sleep to allow the AWT time to take over
-    // and fill the Frame with the splash screen image
-    try {
-      Thread.sleep(100);
-    } catch (InterruptedException e) {
-      // Do nothing
+    // Allow the AWT time to take over and fill the Frame with the splash screen image
+    // (the core and controllers are started meanwhile)
+    if (!splashScreen.awaitFirstPaint(500, TimeUnit.MILLISECONDS)) {
+      log.debug("Splash screen not painted yet");
     }
 
-    // Prepare the CA certs (run on a separate thread)
-    initialiseCaCerts();
-
-    // Start core services (logging, environment alerts, configuration, Bitcoin URI handling etc)
-    initialiseCore(args);
-
-    // Create controllers so that the generic app can access listeners
-    if (!initialiseUIControllers()) {
+    if (!controllers.get()) {
 
       // Required to shut down
       return false;
@@ -199,34 +294,35 @@ public class MultiBitHD {
   }
 
   /**
-   * <p>Initialise the CA certs</p>
+   * <p>Initialise the CA certs (runs as a startup stage to avoid slowing the startup time)</p>
    */
-  @SuppressFBWarnings({"DM_EXIT"})
-  private void initialiseCaCerts() throws Exception {
+  private void initialiseCaCerts() {
 
     log.debug("Initialising CA certs...");
 
     try {
-
-      // Execute the CA certificates download on a separate thread to avoid slowing
-      // the startup time
-      SafeExecutors.newSingleThreadExecutor("install-cacerts").submit(
-        new Runnable() {
-          @Override
-          public void run() {
-            HttpsManager.INSTANCE.installCACertificates(
-              InstallationManager.getOrCreateApplicationDataDirectory(),
-              InstallationManager.CA_CERTS_NAME,
-              null, // Use default host list
-              false // Do not force loading if they are already present
-            );
-          }
-        });
+      HttpsManager.INSTANCE.installCACertificates(
+        InstallationManager.getOrCreateApplicationDataDirectory(),
+        InstallationManager.CA_CERTS_NAME,
+        null, // Use default host list
+        false // Do not force loading if they are already present
+      );
     } catch (SecurityException se) {
       log.error("Security exception: {} {}", se.getClass().getName(), se.getMessage());
     }
   }
 
+  /**
+   * <p>Initialise the bundled fonts (loading the classes registers them)</p>
+   */
+  private void initialiseFonts() {
+
+    log.debug("Loading fonts...");
+
+    Preconditions.checkNotNull(AwesomeDecorator.AWESOME_FONT, "'AWESOME_FONT' must be present");
+    Preconditions.checkNotNull(TitleFontDecorator.CORBEN_REGULAR, "'CORBEN_REGULAR' must be present");
+  }
+
   /**
    * <p>Initialise the UI controllers once all the core services are in place</p>
    * <p>This creates the singleton controllers that respond to generic events</p>
@@ -252,9 +348,6 @@ public class MultiBitHD {
       new HeaderController()
     );
 
-    // Start the hardware wallet support to allow credentials screen to be selected
-    mainController.handleHardwareWallets();
-
     // Set the tooltip delay to be slightly longer
     ToolTipManager.sharedInstance().setInitialDelay(1000);
 
@@ -262,6 +355,47 @@ public class MultiBitHD {
     return true;
   }
 
+  /**
+   * <p>Start the hardware wallet services once the controllers are in place</p>
+   */
+  private void initialiseHardwareWallets() {
+
+    if (mainController == null) {
+      // Shutting down
+      return;
+    }
+
+    // Listen for the first device event before any can be fired (only awaited if Trezor is required)
+    synchronized (hardwareWalletsLock) {
+      if (Configurations.currentConfiguration.isTrezor() && !hardwareWalletsAwaited) {
+        HardwareWalletEvents.subscribe(this);
+        hardwareWalletsSubscribed = true;
+      }
+    }
+
+    mainController.handleHardwareWallets();
+  }
+
+  /**
+   * <p>Note that the hardware wallets have settled once a device reports its state</p>
+   *
+   * @param event The hardware wallet event
+   */
+  @Subscribe
+  public void onHardwareWalletEvent(HardwareWalletEvent event) {
+
+    switch (event.getEventType()) {
+      case SHOW_DEVICE_READY:
+      case SHOW_DEVICE_FAILED:
+      case SHOW_DEVICE_DETACHED:
+      case SHOW_DEVICE_STOPPED:
+        hardwareWalletsSettled.countDown();
+        break;
+      default:
+        // Not a change of device state
+    }
+  }
+
   /**
    * <p>Initialise the UI once all the core services are in place</p>
    * <p>This creates the singleton views and controllers that respond to configuration
@@ -361,8 +495,8 @@ public class MultiBitHD {
     boolean noWallets = walletDirectories.isEmpty();
     boolean noSoftWallets = softWalletSummaries.isEmpty();
 
-    // HardwareWalletService needs HARDWARE_INITIALISATION_TIME milliseconds to initialise so sleep the rest
-    conditionallySleep(hardwareInitialisationTime);
+    // HardwareWalletService needs up to HARDWARE_INITIALISATION_TIME milliseconds to initialise so wait for it to settle
+    awaitHardwareWallets(hardwareInitialisationTime);
 
     boolean deviceAttached = false;
     boolean deviceWiped = false;
@@ -453,28 +587,36 @@ public class MultiBitHD {
   }
 
   /**
-   * Allow a delay of HARDWARE_INITIALISATION_TIME from the startTime
+   * Wait for a hardware wallet to report its state, allowing up to HARDWARE_INITIALISATION_TIME from the startTime
    *
-   * @param startTime The reference time from which to measure the amount of sleep from
+   * @param startTime The reference time from which to measure the amount of waiting
    */
-  private void conditionallySleep(long startTime) {
+  private void awaitHardwareWallets(long startTime) {
 
-    // Check if Trezor is required
-    if (!Configurations.currentConfiguration.isTrezor()) {
-      return;
-    }
+    try {
+      // Check if Trezor is required
+      if (!Configurations.currentConfiguration.isTrezor()) {
+        return;
+      }
 
-    final long HARDWARE_INITIALISATION_TIME = 2000;  // milliseconds
-    long currentTime = System.currentTimeMillis();
-    long timeSpent = currentTime - startTime;
+      final long HARDWARE_INITIALISATION_TIME = 2000;  // milliseconds
+      long currentTime = System.currentTimeMillis();
+      long timeSpent = currentTime - startTime;
 
-    if (timeSpent < HARDWARE_INITIALISATION_TIME) {
-      long sleepFor = HARDWARE_INITIALISATION_TIME - timeSpent;
-      log.debug("Sleep for an extra {} milliseconds to allow hardware wallets to initialise", sleepFor);
-      Uninterruptibles.sleepUninterruptibly(sleepFor, TimeUnit.MILLISECONDS);
-      log.debug("Finished sleep");
-    } else {
-      log.debug("No need for extra sleep time to allow hardware wallets to initialise");
+      if (Uninterruptibles.awaitUninterruptibly(hardwareWalletsSettled, Math.max(0, HARDWARE_INITIALISATION_TIME - timeSpent), TimeUnit.MILLISECONDS)) {
+        log.debug("Hardware wallets settled after {} milliseconds", System.currentTimeMillis() - startTime);
+      } else {
+        log.debug("No hardware wallet reported its state within {} milliseconds", HARDWARE_INITIALISATION_TIME);
+      }
+    } finally {
+      // The main controller handles later events
+      synchronized (hardwareWalletsLock) {
+        hardwareWalletsAwaited = true;
+        if (hardwareWalletsSubscribed) {
+          HardwareWalletEvents.unsubscribe(this);
+          hardwareWalletsSubscribed = false;
+        }
+      }
     }
 
   }
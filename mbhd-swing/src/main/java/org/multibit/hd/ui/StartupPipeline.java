@@ -0,0 +1,195 @@
+package org.multibit.hd.ui;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.multibit.commons.concurrent.SafeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Pipeline to provide the following to the startup sequence:</p>
+ * <ul>
+ * <li>Running of independent startup stages at the same time</li>
+ * <li>Running of each stage as soon as the stages it depends on are done</li>
+ * <li>A report of when each stage started and how long it took</li>
+ * <li>Logging of the cause of any failed stage (the result of a stage is often not read)</li>
+ * </ul>
+ * <p>A stage must be added after the stages it depends on. Stages are run in the order they are added so a thread
+ * waiting for a dependency never holds up that dependency.</p>
+ *
+ * @since 0.3.0
+ */
+public class StartupPipeline {
+
+  private static final Logger log = LoggerFactory.getLogger(StartupPipeline.class);
+
+  private final ListeningExecutorService executorService;
+
+  private final long createdNanos = System.nanoTime();
+
+  /**
+   * The stages in the order they were added
+   */
+  private final Map<String, Stage> stages = Maps.newLinkedHashMap();
+
+  /**
+   * @param threadCount The number of stages that can run at the same time
+   */
+  public StartupPipeline(int threadCount) {
+    executorService = SafeExecutors.newFixedThreadPool(threadCount, "startup");
+  }
+
+  /**
+   * @param name         The stage name (used in the timing report)
+   * @param task         The work of the stage
+   * @param dependencies The names of the stages that must finish successfully first (already added)
+   *
+   * @return The result of the stage (failed if the stage or one of its dependencies failed)
+   */
+  public synchronized <T> ListenableFuture<T> addStage(String name, final Callable<T> task, String... dependencies) {
+
+    Preconditions.checkNotNull(name, "'name' must be present");
+    Preconditions.checkNotNull(task, "'task' must be present");
+    Preconditions.checkState(!stages.containsKey(name), "Stage '%s' has already been added", name);
+
+    final List<Stage> required = Lists.newArrayList();
+    for (String dependency : dependencies) {
+      Preconditions.checkArgument(stages.containsKey(dependency), "Stage '%s' must be added after '%s'", name, dependency);
+      required.add(stages.get(dependency));
+    }
+
+    final Stage stage = new Stage(name);
+    ListenableFuture<T> future = executorService.submit(
+      new Callable<T>() {
+        @Override
+        public T call() throws Exception {
+
+          for (Stage dependency : required) {
+            try {
+              dependency.future.get();
+            } catch (ExecutionException e) {
+              throw new IllegalStateException("Stage '" + stage.name + "' cannot run as '" + dependency.name + "' failed", e.getCause());
+            }
+          }
+
+          stage.startedNanos = System.nanoTime();
+          try {
+            return task.call();
+          } catch (Exception e) {
+            stage.failed = true;
+            throw e;
+          } finally {
+            stage.finishedNanos = System.nanoTime();
+          }
+        }
+      });
+    Futures.addCallback(
+      future, new FutureCallback<T>() {
+        @Override
+        public void onSuccess(T result) {
+          // Nothing to do
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          if (stage.startedNanos == 0) {
+            // The cause has been logged by the failed dependency
+            log.warn("Startup stage '{}' did not run: {}", stage.name, t.getMessage());
+          } else {
+            log.error("Startup stage '{}' failed", stage.name, t);
+          }
+        }
+      });
+    stage.future = future;
+    stages.put(name, stage);
+
+    return future;
+  }
+
+  /**
+   * <p>Indicate that no more stages will be added. The timing report is logged and the threads released once every
+   * stage is done.</p>
+   */
+  public synchronized void finish() {
+
+    List<ListenableFuture<?>> futures = Lists.newArrayList();
+    for (Stage stage : stages.values()) {
+      futures.add(stage.future);
+    }
+
+    Futures.addCallback(
+      Futures.successfulAsList(futures), new FutureCallback<List<Object>>() {
+        @Override
+        public void onSuccess(List<Object> result) {
+          log.info(getTimingReport());
+          executorService.shutdown();
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          // Only if cancelled
+          executorService.shutdown();
+        }
+      });
+  }
+
+  /**
+   * @return The start time and duration of each stage so far, in milliseconds since the pipeline was created
+   */
+  public synchronized String getTimingReport() {
+
+    StringBuilder report = new StringBuilder("Startup timing (ms):");
+    for (Stage stage : stages.values()) {
+      report.append("\n  ").append(stage.name).append(": ");
+      if (stage.startedNanos == 0) {
+        report.append("did not run");
+      } else if (stage.finishedNanos == 0) {
+        report.append("started at ").append(millisSinceCreated(stage.startedNanos)).append(", still running");
+      } else {
+        report
+          .append("started at ").append(millisSinceCreated(stage.startedNanos))
+          .append(", waited ").append(TimeUnit.NANOSECONDS.toMillis(stage.startedNanos - stage.addedNanos))
+          .append(stage.failed ? ", failed after " : ", ran ").append(TimeUnit.NANOSECONDS.toMillis(stage.finishedNanos - stage.startedNanos));
+      }
+    }
+
+    return report.toString();
+  }
+
+  private long millisSinceCreated(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos - createdNanos);
+  }
+
+  /**
+   * A stage and its timings
+   */
+  private static class Stage {
+
+    private final String name;
+
+    private final long addedNanos = System.nanoTime();
+
+    private volatile long startedNanos;
+
+    private volatile long finishedNanos;
+
+    private volatile boolean failed;
+
+    private ListenableFuture<?> future;
+
+    private Stage(String name) {
+      this.name = name;
+    }
+  }
+}
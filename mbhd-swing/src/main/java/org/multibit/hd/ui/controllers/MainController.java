@@ -889,16 +889,18 @@ public class MainController extends AbstractController implements
   }
 
   /**
-   * @param transactionSeenEvent The event (very high frequency during synchronisation)
+   * @param transactionSeenBatchEvent The event (one per batch of transaction seen events)
    */
   @Subscribe
-  public void onTransactionSeenEvent(TransactionSeenEvent transactionSeenEvent) {
-    if (transactionSeenEvent.isFirstAppearanceInWallet() && isFireTransactionAlerts()) {
-      log.debug("Firing an alert for a new transaction");
-      transactionSeenEvent.setFirstAppearanceInWallet(false);
-      Sounds.playPaymentReceived(Configurations.currentConfiguration.getSound());
-      AlertModel alertModel = Models.newPaymentReceivedAlertModel(transactionSeenEvent);
-      ControllerEvents.fireAddAlertEvent(alertModel);
+  public void onTransactionSeenBatchEvent(TransactionSeenBatchEvent transactionSeenBatchEvent) {
+    for (TransactionSeenEvent transactionSeenEvent : transactionSeenBatchEvent.getTransactionSeenEvents()) {
+      if (transactionSeenEvent.isFirstAppearanceInWallet() && isFireTransactionAlerts()) {
+        log.debug("Firing an alert for a new transaction");
+        transactionSeenEvent.setFirstAppearanceInWallet(false);
+        Sounds.playPaymentReceived(Configurations.currentConfiguration.getSound());
+        AlertModel alertModel = Models.newPaymentReceivedAlertModel(transactionSeenEvent);
+        ControllerEvents.fireAddAlertEvent(alertModel);
+      }
     }
   }
 
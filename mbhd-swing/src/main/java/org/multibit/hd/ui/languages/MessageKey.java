@@ -201,6 +201,12 @@ public enum MessageKey {
   EXPLAIN_TRANSACTION_FEE1("explain_transaction_fee1"),
   EXPLAIN_TRANSACTION_FEE2("explain_transaction_fee2"),
   TRANSACTION_FEE_CHOSEN("transaction_fee_chosen"),
+  COIN_SELECTION("coin_selection"),
+  COIN_SELECTION_TOOLTIP("coin_selection_tooltip"),
+  COIN_SELECTION_STANDARD("coin_selection_standard"),
+  COIN_SELECTION_LARGEST_FIRST("coin_selection_largest_first"),
+  COIN_SELECTION_BRANCH_AND_BOUND("coin_selection_branch_and_bound"),
+  COIN_SELECTION_CONSOLIDATE("coin_selection_consolidate"),
   LOWER("lower"),
   HIGHER("higher"),
 
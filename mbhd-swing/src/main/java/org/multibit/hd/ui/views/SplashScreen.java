@@ -8,6 +8,8 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>Java AWT Frame to provide the following to startup sequence:</p>
@@ -22,6 +24,8 @@ public class SplashScreen extends Frame {
 
   private final transient Image image;
 
+  private final transient CountDownLatch painted = new CountDownLatch(1);
+
   public SplashScreen() throws HeadlessException {
 
     setLayout(new FlowLayout());
@@ -56,5 +60,21 @@ public class SplashScreen extends Frame {
   public void paint(Graphics g) {
     super.paint(g);
     g.drawImage(image, 0, 0, this);
+    painted.countDown();
+  }
+
+  /**
+   * @param timeout The longest time to wait
+   * @param unit    The unit of the timeout
+   *
+   * @return True if the splash screen image has been painted
+   */
+  public boolean awaitFirstPaint(long timeout, TimeUnit unit) {
+    try {
+      return painted.await(timeout, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
   }
 }
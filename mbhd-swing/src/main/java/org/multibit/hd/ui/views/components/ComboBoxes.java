@@ -5,6 +5,7 @@ import com.google.common.collect.Lists;
 import org.bitcoinj.core.NetworkParameters;
 import org.multibit.hd.core.blockexplorer.BlockExplorer;
 import org.multibit.hd.core.blockexplorer.BlockExplorers;
+import org.multibit.hd.core.coin_selection.CoinSelectionStrategy;
 import org.multibit.hd.core.config.BitcoinConfiguration;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.BackupSummary;
@@ -118,6 +119,10 @@ public class ComboBoxes {
    * The "Show restore Beta 7 wallets"action command
    */
   public static final String SHOW_RESTORE_BETA7_WALLETS_COMMAND = "show-restore-beta7-wallets";
+  /**
+   * The "coin selection" combo box action command
+   */
+  public static final String COIN_SELECTION_COMMAND = "coinSelection";
   /**
    * Utilities have no public constructor
    */
@@ -265,6 +270,40 @@ public class ComboBoxes {
     return comboBox;
 
   }
+  /**
+   * @param listener The action listener to alert when the selection is made
+   * @param strategy The coin selection strategy to pre-select
+   *
+   * @return A new "coin selection" combo box (in the order of the strategies)
+   */
+  public static JComboBox<String> newCoinSelectionComboBox(ActionListener listener, CoinSelectionStrategy strategy) {
+
+    JComboBox<String> comboBox = newReadOnlyComboBox(new String[]{
+      Languages.safeText(MessageKey.COIN_SELECTION_STANDARD),
+      Languages.safeText(MessageKey.COIN_SELECTION_LARGEST_FIRST),
+      Languages.safeText(MessageKey.COIN_SELECTION_BRANCH_AND_BOUND),
+      Languages.safeText(MessageKey.COIN_SELECTION_CONSOLIDATE)
+    });
+
+    // Ensure it is accessible
+    AccessibilityDecorator.apply(comboBox, MessageKey.COIN_SELECTION, MessageKey.COIN_SELECTION_TOOLTIP);
+
+    comboBox.setEditable(false);
+
+    comboBox.setSelectedIndex(strategy.ordinal());
+
+    // Apply theme
+    comboBox.setBackground(Themes.currentTheme.readOnlyComboBox());
+
+    // Set the listener at the end to avoid spurious events
+    comboBox.addActionListener(listener);
+
+    comboBox.setActionCommand(COIN_SELECTION_COMMAND);
+
+    return comboBox;
+
+  }
+
   /**
    * @param listener   The action listener to alert when the selection is made
    * @param alertSound True if the "yes" option should be pre-selected
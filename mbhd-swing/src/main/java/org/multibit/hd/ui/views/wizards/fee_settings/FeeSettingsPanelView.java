@@ -4,6 +4,7 @@ import com.google.common.base.Optional;
 import net.miginfocom.swing.MigLayout;
 import org.bitcoinj.core.Coin;
 import org.multibit.hd.brit.core.services.FeeService;
+import org.multibit.hd.core.coin_selection.CoinSelectionStrategy;
 import org.multibit.hd.core.config.Configuration;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.config.WalletConfiguration;
@@ -22,21 +23,26 @@ import org.multibit.hd.ui.views.wizards.WizardButton;
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 /**
  * <p>View to provide the following to UI:</p>
  * <ul>
  * <li>Fee settings: select feePerKB</li>
+ * <li>Fee settings: select coin selection strategy</li>
  * </ul>
  *
  * @since 0.0.1
  */
 
-public class FeeSettingsPanelView extends AbstractWizardPanelView<FeeSettingsWizardModel, FeeSettingsPanelModel> implements ChangeListener {
+public class FeeSettingsPanelView extends AbstractWizardPanelView<FeeSettingsWizardModel, FeeSettingsPanelModel> implements ChangeListener, ActionListener {
 
   // Panel specific components
   private JSlider feePerKBSlider;
 
+  private JComboBox<String> coinSelectionComboBox;
+
   private ModelAndView<DisplayAmountModel, DisplayAmountView> transactionFeeDisplayAmountMaV;
 
   private Configuration configuration;
@@ -70,7 +76,7 @@ public class FeeSettingsPanelView extends AbstractWizardPanelView<FeeSettingsWiz
       new MigLayout(
         Panels.migXYLayout(),
         "[]20[]", // Column constraints
-        "[]1[]30[][]" // Row constraints
+        "[]1[]30[][][]" // Row constraints
       ));
 
     WalletConfiguration walletConfiguration = Configurations.currentConfiguration.getWallet().deepCopy();
@@ -81,6 +87,11 @@ public class FeeSettingsPanelView extends AbstractWizardPanelView<FeeSettingsWiz
 
     feePerKBSlider = Sliders.newAdjustTransactionFeeSlider(this, normalisedFeePerKB.longValue());
 
+    coinSelectionComboBox = ComboBoxes.newCoinSelectionComboBox(
+      this,
+      CoinSelectionStrategy.fromName(walletConfiguration.getCoinSelectionStrategy())
+    );
+
     transactionFeeDisplayAmountMaV = Components.newDisplayAmountMaV(
       DisplayAmountStyle.PLAIN,
       false,
@@ -96,6 +107,9 @@ public class FeeSettingsPanelView extends AbstractWizardPanelView<FeeSettingsWiz
 
     contentPanel.add(Labels.newLabel(MessageKey.TRANSACTION_FEE_CHOSEN), "shrink");
     contentPanel.add(transactionFeeAmountViewPanel, "growx,shrinky,push,wrap");
+
+    contentPanel.add(Labels.newLabel(MessageKey.COIN_SELECTION), "shrink");
+    contentPanel.add(coinSelectionComboBox, "growx,shrinky,wrap");
     contentPanel.add(Labels.newBlankLabel(), "span 2, push, wrap"); // spacer
 
     setChosenFee(Coin.valueOf(walletConfiguration.getFeePerKB()));
@@ -123,6 +137,9 @@ public class FeeSettingsPanelView extends AbstractWizardPanelView<FeeSettingsWiz
 
       // Set the new feePerKB
       Configurations.currentConfiguration.getWallet().setFeePerKB(configuration.getWallet().getFeePerKB());
+
+      // Set the new coin selection strategy
+      Configurations.currentConfiguration.getWallet().setCoinSelectionStrategy(configuration.getWallet().getCoinSelectionStrategy());
     }
 
     // Must be OK to proceed
@@ -141,6 +158,17 @@ public class FeeSettingsPanelView extends AbstractWizardPanelView<FeeSettingsWiz
     getPanelModel().get().getConfiguration().getWallet().setFeePerKB(feePerKB.getValue());
   }
 
+  @Override
+  public void actionPerformed(ActionEvent e) {
+
+    if (ComboBoxes.COIN_SELECTION_COMMAND.equals(e.getActionCommand())) {
+      // The combo box lists the strategies in order
+      CoinSelectionStrategy strategy = CoinSelectionStrategy.values()[coinSelectionComboBox.getSelectedIndex()];
+      getPanelModel().get().getConfiguration().getWallet().setCoinSelectionStrategy(strategy.name());
+    }
+
+  }
+
   private void setChosenFee(Coin feePerKB) {
     transactionFeeDisplayAmountMaV.getModel().setCoinAmount(feePerKB);
     transactionFeeDisplayAmountMaV.getView().updateView(configuration);
@@ -0,0 +1,108 @@
+package org.multibit.hd.ui;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class StartupPipelineTest {
+
+  @Test
+  public void testIndependentStagesRunTogether() throws Exception {
+
+    StartupPipeline pipeline = new StartupPipeline(2);
+
+    // Each stage only finishes once the other has started
+    final CountDownLatch bothStarted = new CountDownLatch(2);
+    Callable<Boolean> stage = new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        bothStarted.countDown();
+        return bothStarted.await(5, TimeUnit.SECONDS);
+      }
+    };
+
+    ListenableFuture<Boolean> first = pipeline.addStage("first", stage);
+    ListenableFuture<Boolean> second = pipeline.addStage("second", stage);
+    pipeline.finish();
+
+    assertThat(first.get()).isTrue();
+    assertThat(second.get()).isTrue();
+
+  }
+
+  @Test
+  public void testDependenciesRunFirst() throws Exception {
+
+    StartupPipeline pipeline = new StartupPipeline(3);
+
+    final List<String> order = new CopyOnWriteArrayList<>();
+
+    pipeline.addStage("slow", newRecordingStage(order, "slow", 200));
+    pipeline.addStage("fast", newRecordingStage(order, "fast", 0));
+    ListenableFuture<Void> last = pipeline.addStage("last", newRecordingStage(order, "last", 0), "slow", "fast");
+    pipeline.finish();
+
+    last.get();
+    assertThat(order).containsExactly("fast", "slow", "last");
+    assertThat(pipeline.getTimingReport()).contains("last: started at");
+
+  }
+
+  @Test
+  public void testFailedDependency() throws Exception {
+
+    StartupPipeline pipeline = new StartupPipeline(2);
+
+    pipeline.addStage(
+      "broken", new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          throw new IllegalStateException("Broken");
+        }
+      });
+    ListenableFuture<Void> dependent = pipeline.addStage("dependent", newRecordingStage(new CopyOnWriteArrayList<String>(), "dependent", 0), "broken");
+    pipeline.finish();
+
+    try {
+      dependent.get();
+      fail("Expected the dependent stage to fail");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause().getCause().getMessage()).isEqualTo("Broken");
+    }
+    assertThat(pipeline.getTimingReport()).contains("broken: started at").contains(", failed after ");
+    assertThat(pipeline.getTimingReport()).contains("dependent: did not run");
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownDependency() throws Exception {
+
+    StartupPipeline pipeline = new StartupPipeline(1);
+    try {
+      pipeline.addStage("orphan", newRecordingStage(new CopyOnWriteArrayList<String>(), "orphan", 0), "missing");
+    } finally {
+      pipeline.finish();
+    }
+
+  }
+
+  private Callable<Void> newRecordingStage(final List<String> order, final String name, final long sleepMillis) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        Thread.sleep(sleepMillis);
+        order.add(name);
+        return null;
+      }
+    };
+  }
+}